@@ -39,13 +39,14 @@ public final class LuaRunState implements ILuaResourceFinder {
 
     private boolean destroyed;
     private boolean debugEnabled = true;
+    private boolean compilerEnabled;
     private int instructionCountLimit = 10 * 1000 * 1000;
 
     private ILuaResourceFinder resourceFinder = new ClassLoaderResourceFinder();
     private ITypeCoercions typeCoercions = ITypeCoercions.getDefault();
 
     private transient @Nullable LuaThread currentThread;
-    private transient int instructionCount;
+    private transient int instructionBudget;
 
     @SuppressWarnings("deprecation")
     private LuaRunState() {
@@ -145,14 +146,27 @@ public final class LuaRunState implements ILuaResourceFinder {
     }
 
     /**
-     * Called by the interpreter on every instruction (if {@link LuaRunState#isDebugEnabled()}).
-     *
      * @param pc The current program counter
-     * @throws LuaException If an internal assertion fails.
+     * @throws LuaException If the instruction limit is exceeded.
+     * @deprecated The interpreter no longer calls this method for every instruction. Use
+     *             {@link #consumeInstructions(int)} instead.
      */
+    @Deprecated
     public void onInstruction(int pc) throws LuaException {
-        instructionCount++;
-        if (currentThread != null && instructionCount > instructionCountLimit) {
+        consumeInstructions(1);
+    }
+
+    /**
+     * Called by the interpreter at loop back-edges and function calls. Subtracts the given number of
+     * instructions from the instruction budget of the running thread.
+     *
+     * @param count The (estimated) number of instructions executed since the previous call.
+     * @throws LuaException If the instruction limit is exceeded.
+     * @see #getInstructionCountLimit()
+     */
+    public void consumeInstructions(int count) throws LuaException {
+        instructionBudget -= count;
+        if (instructionBudget < 0 && currentThread != null) {
             throw new LuaException("Lua thread instruction limit exceeded (is there an infinite loop somewhere)?");
         }
     }
@@ -180,6 +194,27 @@ public final class LuaRunState implements ILuaResourceFinder {
         this.debugEnabled = debugEnabled;
     }
 
+    /**
+     * Returns {@code true} if frequently called Lua functions may be compiled to JVM bytecode. Only functions
+     * which never yield are compiled: functions that don't call other functions, use varargs or create
+     * closures. Compiled functions don't appear in stack traces. The compiler is never used while debug mode
+     * is enabled.
+     *
+     * @see #isDebugEnabled()
+     */
+    public boolean isCompilerEnabled() {
+        return compilerEnabled;
+    }
+
+    /**
+     * Enables or disables compilation of Lua functions to JVM bytecode. Disabled by default.
+     *
+     * @see #isCompilerEnabled()
+     */
+    public void setCompilerEnabled(boolean compilerEnabled) {
+        this.compilerEnabled = compilerEnabled;
+    }
+
     /**
      * Returns the main thread for this Lua context.
      */
@@ -215,6 +250,9 @@ public final class LuaRunState implements ILuaResourceFinder {
     /**
      * Returns the single-invocation instruction limit. If a threads runs more than this number of instructions
      * without yielding, an error is thrown.
+     * <p>
+     * The limit is only checked at loop back-edges and function calls, so the number of instructions
+     * actually executed may differ slightly from the limit.
      */
     public int getInstructionCountLimit() {
         return instructionCountLimit;
@@ -225,6 +263,7 @@ public final class LuaRunState implements ILuaResourceFinder {
      */
     public void setInstructionCountLimit(int lim) {
         instructionCountLimit = lim;
+        instructionBudget = lim;
     }
 
     /**
@@ -232,12 +271,13 @@ public final class LuaRunState implements ILuaResourceFinder {
      */
     @Deprecated
     public void setRunningThread(LuaThread t) {
+        // Called whenever a thread is resumed, so each resume gets a full instruction budget
+        instructionBudget = instructionCountLimit;
         if (currentThread == t) {
             return;
         }
 
         currentThread = t;
-        instructionCount = 0;
         LOG.trace("Set running thread: {}", t);
     }
 
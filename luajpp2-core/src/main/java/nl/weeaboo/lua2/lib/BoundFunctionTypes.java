@@ -0,0 +1,162 @@
+package nl.weeaboo.lua2.lib;
+
+import java.lang.reflect.Method;
+
+import javax.annotation.Nullable;
+
+import nl.weeaboo.lua2.LuaException;
+import nl.weeaboo.lua2.vm.LuaConstants;
+import nl.weeaboo.lua2.vm.LuaFunction;
+import nl.weeaboo.lua2.vm.LuaInteger;
+import nl.weeaboo.lua2.vm.LuaString;
+import nl.weeaboo.lua2.vm.LuaTable;
+import nl.weeaboo.lua2.vm.LuaValue;
+import nl.weeaboo.lua2.vm.Varargs;
+
+/**
+ * Parameter and return types supported by {@link LuaBoundFunction} methods, and the conversions between those
+ * types and Lua values.
+ * <p>
+ * A bound function either takes a single {@link Varargs} parameter, or any number of parameters of the types
+ * accepted by {@link #isParameterType(Class)}. The annotation processor in the {@code luajpp2-processor} module
+ * generates the same conversions as this class; this class is used when calling methods through reflection.
+ */
+final class BoundFunctionTypes {
+
+    /** The maximum number of arguments of functions that can be called without {@link Varargs}. */
+    private static final int MAX_FIXED_ARITY = 3;
+
+    private BoundFunctionTypes() {
+    }
+
+    /**
+     * Parameter types: {@link LuaValue}, {@link LuaString}, {@link LuaTable}, {@link LuaFunction},
+     * {@link String}, {@code int}, {@code long}, {@code double} and {@code boolean}.
+     */
+    static boolean isParameterType(Class<?> type) {
+        return type == LuaValue.class
+                || type == LuaString.class
+                || type == LuaTable.class
+                || type == LuaFunction.class
+                || type == String.class
+                || type == Integer.TYPE
+                || type == Long.TYPE
+                || type == Double.TYPE
+                || type == Boolean.TYPE;
+    }
+
+    /**
+     * Return types: {@link Varargs}, {@code void}, {@link LuaValue} (or a subclass), {@code int}, {@code long},
+     * {@code double} and {@code boolean}.
+     */
+    static boolean isReturnType(Class<?> type) {
+        return type == Varargs.class
+                || type == Void.TYPE
+                || LuaValue.class.isAssignableFrom(type)
+                || type == Integer.TYPE
+                || type == Long.TYPE
+                || type == Double.TYPE
+                || type == Boolean.TYPE;
+    }
+
+    /**
+     * Checks that a method has a signature supported for bound functions.
+     *
+     * @throws LuaException If the signature isn't supported.
+     */
+    static void checkSignature(Method method) throws LuaException {
+        if (!isReturnType(method.getReturnType())) {
+            throw new LuaException("Unsupported return type: " + method);
+        }
+
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        if (parameterTypes.length == 1 && parameterTypes[0] == Varargs.class) {
+            return;
+        }
+        for (Class<?> type : parameterTypes) {
+            if (!isParameterType(type)) {
+                throw new LuaException("Unsupported parameter type (" + type.getName() + "): " + method);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of arguments if the method takes a fixed number of arguments (at most
+     * {@value #MAX_FIXED_ARITY}) and returns a single value.
+     *
+     * @return The number of arguments, or {@code -1}
+     * @see LibFunction#getFixedArity()
+     */
+    static int getFixedArity(Method method) {
+        Class<?> returnType = method.getReturnType();
+        if (returnType == Varargs.class || returnType == Void.TYPE) {
+            return -1;
+        }
+
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        if (parameterTypes.length > MAX_FIXED_ARITY) {
+            return -1;
+        }
+        for (Class<?> type : parameterTypes) {
+            if (type == Varargs.class) {
+                return -1;
+            }
+        }
+        return parameterTypes.length;
+    }
+
+    /** Converts the arguments for a method that doesn't take a single {@link Varargs} parameter. */
+    static Object[] coerceArgs(Class<?>[] parameterTypes, Varargs args) {
+        Object[] result = new Object[parameterTypes.length];
+        for (int n = 0; n < result.length; n++) {
+            result[n] = coerceArg(parameterTypes[n], args.arg(n + 1));
+        }
+        return result;
+    }
+
+    private static Object coerceArg(Class<?> type, LuaValue arg) {
+        if (type == LuaValue.class) {
+            return arg;
+        } else if (type == LuaString.class) {
+            return arg.checkstring();
+        } else if (type == LuaTable.class) {
+            return arg.checktable();
+        } else if (type == LuaFunction.class) {
+            return arg.checkfunction();
+        } else if (type == String.class) {
+            return arg.checkjstring();
+        } else if (type == Integer.TYPE) {
+            return arg.checknumber().toint();
+        } else if (type == Long.TYPE) {
+            return arg.checknumber().tolong();
+        } else if (type == Double.TYPE) {
+            return arg.checknumber().todouble();
+        } else if (type == Boolean.TYPE) {
+            return arg.toboolean();
+        } else {
+            throw new LuaException("Unsupported parameter type: " + type.getName());
+        }
+    }
+
+    /** Converts the return value of a bound function to a Lua value. */
+    static Varargs toVarargs(Class<?> returnType, @Nullable Object result) {
+        if (returnType == Void.TYPE) {
+            return LuaConstants.NONE;
+        } else if (result instanceof Varargs) {
+            return (Varargs)result;
+        } else if (result instanceof Integer) {
+            return LuaValue.valueOf((Integer)result);
+        } else if (result instanceof Long) {
+            return LuaInteger.valueOf((Long)result);
+        } else if (result instanceof Double) {
+            return LuaValue.valueOf((Double)result);
+        } else if (result instanceof Boolean) {
+            return LuaValue.valueOf((Boolean)result);
+        } else {
+            // This may happen if the methods return type changed (can happen due to serialization)
+            throw new LuaException("Java method returned an unsupported value: "
+                    + (result != null ? result.getClass().getName() : "null"));
+        }
+    }
+
+}
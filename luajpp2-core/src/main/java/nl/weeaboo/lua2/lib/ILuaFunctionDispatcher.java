@@ -0,0 +1,40 @@
+package nl.weeaboo.lua2.lib;
+
+import nl.weeaboo.lua2.vm.LuaValue;
+import nl.weeaboo.lua2.vm.Varargs;
+
+/**
+ * Calls the {@link LuaBoundFunction} methods declared by a class without using reflection.
+ * <p>
+ * Implementations are generated at compile time by the annotation processor in the {@code luajpp2-processor}
+ * module. Classes compiled without it fall back to reflection.
+ */
+public interface ILuaFunctionDispatcher {
+
+    /**
+     * Returns the index of the bound function with the given Java method name.
+     *
+     * @return The index to pass to {@link #call(Object, int, Varargs)}, or {@code -1} if not found.
+     */
+    int indexOf(String javaMethodName);
+
+    /**
+     * Calls a bound function.
+     *
+     * @param object The object on which to call the method (ignored for static methods).
+     * @param index The index of the function, see {@link #indexOf(String)}.
+     * @param args The arguments passed from Lua.
+     * @throws Exception Any exception thrown by the called method.
+     */
+    Varargs call(Object object, int index, Varargs args) throws Exception;
+
+    /**
+     * Calls a bound function that takes a fixed number of arguments and returns a single value. Arguments
+     * beyond the number of parameters of the function are ignored.
+     *
+     * @see LibFunction#getFixedArity()
+     * @throws Exception Any exception thrown by the called method.
+     */
+    LuaValue call(Object object, int index, LuaValue arg1, LuaValue arg2, LuaValue arg3) throws Exception;
+
+}
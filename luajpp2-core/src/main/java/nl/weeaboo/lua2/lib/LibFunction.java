@@ -30,6 +30,7 @@ import nl.weeaboo.lua2.stdlib.BaseLib;
 import nl.weeaboo.lua2.stdlib.TableLib;
 import nl.weeaboo.lua2.vm.LuaFunction;
 import nl.weeaboo.lua2.vm.LuaValue;
+import nl.weeaboo.lua2.vm.Varargs;
 
 /**
  * Subclass of {@link LuaFunction} common to Java functions exposed to lua.
@@ -144,6 +145,19 @@ public abstract class LibFunction extends LuaFunction {
     protected LibFunction() {
     }
 
+    /**
+     * Returns the number of arguments used by this function, if it only uses a fixed number of arguments (at
+     * most three) and always returns a single value. The interpreter calls such functions through
+     * {@link #call()}, {@link #call(LuaValue)}, etc. instead of {@link #invoke(Varargs)}, which avoids
+     * allocating {@link Varargs} for the arguments and the return value.
+     *
+     * @return The number of arguments, or {@code -1} if this function has to be called through
+     *         {@link #invoke(Varargs)}.
+     */
+    public int getFixedArity() {
+        return -1;
+    }
+
     @Override
     public String tojstring() {
         if (name != null) {
@@ -7,6 +7,13 @@ import java.lang.annotation.Target;
 
 /**
  * Annotation to mark Java methods that should be made available to Lua.
+ * <p>
+ * The method either takes a single {@code Varargs} parameter, or typed parameters which are converted from the
+ * Lua arguments: {@code LuaValue}, {@code LuaString}, {@code LuaTable}, {@code LuaFunction}, {@code String},
+ * {@code int}, {@code long}, {@code double} or {@code boolean}. It may return {@code Varargs}, {@code void}, a
+ * {@code LuaValue}, {@code int}, {@code long}, {@code double} or {@code boolean}. Methods with at most three
+ * typed parameters that return a single value are called without allocating {@code Varargs}, for example
+ * {@code double sqrt(double x)}.
  */
 @Retention(RetentionPolicy.RUNTIME)
 @Target(value = ElementType.METHOD)
@@ -1,15 +1,19 @@
 package nl.weeaboo.lua2.lib;
 
+import static nl.weeaboo.lua2.vm.LuaConstants.NONE;
+import static nl.weeaboo.lua2.vm.LuaNil.NIL;
+
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.Arrays;
+
+import javax.annotation.Nullable;
 
 import nl.weeaboo.lua2.LuaException;
 import nl.weeaboo.lua2.LuaRunState;
 import nl.weeaboo.lua2.io.LuaSerializable;
-import nl.weeaboo.lua2.vm.LuaConstants;
 import nl.weeaboo.lua2.vm.LuaNil;
 import nl.weeaboo.lua2.vm.LuaTable;
+import nl.weeaboo.lua2.vm.LuaValue;
 import nl.weeaboo.lua2.vm.Varargs;
 
 /** Base class for making libraries of Java functions available to Lua. */
@@ -17,6 +21,9 @@ public abstract class LuaLib implements ILuaLib {
 
     private static final long serialVersionUID = 1L;
 
+    /** Suffix of the class names of generated dispatchers, see {@link #findDispatcher(Class)}. */
+    private static final String DISPATCHER_SUFFIX = "_LuaDispatcher";
+
     @Override
     public abstract void register() throws LuaException;
 
@@ -48,24 +55,39 @@ public abstract class LuaLib implements ILuaLib {
         }
     }
 
-    private VarArgFunction wrapFunction(Method method, String luaMethodName) throws LuaException {
-        Class<?> returnType = method.getReturnType();
-        if (!returnType.equals(Varargs.class) && !returnType.equals(Void.TYPE)) {
-            throw new LuaException("Return type must be Varargs or void");
-        }
-
-        Class<?>[] parameterTypes = method.getParameterTypes();
-        if (!Arrays.equals(parameterTypes, new Class<?>[] { Varargs.class })) {
-            throw new LuaException("Method must have a single parameter of type Varargs");
-        }
+    private LibFunction wrapFunction(Method method, String luaMethodName) throws LuaException {
+        BoundFunctionTypes.checkSignature(method);
 
-        FunctionWrapper functionWrapper = new FunctionWrapper(this, luaMethodName, method.getName(), parameterTypes);
+        FunctionWrapper functionWrapper = new FunctionWrapper(this, luaMethodName, method.getName(),
+                method.getParameterTypes());
         functionWrapper.setfenv(LuaRunState.getCurrent().getGlobalEnvironment());
         return functionWrapper;
     }
 
+    /**
+     * Returns the generated dispatcher for the bound functions declared by the given class.
+     *
+     * @return The dispatcher, or {@code null} if the class wasn't compiled with the annotation processor.
+     * @see ILuaFunctionDispatcher
+     */
+    static @Nullable ILuaFunctionDispatcher findDispatcher(Class<?> declaringClass) {
+        String className = declaringClass.getName();
+        int packageEnd = className.lastIndexOf('.') + 1;
+        String dispatcherName = className.substring(0, packageEnd)
+                + className.substring(packageEnd).replace('$', '_') + DISPATCHER_SUFFIX;
+
+        try {
+            Class<?> dispatcherClass = Class.forName(dispatcherName, true, declaringClass.getClassLoader());
+            return (ILuaFunctionDispatcher)dispatcherClass.getConstructor().newInstance();
+        } catch (ClassNotFoundException cnfe) {
+            return null;
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw LuaException.wrap("Unable to instantiate dispatcher: " + dispatcherName, e);
+        }
+    }
+
     @LuaSerializable
-    private static class FunctionWrapper extends VarArgFunction {
+    static class FunctionWrapper extends LibFunction {
 
         private static final long serialVersionUID = 1L;
 
@@ -74,8 +96,13 @@ public abstract class LuaLib implements ILuaLib {
         private final Class<?>[] parameterTypes;
 
         private transient Method method;
+        /** Parameter types of {@link #method}, which may differ from the serialized {@link #parameterTypes}. */
+        private transient Class<?>[] methodParameterTypes;
+        private transient @Nullable ILuaFunctionDispatcher dispatcher;
+        private transient int dispatchIndex;
+        private transient int fixedArity;
 
-        public FunctionWrapper(LuaLib object, String luaMethodName, String javaMethodName, Class<?>[] parameterTypes) {
+        FunctionWrapper(LuaLib object, String luaMethodName, String javaMethodName, Class<?>[] parameterTypes) {
             name = luaMethodName;
 
             this.object = object;
@@ -83,22 +110,35 @@ public abstract class LuaLib implements ILuaLib {
             this.parameterTypes = parameterTypes.clone();
         }
 
+        @Override
+        public int getFixedArity() {
+            if (method == null) {
+                try {
+                    resolve();
+                } catch (NoSuchMethodException e) {
+                    return -1; // Reported when the function is called
+                }
+            }
+            return fixedArity;
+        }
+
         @Override
         public Varargs invoke(Varargs args) {
             try {
                 if (method == null) {
-                    method = object.getClass().getMethod(javaMethodName, parameterTypes);
+                    resolve();
+                }
+                if (dispatcher != null) {
+                    return dispatcher.call(object, dispatchIndex, args);
                 }
-                Object result = method.invoke(object, args);
-                if (result instanceof Varargs) {
-                    return (Varargs)result;
-                } else if (result == null && method.getReturnType() == Void.TYPE) {
-                    return LuaConstants.NONE;
+
+                Object result;
+                if (methodParameterTypes.length == 1 && methodParameterTypes[0] == Varargs.class) {
+                    result = method.invoke(object, args);
                 } else {
-                    // This may happen if the methods return type changed (can happen due to serialization)
-                    throw new LuaException("Java method (" + method + ") returned non-varargs: "
-                            + (result != null ? result.getClass().getName() : "null"));
+                    result = method.invoke(object, BoundFunctionTypes.coerceArgs(methodParameterTypes, args));
                 }
+                return BoundFunctionTypes.toVarargs(method.getReturnType(), result);
             } catch (InvocationTargetException ite) {
                 throw LuaException.wrap(createErrorMessage(args, ite.getCause()), ite.getCause());
             } catch (Exception e) {
@@ -106,6 +146,90 @@ public abstract class LuaLib implements ILuaLib {
             }
         }
 
+        @Override
+        public LuaValue call() {
+            return (getFixedArity() >= 0 ? callFixed(NIL, NIL, NIL) : invoke(NONE).arg1());
+        }
+
+        @Override
+        public LuaValue call(LuaValue arg) {
+            return (getFixedArity() >= 0 ? callFixed(arg, NIL, NIL) : invoke(arg).arg1());
+        }
+
+        @Override
+        public LuaValue call(LuaValue arg1, LuaValue arg2) {
+            return (getFixedArity() >= 0 ? callFixed(arg1, arg2, NIL) : invoke(varargsOf(arg1, arg2)).arg1());
+        }
+
+        @Override
+        public LuaValue call(LuaValue arg1, LuaValue arg2, LuaValue arg3) {
+            return (getFixedArity() >= 0 ? callFixed(arg1, arg2, arg3) : invoke(varargsOf(arg1, arg2, arg3)).arg1());
+        }
+
+        /** Calls a function with a fixed number of arguments that returns a single value. */
+        private LuaValue callFixed(LuaValue arg1, LuaValue arg2, LuaValue arg3) {
+            if (dispatcher == null) {
+                return invoke(fixedArgs(arg1, arg2, arg3)).arg1();
+            }
+
+            try {
+                return dispatcher.call(object, dispatchIndex, arg1, arg2, arg3);
+            } catch (Exception e) {
+                throw LuaException.wrap(createErrorMessage(fixedArgs(arg1, arg2, arg3), e), e);
+            }
+        }
+
+        private Varargs fixedArgs(LuaValue arg1, LuaValue arg2, LuaValue arg3) {
+            return LuaValue.varargsOf(new LuaValue[] { arg1, arg2, arg3 }, 0, fixedArity);
+        }
+
+        /**
+         * Looks up the method and its generated dispatcher. The dispatcher calls the method directly, if there's
+         * no dispatcher the method is called through reflection.
+         */
+        private void resolve() throws NoSuchMethodException {
+            method = findMethod(object.getClass(), javaMethodName, parameterTypes);
+            methodParameterTypes = method.getParameterTypes();
+            fixedArity = BoundFunctionTypes.getFixedArity(method);
+
+            ILuaFunctionDispatcher found = findDispatcher(method.getDeclaringClass());
+            if (found != null) {
+                dispatchIndex = found.indexOf(javaMethodName);
+                if (dispatchIndex >= 0) {
+                    dispatcher = found;
+                }
+            }
+        }
+
+        /**
+         * Returns the bound method with the given signature. Saved states may refer to a method by an outdated
+         * signature (library functions that took {@link Varargs} now have typed parameters), in which case the
+         * only bound method with the same name is used.
+         *
+         * @throws NoSuchMethodException If there's no such method, or if the name is ambiguous.
+         */
+        private static Method findMethod(Class<?> type, String name, Class<?>[] parameterTypes)
+                throws NoSuchMethodException {
+
+            try {
+                return type.getMethod(name, parameterTypes);
+            } catch (NoSuchMethodException e) {
+                Method result = null;
+                for (Method method : type.getMethods()) {
+                    if (method.getName().equals(name) && method.isAnnotationPresent(LuaBoundFunction.class)) {
+                        if (result != null) {
+                            throw e;
+                        }
+                        result = method;
+                    }
+                }
+                if (result == null) {
+                    throw e;
+                }
+                return result;
+            }
+        }
+
         private String createErrorMessage(Varargs args, Throwable cause) {
             String error = "Error invoking Java method: " + javaMethodName;
             if (args.narg() > 1) {
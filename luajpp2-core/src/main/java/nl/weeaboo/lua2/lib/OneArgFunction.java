@@ -69,6 +69,11 @@ public abstract class OneArgFunction extends LibFunction {
         this.env = env;
     }
 
+    @Override
+    public final int getFixedArity() {
+        return 1;
+    }
+
     @Override
     public final LuaValue call() {
         return call(NIL);
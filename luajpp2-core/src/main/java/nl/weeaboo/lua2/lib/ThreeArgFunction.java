@@ -69,6 +69,11 @@ public abstract class ThreeArgFunction extends LibFunction {
     @Override
     public abstract LuaValue call(LuaValue arg1, LuaValue arg2, LuaValue arg3);
 
+    @Override
+    public final int getFixedArity() {
+        return 3;
+    }
+
     @Override
     public final LuaValue call() {
         return call(NIL, NIL, NIL);
@@ -69,6 +69,11 @@ public abstract class TwoArgFunction extends LibFunction {
     @Override
     public abstract LuaValue call(LuaValue arg1, LuaValue arg2);
 
+    @Override
+    public final int getFixedArity() {
+        return 2;
+    }
+
     @Override
     public final LuaValue call() {
         return call(NIL, NIL);
@@ -67,6 +67,11 @@ public abstract class ZeroArgFunction extends LibFunction {
     @Override
     public abstract LuaValue call();
 
+    @Override
+    public final int getFixedArity() {
+        return 0;
+    }
+
     @Override
     public final LuaValue call(LuaValue arg) {
         return call();
@@ -0,0 +1,131 @@
+package nl.weeaboo.lua2.luajava;
+
+import java.lang.ref.WeakReference;
+
+import javax.annotation.Nullable;
+
+/**
+ * Maps Java classes to their {@link JavaClass}. A single registry is shared by all Lua run states, so the
+ * reflection metadata and the {@link ClassMetaTable} of a class are only created once.
+ * <p>
+ * Lookups don't take a lock: they read an immutable hash table, which is replaced by a new copy whenever a class
+ * is added.
+ * <p>
+ * Classes loaded by the class loader of this library, or one of its parents, can't be unloaded before this
+ * library is. Their {@link JavaClass} is kept for as long as the registry exists. Classes from other class
+ * loaders (plugins, for example) are held through weak references, so the registry doesn't keep their class
+ * loader alive. The metadata of such a class is created again if it's needed after its entry was cleared.
+ * {@code ClassValue} would keep that metadata for exactly as long as the class is reachable, but it isn't
+ * available on Android.
+ */
+final class ClassInfoRegistry {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final @Nullable ClassLoader OWN_CLASS_LOADER = ClassInfoRegistry.class.getClassLoader();
+
+    /** Open addressing hash table, at most half full. */
+    private volatile Entry[] entries = new Entry[MIN_CAPACITY];
+
+    /**
+     * Returns the {@link JavaClass} for the given class, creating it if needed. Always returns the same instance
+     * for as long as it's still referenced, or for as long as the registry exists if the class can't be unloaded
+     * before this library.
+     */
+    JavaClass get(Class<?> clazz) {
+        JavaClass info = find(entries, clazz);
+        if (info != null) {
+            return info;
+        }
+        return add(clazz);
+    }
+
+    private synchronized JavaClass add(Class<?> clazz) {
+        // Another thread may have added the class in the meantime
+        Entry[] oldEntries = entries;
+        JavaClass info = find(oldEntries, clazz);
+        if (info != null) {
+            return info;
+        }
+        info = new JavaClass(clazz);
+
+        // Copy the entries which haven't been cleared by the garbage collector
+        int liveCount = 1;
+        for (Entry entry : oldEntries) {
+            if (entry != null && entry.get() != null) {
+                liveCount++;
+            }
+        }
+        int capacity = MIN_CAPACITY;
+        while (capacity < liveCount * 2) {
+            capacity <<= 1;
+        }
+
+        Entry[] newEntries = new Entry[capacity];
+        for (Entry entry : oldEntries) {
+            if (entry != null && entry.get() != null) {
+                insert(newEntries, entry);
+            }
+        }
+        insert(newEntries, new Entry(info, hash(clazz), isPermanent(clazz)));
+
+        entries = newEntries;
+        return info;
+    }
+
+    private static @Nullable JavaClass find(Entry[] table, Class<?> clazz) {
+        final int mask = table.length - 1;
+        for (int n = hash(clazz) & mask; table[n] != null; n = (n + 1) & mask) {
+            JavaClass info = table[n].get();
+            if (info != null && info.getWrappedClass() == clazz) {
+                return info;
+            }
+        }
+        return null;
+    }
+
+    private static void insert(Entry[] table, Entry entry) {
+        final int mask = table.length - 1;
+        int n = entry.hash & mask;
+        while (table[n] != null) {
+            n = (n + 1) & mask;
+        }
+        table[n] = entry;
+    }
+
+    /**
+     * Returns {@code true} if the class was loaded by the class loader of this library, or one of its parents.
+     */
+    static boolean isPermanent(Class<?> clazz) {
+        ClassLoader loader = clazz.getClassLoader();
+        for (ClassLoader parent = OWN_CLASS_LOADER; ; parent = parent.getParent()) {
+            if (parent == loader) {
+                return true;
+            } else if (parent == null) {
+                return false;
+            }
+        }
+    }
+
+    private static int hash(Class<?> clazz) {
+        int h = System.identityHashCode(clazz);
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Entry extends WeakReference<JavaClass> {
+
+        final int hash;
+        /** Keeps the referent alive for classes that can't be unloaded before this library. */
+        @SuppressWarnings("unused")
+        private final @Nullable JavaClass retained;
+
+        Entry(JavaClass info, int hash, boolean retain) {
+            super(info);
+
+            this.hash = hash;
+            this.retained = (retain ? info : null);
+        }
+
+    }
+
+}
@@ -6,8 +6,6 @@ import static nl.weeaboo.lua2.vm.LuaConstants.META_NEWINDEX;
 import static nl.weeaboo.lua2.vm.LuaNil.NIL;
 
 import java.lang.reflect.Array;
-import java.lang.reflect.Field;
-import java.util.ArrayList;
 
 import javax.annotation.Nullable;
 
@@ -17,32 +15,32 @@ import nl.weeaboo.lua2.io.IWriteReplaceSerializable;
 import nl.weeaboo.lua2.io.LuaSerializable;
 import nl.weeaboo.lua2.lib.OneArgFunction;
 import nl.weeaboo.lua2.lib.VarArgFunction;
+import nl.weeaboo.lua2.vm.IUserdataIndex;
 import nl.weeaboo.lua2.vm.LuaFunction;
 import nl.weeaboo.lua2.vm.LuaNil;
 import nl.weeaboo.lua2.vm.LuaString;
 import nl.weeaboo.lua2.vm.LuaTable;
+import nl.weeaboo.lua2.vm.LuaUserdata;
 import nl.weeaboo.lua2.vm.LuaValue;
 import nl.weeaboo.lua2.vm.Varargs;
 
 @LuaSerializable
-final class ClassMetaTable extends LuaTable implements IWriteReplaceSerializable {
+final class ClassMetaTable extends LuaTable implements IWriteReplaceSerializable, IUserdataIndex {
 
     private static final LuaString LENGTH = valueOf("length");
     private static final LuaValue ARRAY_LENGTH_FUNCTION = new ArrayLengthFunction();
 
     //--- Uses manual serialization, don't add variables ---
     private JavaClass classInfo;
-    private LuaFunction metaIndex;
+    private MetaGetFunction metaIndex;
     private LuaFunction metaNewIndex;
-    private transient ArrayList<LuaMethod> cachedMethods;
     //--- Uses manual serialization, don't add variables ---
 
     ClassMetaTable(JavaClass ci) {
         classInfo = ci;
-        cachedMethods = new ArrayList<>();
 
-        metaIndex = newMetaFunction(classInfo, this, true);
-        metaNewIndex = newMetaFunction(classInfo, this, false);
+        metaIndex = newMetaGetFunction(classInfo);
+        metaNewIndex = newMetaSetFunction(classInfo);
 
         super.hashset(META_INDEX, metaIndex);
         super.hashset(META_NEWINDEX, metaNewIndex);
@@ -58,22 +56,28 @@ final class ClassMetaTable extends LuaTable implements IWriteReplaceSerializable
         return new ClassMetaTableRef(classInfo);
     }
 
-    private static LuaFunction newMetaFunction(JavaClass ci, ClassMetaTable mt, boolean isGet) {
+    private static MetaGetFunction newMetaGetFunction(JavaClass ci) {
         if (ci.isArray()) {
-            if (isGet) {
-                return new ArrayMetaGetFunction(ci, mt);
-            } else {
-                return new ArrayMetaSetFunction(ci);
-            }
+            return new ArrayMetaGetFunction(ci);
         } else {
-            if (isGet) {
-                return new MetaGetFunction(ci, mt);
-            } else {
-                return new MetaSetFunction(ci);
-            }
+            return new MetaGetFunction(ci);
         }
     }
 
+    private static LuaFunction newMetaSetFunction(JavaClass ci) {
+        if (ci.isArray()) {
+            return new ArrayMetaSetFunction(ci);
+        } else {
+            return new MetaSetFunction(ci);
+        }
+    }
+
+    /** Looks up methods and fields without calling {@link #metaIndex} as a Lua function. */
+    @Override
+    public LuaValue index(LuaUserdata userdata, LuaValue key) {
+        return metaIndex.invokeMethod(userdata.userdata(), key);
+    }
+
     @Override
     public LuaValue rawget(LuaValue key) {
         // Fast path for the most-used meta functions
@@ -120,21 +124,8 @@ final class ClassMetaTable extends LuaTable implements IWriteReplaceSerializable
     }
 
     @Nullable LuaMethod getMethod(LuaValue name) {
-        final int cachedMethodsL = cachedMethods.size();
-        for (int n = 0; n < cachedMethodsL; n++) {
-            LuaMethod method = cachedMethods.get(n);
-            if (name.equals(method.methodName)) {
-                return method;
-            }
-        }
-
-        if (classInfo.hasMethod(name)) {
-            LuaMethod method = new LuaMethod(classInfo, name);
-            cachedMethods.add(method);
-            return method;
-        }
-
-        return null;
+        Object member = classInfo.getMember(name);
+        return (member instanceof LuaMethod ? (LuaMethod)member : null);
     }
 
     @LuaSerializable
@@ -160,11 +151,9 @@ final class ClassMetaTable extends LuaTable implements IWriteReplaceSerializable
         private static final long serialVersionUID = 1L;
 
         protected final JavaClass classInfo;
-        protected final ClassMetaTable meta;
 
-        public MetaGetFunction(JavaClass ci, ClassMetaTable mt) {
+        public MetaGetFunction(JavaClass ci) {
             classInfo = ci;
-            meta = mt;
         }
 
         @Override
@@ -177,20 +166,12 @@ final class ClassMetaTable extends LuaTable implements IWriteReplaceSerializable
                 return LuaNil.NIL.call();
             }
 
-            LuaMethod method = meta.getMethod(key);
-            if (method != null) {
-                return method;
-            }
-
-            Field field = classInfo.getField(key);
-            if (field != null) {
+            Object member = classInfo.getMember(key);
+            if (member instanceof LuaMethod) {
+                return (LuaMethod)member;
+            } else if (member instanceof JavaField) {
                 try {
-                    /*
-                     * Only allow access to the declared type. This prevents Lua from accessing non-public
-                     * implementation details.
-                     */
-                    Object javaValue = field.get(instance);
-                    return CoerceJavaToLua.coerce(javaValue, field.getType());
+                    return ((JavaField)member).luaGet(instance);
                 } catch (Exception e) {
                     throw LuaException.wrap("Error coercing field: " + key, e);
                 }
@@ -217,11 +198,10 @@ final class ClassMetaTable extends LuaTable implements IWriteReplaceSerializable
         }
 
         protected LuaValue invokeMethod(Object instance, LuaValue key, LuaValue val) {
-            Field field = classInfo.getField(key);
+            JavaField field = classInfo.getField(key);
             if (field != null) {
-                Object v = CoerceLuaToJava.coerceArg(val, field.getType());
                 try {
-                    field.set(instance, v);
+                    field.luaSet(instance, val);
                 } catch (Exception e) {
                     throw LuaException.wrap("Error setting field: " + classInfo.getWrappedClass() + "." + key, e);
                 }
@@ -238,8 +218,8 @@ final class ClassMetaTable extends LuaTable implements IWriteReplaceSerializable
 
         private static final long serialVersionUID = 1L;
 
-        public ArrayMetaGetFunction(JavaClass ci, ClassMetaTable mt) {
-            super(ci, mt);
+        public ArrayMetaGetFunction(JavaClass ci) {
+            super(ci);
         }
 
         @Override
@@ -2,8 +2,12 @@ package nl.weeaboo.lua2.luajava;
 
 import static nl.weeaboo.lua2.vm.LuaNil.NIL;
 
+import java.util.List;
+import java.util.Map;
+
 import javax.annotation.Nullable;
 
+import nl.weeaboo.lua2.LuaException;
 import nl.weeaboo.lua2.vm.LuaTable;
 import nl.weeaboo.lua2.vm.LuaValue;
 import nl.weeaboo.lua2.vm.Varargs;
@@ -27,6 +31,45 @@ public final class CoerceJavaToLua {
         return table;
     }
 
+    /**
+     * Returns a table which reads and writes through to the given list, without copying its contents. Lua can
+     * use integer keys {@code 1..size}, the length operator, {@code ipairs}, {@code pairs}, {@code table.insert}
+     * and {@code table.remove}.
+     *
+     * @param type The declared type of the elements. Elements declared as {@code Object} are converted based on
+     *        their runtime type.
+     * @see #toTable(Iterable, Class)
+     */
+    public static <T> LuaTable listView(List<T> list, Class<T> type) {
+        return new JavaListView(list, type);
+    }
+
+    /**
+     * Returns a table which reads and writes through to the given map, without copying its contents. Lua keys are
+     * converted to {@code keyType}, assigning {@code nil} to a key removes it from the map.
+     *
+     * @param keyType The declared type of the keys. Keys declared as {@code Object} are converted to Lua based on
+     *        their runtime type.
+     * @param valueType The declared type of the values. Values declared as {@code Object} are converted to Lua
+     *        based on their runtime type.
+     */
+    public static <K, V> LuaTable mapView(Map<K, V> map, Class<K> keyType, Class<V> valueType) {
+        return new JavaMapView(map, keyType, valueType);
+    }
+
+    /**
+     * Returns a table which reads and writes through to the given array, without copying its contents. Elements of
+     * primitive arrays are converted when they're accessed.
+     *
+     * @throws LuaException If {@code array} isn't an array.
+     */
+    public static LuaTable arrayView(Object array) {
+        if (!array.getClass().isArray()) {
+            throw new LuaException("Not an array: " + array.getClass().getName());
+        }
+        return new JavaArrayView(array);
+    }
+
     /**
      * Coerces multiple Java objects to their equivalent Lua values (automatically tries to deduce their
      * types).
@@ -197,6 +197,38 @@ enum DefaultTypeCoercions implements ITypeCoercions {
         return 0x1000;
     }
 
+    /**
+     * Resolves the conversion of Lua values to the given Java type once, so it doesn't have to be looked up for
+     * every value.
+     *
+     * @see #toJava(LuaValue, Class)
+     */
+    <T> ILuaToJava<T> resolveLuaToJava(Class<T> javaType) {
+        ILuaToJava<T> customCoercion = findLuaToJava(javaType);
+        if (customCoercion != null && javaType.isPrimitive()) {
+            // Userdata objects are never instances of a primitive type, so the custom coercion always applies
+            return customCoercion;
+        }
+        return new ResolvedLuaToJava<>(javaType, customCoercion);
+    }
+
+    /**
+     * Resolves the conversion of Java values with the given declared type to Lua once, so it doesn't have to be
+     * looked up for every value. The returned coercion doesn't accept {@code null}.
+     *
+     * @see #toLua(Object, Class)
+     */
+    IJavaToLua resolveJavaToLua(Class<?> declaredType) {
+        IJavaToLua javaToLua = javaToLuaCoercions.get(declaredType);
+        if (javaToLua != null) {
+            return javaToLua;
+        } else if (LuaValue.class.isAssignableFrom(declaredType)) {
+            return JavaToLua.LUA_VALUE;
+        } else {
+            return new UserdataJavaToLua(declaredType);
+        }
+    }
+
     /**
      * Returns the registered type coercion for converting Lua objects to Java objects of the given type.
      *
@@ -209,7 +241,54 @@ enum DefaultTypeCoercions implements ITypeCoercions {
         return typed;
     }
 
+    /** Applies the same conversions as {@link DefaultTypeCoercions#toJava(LuaValue, Class)}. */
+    private static final class ResolvedLuaToJava<T> implements ILuaToJava<T> {
+
+        private final Class<T> javaType;
+        private final @Nullable ILuaToJava<T> customCoercion;
+
+        ResolvedLuaToJava(Class<T> javaType, @Nullable ILuaToJava<T> customCoercion) {
+            this.javaType = javaType;
+            this.customCoercion = customCoercion;
+        }
+
+        @Override
+        public @Nullable T toJava(LuaValue value) {
+            // Types with a custom coercion aren't Lua types, only userdata objects may need the general conversion
+            if (customCoercion != null && !(value instanceof LuaUserdata)) {
+                return customCoercion.toJava(value);
+            }
+            return INSTANCE.toJava(value, javaType);
+        }
+
+        @Override
+        public int score(LuaValue value) {
+            return INSTANCE.scoreParam(value, javaType);
+        }
+    }
+
+    private static final class UserdataJavaToLua implements IJavaToLua {
+
+        private final Class<?> declaredType;
+
+        UserdataJavaToLua(Class<?> declaredType) {
+            this.declaredType = declaredType;
+        }
+
+        @Override
+        public LuaValue toLua(Object javaValue) {
+            return LuajavaLib.toUserdata(javaValue, declaredType);
+        }
+    }
+
     private interface JavaToLua {
+        IJavaToLua LUA_VALUE = new IJavaToLua() {
+            @Override
+            public LuaValue toLua(Object javaValue) {
+                return (LuaValue)javaValue;
+            }
+        };
+
         IJavaToLua NULL = new IJavaToLua() {
             @Override
             public LuaValue toLua(Object javaValue) {
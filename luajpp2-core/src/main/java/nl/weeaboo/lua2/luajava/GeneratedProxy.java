@@ -0,0 +1,102 @@
+package nl.weeaboo.lua2.luajava;
+
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+import nl.weeaboo.lua2.io.IWriteReplaceSerializable;
+import nl.weeaboo.lua2.vm.LuaValue;
+
+/**
+ * Base class for the Java interface implementations generated by {@link ProxyClassGenerator}. Each generated
+ * method converts its arguments, calls the Lua function and converts the result using the helper methods below.
+ * <p>
+ * Generated classes are defined by their own class loader, so they can only access the public and protected
+ * members of this class. This class is public for that reason only; it isn't meant to be used or extended by
+ * other code.
+ */
+public abstract class GeneratedProxy implements IWriteReplaceSerializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ProxyClass proxyClass;
+    private final LuaValue table;
+
+    protected GeneratedProxy(ProxyClass proxyClass, LuaValue table) {
+        this.proxyClass = proxyClass;
+        this.table = table;
+    }
+
+    @Override
+    public final Object writeReplace() {
+        return proxyClass.writeReplace(table);
+    }
+
+    /**
+     * Returns the conversions for the interface method with the given index. The result is passed to the other
+     * helper methods as an opaque object.
+     */
+    protected final Object coercions(int method) {
+        return proxyClass.getMethod(method).resolveCoercions();
+    }
+
+    /** Returns the Lua function implementing the interface method with the given index. */
+    protected final LuaValue function(int method) {
+        return proxyClass.getMethod(method).getFunction(table);
+    }
+
+    protected static LuaValue arg(Object coercions, int param, int value) {
+        return ((ProxyMethod.Coercions)coercions).argToLua(param, value);
+    }
+
+    protected static LuaValue arg(Object coercions, int param, long value) {
+        return ((ProxyMethod.Coercions)coercions).argToLua(param, value);
+    }
+
+    protected static LuaValue arg(Object coercions, int param, float value) {
+        return ((ProxyMethod.Coercions)coercions).argToLua(param, value);
+    }
+
+    protected static LuaValue arg(Object coercions, int param, double value) {
+        return ((ProxyMethod.Coercions)coercions).argToLua(param, value);
+    }
+
+    protected static LuaValue arg(Object coercions, int param, boolean value) {
+        return ((ProxyMethod.Coercions)coercions).argToLua(param, value);
+    }
+
+    protected static LuaValue arg(Object coercions, int param, @Nullable Object value) {
+        return ((ProxyMethod.Coercions)coercions).argToLua(param, value);
+    }
+
+    protected static int resultInt(Object coercions, LuaValue value) {
+        return ((ProxyMethod.Coercions)coercions).resultToInt(value);
+    }
+
+    protected static long resultLong(Object coercions, LuaValue value) {
+        return ((ProxyMethod.Coercions)coercions).resultToLong(value);
+    }
+
+    protected static float resultFloat(Object coercions, LuaValue value) {
+        return ((ProxyMethod.Coercions)coercions).resultToFloat(value);
+    }
+
+    protected static double resultDouble(Object coercions, LuaValue value) {
+        return ((ProxyMethod.Coercions)coercions).resultToDouble(value);
+    }
+
+    protected static boolean resultBoolean(Object coercions, LuaValue value) {
+        return ((ProxyMethod.Coercions)coercions).resultToBoolean(value);
+    }
+
+    protected static @Nullable Object resultObject(Object coercions, LuaValue value) {
+        return ((ProxyMethod.Coercions)coercions).resultToJava(value);
+    }
+
+    @Override
+    public String toString() {
+        return "LuaProxy" + Arrays.toString(proxyClass.getInterfaces()) + "@"
+                + Integer.toHexString(System.identityHashCode(this));
+    }
+
+}
@@ -0,0 +1,169 @@
+package nl.weeaboo.lua2.luajava;
+
+import static nl.weeaboo.lua2.vm.LuaNil.NIL;
+
+import java.lang.reflect.Array;
+
+import nl.weeaboo.lua2.LuaException;
+import nl.weeaboo.lua2.io.IReadResolveSerializable;
+import nl.weeaboo.lua2.io.LuaSerializable;
+import nl.weeaboo.lua2.vm.LuaBoolean;
+import nl.weeaboo.lua2.vm.LuaDouble;
+import nl.weeaboo.lua2.vm.LuaInteger;
+import nl.weeaboo.lua2.vm.LuaValue;
+import nl.weeaboo.lua2.vm.Varargs;
+
+/**
+ * A view of a Java array as a Lua table with keys {@code 1..length}. The Lua length operator returns the length
+ * of the array. With the default type coercions, elements of primitive arrays are read and written without
+ * boxing them.
+ */
+@LuaSerializable
+final class JavaArrayView extends JavaView {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Object array;
+    private final Class<?> componentType;
+    private final int length;
+
+    JavaArrayView(Object array) {
+        super(array.getClass().getComponentType());
+
+        this.array = array;
+        this.componentType = array.getClass().getComponentType();
+        this.length = Array.getLength(array);
+    }
+
+    @Override
+    public Object writeReplace() {
+        return new ArrayViewRef(array);
+    }
+
+    @Override
+    public LuaValue rawget(int key) {
+        if (key < 1 || key > length) {
+            return NIL;
+        }
+
+        final int index = key - 1;
+        if (!componentType.isPrimitive()) {
+            return valueToLua(((Object[])array)[index]);
+        } else if (ITypeCoercions.getCurrent() == DefaultTypeCoercions.INSTANCE) {
+            return getPrimitive(index);
+        } else {
+            return valueToLua(Array.get(array, index));
+        }
+    }
+
+    /** Uses the same conversions as {@link DefaultTypeCoercions#toLua(Object, Class)}. */
+    private LuaValue getPrimitive(int index) {
+        if (componentType == Integer.TYPE) {
+            return LuaInteger.valueOf(((int[])array)[index]);
+        } else if (componentType == Double.TYPE) {
+            return LuaDouble.valueOf(((double[])array)[index]);
+        } else if (componentType == Float.TYPE) {
+            return LuaDouble.valueOf(((float[])array)[index]);
+        } else if (componentType == Long.TYPE) {
+            return LuaDouble.valueOf(((long[])array)[index]);
+        } else if (componentType == Boolean.TYPE) {
+            return LuaBoolean.valueOf(((boolean[])array)[index]);
+        } else if (componentType == Byte.TYPE) {
+            return LuaInteger.valueOf(((byte[])array)[index]);
+        } else if (componentType == Short.TYPE) {
+            return LuaInteger.valueOf(((short[])array)[index]);
+        } else {
+            return LuaInteger.valueOf(((char[])array)[index]);
+        }
+    }
+
+    @Override
+    public void rawset(int key, LuaValue value) {
+        if (key < 1 || key > length) {
+            throw new LuaException("Array index out of bounds: index=" + key + ", length=" + length);
+        }
+
+        final int index = key - 1;
+        if (!componentType.isPrimitive()) {
+            Array.set(array, index, valueToJava(value));
+        } else if (value.isnil()) {
+            throw new LuaException("Can't assign nil to an element of a primitive array: index=" + key);
+        } else if (ITypeCoercions.getCurrent() == DefaultTypeCoercions.INSTANCE) {
+            setPrimitive(index, value);
+        } else {
+            Array.set(array, index, valueToJava(value));
+        }
+    }
+
+    /** Uses the same conversions as {@link DefaultTypeCoercions#toJava(LuaValue, Class)}. */
+    private void setPrimitive(int index, LuaValue value) {
+        if (componentType == Integer.TYPE) {
+            ((int[])array)[index] = value.toint();
+        } else if (componentType == Double.TYPE) {
+            ((double[])array)[index] = value.todouble();
+        } else if (componentType == Float.TYPE) {
+            ((float[])array)[index] = value.tofloat();
+        } else if (componentType == Long.TYPE) {
+            ((long[])array)[index] = value.tolong();
+        } else if (componentType == Boolean.TYPE) {
+            ((boolean[])array)[index] = value.toboolean();
+        } else if (componentType == Byte.TYPE) {
+            ((byte[])array)[index] = value.tobyte();
+        } else if (componentType == Short.TYPE) {
+            ((short[])array)[index] = value.toshort();
+        } else {
+            ((char[])array)[index] = value.tochar();
+        }
+    }
+
+    @Override
+    public void rawset(LuaValue key, LuaValue value) {
+        if (!key.isinttype()) {
+            throw new LuaException("Invalid key for a Java array: " + key);
+        }
+        rawset(key.toint(), value);
+    }
+
+    @Override
+    public void insert(int pos, LuaValue value) {
+        throw new LuaException("Can't change the length of a Java array");
+    }
+
+    @Override
+    public LuaValue remove(int pos) {
+        throw new LuaException("Can't change the length of a Java array");
+    }
+
+    @Override
+    public int rawlen() {
+        return length;
+    }
+
+    @Override
+    protected int getArrayLength() {
+        return length;
+    }
+
+    @Override
+    public Varargs next(LuaValue key) {
+        return nextIndex(key, length);
+    }
+
+    @LuaSerializable
+    private static final class ArrayViewRef implements IReadResolveSerializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Object array;
+
+        public ArrayViewRef(Object array) {
+            this.array = array;
+        }
+
+        @Override
+        public Object readResolve() {
+            return new JavaArrayView(array);
+        }
+    }
+
+}
@@ -30,15 +30,21 @@ final class JavaClass implements IWriteReplaceSerializable {
     private static final long serialVersionUID = 1L;
 
     private static final Comparator<Method> methodSorter = new MethodSorter();
+    private static final int RECENT_MEMBERS_SIZE = 8;
 
     private final Class<?> clazz;
     private final boolean isArray;
 
-    private transient ClassMetaTable metaTable;
+    // JavaClass instances are shared between threads, see ClassInfoRegistry. The lazily initialized fields are
+    // volatile, and are only assigned after the object they refer to has been fully constructed.
+    private transient volatile ClassMetaTable metaTable;
 
-    private transient JavaConstructor[] constrs;
-    private transient Map<LuaString, Field> fields;
-    private transient Map<LuaString, JavaMethod[]> methods;
+    private transient volatile JavaConstructor[] constrs;
+    private transient volatile Map<LuaString, JavaField> fields;
+    private transient volatile Map<LuaString, JavaMethod[]> methods;
+    private transient volatile Map<LuaString, Object> members;
+    private final transient RecentMember[] recentMembers = new RecentMember[RECENT_MEMBERS_SIZE];
+    private transient int recentMembersNext;
 
     public JavaClass(Class<?> c) {
         clazz = c;
@@ -58,11 +64,7 @@ final class JavaClass implements IWriteReplaceSerializable {
             throw new LuaException("No suitable constructor found for: " + clazz.getName());
         }
 
-        List<Class<?>> paramTypes = constr.getParamTypes();
-        Object[] javaArgs = new Object[paramTypes.size()];
-        CoerceLuaToJava.coerceArgs(javaArgs, luaArgs, paramTypes);
-
-        Object javaObject = constr.newInstance(javaArgs);
+        Object javaObject = constr.newInstance(luaArgs);
 
         return LuaUserdata.userdataOf(javaObject, getMetatable());
     }
@@ -107,41 +109,105 @@ final class JavaClass implements IWriteReplaceSerializable {
     }
 
     public JavaConstructor[] getConstructors() {
-        if (constrs == null) {
+        JavaConstructor[] result = constrs;
+        if (result == null) {
             Constructor<?>[] cs = clazz.getConstructors();
 
-            JavaConstructor[] result = new JavaConstructor[cs.length];
+            result = new JavaConstructor[cs.length];
             for (int n = 0; n < cs.length; n++) {
                 result[n] = new JavaConstructor(cs[n]);
             }
             constrs = result;
         }
-        return constrs;
+        return result;
     }
 
+    /**
+     * Returns the metatable for userdata objects of this class. Always returns the same instance.
+     */
     public ClassMetaTable getMetatable() {
-        if (metaTable == null) {
-            metaTable = new ClassMetaTable(this);
+        ClassMetaTable result = metaTable;
+        if (result == null) {
+            synchronized (this) {
+                result = metaTable;
+                if (result == null) {
+                    result = new ClassMetaTable(this);
+                    metaTable = result;
+                }
+            }
         }
-        return metaTable;
+        return result;
     }
 
-    public @Nullable Field getField(LuaValue name) {
-        if (fields == null) {
-            fields = new HashMap<>();
+    public @Nullable JavaField getField(LuaValue name) {
+        return getFields().get(name);
+    }
+
+    private Map<LuaString, JavaField> getFields() {
+        Map<LuaString, JavaField> result = fields;
+        if (result == null) {
+            result = new HashMap<>();
             for (Field f : clazz.getFields()) {
-                fields.put(valueOf(f.getName()), f);
+                result.put(valueOf(f.getName()), new JavaField(f));
+            }
+            fields = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the public method ({@link LuaMethod}) or field ({@link JavaField}) with the given name. If a method
+     * and a field have the same name, the method is returned.
+     *
+     * @return The member, or {@code null} if not found.
+     */
+    @SuppressWarnings("ReferenceEquality")
+    public @Nullable Object getMember(LuaValue name) {
+        // Names are usually constants in the calling Lua code, so the same instances are looked up repeatedly.
+        // Comparing those by reference is a lot cheaper than hashing and comparing their contents.
+        // The entries are immutable, so threads sharing this class never see a name paired with the wrong member.
+        for (RecentMember recent : recentMembers) {
+            if (recent != null && recent.name == name) {
+                return recent.member;
+            }
+        }
+
+        Object member = getMemberIndex().get(name);
+        int next = recentMembersNext;
+        recentMembers[next] = new RecentMember(name, member);
+        recentMembersNext = (next + 1) % RECENT_MEMBERS_SIZE;
+        return member;
+    }
+
+    private Map<LuaString, Object> getMemberIndex() {
+        Map<LuaString, Object> result = members;
+        if (result == null) {
+            synchronized (this) {
+                result = members;
+                if (result == null) {
+                    // Build the index once, it's never modified afterwards
+                    result = new HashMap<>(getFields());
+                    for (LuaString methodName : getMethods().keySet()) {
+                        result.put(methodName, new LuaMethod(this, methodName));
+                    }
+                    members = result;
+                }
             }
         }
-        return fields.get(name);
+        return result;
     }
 
     public JavaMethod[] getMethods(LuaValue name) {
-        if (methods == null) {
+        return getMethods().get(name);
+    }
+
+    private Map<LuaString, JavaMethod[]> getMethods() {
+        Map<LuaString, JavaMethod[]> result = methods;
+        if (result == null) {
             Method[] marr = clazz.getMethods();
             Arrays.sort(marr, methodSorter);
 
-            methods = new HashMap<>();
+            result = new HashMap<>();
 
             String curName = null;
             List<JavaMethod> list = new ArrayList<>();
@@ -151,7 +217,7 @@ final class JavaClass implements IWriteReplaceSerializable {
 
                 if (!m.getName().equals(curName)) {
                     if (curName != null) {
-                        methods.put(valueOf(curName), list.toArray(new JavaMethod[list.size()]));
+                        result.put(valueOf(curName), list.toArray(new JavaMethod[list.size()]));
                     }
                     curName = m.getName();
                     list.clear();
@@ -160,14 +226,23 @@ final class JavaClass implements IWriteReplaceSerializable {
             }
 
             if (curName != null) {
-                methods.put(LuaString.valueOf(curName), list.toArray(new JavaMethod[list.size()]));
+                result.put(LuaString.valueOf(curName), list.toArray(new JavaMethod[list.size()]));
             }
+            methods = result;
         }
-        return methods.get(name);
+        return result;
     }
 
-    public boolean hasMethod(LuaValue name) {
-        return getMethods(name) != null;
+    private static final class RecentMember {
+
+        final LuaValue name;
+        final @Nullable Object member;
+
+        RecentMember(LuaValue name, @Nullable Object member) {
+            this.name = name;
+            this.member = member;
+        }
+
     }
 
     @LuaSerializable
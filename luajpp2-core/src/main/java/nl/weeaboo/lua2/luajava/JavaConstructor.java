@@ -5,24 +5,35 @@ import java.lang.reflect.InvocationTargetException;
 import java.util.Arrays;
 import java.util.List;
 
+import javax.annotation.Nullable;
+
+import nl.weeaboo.lua2.vm.Varargs;
+
 final class JavaConstructor {
 
     private final Constructor<?> constr;
-    private List<Class<?>> params;
+    private final List<Class<?>> params;
+
+    private @Nullable MemberCoercions coercions;
 
     public JavaConstructor(Constructor<?> c) {
         constr = c;
+        params = Arrays.asList(c.getParameterTypes());
     }
 
-    public Object newInstance(Object... args)
+    /**
+     * Converts the Lua arguments to the parameter types of the constructor and calls it.
+     */
+    public Object newInstance(Varargs luaArgs)
             throws IllegalArgumentException, InstantiationException, IllegalAccessException, InvocationTargetException {
-        return constr.newInstance(args);
+
+        MemberCoercions c = MemberCoercions.resolve(coercions, getParamTypes(), Void.TYPE);
+        coercions = c;
+
+        return constr.newInstance(c.coerceArgs(luaArgs));
     }
 
     public List<Class<?>> getParamTypes() {
-        if (params == null) {
-            params = Arrays.asList(constr.getParameterTypes());
-        }
         return params;
     }
 
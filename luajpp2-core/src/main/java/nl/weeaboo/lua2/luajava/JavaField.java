@@ -0,0 +1,95 @@
+package nl.weeaboo.lua2.luajava;
+
+import java.lang.reflect.Field;
+
+import javax.annotation.Nullable;
+
+import nl.weeaboo.lua2.vm.LuaBoolean;
+import nl.weeaboo.lua2.vm.LuaDouble;
+import nl.weeaboo.lua2.vm.LuaInteger;
+import nl.weeaboo.lua2.vm.LuaValue;
+
+/**
+ * A public field of a Java class. With the default type coercions, fields of a primitive type are read and
+ * written without boxing their values.
+ */
+final class JavaField {
+
+    private final Field field;
+    private final Class<?> type;
+
+    private @Nullable ValueCoercions coercions;
+
+    public JavaField(Field f) {
+        field = f;
+        type = f.getType();
+    }
+
+    /**
+     * Reads the value of the field and converts it to Lua. Only the declared type of the field is accessible
+     * to Lua, this prevents Lua from accessing non-public implementation details.
+     */
+    public LuaValue luaGet(Object instance) throws IllegalAccessException {
+        ITypeCoercions typeCoercions = ITypeCoercions.getCurrent();
+        if (type.isPrimitive() && typeCoercions == DefaultTypeCoercions.INSTANCE) {
+            return getPrimitive(instance);
+        }
+
+        return resolve(typeCoercions).toLua(field.get(instance));
+    }
+
+    /** Uses the same conversions as {@link DefaultTypeCoercions#toLua(Object, Class)}. */
+    private LuaValue getPrimitive(Object instance) throws IllegalAccessException {
+        if (type == Boolean.TYPE) {
+            return LuaBoolean.valueOf(field.getBoolean(instance));
+        } else if (type == Long.TYPE) {
+            return LuaDouble.valueOf(field.getLong(instance));
+        } else if (type == Float.TYPE || type == Double.TYPE) {
+            return LuaDouble.valueOf(field.getDouble(instance));
+        } else {
+            // byte, char, short and int
+            return LuaInteger.valueOf(field.getInt(instance));
+        }
+    }
+
+    /**
+     * Converts a Lua value to the type of the field and stores it.
+     */
+    public void luaSet(Object instance, LuaValue value) throws IllegalAccessException {
+        ITypeCoercions typeCoercions = ITypeCoercions.getCurrent();
+        if (type.isPrimitive() && typeCoercions == DefaultTypeCoercions.INSTANCE) {
+            setPrimitive(instance, value);
+            return;
+        }
+
+        field.set(instance, resolve(typeCoercions).toJava(value));
+    }
+
+    /** Uses the same conversions as {@link DefaultTypeCoercions#toJava(LuaValue, Class)}. */
+    private void setPrimitive(Object instance, LuaValue value) throws IllegalAccessException {
+        if (type == Boolean.TYPE) {
+            field.setBoolean(instance, value.toboolean());
+        } else if (type == Byte.TYPE) {
+            field.setByte(instance, value.tobyte());
+        } else if (type == Character.TYPE) {
+            field.setChar(instance, value.tochar());
+        } else if (type == Short.TYPE) {
+            field.setShort(instance, value.toshort());
+        } else if (type == Integer.TYPE) {
+            field.setInt(instance, value.toint());
+        } else if (type == Long.TYPE) {
+            field.setLong(instance, value.tolong());
+        } else if (type == Float.TYPE) {
+            field.setFloat(instance, value.tofloat());
+        } else {
+            field.setDouble(instance, value.todouble());
+        }
+    }
+
+    private ValueCoercions resolve(ITypeCoercions typeCoercions) {
+        ValueCoercions c = ValueCoercions.resolve(coercions, typeCoercions, type);
+        coercions = c;
+        return c;
+    }
+
+}
@@ -0,0 +1,140 @@
+package nl.weeaboo.lua2.luajava;
+
+import static nl.weeaboo.lua2.vm.LuaConstants.NONE;
+import static nl.weeaboo.lua2.vm.LuaNil.NIL;
+
+import java.util.List;
+
+import nl.weeaboo.lua2.LuaException;
+import nl.weeaboo.lua2.io.IReadResolveSerializable;
+import nl.weeaboo.lua2.io.LuaSerializable;
+import nl.weeaboo.lua2.vm.LuaValue;
+import nl.weeaboo.lua2.vm.Varargs;
+
+/**
+ * A view of a {@link List} as a Lua table with keys {@code 1..size}. The Lua length operator returns the size of
+ * the list, {@code table.insert} and {@code table.remove} add and remove elements.
+ * <p>
+ * Assigning to index {@code size + 1} adds an element to the end of the list, assigning {@code nil} to index
+ * {@code size} removes the last element.
+ */
+@LuaSerializable
+final class JavaListView extends JavaView {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<Object> list;
+
+    JavaListView(List<?> list, Class<?> elementType) {
+        super(elementType);
+
+        // The element type is checked when converting from Lua
+        @SuppressWarnings("unchecked")
+        List<Object> objectList = (List<Object>)list;
+        this.list = objectList;
+    }
+
+    @Override
+    public Object writeReplace() {
+        return new ListViewRef(list, getValueType());
+    }
+
+    @Override
+    public LuaValue rawget(int key) {
+        if (key < 1 || key > list.size()) {
+            return NIL;
+        }
+        return valueToLua(list.get(key - 1));
+    }
+
+    @Override
+    public void rawset(int key, LuaValue value) {
+        final int size = list.size();
+        if (value.isnil()) {
+            if (key == size) {
+                list.remove(size - 1);
+            } else if (key >= 1 && key < size) {
+                throw new LuaException("Can't remove an element from the middle of a Java list: index=" + key
+                        + ", size=" + size);
+            }
+        } else if (key >= 1 && key <= size) {
+            list.set(key - 1, valueToJava(value));
+        } else if (key == size + 1) {
+            list.add(valueToJava(value));
+        } else {
+            throw new LuaException("Java list index out of bounds: index=" + key + ", size=" + size);
+        }
+    }
+
+    @Override
+    public void rawset(LuaValue key, LuaValue value) {
+        if (!key.isinttype()) {
+            throw new LuaException("Invalid key for a Java list: " + key);
+        }
+        rawset(key.toint(), value);
+    }
+
+    @Override
+    public void insert(int pos, LuaValue value) {
+        if (value.isnil()) {
+            return;
+        }
+
+        final int size = list.size();
+        if (pos == 0) {
+            pos = size + 1;
+        } else if (pos < 1 || pos > size + 1) {
+            throw new LuaException("Java list index out of bounds: index=" + pos + ", size=" + size);
+        }
+        list.add(pos - 1, valueToJava(value));
+    }
+
+    @Override
+    public LuaValue remove(int pos) {
+        final int size = list.size();
+        if (pos == 0) {
+            pos = size;
+        }
+        if (pos < 1 || pos > size) {
+            return NONE;
+        }
+
+        LuaValue removed = valueToLua(list.remove(pos - 1));
+        return (removed.isnil() ? NONE : removed);
+    }
+
+    @Override
+    public int rawlen() {
+        return list.size();
+    }
+
+    @Override
+    protected int getArrayLength() {
+        return list.size();
+    }
+
+    @Override
+    public Varargs next(LuaValue key) {
+        return nextIndex(key, list.size());
+    }
+
+    @LuaSerializable
+    private static final class ListViewRef implements IReadResolveSerializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<?> list;
+        private final Class<?> elementType;
+
+        public ListViewRef(List<?> list, Class<?> elementType) {
+            this.list = list;
+            this.elementType = elementType;
+        }
+
+        @Override
+        public Object readResolve() {
+            return new JavaListView(list, elementType);
+        }
+    }
+
+}
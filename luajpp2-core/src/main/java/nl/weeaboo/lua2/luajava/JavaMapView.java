@@ -0,0 +1,154 @@
+package nl.weeaboo.lua2.luajava;
+
+import static nl.weeaboo.lua2.vm.LuaNil.NIL;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import nl.weeaboo.lua2.LuaException;
+import nl.weeaboo.lua2.io.IReadResolveSerializable;
+import nl.weeaboo.lua2.io.LuaSerializable;
+import nl.weeaboo.lua2.vm.LuaInteger;
+import nl.weeaboo.lua2.vm.LuaValue;
+import nl.weeaboo.lua2.vm.Varargs;
+
+/**
+ * A view of a {@link Map} as a Lua table. Lua keys are converted to the key type of the map, assigning
+ * {@code nil} removes the key from the map.
+ * <p>
+ * Iterating over the table with {@code pairs} uses an iterator of the map. As with a Java iterator, keys may not
+ * be added or removed during the iteration, but the values of existing keys may be changed.
+ */
+@LuaSerializable
+final class JavaMapView extends JavaView {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Map<Object, Object> map;
+    private final Class<?> keyType;
+
+    private transient @Nullable ValueCoercions keyCoercions;
+
+    /** The iterator used by the last call to {@link #next(LuaValue)}, and the key it returned. */
+    private transient @Nullable Iterator<Map.Entry<Object, Object>> iterator;
+    private transient @Nullable LuaValue iteratorKey;
+
+    JavaMapView(Map<?, ?> map, Class<?> keyType, Class<?> valueType) {
+        super(valueType);
+
+        // The key and value types are checked when converting from Lua
+        @SuppressWarnings("unchecked")
+        Map<Object, Object> objectMap = (Map<Object, Object>)map;
+        this.map = objectMap;
+        this.keyType = keyType;
+    }
+
+    @Override
+    public Object writeReplace() {
+        return new MapViewRef(map, keyType, getValueType());
+    }
+
+    @Override
+    public LuaValue rawget(int key) {
+        return rawget(LuaInteger.valueOf(key));
+    }
+
+    @Override
+    public LuaValue rawget(LuaValue key) {
+        if (key.isnil()) {
+            return NIL;
+        }
+        return valueToLua(map.get(keyToJava(key)));
+    }
+
+    @Override
+    public void rawset(int key, LuaValue value) {
+        rawset(LuaInteger.valueOf(key), value);
+    }
+
+    @Override
+    public void rawset(LuaValue key, LuaValue value) {
+        if (value.isnil()) {
+            map.remove(keyToJava(key));
+        } else {
+            map.put(keyToJava(key), valueToJava(value));
+        }
+    }
+
+    /*
+     * Suppress ErrorProne:ReferenceEquality: a pairs loop passes back the key instance returned by the previous
+     * call, which is how we detect that the iteration can continue with the same iterator.
+     */
+    @SuppressWarnings("ReferenceEquality")
+    @Override
+    public Varargs next(LuaValue key) {
+        Iterator<Map.Entry<Object, Object>> itr = iterator;
+        if (key.isnil()) {
+            itr = map.entrySet().iterator();
+        } else if (itr == null || key != iteratorKey) {
+            // Not continuing the previous iteration, find the key by iterating from the start
+            itr = map.entrySet().iterator();
+            while (true) {
+                if (!itr.hasNext()) {
+                    throw new LuaException("invalid key to 'next'");
+                }
+                if (keyToLua(itr.next().getKey()).raweq(key)) {
+                    break;
+                }
+            }
+        }
+
+        if (!itr.hasNext()) {
+            iterator = null;
+            iteratorKey = null;
+            return NIL;
+        }
+
+        Map.Entry<Object, Object> entry = itr.next();
+        LuaValue nextKey = keyToLua(entry.getKey());
+        iterator = itr;
+        iteratorKey = nextKey;
+        return varargsOf(nextKey, valueToLua(entry.getValue()));
+    }
+
+    private @Nullable Object keyToJava(LuaValue key) {
+        return getKeyCoercions().toJava(key);
+    }
+
+    private LuaValue keyToLua(@Nullable Object key) {
+        if (keyType == Object.class) {
+            return CoerceJavaToLua.coerce(key);
+        }
+        return getKeyCoercions().toLua(key);
+    }
+
+    private ValueCoercions getKeyCoercions() {
+        ValueCoercions c = ValueCoercions.resolve(keyCoercions, ITypeCoercions.getCurrent(), keyType);
+        keyCoercions = c;
+        return c;
+    }
+
+    @LuaSerializable
+    private static final class MapViewRef implements IReadResolveSerializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Map<?, ?> map;
+        private final Class<?> keyType;
+        private final Class<?> valueType;
+
+        public MapViewRef(Map<?, ?> map, Class<?> keyType, Class<?> valueType) {
+            this.map = map;
+            this.keyType = keyType;
+            this.valueType = valueType;
+        }
+
+        @Override
+        public Object readResolve() {
+            return new JavaMapView(map, keyType, valueType);
+        }
+    }
+
+}
@@ -5,35 +5,32 @@ import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.List;
 
+import javax.annotation.Nullable;
+
 import nl.weeaboo.lua2.vm.LuaValue;
 import nl.weeaboo.lua2.vm.Varargs;
 
 final class JavaMethod {
 
-    private static final Object[] EMPTY_ARGS = {};
-
     private final Method method;
     private final List<Class<?>> paramTypes;
-    private final int paramCount;
+
+    private @Nullable MemberCoercions coercions;
 
     public JavaMethod(Method m) {
         method = m;
         paramTypes = Arrays.asList(m.getParameterTypes());
-        paramCount = paramTypes.size();
     }
 
     public LuaValue luaInvoke(Object instance, Varargs args)
             throws IllegalArgumentException, IllegalAccessException, InvocationTargetException {
 
-        Object[] javaArgs = EMPTY_ARGS;
-        if (paramCount > 0) {
-            javaArgs = new Object[paramCount];
-            CoerceLuaToJava.coerceArgs(javaArgs, args, paramTypes);
-        }
+        MemberCoercions c = MemberCoercions.resolve(coercions, paramTypes, method.getReturnType());
+        coercions = c;
 
-        Object javaResult = method.invoke(instance, javaArgs);
+        Object javaResult = method.invoke(instance, c.coerceArgs(args));
 
-        return CoerceJavaToLua.coerce(javaResult, method.getReturnType());
+        return c.coerceResult(javaResult);
     }
 
     public List<Class<?>> getParamTypes() {
@@ -0,0 +1,98 @@
+package nl.weeaboo.lua2.luajava;
+
+import static nl.weeaboo.lua2.vm.LuaNil.NIL;
+
+import javax.annotation.Nullable;
+
+import nl.weeaboo.lua2.LuaException;
+import nl.weeaboo.lua2.io.IWriteReplaceSerializable;
+import nl.weeaboo.lua2.vm.LuaInteger;
+import nl.weeaboo.lua2.vm.LuaTable;
+import nl.weeaboo.lua2.vm.LuaValue;
+import nl.weeaboo.lua2.vm.Varargs;
+
+/**
+ * A table which reads and writes through to a Java object (a list, map or array) instead of storing its own
+ * contents. Values are converted between Java and Lua when they're accessed, so creating a view doesn't depend
+ * on the size of the Java object.
+ * <p>
+ * Subclasses override the raw table operations ({@code rawget}, {@code rawset}, {@code next}, ...), which all
+ * other table operations are built on. Views can have a metatable like any other table.
+ */
+abstract class JavaView extends LuaTable implements IWriteReplaceSerializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Class<?> valueType;
+
+    private transient @Nullable ValueCoercions valueCoercions;
+
+    /**
+     * @param valueType The declared type of the values in the Java object. Values declared as {@code Object} are
+     *        converted based on their runtime type instead.
+     */
+    JavaView(Class<?> valueType) {
+        this.valueType = valueType;
+    }
+
+    protected final Class<?> getValueType() {
+        return valueType;
+    }
+
+    /** Converts a value stored in the Java object to Lua. */
+    protected final LuaValue valueToLua(@Nullable Object javaValue) {
+        if (valueType == Object.class) {
+            return CoerceJavaToLua.coerce(javaValue);
+        }
+        return getValueCoercions().toLua(javaValue);
+    }
+
+    /** Converts a Lua value to a value that can be stored in the Java object. */
+    protected final @Nullable Object valueToJava(LuaValue luaValue) {
+        return getValueCoercions().toJava(luaValue);
+    }
+
+    private ValueCoercions getValueCoercions() {
+        ValueCoercions c = ValueCoercions.resolve(valueCoercions, ITypeCoercions.getCurrent(), valueType);
+        valueCoercions = c;
+        return c;
+    }
+
+    /**
+     * Implements {@link #next(LuaValue)} for views with consecutive integer keys {@code 1..length}. Keys with a
+     * {@code nil} value are skipped.
+     */
+    protected final Varargs nextIndex(LuaValue key, int length) {
+        int index = 0;
+        if (!key.isnil()) {
+            if (!key.isinttype()) {
+                throw new LuaException("invalid key to 'next'");
+            }
+            index = key.toint();
+        }
+
+        while (++index <= length) {
+            LuaValue value = rawget(index);
+            if (!value.isnil()) {
+                return varargsOf(LuaInteger.valueOf(index), value);
+            }
+        }
+        return NIL;
+    }
+
+    @Override
+    public LuaValue rawget(LuaValue key) {
+        return (key.isinttype() ? rawget(key.toint()) : NIL);
+    }
+
+    @Override
+    public void presize(int narray) {
+        // The contents are stored in the Java object
+    }
+
+    @Override
+    public void sort(LuaValue comparator) {
+        throw new LuaException("Can't sort a view of a Java object");
+    }
+
+}
@@ -21,11 +21,15 @@ final class LuaMethod extends VarArgFunction implements IWriteReplaceSerializabl
     final JavaClass classInfo;
     final LuaValue methodName;
 
-    private transient JavaMethod[] javaMethods;
+    private final transient JavaMethod[] javaMethods;
+    private final transient OverloadCache overloadCache;
 
     public LuaMethod(JavaClass c, LuaValue nm) {
         classInfo = c;
         methodName = nm;
+
+        javaMethods = c.getMethods(nm);
+        overloadCache = new OverloadCache();
     }
 
     @Override
@@ -68,12 +72,21 @@ final class LuaMethod extends VarArgFunction implements IWriteReplaceSerializabl
     }
 
     protected @Nullable JavaMethod findMethod(Varargs args) {
-        JavaMethod[] methods = getMatchingJavaMethods();
+        JavaMethod[] methods = javaMethods;
         if (methods.length == 1) {
             // Fast path: No need to score alternatives if there's only one method
             return methods[0];
         }
 
+        // Custom type coercions may score arguments in ways the cache doesn't account for
+        final boolean cacheable = (ITypeCoercions.getCurrent() == DefaultTypeCoercions.INSTANCE);
+        if (cacheable) {
+            JavaMethod cached = overloadCache.get(args);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
         JavaMethod bestMatch = null;
         int bestScore = Integer.MAX_VALUE;
         for (JavaMethod curMethod : methods) {
@@ -92,14 +105,10 @@ final class LuaMethod extends VarArgFunction implements IWriteReplaceSerializabl
             }
         }
 
-        return bestMatch;
-    }
-
-    private JavaMethod[] getMatchingJavaMethods() {
-        if (javaMethods == null) {
-            javaMethods = classInfo.getMethods(methodName);
+        if (cacheable && bestMatch != null) {
+            overloadCache.put(args, bestMatch);
         }
-        return javaMethods;
+        return bestMatch;
     }
 
     @LuaSerializable
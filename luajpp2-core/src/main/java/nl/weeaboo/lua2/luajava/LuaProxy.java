@@ -0,0 +1,56 @@
+package nl.weeaboo.lua2.luajava;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+import nl.weeaboo.lua2.LuaException;
+import nl.weeaboo.lua2.io.IWriteReplaceSerializable;
+import nl.weeaboo.lua2.vm.LuaValue;
+
+/**
+ * Invocation handler for proxies created with {@link java.lang.reflect.Proxy}, used when {@link ProxyClass} isn't
+ * able to generate a proxy class.
+ */
+final class LuaProxy implements InvocationHandler {
+
+    private final ProxyClass proxyClass;
+    private final LuaValue table;
+
+    LuaProxy(ProxyClass proxyClass, LuaValue table) {
+        this.proxyClass = proxyClass;
+        this.table = table;
+    }
+
+    @Override
+    public @Nullable Object invoke(Object proxy, Method method, @Nullable Object[] args) {
+        ProxyMethod proxyMethod = proxyClass.getReflectMethod(method);
+        if (proxyMethod != null) {
+            return proxyMethod.call(table, args);
+        }
+
+        Class<?> declaringClass = method.getDeclaringClass();
+        if (declaringClass == IWriteReplaceSerializable.class) {
+            return proxyClass.writeReplace(table);
+        } else if (declaringClass == Object.class) {
+            return invokeObjectMethod(proxy, method, args);
+        }
+        throw new LuaException("Unsupported proxy method: " + method);
+    }
+
+    private @Nullable Object invokeObjectMethod(Object proxy, Method method, @Nullable Object[] args) {
+        String name = method.getName();
+        if (name.equals("equals")) {
+            return args != null && proxy == args[0];
+        } else if (name.equals("hashCode")) {
+            return System.identityHashCode(proxy);
+        } else if (name.equals("toString")) {
+            return "LuaProxy" + Arrays.toString(proxyClass.getInterfaces()) + "@"
+                    + Integer.toHexString(System.identityHashCode(proxy));
+        }
+        throw new LuaException("Unsupported proxy method: " + method);
+    }
+
+}
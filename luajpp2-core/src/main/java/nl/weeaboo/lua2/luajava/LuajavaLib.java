@@ -23,7 +23,7 @@
 package nl.weeaboo.lua2.luajava;
 
 import java.lang.reflect.InvocationTargetException;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import nl.weeaboo.lua2.LuaException;
@@ -31,6 +31,7 @@ import nl.weeaboo.lua2.io.LuaSerializable;
 import nl.weeaboo.lua2.lib.LuaBoundFunction;
 import nl.weeaboo.lua2.stdlib.LuaModule;
 import nl.weeaboo.lua2.vm.LuaFunction;
+import nl.weeaboo.lua2.vm.LuaTable;
 import nl.weeaboo.lua2.vm.LuaUserdata;
 import nl.weeaboo.lua2.vm.LuaValue;
 import nl.weeaboo.lua2.vm.Varargs;
@@ -43,7 +44,7 @@ public final class LuajavaLib extends LuaModule {
 
     private static final long serialVersionUID = 2L;
 
-    private static final Map<Class<?>, JavaClass> classInfoMap = new HashMap<>();
+    private static final ClassInfoRegistry classInfoRegistry = new ClassInfoRegistry();
 
     private boolean allowUnsafeClassLoading;
 
@@ -107,6 +108,82 @@ public final class LuajavaLib extends LuaModule {
         return info.newInstance(args.subargs(2));
     }
 
+    /**
+     * Creates a Java object implementing one or more interfaces by calling the functions in a Lua table. Each
+     * interface method calls the table function with the same name.
+     *
+     * @param args
+     *        <ol>
+     *        <li>interfaces... Either class objects (see {@link #bindClass(Varargs)}), or strings with the full
+     *        Java interface name.
+     *        <li>table containing the functions implementing the interface methods.
+     *        </ol>
+     * @return A userdata object.
+     * @throws LuaException If one of the classes isn't an interface.
+     * @throws ClassNotFoundException If an interface isn't found.
+     * @see #createProxy(Class, LuaTable)
+     */
+    @LuaBoundFunction
+    public Varargs createProxy(Varargs args) throws ClassNotFoundException {
+        final int niface = args.narg() - 1;
+        if (niface <= 0) {
+            throw new LuaException("No interfaces");
+        }
+
+        Class<?>[] interfaces = new Class<?>[niface];
+        for (int n = 0; n < niface; n++) {
+            LuaValue c = args.arg(1 + n);
+            if (c.isuserdata(Class.class)) {
+                interfaces[n] = c.checkuserdata(Class.class);
+            } else {
+                if (!allowUnsafeClassLoading) {
+                    throw new LuaException("Class loading is not allowed");
+                }
+                interfaces[n] = Class.forName(c.checkjstring());
+            }
+        }
+
+        LuaTable table = args.checktable(1 + niface);
+        return toUserdata(ProxyClass.forInterfaces(interfaces).newInstance(table), interfaces[0]);
+    }
+
+    /**
+     * Returns a Java object implementing {@code interfaceType} by calling the functions in a Lua table. The proxy
+     * is serializable through {@link nl.weeaboo.lua2.io.LuaSerializer}, as long as the table is.
+     *
+     * @throws LuaException If {@code interfaceType} isn't an interface.
+     */
+    public static <T> T createProxy(Class<T> interfaceType, LuaTable table) {
+        return interfaceType.cast(ProxyClass.forInterfaces(interfaceType).newInstance(table));
+    }
+
+    /**
+     * Returns a table which reads and writes through to a Java list, map or array, without copying its contents.
+     * Values are converted based on their runtime type.
+     *
+     * @param args
+     *        <ol>
+     *        <li>userdata wrapping a {@link List}, {@link Map} or Java array.
+     *        </ol>
+     * @return A table.
+     * @throws LuaException If the userdata object isn't a list, map or array.
+     * @see CoerceJavaToLua#listView(List, Class)
+     * @see CoerceJavaToLua#mapView(Map, Class, Class)
+     * @see CoerceJavaToLua#arrayView(Object)
+     */
+    @LuaBoundFunction
+    public Varargs view(Varargs args) {
+        Object object = args.checkuserdata(1);
+        if (object instanceof List) {
+            return new JavaListView((List<?>)object, Object.class);
+        } else if (object instanceof Map) {
+            return new JavaMapView((Map<?, ?>)object, Object.class, Object.class);
+        } else if (object.getClass().isArray()) {
+            return new JavaArrayView(object);
+        }
+        throw new LuaException("Not a list, map or array: " + object.getClass().getName());
+    }
+
     /**
      * Returns a Lua userdata object wrapping the given object, giving Lua access to the public methods
      * defined in {@code clazz}.
@@ -120,13 +197,11 @@ public final class LuajavaLib extends LuaModule {
         return LuaUserdata.userdataOf(object, info.getMetatable());
     }
 
+    /**
+     * Returns the shared reflection metadata for a Java class. This method is thread-safe.
+     */
     static JavaClass getClassInfo(Class<?> clazz) {
-        JavaClass info = classInfoMap.get(clazz);
-        if (info == null) {
-            info = new JavaClass(clazz);
-            classInfoMap.put(clazz, info);
-        }
-        return info;
+        return classInfoRegistry.get(clazz);
     }
 
     /**
@@ -0,0 +1,126 @@
+package nl.weeaboo.lua2.luajava;
+
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import nl.weeaboo.lua2.vm.LuaValue;
+import nl.weeaboo.lua2.vm.Varargs;
+
+/**
+ * The conversions for the parameters and return value of a Java method or constructor, resolved once for a
+ * specific {@link ITypeCoercions} instance instead of being looked up for every call.
+ */
+final class MemberCoercions {
+
+    private static final Object[] EMPTY_ARGS = {};
+
+    private final ITypeCoercions typeCoercions;
+    private final List<Class<?>> paramTypes;
+    private final ILuaToJava<?>[] paramCoercions;
+    private final boolean lastParamVarargs;
+    private final Class<?> returnType;
+    private final IJavaToLua returnCoercion;
+
+    private MemberCoercions(ITypeCoercions typeCoercions, List<Class<?>> paramTypes, Class<?> returnType) {
+        this.typeCoercions = typeCoercions;
+        this.paramTypes = paramTypes;
+
+        paramCoercions = new ILuaToJava<?>[paramTypes.size()];
+        for (int n = 0; n < paramCoercions.length; n++) {
+            paramCoercions[n] = resolveLuaToJava(typeCoercions, paramTypes.get(n));
+        }
+
+        if (paramTypes.isEmpty()) {
+            lastParamVarargs = false;
+        } else {
+            Class<?> lastParamType = paramTypes.get(paramTypes.size() - 1);
+            lastParamVarargs = lastParamType.isArray() || lastParamType == Varargs.class;
+        }
+
+        this.returnType = returnType;
+        returnCoercion = resolveJavaToLua(typeCoercions, returnType);
+    }
+
+    /**
+     * Returns the conversions for the current {@link ITypeCoercions}, reusing {@code existing} if it was resolved
+     * for the same instance.
+     */
+    static MemberCoercions resolve(@Nullable MemberCoercions existing, List<Class<?>> paramTypes,
+            Class<?> returnType) {
+
+        ITypeCoercions typeCoercions = ITypeCoercions.getCurrent();
+        if (existing != null && existing.typeCoercions == typeCoercions) {
+            return existing;
+        }
+        return new MemberCoercions(typeCoercions, paramTypes, returnType);
+    }
+
+    static ILuaToJava<?> resolveLuaToJava(final ITypeCoercions typeCoercions, final Class<?> javaType) {
+        if (typeCoercions == DefaultTypeCoercions.INSTANCE) {
+            return DefaultTypeCoercions.INSTANCE.resolveLuaToJava(javaType);
+        }
+
+        return new ILuaToJava<Object>() {
+            @Override
+            public @Nullable Object toJava(LuaValue value) {
+                return typeCoercions.toJava(value, javaType);
+            }
+
+            @Override
+            public int score(LuaValue value) {
+                return typeCoercions.scoreParam(value, javaType);
+            }
+        };
+    }
+
+    static IJavaToLua resolveJavaToLua(final ITypeCoercions typeCoercions, final Class<?> declaredType) {
+        if (typeCoercions == DefaultTypeCoercions.INSTANCE) {
+            return DefaultTypeCoercions.INSTANCE.resolveJavaToLua(declaredType);
+        }
+
+        return new IJavaToLua() {
+            @Override
+            public LuaValue toLua(Object javaValue) {
+                return typeCoercions.toLua(javaValue, declaredType);
+            }
+        };
+    }
+
+    /**
+     * Converts Lua arguments to Java arguments.
+     *
+     * @see CoerceLuaToJava#coerceArgs(Object[], Varargs, List)
+     */
+    Object[] coerceArgs(Varargs luaArgs) {
+        final int jlen = paramCoercions.length;
+        if (jlen == 0) {
+            return EMPTY_ARGS;
+        }
+
+        Object[] javaArgs = new Object[jlen];
+        if (lastParamVarargs && luaArgs.narg() > jlen) {
+            // Extra args are collected into the last parameter
+            CoerceLuaToJava.coerceArgs(javaArgs, luaArgs, paramTypes);
+        } else {
+            // Missing args are converted from nil
+            for (int n = 0; n < jlen; n++) {
+                javaArgs[n] = paramCoercions[n].toJava(luaArgs.arg(1 + n));
+            }
+        }
+        return javaArgs;
+    }
+
+    /**
+     * Converts a Java return value to Lua.
+     *
+     * @see CoerceJavaToLua#coerce(Object, Class)
+     */
+    LuaValue coerceResult(@Nullable Object javaValue) {
+        if (javaValue == null) {
+            return typeCoercions.toLua(null, returnType);
+        }
+        return returnCoercion.toLua(javaValue);
+    }
+
+}
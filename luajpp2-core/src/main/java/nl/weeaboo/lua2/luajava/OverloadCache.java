@@ -0,0 +1,104 @@
+package nl.weeaboo.lua2.luajava;
+
+import javax.annotation.Nullable;
+
+import nl.weeaboo.lua2.vm.LuaString;
+import nl.weeaboo.lua2.vm.LuaTable;
+import nl.weeaboo.lua2.vm.LuaUserdata;
+import nl.weeaboo.lua2.vm.LuaValue;
+import nl.weeaboo.lua2.vm.Varargs;
+
+/**
+ * Remembers which overload of a Java method was selected for the last few argument type signatures, so the
+ * candidates don't have to be scored again for every call.
+ * <p>
+ * The signature of an argument list consists of the number of arguments, and for each argument its Lua type
+ * (or the Java class for userdata). Strings are split into numeric and non-numeric strings, since
+ * {@link CoerceLuaToJava#scoreParamTypes(Varargs, java.util.List)} treats those differently. Calls with table
+ * arguments aren't cached, because the score of a table depends on its contents.
+ * <p>
+ * Methods are shared between threads. The entries of the cache are immutable, so concurrent calls may replace
+ * each other's entries but never see a signature paired with the wrong method.
+ */
+final class OverloadCache {
+
+    private static final int SIZE = 4;
+    private static final Object NUMERIC_STRING = new Object();
+
+    private final Entry[] entries = new Entry[SIZE];
+    private int next;
+
+    /**
+     * @return The method previously stored for the same argument type signature, or {@code null} if not found.
+     */
+    @Nullable JavaMethod get(Varargs args) {
+        final int narg = args.narg();
+        for (Entry entry : entries) {
+            if (entry != null && matches(entry.key, args, narg)) {
+                return entry.method;
+            }
+        }
+        return null;
+    }
+
+    private static boolean matches(Object[] key, Varargs args, int narg) {
+        if (key.length != narg) {
+            return false;
+        }
+        for (int n = 0; n < narg; n++) {
+            if (key[n] != argKey(args.arg(n + 1))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stores the selected method for the argument type signature of {@code args}. If the cache is full, the
+     * oldest entry is replaced.
+     */
+    void put(Varargs args, JavaMethod method) {
+        final int narg = args.narg();
+        Object[] key = new Object[narg];
+        for (int n = 0; n < narg; n++) {
+            key[n] = argKey(args.arg(n + 1));
+            if (key[n] == null) {
+                return; // Not cacheable
+            }
+        }
+
+        int index = next;
+        entries[index] = new Entry(key, method);
+        next = (index + 1) % SIZE;
+    }
+
+    /**
+     * @return An object identifying the type of the argument, or {@code null} if the overload selected for the
+     *         argument may depend on more than its type.
+     */
+    private static @Nullable Object argKey(LuaValue arg) {
+        Class<?> luaClass = arg.getClass();
+        if (luaClass == LuaUserdata.class) {
+            Object userdata = ((LuaUserdata)arg).userdata();
+            return (userdata != null ? userdata.getClass() : null);
+        } else if (luaClass == LuaString.class) {
+            return (arg.isnumber() ? NUMERIC_STRING : LuaString.class);
+        } else if (arg instanceof LuaTable || arg instanceof LuaUserdata) {
+            return null;
+        }
+        return luaClass;
+    }
+
+    private static final class Entry {
+
+        final Object[] key;
+        final JavaMethod method;
+
+        Entry(Object[] key, JavaMethod method) {
+            this.key = key;
+            this.method = method;
+        }
+
+    }
+
+}
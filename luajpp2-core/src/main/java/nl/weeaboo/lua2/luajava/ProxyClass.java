@@ -0,0 +1,233 @@
+package nl.weeaboo.lua2.luajava;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.annotation.Nullable;
+
+import nl.weeaboo.lua2.LuaException;
+import nl.weeaboo.lua2.io.IReadResolveSerializable;
+import nl.weeaboo.lua2.io.IWriteReplaceSerializable;
+import nl.weeaboo.lua2.io.LuaSerializable;
+import nl.weeaboo.lua2.vm.LuaValue;
+
+/**
+ * The implementation of a set of Java interfaces by Lua tables, shared by all proxies implementing the same
+ * interfaces. Each interface method calls the table function with the same name, passing the method arguments
+ * (without the table itself).
+ * <p>
+ * Proxy objects are instances of a class generated by {@link ProxyClassGenerator}. If the class can't be
+ * generated (on Android, or for non-public interfaces), {@link java.lang.reflect.Proxy} is used instead.
+ * <p>
+ * Proxies are serialized as a reference to their interfaces and Lua table.
+ */
+final class ProxyClass {
+
+    /**
+     * Proxy classes by interface list, for interfaces that can't be unloaded before this library (see
+     * {@link ClassInfoRegistry#isPermanent(Class)}). Guarded by synchronizing on the map.
+     */
+    private static final Map<List<Class<?>>, ProxyClass> proxyClasses = new HashMap<>();
+
+    /**
+     * Proxy classes for interfaces from other class loaders, by their first interface. Guarded by synchronizing
+     * on {@link #proxyClasses}. The proxy classes are held through weak references, so the registry doesn't keep
+     * the interfaces or their class loader alive. Proxy objects keep their proxy class alive.
+     */
+    private static final Map<Class<?>, List<WeakReference<ProxyClass>>> otherProxyClasses = new WeakHashMap<>();
+
+    private final Class<?>[] interfaces;
+    private final ProxyMethod[] methods;
+
+    /** Constructor of the generated class, or {@code null} to use {@link java.lang.reflect.Proxy}. */
+    private final @Nullable Constructor<? extends GeneratedProxy> generatedConstructor;
+
+    /** Interfaces implemented by the {@link java.lang.reflect.Proxy} class. */
+    private final Class<?>[] reflectInterfaces;
+    private final Map<Method, ProxyMethod> reflectMethods;
+
+    private ProxyClass(Class<?>[] interfaces) {
+        this.interfaces = interfaces.clone();
+
+        // Methods with the same signature in multiple interfaces share an implementation
+        Map<String, ProxyMethod> methodsBySignature = new LinkedHashMap<>();
+        List<Method> signatures = new ArrayList<>();
+        reflectMethods = new HashMap<>();
+        for (Class<?> iface : interfaces) {
+            for (Method method : iface.getMethods()) {
+                if (Modifier.isStatic(method.getModifiers()) || isObjectMethod(method)) {
+                    continue;
+                }
+
+                String signature = method.getName() + Arrays.toString(method.getParameterTypes())
+                        + method.getReturnType().getName();
+                ProxyMethod proxyMethod = methodsBySignature.get(signature);
+                if (proxyMethod == null) {
+                    proxyMethod = new ProxyMethod(method);
+                    methodsBySignature.put(signature, proxyMethod);
+                    signatures.add(method);
+                }
+                reflectMethods.put(method, proxyMethod);
+            }
+        }
+        methods = methodsBySignature.values().toArray(new ProxyMethod[0]);
+
+        // The extra interface lets the proxy serialize itself as a reference to the Lua table
+        reflectInterfaces = Arrays.copyOf(interfaces, interfaces.length + 1);
+        reflectInterfaces[interfaces.length] = IWriteReplaceSerializable.class;
+
+        generatedConstructor = ProxyClassGenerator.generate(interfaces, signatures, getClassLoader(interfaces));
+    }
+
+    /**
+     * Returns the proxy class for the given interfaces.
+     *
+     * @throws LuaException If one of the classes isn't an interface.
+     */
+    static ProxyClass forInterfaces(Class<?>... interfaces) {
+        if (interfaces.length == 0) {
+            throw new LuaException("No interfaces");
+        }
+        for (Class<?> iface : interfaces) {
+            if (!iface.isInterface()) {
+                throw new LuaException("Not an interface: " + iface.getName());
+            }
+        }
+
+        synchronized (proxyClasses) {
+            for (Class<?> iface : interfaces) {
+                if (!ClassInfoRegistry.isPermanent(iface)) {
+                    return forOtherInterfaces(interfaces);
+                }
+            }
+
+            List<Class<?>> key = Arrays.asList(interfaces.clone());
+            ProxyClass result = proxyClasses.get(key);
+            if (result == null) {
+                result = new ProxyClass(interfaces);
+                proxyClasses.put(key, result);
+            }
+            return result;
+        }
+    }
+
+    /** Looks up or creates a proxy class for interfaces from other class loaders. */
+    private static ProxyClass forOtherInterfaces(Class<?>[] interfaces) {
+        List<WeakReference<ProxyClass>> refs = otherProxyClasses.get(interfaces[0]);
+        if (refs == null) {
+            refs = new ArrayList<>();
+            otherProxyClasses.put(interfaces[0], refs);
+        }
+
+        Iterator<WeakReference<ProxyClass>> itr = refs.iterator();
+        while (itr.hasNext()) {
+            ProxyClass proxyClass = itr.next().get();
+            if (proxyClass == null) {
+                itr.remove();
+            } else if (Arrays.equals(proxyClass.interfaces, interfaces)) {
+                return proxyClass;
+            }
+        }
+
+        ProxyClass result = new ProxyClass(interfaces);
+        refs.add(new WeakReference<>(result));
+        return result;
+    }
+
+    private static boolean isObjectMethod(Method method) {
+        try {
+            Object.class.getMethod(method.getName(), method.getParameterTypes());
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates a new proxy object which calls the functions in the given table.
+     */
+    Object newInstance(LuaValue table) {
+        if (generatedConstructor != null) {
+            try {
+                return generatedConstructor.newInstance(this, table);
+            } catch (ReflectiveOperationException e) {
+                throw LuaException.wrap("Error creating proxy: " + this, e);
+            }
+        }
+
+        ClassLoader classLoader = getClassLoader(interfaces);
+        return Proxy.newProxyInstance(classLoader, reflectInterfaces, new LuaProxy(this, table));
+    }
+
+    /**
+     * Returns the class loader for a proxy class. This is the class loader of the first interface, unless it's a
+     * system interface.
+     */
+    private static ClassLoader getClassLoader(Class<?>[] interfaces) {
+        ClassLoader classLoader = interfaces[0].getClassLoader();
+        if (classLoader == null) {
+            classLoader = ProxyClass.class.getClassLoader();
+        }
+        return classLoader;
+    }
+
+    /** Returns the interfaces implemented by the proxy class. */
+    Class<?>[] getInterfaces() {
+        return interfaces.clone();
+    }
+
+    /** Returns the interface method with the given index. */
+    ProxyMethod getMethod(int index) {
+        return methods[index];
+    }
+
+    /**
+     * Returns the interface method for a method called on a {@link java.lang.reflect.Proxy} instance.
+     *
+     * @return The interface method, or {@code null} if the method isn't implemented by a Lua function.
+     */
+    @Nullable ProxyMethod getReflectMethod(Method method) {
+        return reflectMethods.get(method);
+    }
+
+    /** Returns the serialized form of a proxy object. */
+    Object writeReplace(LuaValue table) {
+        return new ProxyRef(interfaces, table);
+    }
+
+    @Override
+    public String toString() {
+        return "ProxyClass" + Arrays.toString(interfaces);
+    }
+
+    @LuaSerializable
+    private static final class ProxyRef implements IReadResolveSerializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Class<?>[] interfaces;
+        private final LuaValue table;
+
+        public ProxyRef(Class<?>[] interfaces, LuaValue table) {
+            this.interfaces = interfaces;
+            this.table = table;
+        }
+
+        @Override
+        public Object readResolve() {
+            return forInterfaces(interfaces).newInstance(table);
+        }
+    }
+
+}
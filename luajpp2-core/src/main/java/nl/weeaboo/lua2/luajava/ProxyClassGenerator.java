@@ -0,0 +1,328 @@
+package nl.weeaboo.lua2.luajava;
+
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.AASTORE;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.ALOAD;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.ANEWARRAY;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.ARETURN;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.ASTORE;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.CHECKCAST;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.DLOAD;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.DRETURN;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.DUP;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.FLOAD;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.FRETURN;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.ILOAD;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.INVOKESPECIAL;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.INVOKESTATIC;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.INVOKEVIRTUAL;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.IRETURN;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.LLOAD;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.LRETURN;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.POP;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.RETURN;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.weeaboo.lua2.vm.ClassFileWriter;
+import nl.weeaboo.lua2.vm.ClassFileWriter.Code;
+import nl.weeaboo.lua2.vm.LuaValue;
+import nl.weeaboo.lua2.vm.Varargs;
+
+/**
+ * Generates a JVM class implementing a set of Java interfaces, for {@link ProxyClass}. The generated class
+ * extends {@link GeneratedProxy} and each interface method calls its Lua function directly:
+ * <ul>
+ * <li>Primitive arguments are converted to Lua without boxing them (using the default type coercions).
+ * <li>Methods with up to three parameters use the fixed-arity {@code call} methods of the Lua function.
+ * <li>The result is converted by a helper method specific to the return type.
+ * </ul>
+ */
+final class ProxyClassGenerator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProxyClassGenerator.class);
+
+    private static final AtomicInteger CLASS_COUNTER = new AtomicInteger();
+
+    private static final String SUPER_CLASS = internalName(GeneratedProxy.class);
+    private static final String LUA_VALUE = internalName(LuaValue.class);
+    private static final String VARARGS = internalName(Varargs.class);
+
+    private static final String OBJECT_DESC = "Ljava/lang/Object;";
+    private static final String LUA_VALUE_DESC = "L" + LUA_VALUE + ";";
+    private static final String CONSTRUCTOR_DESC = "(" + descriptor(ProxyClass.class) + LUA_VALUE_DESC + ")V";
+
+    /** Maximum number of arguments of the fixed-arity {@code call} methods of {@link LuaValue}. */
+    private static final int MAX_FIXED_ARGS = 3;
+
+    private static final int MAX_STACK = 10;
+
+    private ProxyClassGenerator() {
+    }
+
+    /**
+     * Generates a class implementing the given interfaces.
+     *
+     * @param methods The interface methods. Methods of the generated class pass their index in this list to
+     *        {@link GeneratedProxy}.
+     * @return The constructor of the generated class, or {@code null} if the class can't be generated.
+     */
+    static @Nullable Constructor<? extends GeneratedProxy> generate(Class<?>[] interfaces, List<Method> methods,
+            ClassLoader classLoader) {
+
+        if (!isAccessible(interfaces, methods)) {
+            LOG.debug("Using java.lang.reflect.Proxy for interfaces with non-public types: {}", (Object)interfaces);
+            return null;
+        }
+
+        String className = "nl/weeaboo/lua2/luajava/generated/LuaProxy" + CLASS_COUNTER.incrementAndGet();
+        try {
+            ClassFileWriter classFile = new ClassFileWriter(className, SUPER_CLASS);
+            for (Class<?> iface : interfaces) {
+                classFile.addInterface(internalName(iface));
+            }
+            addConstructor(classFile);
+            for (int index = 0; index < methods.size(); index++) {
+                addMethod(classFile, index, methods.get(index));
+            }
+            byte[] classBytes = classFile.toByteArray(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_FINAL
+                    | ClassFileWriter.ACC_SUPER);
+
+            Class<? extends GeneratedProxy> clazz = new ProxyClassLoader(classLoader).define(className, classBytes)
+                    .asSubclass(GeneratedProxy.class);
+            // Initialize the class now, so verification errors are detected before it's used
+            Class.forName(clazz.getName(), true, clazz.getClassLoader());
+            return clazz.getConstructor(ProxyClass.class, LuaValue.class);
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            // Either a bug, or a platform that doesn't support defining classes at runtime (Android)
+            LOG.warn("Unable to generate proxy class for interfaces: {}", (Object)interfaces, e);
+            return null;
+        }
+    }
+
+    /**
+     * Generated classes are defined by their own class loader, so they can only access public types.
+     */
+    private static boolean isAccessible(Class<?>[] interfaces, List<Method> methods) {
+        for (Class<?> iface : interfaces) {
+            if (!isPublic(iface)) {
+                return false;
+            }
+        }
+        for (Method method : methods) {
+            // The result is cast to the return type
+            if (!isPublic(method.getReturnType())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isPublic(Class<?> type) {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        return type.isPrimitive() || Modifier.isPublic(type.getModifiers());
+    }
+
+    private static void addConstructor(ClassFileWriter classFile) {
+        Code out = new Code(classFile);
+        out.local(ALOAD, 0);
+        out.local(ALOAD, 1);
+        out.local(ALOAD, 2);
+        out.method(INVOKESPECIAL, SUPER_CLASS, "<init>", CONSTRUCTOR_DESC);
+        out.op(RETURN);
+        out.maxStack = 3;
+        out.maxLocals = 3;
+        classFile.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", CONSTRUCTOR_DESC, out);
+    }
+
+    /**
+     * Generates the equivalent of:
+     *
+     * <pre>
+     * Object c = coercions(index);
+     * return resultX(c, function(index).call(arg(c, 0, p0), arg(c, 1, p1)));
+     * </pre>
+     */
+    private static void addMethod(ClassFileWriter classFile, int index, Method method) {
+        final Class<?>[] paramTypes = method.getParameterTypes();
+        final Class<?> returnType = method.getReturnType();
+
+        // Local variable slots of the parameters
+        final int[] paramLocals = new int[paramTypes.length];
+        int nextLocal = 1;
+        for (int n = 0; n < paramTypes.length; n++) {
+            paramLocals[n] = nextLocal;
+            nextLocal += (paramTypes[n] == Long.TYPE || paramTypes[n] == Double.TYPE ? 2 : 1);
+        }
+        final int coercionsLocal = nextLocal;
+
+        Code out = new Code(classFile);
+        out.local(ALOAD, 0);
+        out.pushInt(index);
+        out.method(INVOKEVIRTUAL, SUPER_CLASS, "coercions", "(I)" + OBJECT_DESC);
+        out.local(ASTORE, coercionsLocal);
+
+        if (returnType != Void.TYPE) {
+            // First argument for the result conversion
+            out.local(ALOAD, coercionsLocal);
+        }
+
+        out.local(ALOAD, 0);
+        out.pushInt(index);
+        out.method(INVOKEVIRTUAL, SUPER_CLASS, "function", "(I)" + LUA_VALUE_DESC);
+
+        if (paramTypes.length <= MAX_FIXED_ARGS) {
+            StringBuilder callDesc = new StringBuilder("(");
+            for (int n = 0; n < paramTypes.length; n++) {
+                pushArg(out, coercionsLocal, n, paramTypes[n], paramLocals[n]);
+                callDesc.append(LUA_VALUE_DESC);
+            }
+            callDesc.append(")").append(LUA_VALUE_DESC);
+            out.method(INVOKEVIRTUAL, LUA_VALUE, "call", callDesc.toString());
+        } else {
+            out.pushInt(paramTypes.length);
+            out.type(ANEWARRAY, LUA_VALUE);
+            for (int n = 0; n < paramTypes.length; n++) {
+                out.op(DUP);
+                out.pushInt(n);
+                pushArg(out, coercionsLocal, n, paramTypes[n], paramLocals[n]);
+                out.op(AASTORE);
+            }
+            out.method(INVOKEVIRTUAL, LUA_VALUE, "invoke", "([" + LUA_VALUE_DESC + ")L" + VARARGS + ";");
+            out.method(INVOKEVIRTUAL, VARARGS, "arg1", "()" + LUA_VALUE_DESC);
+        }
+
+        returnResult(out, returnType);
+
+        out.maxStack = MAX_STACK;
+        out.maxLocals = coercionsLocal + 1;
+        classFile.addMethod(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_FINAL, method.getName(),
+                methodDescriptor(method), out);
+    }
+
+    /** Pushes the Lua value of a parameter: {@code arg(c, n, p)}. */
+    private static void pushArg(Code out, int coercionsLocal, int n, Class<?> type, int local) {
+        out.local(ALOAD, coercionsLocal);
+        out.pushInt(n);
+
+        final String typeDesc;
+        if (type == Long.TYPE) {
+            out.local(LLOAD, local);
+            typeDesc = "J";
+        } else if (type == Float.TYPE) {
+            out.local(FLOAD, local);
+            typeDesc = "F";
+        } else if (type == Double.TYPE) {
+            out.local(DLOAD, local);
+            typeDesc = "D";
+        } else if (type == Boolean.TYPE) {
+            out.local(ILOAD, local);
+            typeDesc = "Z";
+        } else if (type.isPrimitive()) {
+            // int, short, byte and char
+            out.local(ILOAD, local);
+            typeDesc = "I";
+        } else {
+            out.local(ALOAD, local);
+            typeDesc = OBJECT_DESC;
+        }
+        out.method(INVOKESTATIC, SUPER_CLASS, "arg", "(" + OBJECT_DESC + "I" + typeDesc + ")" + LUA_VALUE_DESC);
+    }
+
+    /** Converts the Lua result on the stack to the return type, then returns it. */
+    private static void returnResult(Code out, Class<?> returnType) {
+        final String resultDesc = "(" + OBJECT_DESC + LUA_VALUE_DESC + ")";
+        if (returnType == Void.TYPE) {
+            out.op(POP);
+            out.op(RETURN);
+        } else if (returnType == Long.TYPE) {
+            out.method(INVOKESTATIC, SUPER_CLASS, "resultLong", resultDesc + "J");
+            out.op(LRETURN);
+        } else if (returnType == Float.TYPE) {
+            out.method(INVOKESTATIC, SUPER_CLASS, "resultFloat", resultDesc + "F");
+            out.op(FRETURN);
+        } else if (returnType == Double.TYPE) {
+            out.method(INVOKESTATIC, SUPER_CLASS, "resultDouble", resultDesc + "D");
+            out.op(DRETURN);
+        } else if (returnType == Boolean.TYPE) {
+            out.method(INVOKESTATIC, SUPER_CLASS, "resultBoolean", resultDesc + "Z");
+            out.op(IRETURN);
+        } else if (returnType.isPrimitive()) {
+            // int, short, byte and char
+            out.method(INVOKESTATIC, SUPER_CLASS, "resultInt", resultDesc + "I");
+            out.op(IRETURN);
+        } else {
+            out.method(INVOKESTATIC, SUPER_CLASS, "resultObject", resultDesc + OBJECT_DESC);
+            if (returnType != Object.class) {
+                out.type(CHECKCAST, internalName(returnType));
+            }
+            out.op(ARETURN);
+        }
+    }
+
+    private static String methodDescriptor(Method method) {
+        StringBuilder sb = new StringBuilder("(");
+        for (Class<?> paramType : method.getParameterTypes()) {
+            sb.append(descriptor(paramType));
+        }
+        sb.append(")").append(descriptor(method.getReturnType()));
+        return sb.toString();
+    }
+
+    private static String descriptor(Class<?> type) {
+        if (type.isArray()) {
+            return internalName(type);
+        } else if (type == Void.TYPE) {
+            return "V";
+        } else if (type == Boolean.TYPE) {
+            return "Z";
+        } else if (type == Byte.TYPE) {
+            return "B";
+        } else if (type == Character.TYPE) {
+            return "C";
+        } else if (type == Short.TYPE) {
+            return "S";
+        } else if (type == Integer.TYPE) {
+            return "I";
+        } else if (type == Long.TYPE) {
+            return "J";
+        } else if (type == Float.TYPE) {
+            return "F";
+        } else if (type == Double.TYPE) {
+            return "D";
+        } else {
+            return "L" + internalName(type) + ";";
+        }
+    }
+
+    /** Returns the internal name of a class, or the descriptor of an array class. */
+    private static String internalName(Class<?> clazz) {
+        return clazz.getName().replace('.', '/');
+    }
+
+    /**
+     * Defines a single proxy class. Each proxy class gets its own class loader, with the class loader of the
+     * interfaces as its parent.
+     */
+    private static final class ProxyClassLoader extends ClassLoader {
+
+        ProxyClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String internalName, byte[] classBytes) {
+            return defineClass(internalName.replace('/', '.'), classBytes, 0, classBytes.length);
+        }
+    }
+
+}
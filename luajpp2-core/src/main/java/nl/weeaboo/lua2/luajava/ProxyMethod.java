@@ -0,0 +1,231 @@
+package nl.weeaboo.lua2.luajava;
+
+import java.lang.reflect.Method;
+
+import javax.annotation.Nullable;
+
+import nl.weeaboo.lua2.LuaException;
+import nl.weeaboo.lua2.vm.LuaBoolean;
+import nl.weeaboo.lua2.vm.LuaDouble;
+import nl.weeaboo.lua2.vm.LuaInteger;
+import nl.weeaboo.lua2.vm.LuaString;
+import nl.weeaboo.lua2.vm.LuaValue;
+
+/**
+ * Calls the Lua function implementing a single method of a proxied Java interface.
+ *
+ * @see ProxyClass
+ */
+final class ProxyMethod {
+
+    private final Method method;
+    private final LuaString name;
+
+    private @Nullable Coercions coercions;
+
+    ProxyMethod(Method method) {
+        this.method = method;
+        this.name = LuaString.valueOf(method.getName());
+    }
+
+    /**
+     * Returns the conversions for the current {@link ITypeCoercions}.
+     */
+    Coercions resolveCoercions() {
+        Coercions c = coercions;
+        ITypeCoercions typeCoercions = ITypeCoercions.getCurrent();
+        if (c == null || c.typeCoercions != typeCoercions) {
+            c = new Coercions(typeCoercions, method);
+            coercions = c;
+        }
+        return c;
+    }
+
+    /**
+     * Returns the Lua function implementing this method.
+     *
+     * @throws LuaException If the table doesn't contain a function with the name of the method.
+     */
+    LuaValue getFunction(LuaValue table) {
+        LuaValue func = table.get(name);
+        if (func.isnil()) {
+            throw new LuaException("No Lua function for interface method: " + method);
+        }
+        return func;
+    }
+
+    /**
+     * Calls the Lua function with boxed arguments, as passed to an {@link java.lang.reflect.InvocationHandler}.
+     */
+    @Nullable Object call(LuaValue table, @Nullable Object[] args) {
+        LuaValue func = getFunction(table);
+        Coercions c = resolveCoercions();
+
+        final ValueCoercions[] params = c.params;
+        final LuaValue result;
+        switch (params.length) {
+        case 0:
+            result = func.call();
+            break;
+        case 1:
+            result = func.call(params[0].toLua(args[0]));
+            break;
+        case 2:
+            result = func.call(params[0].toLua(args[0]), params[1].toLua(args[1]));
+            break;
+        case 3:
+            result = func.call(params[0].toLua(args[0]), params[1].toLua(args[1]), params[2].toLua(args[2]));
+            break;
+        default:
+            LuaValue[] luaArgs = new LuaValue[params.length];
+            for (int n = 0; n < luaArgs.length; n++) {
+                luaArgs[n] = params[n].toLua(args[n]);
+            }
+            result = func.invoke(luaArgs).arg1();
+        }
+        return c.resultToJava(result);
+    }
+
+    /**
+     * The conversions for the arguments and return value of an interface method, resolved once for a specific
+     * {@link ITypeCoercions} instance. Instances are immutable, since proxies may be called from any thread.
+     * <p>
+     * With the default type coercions, primitive values are converted without boxing them. The conversions are
+     * the same as those of {@link DefaultTypeCoercions}.
+     */
+    static final class Coercions {
+
+        private final ITypeCoercions typeCoercions;
+        private final boolean defaultCoercions;
+        private final Class<?>[] paramTypes;
+        private final ValueCoercions[] params;
+        private final Class<?> returnType;
+        private final @Nullable ValueCoercions result;
+
+        private Coercions(ITypeCoercions typeCoercions, Method method) {
+            this.typeCoercions = typeCoercions;
+            this.defaultCoercions = (typeCoercions == DefaultTypeCoercions.INSTANCE);
+
+            paramTypes = method.getParameterTypes();
+            params = new ValueCoercions[paramTypes.length];
+            for (int n = 0; n < params.length; n++) {
+                params[n] = ValueCoercions.resolve(null, typeCoercions, paramTypes[n]);
+            }
+
+            returnType = method.getReturnType();
+            if (returnType == Void.TYPE) {
+                result = null;
+            } else {
+                result = ValueCoercions.resolve(null, typeCoercions, returnType);
+            }
+        }
+
+        /** Converts an argument of type {@code int}, {@code short}, {@code byte} or {@code char}. */
+        LuaValue argToLua(int param, int value) {
+            if (defaultCoercions) {
+                return LuaInteger.valueOf(value);
+            }
+
+            Class<?> type = paramTypes[param];
+            if (type == Character.TYPE) {
+                return params[param].toLua(Character.valueOf((char)value));
+            } else if (type == Byte.TYPE) {
+                return params[param].toLua(Byte.valueOf((byte)value));
+            } else if (type == Short.TYPE) {
+                return params[param].toLua(Short.valueOf((short)value));
+            } else {
+                return params[param].toLua(Integer.valueOf(value));
+            }
+        }
+
+        LuaValue argToLua(int param, long value) {
+            if (defaultCoercions) {
+                return LuaDouble.valueOf(value);
+            }
+            return params[param].toLua(Long.valueOf(value));
+        }
+
+        LuaValue argToLua(int param, float value) {
+            if (defaultCoercions) {
+                return LuaDouble.valueOf(value);
+            }
+            return params[param].toLua(Float.valueOf(value));
+        }
+
+        LuaValue argToLua(int param, double value) {
+            if (defaultCoercions) {
+                return LuaDouble.valueOf(value);
+            }
+            return params[param].toLua(Double.valueOf(value));
+        }
+
+        LuaValue argToLua(int param, boolean value) {
+            if (defaultCoercions) {
+                return LuaBoolean.valueOf(value);
+            }
+            return params[param].toLua(Boolean.valueOf(value));
+        }
+
+        LuaValue argToLua(int param, @Nullable Object value) {
+            return params[param].toLua(value);
+        }
+
+        /** Converts the result to a return value of type {@code int}, {@code short}, {@code byte} or {@code char}. */
+        int resultToInt(LuaValue value) {
+            if (defaultCoercions) {
+                if (returnType == Character.TYPE) {
+                    return value.tochar();
+                } else if (returnType == Byte.TYPE) {
+                    return value.tobyte();
+                } else if (returnType == Short.TYPE) {
+                    return value.toshort();
+                } else {
+                    return value.toint();
+                }
+            }
+
+            Object javaValue = resultToJava(value);
+            if (javaValue instanceof Character) {
+                return ((Character)javaValue).charValue();
+            }
+            return ((Number)javaValue).intValue();
+        }
+
+        long resultToLong(LuaValue value) {
+            if (defaultCoercions) {
+                return value.tolong();
+            }
+            return ((Number)resultToJava(value)).longValue();
+        }
+
+        float resultToFloat(LuaValue value) {
+            if (defaultCoercions) {
+                return value.tofloat();
+            }
+            return ((Number)resultToJava(value)).floatValue();
+        }
+
+        double resultToDouble(LuaValue value) {
+            if (defaultCoercions) {
+                return value.todouble();
+            }
+            return ((Number)resultToJava(value)).doubleValue();
+        }
+
+        boolean resultToBoolean(LuaValue value) {
+            if (defaultCoercions) {
+                return value.toboolean();
+            }
+            return ((Boolean)resultToJava(value)).booleanValue();
+        }
+
+        /** Converts the result to the boxed return value, or {@code null} for a {@code void} method. */
+        @Nullable Object resultToJava(LuaValue value) {
+            if (result == null) {
+                return null;
+            }
+            return result.toJava(value);
+        }
+    }
+
+}
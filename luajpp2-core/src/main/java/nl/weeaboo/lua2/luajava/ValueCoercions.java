@@ -0,0 +1,56 @@
+package nl.weeaboo.lua2.luajava;
+
+import javax.annotation.Nullable;
+
+import nl.weeaboo.lua2.vm.LuaValue;
+
+/**
+ * The conversions between Lua and a single Java type, resolved once for a specific {@link ITypeCoercions}
+ * instance. Instances are immutable, since they may be shared between threads.
+ */
+final class ValueCoercions {
+
+    private final ITypeCoercions typeCoercions;
+    private final Class<?> javaType;
+    private final ILuaToJava<?> luaToJava;
+    private final IJavaToLua javaToLua;
+
+    private ValueCoercions(ITypeCoercions typeCoercions, Class<?> javaType) {
+        this.typeCoercions = typeCoercions;
+        this.javaType = javaType;
+
+        luaToJava = MemberCoercions.resolveLuaToJava(typeCoercions, javaType);
+        javaToLua = MemberCoercions.resolveJavaToLua(typeCoercions, javaType);
+    }
+
+    /**
+     * Returns the conversions for {@code typeCoercions}, reusing {@code existing} if it was resolved for the same
+     * instance.
+     */
+    static ValueCoercions resolve(@Nullable ValueCoercions existing, ITypeCoercions typeCoercions,
+            Class<?> javaType) {
+
+        if (existing != null && existing.typeCoercions == typeCoercions) {
+            return existing;
+        }
+        return new ValueCoercions(typeCoercions, javaType);
+    }
+
+    /**
+     * @see ITypeCoercions#toJava(LuaValue, Class)
+     */
+    @Nullable Object toJava(LuaValue luaValue) {
+        return luaToJava.toJava(luaValue);
+    }
+
+    /**
+     * @see ITypeCoercions#toLua(Object, Class)
+     */
+    LuaValue toLua(@Nullable Object javaValue) {
+        if (javaValue == null) {
+            return typeCoercions.toLua(null, javaType);
+        }
+        return javaToLua.toLua(javaValue);
+    }
+
+}
@@ -60,6 +60,8 @@ public final class BaseLib extends LuaLib {
         globals.set("_VERSION", LuaConstants.getEngineVersion());
 
         registerFunctions(globals, globals);
+        globals.rawset("select", new SelectFunction(globals, globals.rawget("select")));
+        globals.rawset("unpack", new UnpackFunction(globals, globals.rawget("unpack")));
     }
 
     private LuaTable getGlobals() {
@@ -300,6 +302,8 @@ public final class BaseLib extends LuaLib {
 
     /**
      * {@code (f, ...) -> value1, ...}
+     *
+     * @see SelectFunction
      */
     @LuaBoundFunction
     public Varargs select(Varargs args) {
@@ -316,6 +320,8 @@ public final class BaseLib extends LuaLib {
 
     /**
      * {@code (list [,i [,j]]) -> result1, ...}
+     *
+     * @see UnpackFunction
      */
     @LuaBoundFunction
     public Varargs unpack(Varargs args) {
@@ -15,6 +15,7 @@ import nl.weeaboo.lua2.vm.LuaConstants;
 import nl.weeaboo.lua2.vm.LuaStackTraceElement;
 import nl.weeaboo.lua2.vm.LuaString;
 import nl.weeaboo.lua2.vm.LuaValue;
+import nl.weeaboo.lua2.vm.RegisterStack;
 import nl.weeaboo.lua2.vm.Varargs;
 
 /**
@@ -33,7 +34,8 @@ final class DebugInfo implements Externalizable {
     LuaValue func;
     String functionName = "?";
     @Nullable LuaClosure closure;
-    LuaValue[] stack;
+    @Nullable RegisterStack registers;
+    int base;
     Varargs varargs;
     Varargs extras;
     int pc;
@@ -53,7 +55,8 @@ final class DebugInfo implements Externalizable {
     public void writeExternal(ObjectOutput out) throws IOException {
         out.writeObject(func);
         out.writeObject(closure);
-        out.writeObject(stack);
+        out.writeObject(registers);
+        out.writeInt(base);
         out.writeObject(varargs);
         out.writeObject(extras);
         out.writeInt(pc);
@@ -64,16 +67,18 @@ final class DebugInfo implements Externalizable {
     public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
         func = (LuaValue)in.readObject();
         closure = (LuaClosure)in.readObject();
-        stack = (LuaValue[])in.readObject();
+        registers = (RegisterStack)in.readObject();
+        base = in.readInt();
         varargs = (Varargs)in.readObject();
         extras = (Varargs)in.readObject();
         pc = in.readInt();
         top = in.readInt();
     }
 
-    void setargs(Varargs varargs, LuaValue[] stack) {
+    void setargs(Varargs varargs, RegisterStack registers, int base) {
         this.varargs = varargs;
-        this.stack = stack;
+        this.registers = registers;
+        this.base = base;
     }
 
     void setfunction(LuaValue func, String functionName) {
@@ -85,7 +90,8 @@ final class DebugInfo implements Externalizable {
     void clear() {
         func = NIL;
         closure = null;
-        stack = LuaConstants.NOVALS;
+        registers = null;
+        base = 0;
         varargs = extras = LuaConstants.NONE;
         pc = top = 0;
     }
@@ -144,8 +150,27 @@ final class DebugInfo implements Externalizable {
         return closure.getPrototype().getlocalname(index, pc);
     }
 
+    /** Returns the number of registers used by the function. */
+    int getStackSize() {
+        if (closure == null || registers == null) {
+            return 0;
+        }
+        return closure.getPrototype().maxstacksize;
+    }
+
     public LuaValue getLocalValue(int index) {
-        return stack[index - 1];
+        RegisterStack registers = this.registers;
+        if (registers == null) {
+            return NIL;
+        }
+        return registers.get(base + index - 1);
+    }
+
+    void setLocalValue(int index, LuaValue value) {
+        RegisterStack registers = this.registers;
+        if (registers != null) {
+            registers.set(base + index - 1, value);
+        }
     }
 
     public LuaStackTraceElement getStackTraceElement() {
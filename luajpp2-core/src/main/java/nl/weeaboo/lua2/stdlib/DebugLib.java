@@ -35,6 +35,7 @@ import nl.weeaboo.lua2.vm.LuaTable;
 import nl.weeaboo.lua2.vm.LuaThread;
 import nl.weeaboo.lua2.vm.LuaValue;
 import nl.weeaboo.lua2.vm.Prototype;
+import nl.weeaboo.lua2.vm.RegisterStack;
 import nl.weeaboo.lua2.vm.UpValue;
 import nl.weeaboo.lua2.vm.Varargs;
 
@@ -236,7 +237,7 @@ public final class DebugLib extends LuaModule {
 
         LuaString name = di.getlocalname(local);
         if (name != null) {
-            di.stack[local - 1] = value;
+            di.setLocalValue(local, value);
             return name;
         } else {
             return NIL;
@@ -567,12 +568,12 @@ public final class DebugLib extends LuaModule {
     }
 
     /** Called by Closures to set up stack and arguments to next call */
-    public static void debugSetupCall(LuaThread thread, Varargs args, LuaValue[] stack) {
+    public static void debugSetupCall(LuaThread thread, Varargs args, RegisterStack registers, int base) {
         DebugState ds = getDebugState(thread);
         if (ds.inhook) {
             return;
         }
-        ds.nextInfo().setargs(args, stack);
+        ds.nextInfo().setargs(args, registers, base);
     }
 
     /**
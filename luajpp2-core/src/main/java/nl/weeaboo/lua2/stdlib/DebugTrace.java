@@ -214,8 +214,8 @@ public final class DebugTrace {
              * every NIL is the same instance. That's good for performance, but it also means that at this
              * point in the code we can no longer distinguish between different NIL instances.
              */
-            for (int n = 0; n < di.stack.length; n++) {
-                if (di.stack[n] == value) {
+            for (int n = 0; n < di.getStackSize(); n++) {
+                if (di.getLocalValue(n + 1) == value) {
                     stackPos = n;
                     break;
                 }
@@ -13,6 +13,7 @@ import nl.weeaboo.lua2.lib.LuaBoundFunction;
 import nl.weeaboo.lua2.vm.LuaDouble;
 import nl.weeaboo.lua2.vm.LuaInteger;
 import nl.weeaboo.lua2.vm.LuaTable;
+import nl.weeaboo.lua2.vm.LuaValue;
 import nl.weeaboo.lua2.vm.Varargs;
 
 /**
@@ -43,8 +44,8 @@ public final class MathLib extends LuaModule {
      * Returns the absolute value of x.
      */
     @LuaBoundFunction
-    public Varargs abs(Varargs args) {
-        return valueOf(Math.abs(args.checkdouble(1)));
+    public double abs(double x) {
+        return Math.abs(x);
     }
 
     /**
@@ -53,8 +54,8 @@ public final class MathLib extends LuaModule {
      * Returns the smallest integer larger than or equal to x.
      */
     @LuaBoundFunction
-    public Varargs ceil(Varargs args) {
-        return valueOf(Math.ceil(args.checkdouble(1)));
+    public double ceil(double x) {
+        return Math.ceil(x);
     }
 
     /**
@@ -63,8 +64,8 @@ public final class MathLib extends LuaModule {
      * Returns the cosine of x (assumed to be in radians).
      */
     @LuaBoundFunction
-    public Varargs cos(Varargs args) {
-        return valueOf(Math.cos(args.checkdouble(1)));
+    public double cos(double x) {
+        return Math.cos(x);
     }
 
     /**
@@ -73,8 +74,8 @@ public final class MathLib extends LuaModule {
      * Returns the angle x (given in radians) in degrees.
      */
     @LuaBoundFunction
-    public Varargs deg(Varargs args) {
-        return valueOf(Math.toDegrees(args.checkdouble(1)));
+    public double deg(double x) {
+        return Math.toDegrees(x);
     }
 
     /**
@@ -83,8 +84,8 @@ public final class MathLib extends LuaModule {
      * Returns the value e<sup>x</sup>.
      */
     @LuaBoundFunction
-    public Varargs exp(Varargs args) {
-        return valueOf(Math.exp(args.checkdouble(1)));
+    public double exp(double x) {
+        return Math.exp(x);
     }
 
     /**
@@ -93,8 +94,8 @@ public final class MathLib extends LuaModule {
      * Returns the largest integer smaller than or equal to x.
      */
     @LuaBoundFunction
-    public Varargs floor(Varargs args) {
-        return valueOf(Math.floor(args.checkdouble(1)));
+    public double floor(double x) {
+        return Math.floor(x);
     }
 
     /**
@@ -103,8 +104,8 @@ public final class MathLib extends LuaModule {
      * Returns the angle x (given in degrees) in radians.
      */
     @LuaBoundFunction
-    public Varargs rad(Varargs args) {
-        return valueOf(Math.toRadians(args.checkdouble(1)));
+    public double rad(double x) {
+        return Math.toRadians(x);
     }
 
     /**
@@ -113,8 +114,8 @@ public final class MathLib extends LuaModule {
      * Returns the sine of x (assumed to be in radians).
      */
     @LuaBoundFunction
-    public Varargs sin(Varargs args) {
-        return valueOf(Math.sin(args.checkdouble(1)));
+    public double sin(double x) {
+        return Math.sin(x);
     }
 
     /**
@@ -123,8 +124,8 @@ public final class MathLib extends LuaModule {
      * Returns the square root of x. (You can also use the expression x^0.5 to compute this value.)
      */
     @LuaBoundFunction
-    public Varargs sqrt(Varargs args) {
-        return valueOf(Math.sqrt(args.checkdouble(1)));
+    public double sqrt(double x) {
+        return Math.sqrt(x);
     }
 
     /**
@@ -133,8 +134,8 @@ public final class MathLib extends LuaModule {
      * Returns the tangent of x (assumed to be in radians).
      */
     @LuaBoundFunction
-    public Varargs tan(Varargs args) {
-        return valueOf(Math.tan(args.checkdouble(1)));
+    public double tan(double x) {
+        return Math.tan(x);
     }
 
     /**
@@ -143,8 +144,8 @@ public final class MathLib extends LuaModule {
      * Returns the arc sine of x (in radians).
      */
     @LuaBoundFunction
-    public Varargs asin(Varargs args) {
-        return valueOf(Math.asin(args.checkdouble(1)));
+    public double asin(double x) {
+        return Math.asin(x);
     }
 
     /**
@@ -153,8 +154,8 @@ public final class MathLib extends LuaModule {
      * Returns the arc cosine of x (in radians).
      */
     @LuaBoundFunction
-    public Varargs acos(Varargs args) {
-        return valueOf(Math.acos(args.checkdouble(1)));
+    public double acos(double x) {
+        return Math.acos(x);
     }
 
     /**
@@ -163,29 +164,29 @@ public final class MathLib extends LuaModule {
      * Returns the arc tangent of x (in radians).
      */
     @LuaBoundFunction
-    public Varargs atan(Varargs args) {
-        return valueOf(Math.atan(args.checkdouble(1)));
+    public double atan(double x) {
+        return Math.atan(x);
     }
 
     /**
-     * math.atan2 (x)
+     * math.atan2 (y, x)
      * <p>
      * Returns the arc tangent of y/x (in radians), but uses the signs of both parameters to find the quadrant
      * of the result. (It also handles correctly the case of x being zero.)
      */
     @LuaBoundFunction
-    public Varargs atan2(Varargs args) {
-        return valueOf(Math.atan2(args.checkdouble(1), args.checkdouble(2)));
+    public double atan2(double y, double x) {
+        return Math.atan2(y, x);
     }
 
     /**
-     * math.pow (x)
+     * math.pow (x, y)
      * <p>
      * Returns {@code x<pow>y</pow>}. (You can also use the expression {@code x^y} to compute this value.)
      */
     @LuaBoundFunction
-    public Varargs pow(Varargs args) {
-        return args.arg(1).pow(args.checkdouble(2));
+    public LuaValue pow(LuaValue x, double y) {
+        return x.pow(y);
     }
 
     /**
@@ -194,8 +195,8 @@ public final class MathLib extends LuaModule {
      * Returns the hyperbolic sine of x.
      */
     @LuaBoundFunction
-    public Varargs sinh(Varargs args) {
-        return valueOf(Math.sinh(args.checkdouble(1)));
+    public double sinh(double x) {
+        return Math.sinh(x);
     }
 
     /**
@@ -204,8 +205,8 @@ public final class MathLib extends LuaModule {
      * Returns the hyperbolic cosine of x.
      */
     @LuaBoundFunction
-    public Varargs cosh(Varargs args) {
-        return valueOf(Math.cosh(args.checkdouble(1)));
+    public double cosh(double x) {
+        return Math.cosh(x);
     }
 
     /**
@@ -214,8 +215,8 @@ public final class MathLib extends LuaModule {
      * Returns the hyperbolic tangent of x.
      */
     @LuaBoundFunction
-    public Varargs tanh(Varargs args) {
-        return valueOf(Math.tanh(args.checkdouble(1)));
+    public double tanh(double x) {
+        return Math.tanh(x);
     }
 
     /**
@@ -224,8 +225,8 @@ public final class MathLib extends LuaModule {
      * Returns the natural logarithm of x.
      */
     @LuaBoundFunction
-    public Varargs log(Varargs args) {
-        return valueOf(Math.log(args.checkdouble(1)));
+    public double log(double x) {
+        return Math.log(x);
     }
 
     /**
@@ -234,8 +235,8 @@ public final class MathLib extends LuaModule {
      * Returns the base-10 logarithm of x.
      */
     @LuaBoundFunction
-    public Varargs log10(Varargs args) {
-        return valueOf(Math.log10(args.checkdouble(1)));
+    public double log10(double x) {
+        return Math.log10(x);
     }
 
     /**
@@ -267,17 +268,14 @@ public final class MathLib extends LuaModule {
     }
 
     /**
-     * math.fmod (x)
+     * math.fmod (x, y)
      * <p>
      * Returns the remainder of the division of x by y that rounds the quotient towards zero.
      */
     @LuaBoundFunction
-    public Varargs fmod(Varargs args) {
-        double x = args.checkdouble(1);
-        double y = args.checkdouble(2);
+    public double fmod(double x, double y) {
         double q = x / y;
-        double f = x - y * (q >= 0 ? Math.floor(q) : Math.ceil(q));
-        return valueOf(f);
+        return x - y * (q >= 0 ? Math.floor(q) : Math.ceil(q));
     }
 
     /**
@@ -286,11 +284,10 @@ public final class MathLib extends LuaModule {
      * Returns m2<sup>e</sup> (e should be an integer).
      */
     @LuaBoundFunction
-    public Varargs ldexp(Varargs args) {
-        double x = args.checkdouble(1);
-        double y = args.checkdouble(2) + 1023.5;
-        long e = (long)((0 != (1 & ((int)y))) ? Math.floor(y) : Math.ceil(y - 1));
-        return valueOf(x * Double.longBitsToDouble(e << 52));
+    public double ldexp(double m, double e) {
+        double y = e + 1023.5;
+        long bits = (long)((0 != (1 & ((int)y))) ? Math.floor(y) : Math.ceil(y - 1));
+        return m * Double.longBitsToDouble(bits << 52);
     }
 
     /**
@@ -313,12 +310,12 @@ public final class MathLib extends LuaModule {
     }
 
     /**
-     * @deprecated Use {@link #fmod(Varargs)} instead.
+     * @deprecated Use {@link #fmod(double, double)} instead.
      */
     @Deprecated
     @LuaBoundFunction
-    public Varargs mod(Varargs args) {
-        return fmod(args);
+    public double mod(double x, double y) {
+        return fmod(x, y);
     }
 
     /**
@@ -0,0 +1,39 @@
+package nl.weeaboo.lua2.stdlib;
+
+import static nl.weeaboo.lua2.vm.LuaValue.valueOf;
+
+import nl.weeaboo.lua2.io.LuaSerializable;
+import nl.weeaboo.lua2.lib.VarArgFunction;
+import nl.weeaboo.lua2.vm.LuaString;
+import nl.weeaboo.lua2.vm.LuaValue;
+import nl.weeaboo.lua2.vm.Varargs;
+
+/**
+ * {@code (f, ...) -> value1, ...}
+ * <p>
+ * The interpreter recognizes this function and handles the common cases itself, reading the arguments
+ * directly from the registers of the calling function. Other calls are passed on to {@link BaseLib#select}.
+ */
+@LuaSerializable
+public final class SelectFunction extends VarArgFunction {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Special first argument, returns the number of remaining arguments. */
+    public static final LuaString COUNT = valueOf("#");
+
+    private final LuaValue impl;
+
+    SelectFunction(LuaValue env, LuaValue impl) {
+        super(env);
+        name = "select";
+
+        this.impl = impl;
+    }
+
+    @Override
+    public Varargs invoke(Varargs args) {
+        return impl.invoke(args);
+    }
+
+}
@@ -78,8 +78,8 @@ public final class StringLib extends LuaModule {
      * so "a\000bc\000" has length 5.
      */
     @LuaBoundFunction
-    public Varargs len(Varargs args) {
-        return args.checkstring(1).len();
+    public LuaValue len(LuaString s) {
+        return s.len();
     }
 
     /**
@@ -90,8 +90,8 @@ public final class StringLib extends LuaModule {
      * current locale.
      */
     @LuaBoundFunction
-    public Varargs lower(Varargs args) {
-        return valueOf(args.checkjstring(1).toLowerCase(Locale.ROOT));
+    public LuaString lower(String s) {
+        return valueOf(s.toLowerCase(Locale.ROOT));
     }
 
     /**
@@ -102,8 +102,8 @@ public final class StringLib extends LuaModule {
      * current locale.
      */
     @LuaBoundFunction
-    public Varargs upper(Varargs args) {
-        return valueOf(args.checkjstring(1).toUpperCase(Locale.ROOT));
+    public LuaString upper(String s) {
+        return valueOf(s.toUpperCase(Locale.ROOT));
     }
 
     /**
@@ -112,8 +112,7 @@ public final class StringLib extends LuaModule {
      * Returns a string that is the string s reversed.
      */
     @LuaBoundFunction
-    public Varargs reverse(Varargs args) {
-        LuaString s = args.checkstring(1);
+    public LuaString reverse(LuaString s) {
         int n = s.length();
         byte[] b = new byte[n];
         for (int i = 0, j = n - 1; i < n; i++, j--) {
@@ -408,9 +407,7 @@ public final class StringLib extends LuaModule {
      * Returns a string that is the concatenation of n copies of the string s.
      */
     @LuaBoundFunction
-    public Varargs rep(Varargs args) {
-        LuaString s = args.checkstring(1);
-        int n = args.checkint(2);
+    public LuaString rep(LuaString s, int n) {
         final byte[] bytes = new byte[s.length() * n];
         int len = s.length();
         for (int offset = 0; offset < bytes.length; offset += len) {
@@ -428,12 +425,11 @@ public final class StringLib extends LuaModule {
      * of s with length i.
      */
     @LuaBoundFunction
-    public Varargs sub(Varargs args) {
-        final LuaString s = args.checkstring(1);
+    public LuaString sub(LuaString s, int i, LuaValue j) {
         final int l = s.length();
 
-        int start = posrelat(args.checkint(2), l);
-        int end = posrelat(args.optint(3, -1), l);
+        int start = posrelat(i, l);
+        int end = posrelat(j.optint(-1), l);
 
         if (start < 1) {
             start = 1;
@@ -3,10 +3,10 @@ package nl.weeaboo.lua2.stdlib;
 import static nl.weeaboo.lua2.vm.LuaConstants.EMPTYSTRING;
 import static nl.weeaboo.lua2.vm.LuaConstants.NONE;
 import static nl.weeaboo.lua2.vm.LuaNil.NIL;
-import static nl.weeaboo.lua2.vm.LuaValue.valueOf;
 
 import nl.weeaboo.lua2.io.LuaSerializable;
 import nl.weeaboo.lua2.lib.LuaBoundFunction;
+import nl.weeaboo.lua2.vm.LuaFunction;
 import nl.weeaboo.lua2.vm.LuaString;
 import nl.weeaboo.lua2.vm.LuaTable;
 import nl.weeaboo.lua2.vm.LuaValue;
@@ -28,16 +28,16 @@ public final class TableLib extends LuaModule {
      * {@code "getn" (table) -> number}
      */
     @LuaBoundFunction
-    public Varargs getn(Varargs args) {
-        return args.checktable(1).getn();
+    public LuaValue getn(LuaTable table) {
+        return table.getn();
     }
 
     /**
      * {@code "maxn" (table) -> number}
      */
     @LuaBoundFunction
-    public Varargs maxn(Varargs args) {
-        return valueOf(args.checktable(1).maxn());
+    public double maxn(LuaTable table) {
+        return table.maxn();
     }
 
     /**
@@ -78,27 +78,24 @@ public final class TableLib extends LuaModule {
      * {@code "sort" (table [, comp]) -> void}
      */
     @LuaBoundFunction
-    public Varargs sort(Varargs args) {
-        LuaTable table = args.checktable(1);
-        LuaValue compare = (args.isnoneornil(2) ? NIL : args.checkfunction(2));
-        table.sort(compare);
-        return NONE;
+    public void sort(LuaTable table, LuaValue comp) {
+        table.sort(comp.isnil() ? NIL : comp.checkfunction());
     }
 
     /**
      * {@code "foreach" (table, func) -> void}
      */
     @LuaBoundFunction
-    public Varargs foreach(Varargs args) {
-        return args.checktable(1).foreach(args.checkfunction(2));
+    public LuaValue foreach(LuaTable table, LuaFunction func) {
+        return table.foreach(func);
     }
 
     /**
      * {@code "foreachi" (table, func) -> void}
      */
     @LuaBoundFunction
-    public Varargs foreachi(Varargs args) {
-        return args.checktable(1).foreachi(args.checkfunction(2));
+    public LuaValue foreachi(LuaTable table, LuaFunction func) {
+        return table.foreachi(func);
     }
 
 }
@@ -0,0 +1,33 @@
+package nl.weeaboo.lua2.stdlib;
+
+import nl.weeaboo.lua2.io.LuaSerializable;
+import nl.weeaboo.lua2.lib.VarArgFunction;
+import nl.weeaboo.lua2.vm.LuaValue;
+import nl.weeaboo.lua2.vm.Varargs;
+
+/**
+ * {@code (list [,i [,j]]) -> result1, ...}
+ * <p>
+ * The interpreter recognizes this function and handles the common cases itself, storing the results
+ * directly in the registers of the calling function. Other calls are passed on to {@link BaseLib#unpack}.
+ */
+@LuaSerializable
+public final class UnpackFunction extends VarArgFunction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final LuaValue impl;
+
+    UnpackFunction(LuaValue env, LuaValue impl) {
+        super(env);
+        name = "unpack";
+
+        this.impl = impl;
+    }
+
+    @Override
+    public Varargs invoke(Varargs args) {
+        return impl.invoke(args);
+    }
+
+}
@@ -0,0 +1,86 @@
+package nl.weeaboo.lua2.vm;
+
+import static nl.weeaboo.lua2.vm.LuaNil.NIL;
+
+import java.util.Arrays;
+
+/**
+ * Reusable holder for the return values of a {@link PreparedCall}. The holder is owned by the caller and
+ * overwritten by every call it's passed to, so the results of a call remain valid only until the next call.
+ * Don't pass the holder to code that may store it as a {@link Varargs}; use {@link #copy()} instead.
+ */
+public final class CallResults extends Varargs {
+
+    private LuaValue[] values;
+    private int count;
+
+    public CallResults() {
+        values = new LuaValue[2];
+    }
+
+    @Override
+    public LuaValue arg(int i) {
+        return (i >= 1 && i <= count ? values[i - 1] : NIL);
+    }
+
+    @Override
+    public int narg() {
+        return count;
+    }
+
+    @Override
+    public LuaValue arg1() {
+        return (count > 0 ? values[0] : NIL);
+    }
+
+    /** Returns an immutable copy of the current return values. */
+    public Varargs copy() {
+        return LuaValue.varargsOf(Arrays.copyOf(values, count));
+    }
+
+    /** Removes the stored return values. */
+    public void clear() {
+        Arrays.fill(values, 0, count, null);
+        count = 0;
+    }
+
+    void set(Varargs results) {
+        final int length = results.narg();
+        ensureCapacity(length);
+        for (int n = 0; n < length; n++) {
+            values[n] = results.arg(1 + n);
+        }
+        clearFrom(length);
+    }
+
+    /**
+     * Copies return values from the register stack, followed by {@code more}.
+     *
+     * @see nl.weeaboo.lua2.internal.LuaArgsUtil#copyArgs(LuaValue[], int, int, Varargs)
+     */
+    void set(LuaValue[] stack, int offset, int length, Varargs more) {
+        length = Math.max(0, length);
+        final int moreLength = more.narg();
+        ensureCapacity(length + moreLength);
+        System.arraycopy(stack, offset, values, 0, length);
+        for (int n = 0; n < moreLength; n++) {
+            values[length + n] = more.arg(1 + n);
+        }
+        clearFrom(length + moreLength);
+    }
+
+    private void ensureCapacity(int length) {
+        if (values.length < length) {
+            values = Arrays.copyOf(values, Math.max(length, values.length * 2));
+        }
+    }
+
+    private void clearFrom(int newCount) {
+        if (newCount < count) {
+            // Don't keep the old values reachable
+            Arrays.fill(values, newCount, count, null);
+        }
+        count = newCount;
+    }
+
+}
@@ -0,0 +1,441 @@
+package nl.weeaboo.lua2.vm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal writer for JVM class files, used by {@link PrototypeCompiler} and by the Java interface proxies of
+ * luajava.
+ * <p>
+ * Writes class file version 49 (Java 5), which doesn't require stack map frames. The JVM verifies these
+ * classes using type inference instead.
+ * <p>
+ * This class is public so other packages of the engine can generate classes; it isn't meant to be used by other
+ * code.
+ */
+public final class ClassFileWriter {
+
+    private static final int CLASS_FILE_MAGIC = 0xCAFEBABE;
+    private static final int CLASS_FILE_VERSION = 49;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_PROTECTED = 0x0004;
+    public static final int ACC_FINAL = 0x0010;
+    public static final int ACC_SUPER = 0x0020;
+
+    private final String className;
+    private final String superClassName;
+
+    private final ByteArrayOutputStream constantPoolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream constantPool = new DataOutputStream(constantPoolBytes);
+    private final Map<String, Integer> constantIndices = new HashMap<>();
+    private int constantPoolCount = 1;
+
+    private final List<String> interfaces = new ArrayList<>();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    /**
+     * @param className Internal name of the class to generate.
+     * @param superClassName Internal name of the super class.
+     */
+    public ClassFileWriter(String className, String superClassName) {
+        this.className = className;
+        this.superClassName = superClassName;
+    }
+
+    /** Returns the internal name of the class to generate. */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * Adds an interface implemented by the generated class.
+     *
+     * @param internalName Internal name of the interface.
+     */
+    public void addInterface(String internalName) {
+        interfaces.add(internalName);
+    }
+
+    int utf8(String value) {
+        String key = "U" + value;
+        Integer index = constantIndices.get(key);
+        if (index == null) {
+            index = addConstant(key);
+            writeConstant(CONSTANT_UTF8);
+            writeUtf(value);
+        }
+        return index;
+    }
+
+    int integer(int value) {
+        String key = "I" + value;
+        Integer index = constantIndices.get(key);
+        if (index == null) {
+            index = addConstant(key);
+            writeConstant(CONSTANT_INTEGER);
+            writeInt(value);
+        }
+        return index;
+    }
+
+    int string(String value) {
+        String key = "S" + value;
+        Integer index = constantIndices.get(key);
+        if (index == null) {
+            int utf8 = utf8(value);
+            index = addConstant(key);
+            writeConstant(CONSTANT_STRING);
+            writeShort(utf8);
+        }
+        return index;
+    }
+
+    int classRef(String internalName) {
+        String key = "C" + internalName;
+        Integer index = constantIndices.get(key);
+        if (index == null) {
+            int utf8 = utf8(internalName);
+            index = addConstant(key);
+            writeConstant(CONSTANT_CLASS);
+            writeShort(utf8);
+        }
+        return index;
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_FIELDREF, owner, name, descriptor);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        String key = tag + owner + "." + name + descriptor;
+        Integer index = constantIndices.get(key);
+        if (index == null) {
+            int classIndex = classRef(owner);
+            int nameAndType = nameAndType(name, descriptor);
+            index = addConstant(key);
+            writeConstant(tag);
+            writeShort(classIndex);
+            writeShort(nameAndType);
+        }
+        return index;
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        String key = "N" + name + " " + descriptor;
+        Integer index = constantIndices.get(key);
+        if (index == null) {
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            index = addConstant(key);
+            writeConstant(CONSTANT_NAME_AND_TYPE);
+            writeShort(nameIndex);
+            writeShort(descriptorIndex);
+        }
+        return index;
+    }
+
+    private int addConstant(String key) {
+        int index = constantPoolCount++;
+        constantIndices.put(key, index);
+        return index;
+    }
+
+    /**
+     * Adds a method with a {@code Code} attribute.
+     */
+    public void addMethod(int access, String name, String descriptor, Code code) {
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int codeAttributeName = utf8("Code");
+        byte[] bytecode = code.toByteArray();
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bout)) {
+            out.writeShort(access);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+            out.writeShort(1); // attributes_count
+            out.writeShort(codeAttributeName);
+            out.writeInt(12 + bytecode.length);
+            out.writeShort(code.maxStack);
+            out.writeShort(code.maxLocals);
+            out.writeInt(bytecode.length);
+            out.write(bytecode);
+            out.writeShort(0); // exception_table_length
+            out.writeShort(0); // attributes_count
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        methods.add(bout.toByteArray());
+    }
+
+    /**
+     * Returns the contents of the class file.
+     */
+    public byte[] toByteArray(int access) {
+        int thisClass = classRef(className);
+        int superClass = classRef(superClassName);
+        int[] interfaceRefs = new int[interfaces.size()];
+        for (int n = 0; n < interfaceRefs.length; n++) {
+            interfaceRefs[n] = classRef(interfaces.get(n));
+        }
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bout)) {
+            out.writeInt(CLASS_FILE_MAGIC);
+            out.writeShort(0); // minor_version
+            out.writeShort(CLASS_FILE_VERSION);
+            out.writeShort(constantPoolCount);
+            constantPool.flush();
+            constantPoolBytes.writeTo(out);
+            out.writeShort(access);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaceRefs.length);
+            for (int interfaceRef : interfaceRefs) {
+                out.writeShort(interfaceRef);
+            }
+            out.writeShort(0); // fields_count
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.write(method);
+            }
+            out.writeShort(0); // attributes_count
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bout.toByteArray();
+    }
+
+    private void writeConstant(int tag) {
+        try {
+            constantPool.writeByte(tag);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeShort(int value) {
+        try {
+            constantPool.writeShort(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeInt(int value) {
+        try {
+            constantPool.writeInt(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeUtf(String value) {
+        try {
+            constantPool.writeUTF(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Bytecode of a single method.
+     */
+    public static final class Code {
+
+        public static final int ICONST_0 = 0x03;
+        public static final int DCONST_0 = 0x0e;
+        public static final int BIPUSH = 0x10;
+        public static final int SIPUSH = 0x11;
+        public static final int LDC_W = 0x13;
+        public static final int ILOAD = 0x15;
+        public static final int LLOAD = 0x16;
+        public static final int FLOAD = 0x17;
+        public static final int ALOAD = 0x19;
+        public static final int DLOAD = 0x18;
+        public static final int AALOAD = 0x32;
+        public static final int ASTORE = 0x3a;
+        public static final int DSTORE = 0x39;
+        public static final int AASTORE = 0x53;
+        public static final int POP = 0x57;
+        public static final int DUP = 0x59;
+        public static final int DUP2 = 0x5c;
+        public static final int DADD = 0x63;
+        public static final int DSUB = 0x67;
+        public static final int DCMPL = 0x97;
+        public static final int DCMPG = 0x98;
+        public static final int IFEQ = 0x99;
+        public static final int IFNE = 0x9a;
+        public static final int IFLT = 0x9b;
+        public static final int IFGT = 0x9d;
+        public static final int IFLE = 0x9e;
+        public static final int GOTO = 0xa7;
+        public static final int IRETURN = 0xac;
+        public static final int LRETURN = 0xad;
+        public static final int FRETURN = 0xae;
+        public static final int DRETURN = 0xaf;
+        public static final int ARETURN = 0xb0;
+        public static final int RETURN = 0xb1;
+        public static final int GETSTATIC = 0xb2;
+        public static final int GETFIELD = 0xb4;
+        public static final int INVOKEVIRTUAL = 0xb6;
+        public static final int INVOKESPECIAL = 0xb7;
+        public static final int INVOKESTATIC = 0xb8;
+        public static final int NEW = 0xbb;
+        public static final int ANEWARRAY = 0xbd;
+        public static final int CHECKCAST = 0xc0;
+
+        private final ClassFileWriter classFile;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        public int maxStack;
+        public int maxLocals;
+
+        public Code(ClassFileWriter classFile) {
+            this.classFile = classFile;
+        }
+
+        /** Returns the current size of the bytecode in bytes. */
+        public int size() {
+            return bytes.size();
+        }
+
+        public byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+
+        public void op(int opcode) {
+            bytes.write(opcode);
+        }
+
+        private void u2(int value) {
+            bytes.write(value >> 8);
+            bytes.write(value);
+        }
+
+        /** Pushes an int constant. */
+        public void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                op(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(BIPUSH);
+                bytes.write(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op(SIPUSH);
+                u2(value);
+            } else {
+                op(LDC_W);
+                u2(classFile.integer(value));
+            }
+        }
+
+        /** Pushes a string constant. */
+        public void pushString(String value) {
+            op(LDC_W);
+            u2(classFile.string(value));
+        }
+
+        /** Instruction taking a local variable index as operand. */
+        public void local(int opcode, int index) {
+            if (index > 0xff) {
+                op(0xc4); // wide
+                op(opcode);
+                u2(index);
+            } else {
+                op(opcode);
+                bytes.write(index);
+            }
+        }
+
+        public void field(int opcode, String owner, String name, String descriptor) {
+            op(opcode);
+            u2(classFile.fieldRef(owner, name, descriptor));
+        }
+
+        public void method(int opcode, String owner, String name, String descriptor) {
+            op(opcode);
+            u2(classFile.methodRef(owner, name, descriptor));
+        }
+
+        /** Instruction taking a class as operand. */
+        public void type(int opcode, String internalName) {
+            op(opcode);
+            u2(classFile.classRef(internalName));
+        }
+
+        /** Branch instruction. The branch offset is filled in once the label's position is known. */
+        public void jump(int opcode, Label target) {
+            int position = bytes.size();
+            op(opcode);
+            target.addReference(position);
+            u2(0);
+        }
+
+        /** Marks the current position as the target of the given label. */
+        public void mark(Label label) {
+            label.position = bytes.size();
+        }
+
+        /**
+         * Fills in the branch offsets of the given labels.
+         *
+         * @return {@code false} if a branch offset doesn't fit in 16 bits.
+         */
+        public boolean resolve(Iterable<Label> labels) {
+            byte[] code = toByteArray();
+            for (Label label : labels) {
+                for (int n = 0; n < label.referenceCount; n++) {
+                    int position = label.references[n];
+                    int offset = label.position - position;
+                    if (label.position < 0 || offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                        return false;
+                    }
+                    code[position + 1] = (byte)(offset >> 8);
+                    code[position + 2] = (byte)offset;
+                }
+            }
+            bytes.reset();
+            bytes.write(code, 0, code.length);
+            return true;
+        }
+    }
+
+    /**
+     * Position in the bytecode of a method.
+     */
+    public static final class Label {
+
+        private int position = -1;
+        private int[] references = new int[2];
+        private int referenceCount;
+
+        private void addReference(int position) {
+            if (referenceCount == references.length) {
+                int[] newReferences = new int[references.length * 2];
+                System.arraycopy(references, 0, newReferences, 0, referenceCount);
+                references = newReferences;
+            }
+            references[referenceCount++] = position;
+        }
+    }
+
+}
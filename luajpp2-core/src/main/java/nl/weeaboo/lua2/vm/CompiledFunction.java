@@ -0,0 +1,147 @@
+package nl.weeaboo.lua2.vm;
+
+/**
+ * Base class for the JVM classes generated by {@link PrototypeCompiler}. Each subclass implements a single
+ * Lua function, with its registers stored in local variables.
+ * <p>
+ * Generated classes are defined by their own class loader, so they can only access the public and protected
+ * members of this class. The helper methods below give them access to the rest of the VM. This class is
+ * public for that reason only; it isn't meant to be used or extended by other code.
+ */
+public abstract class CompiledFunction {
+
+    /** Constants of the compiled function. */
+    protected final LuaValue[] k;
+
+    private final TableAccessCache[] tableAccessCaches;
+    private final TableAccessCache[] globalAccessCaches;
+
+    protected CompiledFunction(Prototype p) {
+        k = p.k;
+        tableAccessCaches = p.getTableAccessCaches();
+        globalAccessCaches = p.getGlobalAccessCaches();
+    }
+
+    /**
+     * Runs the compiled function.
+     */
+    protected abstract Varargs call(LuaClosure closure, Varargs args);
+
+    /** Gbl[Kst(index)] */
+    protected final LuaValue getGlobal(LuaValue env, int index) {
+        return globalAccessCache(index).get(env);
+    }
+
+    /** Gbl[Kst(index)] = value */
+    protected final void setGlobal(LuaValue env, int index, LuaValue value) {
+        globalAccessCache(index).set(env, value);
+    }
+
+    /** object[Kst(index)], for the table access instruction at the given pc. */
+    protected final LuaValue getField(LuaValue object, int pc, int index) {
+        return tableAccessCache(pc, index).get(object);
+    }
+
+    /** object[Kst(index)] = value, for the table access instruction at the given pc. */
+    protected final void setField(LuaValue object, int pc, int index, LuaValue value) {
+        tableAccessCache(pc, index).set(object, value);
+    }
+
+    private TableAccessCache globalAccessCache(int index) {
+        TableAccessCache cache = globalAccessCaches[index];
+        if (cache == null) {
+            cache = new TableAccessCache(k[index]);
+            globalAccessCaches[index] = cache;
+        }
+        return cache;
+    }
+
+    private TableAccessCache tableAccessCache(int pc, int index) {
+        TableAccessCache cache = tableAccessCaches[pc];
+        if (cache == null) {
+            cache = new TableAccessCache(k[index]);
+            tableAccessCaches[pc] = cache;
+        }
+        return cache;
+    }
+
+    protected static LuaValue add(LuaValue left, LuaValue right) {
+        if (left instanceof LuaInteger && right instanceof LuaInteger) {
+            return LuaInteger.valueOf((long)((LuaInteger)left).toint() + ((LuaInteger)right).toint());
+        }
+        return left.add(right);
+    }
+
+    protected static LuaValue sub(LuaValue left, LuaValue right) {
+        if (left instanceof LuaInteger && right instanceof LuaInteger) {
+            return LuaInteger.valueOf((long)((LuaInteger)left).toint() - ((LuaInteger)right).toint());
+        }
+        return left.sub(right);
+    }
+
+    protected static LuaValue mul(LuaValue left, LuaValue right) {
+        if (left instanceof LuaInteger && right instanceof LuaInteger) {
+            return LuaInteger.valueOf((long)((LuaInteger)left).toint() * ((LuaInteger)right).toint());
+        }
+        return left.mul(right);
+    }
+
+    protected static LuaValue div(LuaValue left, LuaValue right) {
+        return left.div(right);
+    }
+
+    protected static LuaValue mod(LuaValue left, LuaValue right) {
+        return left.mod(right);
+    }
+
+    protected static LuaValue pow(LuaValue left, LuaValue right) {
+        return left.pow(right);
+    }
+
+    protected static boolean eq(LuaValue left, LuaValue right) {
+        if (left instanceof LuaInteger && right instanceof LuaInteger) {
+            return ((LuaInteger)left).toint() == ((LuaInteger)right).toint();
+        }
+        return left.eq_b(right);
+    }
+
+    protected static boolean lt(LuaValue left, LuaValue right) {
+        if (left instanceof LuaInteger && right instanceof LuaInteger) {
+            return ((LuaInteger)left).toint() < ((LuaInteger)right).toint();
+        }
+        return left.lt_b(right);
+    }
+
+    protected static boolean le(LuaValue left, LuaValue right) {
+        if (left instanceof LuaInteger && right instanceof LuaInteger) {
+            return ((LuaInteger)left).toint() <= ((LuaInteger)right).toint();
+        }
+        return left.lteq_b(right);
+    }
+
+    /** R(A):= R(B).. ... ..R(C), for three or more operands. */
+    protected static LuaValue concat(LuaValue[] values) {
+        LuaValue result = LuaString.concat(values, 0, values.length - 1);
+        if (result != null) {
+            return result;
+        }
+
+        int c = values.length - 1;
+        Buffer buffer = values[c].buffer();
+        while (--c >= 0) {
+            buffer = values[c].concat(buffer);
+        }
+        return buffer.value();
+    }
+
+    /** Converts one of the control values of a numeric for loop to a {@code double}. */
+    protected static double forValue(LuaValue value, String errorMessage) {
+        return value.checknumber(errorMessage).todouble();
+    }
+
+    /** Converts the index of a numeric for loop to a Lua number. */
+    protected static LuaValue forIndex(double index) {
+        return LuaDouble.valueOf(index);
+    }
+
+}
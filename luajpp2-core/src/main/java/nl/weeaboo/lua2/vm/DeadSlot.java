@@ -91,7 +91,8 @@ final class DeadSlot implements ISlot {
             if (result == null) {
                 throw new NullPointerException("Unable to remove slot: next is null");
             }
-            return result;
+            // The target is somewhere further down the chain
+            return result.remove(target);
         }
     }
 
@@ -0,0 +1,17 @@
+package nl.weeaboo.lua2.vm;
+
+/**
+ * A userdata metatable that looks up keys itself. {@link LuaUserdata#get(LuaValue)} calls it directly, instead of
+ * calling the {@link LuaConstants#META_INDEX} metamethod as a Lua function.
+ */
+public interface IUserdataIndex {
+
+    /**
+     * Looks up a key for a userdata object. The result must be the same as the result of calling the
+     * {@link LuaConstants#META_INDEX} metamethod of this metatable.
+     *
+     * @param userdata A userdata object which has this table as its metatable.
+     */
+    LuaValue index(LuaUserdata userdata, LuaValue key);
+
+}
@@ -111,6 +111,16 @@ public final class LuaClosure extends LuaFunction {
         }
     }
 
+    /**
+     * @param upValues The upvalues of the closure, used directly (not copied).
+     */
+    LuaClosure(Prototype p, LuaValue env, UpValue[] upValues) {
+        super(env);
+
+        this.p = p;
+        this.upValues = upValues;
+    }
+
     @Override
     public boolean isclosure() {
         return true;
@@ -152,6 +162,15 @@ public final class LuaClosure extends LuaFunction {
         return thread.callFunctionInThread(this, varargs);
     }
 
+    /**
+     * Returns a handle for calling this closure repeatedly in the currently running thread.
+     *
+     * @see LuaThread#prepareCall(LuaClosure)
+     */
+    public PreparedCall prepareCall() {
+        return LuaThread.getRunning().prepareCall(this);
+    }
+
     /** Returns the prototype for this closure. */
     public Prototype getPrototype() {
         return p;
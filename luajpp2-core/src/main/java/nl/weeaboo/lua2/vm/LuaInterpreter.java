@@ -16,8 +16,11 @@ import com.google.errorprone.annotations.CheckReturnValue;
 
 import nl.weeaboo.lua2.LuaException;
 import nl.weeaboo.lua2.LuaRunState;
+import nl.weeaboo.lua2.lib.LibFunction;
 import nl.weeaboo.lua2.stdlib.DebugLib;
 import nl.weeaboo.lua2.stdlib.DebugTrace;
+import nl.weeaboo.lua2.stdlib.SelectFunction;
+import nl.weeaboo.lua2.stdlib.UnpackFunction;
 import nl.weeaboo.lua2.vm.StackFrame.Status;
 
 final class LuaInterpreter {
@@ -36,6 +39,20 @@ final class LuaInterpreter {
             throw new IllegalArgumentException("callstackBase must be >= 0");
         }
 
+        // Reuse the thread's interpreter state, unless it's still in use by an enclosing call of this method
+        FrameState frameState = thread.takeFrameState();
+        if (frameState == null) {
+            frameState = new FrameState();
+        }
+
+        try {
+            return resume(thread, callstackBase, frameState);
+        } finally {
+            thread.releaseFrameState(frameState);
+        }
+    }
+
+    private static Varargs resume(LuaThread thread, int callstackBase, FrameState frameState) {
         Varargs result = NONE;
         while (thread.isRunning() && thread.callstackSize() > callstackBase) {
             StackFrame sf = thread.callstack;
@@ -48,10 +65,21 @@ final class LuaInterpreter {
             }
 
             try {
-                result = resume(thread, sf);
+                if (sf.status != Status.RUNNING) {
+                    throw new LuaException("StackFrame isn't running: status=" + sf.status + ", stackFrame=" + sf);
+                }
+
+                frameState.startRunning(thread, sf, callstackBase);
+                try {
+                    result = frameState.run();
+                } finally {
+                    frameState.finishRunning();
+                    // Calls and returns between Lua functions switch frames without leaving run()
+                    sf = frameState.stackFrame;
+                }
             } finally {
                 if (sf.status == Status.FINISHED) {
-                    finishCall(thread, sf, result);
+                    finishCall(thread, sf);
                 }
             }
         }
@@ -59,49 +87,15 @@ final class LuaInterpreter {
         return result;
     }
 
-    private static Varargs resume(LuaThread thread, StackFrame sf) {
-        if (sf.status != Status.RUNNING) {
-            throw new LuaException("StackFrame isn't running: status=" + sf.status + ", stackFrame=" + sf);
-        }
-
-        sf.status = Status.RUNNING;
-
-        Varargs result;
-
-        final FrameState frameState = new FrameState();
-        frameState.startRunning(thread, sf);
-        try {
-            result = frameState.run();
-        } finally {
-            frameState.finishRunning();
-        }
-
-        return result;
-    }
-
     private static void startCall(LuaThread thread, StackFrame sf) {
         thread.preCall(sf);
     }
 
-    private static void finishCall(LuaThread thread, StackFrame sf, Varargs retval) {
-        // Pushes return values on parent's stack
-        StackFrame parent = sf.parent;
-        if (parent != null) {
-            int a = sf.returnBase;
-            int c = sf.returnCount + 1;
-
-            if (c > 0) {
-                while (--c > 0) {
-                    parent.stack[a + c - 1] = retval.arg(c);
-                }
-                parent.top = a + retval.narg();
-                parent.v = retval;
-            } else {
-                parent.top = a + retval.narg();
-                parent.v = retval;
-            }
-        }
-
+    private static void finishCall(LuaThread thread, StackFrame sf) {
+        /*
+         * Return values were already moved to the parent's registers by OP_RETURN. If the frame ended in some
+         * other way, the parent gets its return values when the thread is resumed.
+         */
         if (thread.callstack == sf) {
             thread.popStackFrame();
         } else {
@@ -115,11 +109,19 @@ final class LuaInterpreter {
         pushReturnValues(sf, sf.v, a, c);
     }
 
+    /**
+     * @param a Register index (absolute) of the first return value.
+     */
     static void pushReturnValues(StackFrame sf, Varargs returnValues, int a, int c) {
         // Push return values on the stack
         if (c > 0) {
-            while (--c > 0) {
-                sf.stack[a + c - 1] = returnValues.arg(c);
+            /*
+             * Copy in ascending order. The return values may be a view of the registers just above 'a' (when a
+             * Java function returns its args), so this order doesn't overwrite values before they're read.
+             */
+            LuaValue[] stack = sf.registers.values;
+            for (int j = 1; j < c; j++) {
+                stack[a + j - 1] = returnValues.arg(j);
             }
             sf.v = NONE;
         } else {
@@ -128,39 +130,78 @@ final class LuaInterpreter {
         }
     }
 
-    private static final class FrameState {
+    /**
+     * Execution state of the stack frame that's currently running. Register indices used inside this class are
+     * absolute indices in the thread's {@link RegisterStack}.
+     * <p>
+     * The register stack may grow (replacing its backing array) whenever Lua code runs, so {@link #stack}
+     * must be re-read from {@link #registers} after any operation that may call a function or metamethod.
+     * <p>
+     * Each thread keeps a single instance, which switches between stack frames in-place when a Lua function
+     * calls or returns to another Lua function. Only the outermost interpreter loop of a thread uses that
+     * instance; recursive calls into the interpreter (through Java functions) allocate their own.
+     */
+    static final class FrameState {
+
+        private static final int COMPARE_FALSE = 0;
+        private static final int COMPARE_TRUE = 1;
+        private static final int COMPARE_UNKNOWN = -1;
 
         private LuaRunState lrs;
         private LuaThread thread;
         private StackFrame stackFrame;
+        /** Frames with a zero-based call stack index below this value are run by an enclosing call. */
+        private int callstackBase;
 
         private LuaClosure closure;
         private Prototype p;
         private int[] code;
         private LuaValue[] k;
         private UpValue[] upValues;
+        private TableAccessCache[] tableAccessCaches;
+        private TableAccessCache[] globalAccessCaches;
 
+        private RegisterStack registers;
         private LuaValue[] stack;
-        private UpValue[] openups;
+        private int base;
         private Varargs varargs;
 
         private int top;
         private int pc;
         private Varargs v;
 
-        public void startRunning(LuaThread thread, StackFrame sf) {
+        /** Loop state of the most recently finished numeric for loop, reused by the next loop. */
+        private @Nullable NumericForLoop spareForLoop;
+        /** If {@code true}, calls to functions compiled by {@link PrototypeCompiler} bypass the interpreter. */
+        private boolean compilerEnabled;
+
+        public void startRunning(LuaThread thread, StackFrame sf, int callstackBase) {
             this.lrs = LuaRunState.getCurrent();
             this.thread = thread;
-            this.stackFrame = sf;
+            this.callstackBase = callstackBase;
+            compilerEnabled = lrs.isCompilerEnabled() && !lrs.isDebugEnabled();
+
+            loadFrame(sf);
+        }
+
+        /**
+         * Switches to the given stack frame, reloading the fields that depend on the running function.
+         */
+        private void loadFrame(StackFrame sf) {
+            stackFrame = sf;
 
             closure = sf.func.checkclosure();
             p = closure.getPrototype();
-            code = p.code;
+            // Debug hooks run for every instruction, so they need the unmodified code
+            code = (lrs.isDebugEnabled() ? p.code : p.getExecutableCode(sf.pc == 0));
             k = p.k;
             upValues = closure.getUpValues();
+            tableAccessCaches = p.getTableAccessCaches();
+            globalAccessCaches = p.getGlobalAccessCaches();
 
-            stack = sf.stack;
-            openups = sf.openups;
+            registers = sf.registers;
+            stack = registers.values;
+            base = sf.base;
             varargs = sf.varargs;
 
             top = sf.top;
@@ -169,157 +210,249 @@ final class LuaInterpreter {
         }
 
         public Varargs run() {
-            // Only check this flag once, and not between every instruction
-            final boolean debugEnabled = lrs.isDebugEnabled();
+            // Pick the dispatch loop once per resume, so the release loop doesn't check for debug hooks
+            if (lrs.isDebugEnabled()) {
+                return runInstrumented();
+            } else {
+                return runRelease();
+            }
+        }
 
+        /**
+         * Dispatch loop used when debug mode is disabled. Doesn't call any per-instruction hooks.
+         */
+        private Varargs runRelease() {
             while (thread.isRunning()) {
-                // Pull out instruction
-                int i;
-                try {
-                    i = code[pc];
-                } catch (ArrayIndexOutOfBoundsException e) {
-                    throw new LuaException("Program Counter outside code range: " + pc + " for " + closure);
+                Varargs result = execute(fetch());
+                if (result != null) {
+                    return result;
                 }
+            }
+            return NONE;
+        }
+
+        /**
+         * Dispatch loop used when debug mode is enabled. Calls the debug hooks before each instruction.
+         */
+        private Varargs runInstrumented() {
+            while (thread.isRunning()) {
+                int i = fetch();
 
-                if (debugEnabled) {
-                    lrs.onInstruction(pc);
-                    DebugLib.debugBytecode(thread, pc, varargs, top);
+                DebugLib.debugBytecode(thread, pc, varargs, top - base);
+                stack = registers.values; // Debug hooks may have run
+
+                Varargs result = execute(i);
+                if (result != null) {
+                    return result;
                 }
+            }
+            return NONE;
+        }
 
-                pc++;
+        private int fetch() {
+            try {
+                return code[pc];
+            } catch (ArrayIndexOutOfBoundsException e) {
+                throw new LuaException("Program Counter outside code range: " + pc + " for " + closure);
+            }
+        }
 
-                // Process the opcode
-                final int opcode = i & 0x3f;
-                int a = ((i >> 6) & 0xff);
-                switch (opcode) {
-                case Lua.OP_MOVE:/* A B R(A):= R(B) */
-                    stack[a] = stack[i >>> 23];
-                    continue;
-                case Lua.OP_LOADK:/* A Bx R(A):= Kst(Bx) */
-                    stack[a] = k[i >>> 14];
-                    continue;
-                case Lua.OP_LOADBOOL:/* A B C R(A):= (Bool)B: if (C) pc++ */
-                    stack[a] = (i >>> 23 != 0) ? TRUE : FALSE;
-                    if ((i & (0x1ff << 14)) != 0) {
-                        pc++; // Skip next instruction (if C)
-                    }
-                    continue;
-                case Lua.OP_LOADNIL: { /* A B R(A):= ...:= R(B):= nil */
-                    for (int b = i >>> 23; a <= b;) {
-                        stack[a++] = NIL;
-                    }
-                    continue;
-                }
-                case Lua.OP_GETUPVAL: /* A B R(A):= UpValue[B] */
-                    stack[a] = upValues[i >>> 23].getValue();
-                    continue;
-                case Lua.OP_GETGLOBAL: /* A Bx R(A):= Gbl[Kst(Bx)] */
-                    stack[a] = closure.getfenv().get(k[i >>> 14]);
-                    continue;
-                case Lua.OP_GETTABLE: { /* A B C R(A):= R(B)[RK(C)] */
-                    int c = (i >> 14) & 0x1ff;
-                    stack[a] = stack[i >>> 23].get(c > 0xff ? k[c & 0x0ff] : stack[c]);
-                    continue;
-                }
-                case Lua.OP_SETGLOBAL: /* A Bx Gbl[Kst(Bx)]:= R(A) */
-                    closure.getfenv().set(k[i >>> 14], stack[a]);
-                    continue;
-                case Lua.OP_SETUPVAL: /* A B UpValue[B]:= R(A) */
-                    upValues[i >>> 23].setValue(stack[a]);
-                    continue;
-                case Lua.OP_SETTABLE: { /* A B C R(A)[RK(B)]:= RK(C) */
-                    int b = i >>> 23;
-                    int c = (i >> 14) & 0x1ff;
-                    stack[a].set(
-                            b > 0xff ? k[b & 0x0ff] : stack[b],
-                            c > 0xff ? k[c & 0x0ff] : stack[c]);
-                    continue;
-                }
-                case Lua.OP_NEWTABLE: /* A B C R(A):= {} (size = B,C) */
-                    stack[a] = new LuaTable(i >>> 23, (i >> 14) & 0x1ff);
-                    continue;
-                case Lua.OP_SELF:
-                    opSelf(i, a);
-                    continue;
-                case Lua.OP_ADD:
-                case Lua.OP_SUB:
-                case Lua.OP_MUL:
-                case Lua.OP_DIV:
-                case Lua.OP_MOD:
-                case Lua.OP_POW:
-                    stack[a] = binaryArithmeticOp(i);
-                    continue;
-                case Lua.OP_UNM: /* A B R(A):= -R(B) */
-                    stack[a] = stack[i >>> 23].neg();
-                    continue;
-                case Lua.OP_NOT: /* A B R(A):= not R(B) */
-                    stack[a] = stack[i >>> 23].not();
-                    continue;
-                case Lua.OP_LEN: /* A B R(A):= length of R(B) */
-                    stack[a] = stack[i >>> 23].len();
-                    continue;
-                case Lua.OP_CONCAT:
-                    opConcat(i, a);
-                    continue;
-                case Lua.OP_JMP: /* sBx pc+=sBx */
-                    pc += (i >>> 14) - 0x1ffff;
-                    continue;
-                case Lua.OP_EQ:
-                case Lua.OP_LT:
-                case Lua.OP_LE:
-                    opCompare(i, a);
-                    continue;
-                case Lua.OP_TEST: /* A C if not (R(A) <=> C) then pc++ */
-                    if (stack[a].toboolean() != ((i & (0x1ff << 14)) != 0)) {
-                        ++pc;
-                    }
-                    continue;
-                case Lua.OP_TESTSET:
-                    opTestSet(i, a);
-                    continue;
-                case Lua.OP_CALL: {
-                    Varargs result = opCall(i, a);
-                    if (result != null) {
-                        return result;
-                    }
-                    continue;
+        /**
+         * Executes a single instruction.
+         * <p>
+         * Simple instructions are handled inline; the others delegate to separate methods, with their rarely
+         * taken paths moved out of line. This keeps this method well below the size limits of the JIT compiler
+         * and the fast paths small enough to be inlined (see {@code InterpreterMethodSizeTest}).
+         *
+         * @return A non-null value if execution should terminate with the given result.
+         */
+        private @Nullable Varargs execute(int i) {
+            pc++;
+
+            // Process the opcode
+            final int opcode = i & 0x3f;
+            int a = base + ((i >> 6) & 0xff);
+            switch (opcode) {
+            case Lua.OP_MOVE:/* A B R(A):= R(B) */
+                stack[a] = stack[base + (i >>> 23)];
+                return null;
+            case Lua.OP_LOADK:/* A Bx R(A):= Kst(Bx) */
+                stack[a] = k[i >>> 14];
+                return null;
+            case Lua.OP_LOADBOOL:/* A B C R(A):= (Bool)B: if (C) pc++ */
+                stack[a] = (i >>> 23 != 0) ? TRUE : FALSE;
+                if ((i & (0x1ff << 14)) != 0) {
+                    pc++; // Skip next instruction (if C)
                 }
-                case Lua.OP_TAILCALL: {
-                    Varargs result = opTailCall(i, a);
-                    if (result != null) {
-                        return result;
-                    }
-                    continue;
-                }
-                case Lua.OP_RETURN:
-                    return opReturn(i, a);
-                case Lua.OP_FORLOOP:
-                    opForLoop(i, a);
-                    continue;
-                case Lua.OP_FORPREP:
-                    opForPrep(i, a);
-                    continue;
-                case Lua.OP_TFORLOOP:
-                    opTForLoop(i, a);
-                    continue;
-                case Lua.OP_SETLIST:
-                    opSetList(i, a);
-                    continue;
-                case Lua.OP_CLOSE:
-                    opClose(a);
-                    continue;
-                case Lua.OP_CLOSURE:
-                    opClosure(i, a);
-                    continue;
-                case Lua.OP_VARARG:
-                    opVararg(i, a);
-                    continue;
-                default:
-                    throw new LuaException("Unsupported opcode: " + opcode);
+                return null;
+            case Lua.OP_LOADNIL: { /* A B R(A):= ...:= R(B):= nil */
+                for (int b = base + (i >>> 23); a <= b;) {
+                    stack[a++] = NIL;
+                }
+                return null;
+            }
+            case Lua.OP_GETUPVAL: /* A B R(A):= UpValue[B] */
+                stack[a] = upValues[i >>> 23].getValue();
+                return null;
+            case Lua.OP_GETGLOBAL: { /* A Bx R(A):= Gbl[Kst(Bx)] */
+                LuaValue value = globalAccessCache(i >>> 14).get(closure.getfenv());
+                stack = registers.values;
+                stack[a] = value;
+                return null;
+            }
+            case Lua.OP_GETTABLE: { /* A B C R(A):= R(B)[RK(C)] */
+                int c = (i >> 14) & 0x1ff;
+                LuaValue object = stack[base + (i >>> 23)];
+                LuaValue value = (c > 0xff ? tableAccessCache(c).get(object) : get(object, stack[base + c]));
+                stack = registers.values;
+                stack[a] = value;
+                return null;
+            }
+            case Lua.OP_SETGLOBAL: /* A Bx Gbl[Kst(Bx)]:= R(A) */
+                globalAccessCache(i >>> 14).set(closure.getfenv(), stack[a]);
+                stack = registers.values;
+                return null;
+            case Lua.OP_SETUPVAL: /* A B UpValue[B]:= R(A) */
+                upValues[i >>> 23].setValue(stack[a]);
+                return null;
+            case Lua.OP_SETTABLE: { /* A B C R(A)[RK(B)]:= RK(C) */
+                int b = i >>> 23;
+                int c = (i >> 14) & 0x1ff;
+                LuaValue value = (c > 0xff ? k[c & 0x0ff] : stack[base + c]);
+                if (b > 0xff) {
+                    tableAccessCache(b).set(stack[a], value);
+                } else {
+                    stack[a].set(NumericForLoop.materialize(stack[base + b]), value);
+                }
+                stack = registers.values;
+                return null;
+            }
+            case Lua.OP_NEWTABLE: /* A B C R(A):= {} (size = B,C) */
+                stack[a] = new LuaTable(i >>> 23, (i >> 14) & 0x1ff);
+                return null;
+            case Lua.OP_SELF:
+                opSelf(i, a);
+                return null;
+            case Lua.OP_ADD:
+            case Lua.OP_SUB:
+            case Lua.OP_MUL:
+            case Lua.OP_DIV:
+            case Lua.OP_MOD:
+            case Lua.OP_POW: {
+                LuaValue value = binaryArithmeticOp(i);
+                stack = registers.values;
+                stack[a] = value;
+                return null;
+            }
+            case Lua.OP_UNM: { /* A B R(A):= -R(B) */
+                LuaValue value = stack[base + (i >>> 23)].neg();
+                stack = registers.values;
+                stack[a] = value;
+                return null;
+            }
+            case Lua.OP_NOT: /* A B R(A):= not R(B) */
+                stack[a] = stack[base + (i >>> 23)].not();
+                return null;
+            case Lua.OP_LEN: { /* A B R(A):= length of R(B) */
+                LuaValue value = stack[base + (i >>> 23)].len();
+                stack = registers.values;
+                stack[a] = value;
+                return null;
+            }
+            case Lua.OP_CONCAT:
+                opConcat(i, a);
+                return null;
+            case Lua.OP_JMP: /* sBx pc+=sBx */
+                jump(i);
+                return null;
+            case Lua.OP_EQ:
+            case Lua.OP_LT:
+            case Lua.OP_LE:
+                opCompare(i);
+                stack = registers.values;
+                return null;
+            case Lua.OP_TEST: /* A C if not (R(A) <=> C) then pc++ */
+                if (stack[a].toboolean() != ((i & (0x1ff << 14)) != 0)) {
+                    ++pc;
+                }
+                return null;
+            case Lua.OP_TESTSET:
+                opTestSet(i, a);
+                return null;
+            case Lua.OP_CALL:
+                return opCall(i, a);
+            case Lua.OP_TAILCALL:
+                return opTailCall(i, a);
+            case Lua.OP_RETURN:
+                return opReturn(i, a);
+            case Lua.OP_FORLOOP:
+                opForLoop(i, a);
+                return null;
+            case Lua.OP_FORPREP:
+                opForPrep(i, a);
+                return null;
+            case Lua.OP_TFORLOOP:
+                opTForLoop(i, a);
+                return null;
+            case Lua.OP_SETLIST:
+                opSetList(i, a);
+                return null;
+            case Lua.OP_CLOSE:
+                opClose(a);
+                return null;
+            case Lua.OP_CLOSURE:
+                opClosure(i, a);
+                return null;
+            case Lua.OP_VARARG:
+                opVararg(i, a);
+                return null;
+            case Quickener.OP_EQ_JMP:
+            case Quickener.OP_LT_JMP:
+            case Quickener.OP_LE_JMP: {
+                int nextPc = pc;
+                opCompare(Quickener.genericInstruction(i));
+                stack = registers.values;
+                if (pc == nextPc) {
+                    // The next instruction is a jump, execute it now
+                    jump(code[pc++]);
                 }
+                return null;
             }
+            case Quickener.OP_TEST_JMP:
+                if (stack[a].toboolean() != ((i & (0x1ff << 14)) != 0)) {
+                    ++pc;
+                } else {
+                    jump(code[pc++]);
+                }
+                return null;
+            case Quickener.OP_ADD_KINT:
+            case Quickener.OP_SUB_KINT: {
+                int b = i >>> 23;
+                LuaValue left = (b > 0xff ? k[b & 0x0ff] : stack[base + b]);
+                if (left instanceof LuaInteger) {
+                    long l = ((LuaInteger)left).toint();
+                    long r = k[((i >> 14) & 0x1ff) & 0x0ff].toint();
+                    stack[a] = LuaInteger.valueOf(opcode == Quickener.OP_ADD_KINT ? l + r : l - r);
+                } else {
+                    LuaValue value = binaryArithmeticOp(Quickener.genericInstruction(i));
+                    stack = registers.values;
+                    stack[a] = value;
+                }
+                return null;
+            }
+            default:
+                throw new LuaException("Unsupported opcode: " + opcode);
+            }
+        }
 
-            return NONE;
+        /** sBx pc+=sBx */
+        private void jump(int i) {
+            int offset = (i >>> 14) - 0x1ffff;
+            pc += offset;
+            if (offset < 0) {
+                // Loop back-edge; charge the instructions in the loop body
+                lrs.consumeInstructions(-offset);
+            }
         }
 
         public void finishRunning() {
@@ -338,15 +471,121 @@ final class LuaInterpreter {
          * @return A non-null value if execution should terminate with the given result.
          */
         private @Nullable Varargs opCall(int i, int a) {
+            lrs.consumeInstructions(1);
+
             int b = i >>> 23;
             int c = (i >> 14) & 0x1ff;
+
+            LuaValue f = stack[a];
+            if (f.isclosure() && thread.callstack == stackFrame) {
+                LuaClosure callee = f.checkclosure();
+                CompiledFunction compiled = (compilerEnabled ? callee.getPrototype().getCompiledFunction() : null);
+                if (compiled != null) {
+                    return callCompiled(compiled, callee, i, a);
+                }
+
+                // The arguments are already on the register stack, the called function can use them in-place
+                StackFrame calleeFrame;
+                if (b > 0) {
+                    calleeFrame = thread.pushPendingInPlace(callee, a + 1, b - 1, NONE, a, c - 1); // exact arg count
+                } else {
+                    calleeFrame = pushVarargCall(callee, a, c);
+                }
+                enterFrame(calleeFrame);
+                return null;
+            }
+
+            return opCallGeneric(f, i, a);
+        }
+
+        /**
+         * Pushes the stack frame for a call from Lua to a Lua function with a variable number of arguments (from
+         * prev top). When the caller passes its own varargs on unchanged to a vararg function
+         * ({@code f(x, ...)}), the callee shares them instead of having them copied to the register stack and
+         * back.
+         */
+        private StackFrame pushVarargCall(LuaClosure callee, int a, int c) {
+            Prototype calleeProto = callee.getPrototype();
+            int fixedCount = top - v.narg() - (a + 1);
+            if (v == varargs && calleeProto.isVararg != 0 && fixedCount == calleeProto.numparams) {
+                Varargs forwarded = v;
+                v = NONE;
+                return thread.pushPendingInPlace(callee, a + 1, fixedCount, forwarded, a, c - 1);
+            }
+
+            flushVarargs(); // from prev top
+            return thread.pushPendingInPlace(callee, a + 1, top - (a + 1), NONE, a, c - 1);
+        }
+
+        /**
+         * Switches to the newly pushed stack frame of a Lua function called from Lua, without leaving the
+         * dispatch loop.
+         */
+        private void enterFrame(StackFrame callee) {
+            stackFrame.top = top;
+            stackFrame.pc = pc;
+            stackFrame.v = v;
+
+            startCall(thread, callee);
+            callee.status = Status.RUNNING;
+
+            loadFrame(callee);
+        }
+
+        /**
+         * Calls a function compiled by {@link PrototypeCompiler}. Compiled functions never yield, so they're
+         * called directly instead of through a new stack frame.
+         */
+        private @Nullable Varargs callCompiled(CompiledFunction function, LuaClosure callee, int i, int a) {
+            int b = i >>> 23;
+            if (b > 0) {
+                v = varargsOf(stack, a + 1, b - 1); // exact arg count
+            } else {
+                v = varargsOf(stack, a + 1, top - v.narg() - (a + 1), v); // from prev top
+            }
+
+            stackFrame.top = top;
+            stackFrame.pc = pc;
+            stackFrame.v = v;
+
+            v = function.call(callee, v);
+
+            stack = registers.values;
+            top = stackFrame.top;
+            pc = stackFrame.pc;
+
+            int c = (i >> 14) & 0x1ff;
+            pushReturnValues(stackFrame, v, a, c);
+            top = stackFrame.top;
+            v = stackFrame.v;
+            return null;
+        }
+
+        /**
+         * Generic implementation of {@link #opCall}, used for Java functions and for Lua functions that can't
+         * take their arguments from the register stack in-place.
+         */
+        private @Nullable Varargs opCallGeneric(LuaValue f, int i, int a) {
+            if ((f instanceof SelectFunction || f instanceof UnpackFunction) && callIntrinsic(f, i, a)) {
+                return null;
+            }
+
+            int b = i >>> 23;
+            int c = (i >> 14) & 0x1ff;
+
+            if (b > 0 && f instanceof LibFunction) {
+                int arity = ((LibFunction)f).getFixedArity();
+                if (arity >= 0) {
+                    return callFixedArity((LibFunction)f, arity, a, b - 1, c);
+                }
+            }
+
             if (b > 0) {
                 v = varargsOf(stack, a + 1, b - 1); // exact arg count
             } else {
                 v = varargsOf(stack, a + 1, top - v.narg() - (a + 1), v); // from prev top
             }
 
-            LuaValue f = stack[a];
             if (f.isclosure()) {
                 thread.pushPending(f.checkclosure(), v, a, c - 1);
                 return NONE;
@@ -365,12 +604,176 @@ final class LuaInterpreter {
             return null;
         }
 
+        /**
+         * Calls a Java function that takes a fixed number of arguments and returns a single value, passing the
+         * arguments straight from the registers.
+         *
+         * @param argsCount The exact number of arguments on the register stack.
+         * @see LibFunction#getFixedArity()
+         */
+        private @Nullable Varargs callFixedArity(LibFunction f, int arity, int a, int argsCount, int c) {
+            // Arguments beyond the arity of the function are ignored, missing arguments are nil
+            final LuaValue arg1 = (argsCount >= 1 ? stack[a + 1] : NIL);
+            final LuaValue arg2 = (argsCount >= 2 ? stack[a + 2] : NIL);
+            final LuaValue arg3 = (argsCount >= 3 ? stack[a + 3] : NIL);
+
+            stackFrame.top = top;
+            stackFrame.pc = pc;
+            stackFrame.v = v;
+
+            LuaValue result;
+            switch (arity) {
+            case 0:
+                result = f.call();
+                break;
+            case 1:
+                result = f.call(arg1);
+                break;
+            case 2:
+                result = f.call(arg1, arg2);
+                break;
+            default:
+                result = f.call(arg1, arg2, arg3);
+                break;
+            }
+
+            stack = registers.values;
+            top = stackFrame.top;
+            pc = stackFrame.pc;
+
+            if (thread.getStatus() == LuaThreadStatus.SUSPENDED) {
+                return result; // Yield
+            }
+
+            if (c == 2) {
+                stack[a] = result; // Single result
+                v = NONE;
+            } else {
+                pushReturnValues(stackFrame, result, a, c);
+                top = stackFrame.top;
+                v = stackFrame.v;
+            }
+            return null;
+        }
+
+        /**
+         * Runs {@code select} and {@code unpack} directly on the registers, without collecting the arguments
+         * into a {@link Varargs} or the results into a new one.
+         *
+         * @return {@code false} if the call needs the generic implementation, for example to report an error.
+         */
+        private boolean callIntrinsic(LuaValue f, int i, int a) {
+            int b = i >>> 23;
+            int c = (i >> 14) & 0x1ff;
+
+            // The args are R(A+1), ..., R(A+fixedCount), followed by the values of tail
+            int fixedCount;
+            Varargs tail;
+            if (b > 0) {
+                fixedCount = b - 1; // exact arg count
+                tail = NONE;
+            } else {
+                fixedCount = top - v.narg() - (a + 1); // from prev top
+                tail = v;
+            }
+
+            if (f instanceof SelectFunction) {
+                return callSelect(a, c, fixedCount, tail);
+            } else {
+                return callUnpack(a, c, fixedCount, tail);
+            }
+        }
+
+        private LuaValue intrinsicArg(int a, int fixedCount, Varargs tail, int index) {
+            return (index <= fixedCount ? stack[a + index] : tail.arg(index - fixedCount));
+        }
+
+        /** @see SelectFunction */
+        private boolean callSelect(int a, int c, int fixedCount, Varargs tail) {
+            final int narg = fixedCount + tail.narg();
+            final LuaValue index = intrinsicArg(a, fixedCount, tail, 1);
+            if (SelectFunction.COUNT.raweq(index)) {
+                pushReturnValues(stackFrame, LuaInteger.valueOf(narg - 1), a, c);
+                top = stackFrame.top;
+                v = stackFrame.v;
+                return true;
+            }
+            if (!index.isinttype()) {
+                return false;
+            }
+
+            int n = index.toint();
+            if (n < 0) {
+                n += narg; // Count from the end
+            }
+            if (n <= 0) {
+                return false; // Index out of range
+            }
+
+            // Return args n+1, ..., narg
+            final int first = n + 1;
+            if (c > 0) {
+                for (int j = 1; j < c; j++) {
+                    stack[a + j - 1] = intrinsicArg(a, fixedCount, tail, first + j - 1);
+                }
+                v = NONE;
+            } else if (first > fixedCount) {
+                v = (first == fixedCount + 1 ? tail : tail.subargs(first - fixedCount));
+                top = a + v.narg();
+            } else {
+                int regCount = fixedCount - first + 1;
+                System.arraycopy(stack, a + first, stack, a, regCount);
+                v = tail;
+                top = a + regCount + tail.narg();
+            }
+            return true;
+        }
+
+        /**
+         * Only handles tables without a metatable, so reading the values can't run any Lua code.
+         *
+         * @see UnpackFunction
+         */
+        private boolean callUnpack(int a, int c, int fixedCount, Varargs tail) {
+            final LuaValue list = intrinsicArg(a, fixedCount, tail, 1);
+            final LuaValue from = intrinsicArg(a, fixedCount, tail, 2);
+            final LuaValue to = intrinsicArg(a, fixedCount, tail, 3);
+            if (!(list instanceof LuaTable) || !list.getmetatable().isnil()
+                    || !(from.isnil() || from.isinttype()) || !(to.isnil() || to.isinttype())) {
+                return false;
+            }
+
+            final LuaTable t = (LuaTable)list;
+            final int i = (from.isnil() ? 1 : from.toint());
+            final int j = (to.isnil() ? t.getn().toint() : to.toint());
+            final long count = Math.max(0L, (long)j - i + 1);
+            if (c > 0) {
+                for (int k = 1; k < c; k++) {
+                    stack[a + k - 1] = (k <= count ? t.rawget(i + k - 1) : NIL);
+                }
+            } else {
+                if (count > LuaConstants.MAXSTACK) {
+                    return false;
+                }
+                registers.ensureCapacity(a + (int)count);
+                stack = registers.values;
+                for (int k = 0; k < count; k++) {
+                    stack[a + k] = t.rawget(i + k);
+                }
+                top = a + (int)count;
+            }
+            v = NONE;
+            return true;
+        }
+
         /**
          * A B C return R(A)(R(A+1), ... ,R(A+B-1))
          *
          * @return A non-null value if execution should terminate with the given result.
          */
         private @Nullable Varargs opTailCall(int i, int a) {
+            lrs.consumeInstructions(1);
+
             int b = i >>> 23;
             if (b > 0) {
                 v = copyArgs(stack, a + 1, b - 1); // Important: copies args
@@ -384,14 +787,16 @@ final class LuaInterpreter {
                 thread.postReturn(stackFrame);
 
                 stackFrame.prepareTailcall(f.checkclosure(), v, functionName);
-                top = stackFrame.top;
-                pc = stackFrame.pc;
-                v = stackFrame.v;
-
                 startCall(thread, stackFrame);
-                return NONE;
+                loadFrame(stackFrame);
+                return null;
             }
 
+            return tailCallJava(f, i, a);
+        }
+
+        /** Implementation of {@link #opTailCall} for functions that aren't Lua closures. */
+        private @Nullable Varargs tailCallJava(LuaValue f, int i, int a) {
             stackFrame.top = top;
             stackFrame.pc = pc;
             stackFrame.v = v;
@@ -403,6 +808,7 @@ final class LuaInterpreter {
             // Hack to make recursive calls have the correct callstack size when I remove stackFrame later
             stackFrame.parentCount--;
             v = f.invoke(v);
+            stack = registers.values;
 
             if (stackFrame != thread.callstack) {
                 // Remove stackFrame from callstack
@@ -447,10 +853,29 @@ final class LuaInterpreter {
             int b = i >>> 23;
             int c = (i >> 14) & 0x1ff;
 
-            LuaValue left = (b > 0xff ? k[b & 0x0ff] : stack[b]);
-            LuaValue right = (c > 0xff ? k[c & 0x0ff] : stack[c]);
+            LuaValue left = (b > 0xff ? k[b & 0x0ff] : stack[base + b]);
+            LuaValue right = (c > 0xff ? k[c & 0x0ff] : stack[base + c]);
 
             final int opcode = (i & 0x3f);
+            if (left instanceof LuaInteger && right instanceof LuaInteger) {
+                return intArithmetic(opcode, ((LuaInteger)left).toint(), ((LuaInteger)right).toint());
+            } else if (left instanceof LuaNumber && right instanceof LuaNumber) {
+                return doubleArithmetic(opcode, left.todouble(), right.todouble());
+            }
+
+            return arithmeticSlowPath(opcode, left, right);
+        }
+
+        /** Slow path of {@link #binaryArithmeticOp}: loop variables, string coercion, metamethods. */
+        private static LuaValue arithmeticSlowPath(int opcode, LuaValue left, LuaValue right) {
+            if (left instanceof NumericForLoop || right instanceof NumericForLoop) {
+                if (isNumeric(left) && isNumeric(right)) {
+                    return doubleArithmetic(opcode, toDouble(left), toDouble(right));
+                }
+                return arithmeticSlowPath(opcode, NumericForLoop.materialize(left),
+                        NumericForLoop.materialize(right));
+            }
+
             switch (opcode) {
             case Lua.OP_ADD:
                 return left.add(right);
@@ -474,82 +899,222 @@ final class LuaInterpreter {
          * OP_LT :: A B C if ((RK(B) < RK(C)) ~= A) then pc++
          * OP_LE :: A B C if ((RK(B) <= RK(C)) ~= A) then pc++
          */
-        private void opCompare(int i, int a) {
-            boolean aBool = (a != 0);
+        private void opCompare(int i) {
+            boolean aBool = (((i >> 6) & 0xff) != 0);
             int b = i >>> 23;
             int c = (i >> 14) & 0x1ff;
 
-            LuaValue left = (b > 0xff ? k[b & 0x0ff] : stack[b]);
-            LuaValue right = (c > 0xff ? k[c & 0x0ff] : stack[c]);
+            LuaValue left = (b > 0xff ? k[b & 0x0ff] : stack[base + b]);
+            LuaValue right = (c > 0xff ? k[c & 0x0ff] : stack[base + c]);
 
             final int opcode = (i & 0x3f);
-            switch (opcode) {
-            case Lua.OP_EQ:
-                if (left.eq_b(right) != aBool) {
+            int result = primitiveCompare(opcode, left, right);
+            if (result != COMPARE_UNKNOWN) {
+                if ((result == COMPARE_TRUE) != aBool) {
                     pc++;
                 }
-                break;
-            case Lua.OP_LT:
-                if (left.lt_b(right) != aBool) {
-                    pc++;
+                return;
+            }
+
+            if (compareSlowPath(opcode, left, right) != aBool) {
+                pc++;
+            }
+        }
+
+        /** Slow path of {@link #opCompare}: loop variables, metamethods, type errors. */
+        private static boolean compareSlowPath(int opcode, LuaValue left, LuaValue right) {
+            if (left instanceof NumericForLoop || right instanceof NumericForLoop) {
+                if (isNumeric(left) && isNumeric(right)) {
+                    double l = toDouble(left);
+                    double r = toDouble(right);
+                    return (opcode == Lua.OP_EQ ? l == r : opcode == Lua.OP_LT ? l < r : l <= r);
                 }
-                break;
+                return compareSlowPath(opcode, NumericForLoop.materialize(left), NumericForLoop.materialize(right));
+            }
+
+            switch (opcode) {
+            case Lua.OP_EQ:
+                return left.eq_b(right);
+            case Lua.OP_LT:
+                return left.lt_b(right);
             case Lua.OP_LE:
-                if (left.lteq_b(right) != aBool) {
-                    pc++;
-                }
-                break;
+                return left.lteq_b(right);
+            default:
+                throw new LuaException("Unsupported opcode: " + opcode);
+            }
+        }
+
+        /** Returns {@code true} for numbers and loop variables which weren't materialized yet. */
+        private static boolean isNumeric(LuaValue value) {
+            return value instanceof LuaNumber || value instanceof NumericForLoop;
+        }
+
+        /** Returns the value of a number or a loop variable which wasn't materialized yet. */
+        private static double toDouble(LuaValue value) {
+            if (value instanceof NumericForLoop) {
+                return ((NumericForLoop)value).index();
+            }
+            return value.todouble();
+        }
+
+        /** Equivalent to {@code object.get(key)}, without materializing a loop variable used as key. */
+        private static LuaValue get(LuaValue object, LuaValue key) {
+            if (key instanceof NumericForLoop) {
+                return ((NumericForLoop)key).getFrom(object);
+            }
+            return object.get(key);
+        }
+
+        /** Arithmetic on two integers, equivalent to the corresponding {@link LuaInteger} methods. */
+        private static LuaValue intArithmetic(int opcode, int left, int right) {
+            switch (opcode) {
+            case Lua.OP_ADD:
+                return LuaInteger.valueOf((long)left + right);
+            case Lua.OP_SUB:
+                return LuaInteger.valueOf((long)left - right);
+            case Lua.OP_MUL:
+                return LuaInteger.valueOf((long)left * right);
+            default:
+                return doubleArithmetic(opcode, left, right);
+            }
+        }
+
+        /** Arithmetic on two numbers, equivalent to the corresponding {@link LuaDouble} methods. */
+        private static LuaValue doubleArithmetic(int opcode, double left, double right) {
+            switch (opcode) {
+            case Lua.OP_ADD:
+                return LuaDouble.valueOf(left + right);
+            case Lua.OP_SUB:
+                return LuaDouble.valueOf(left - right);
+            case Lua.OP_MUL:
+                return LuaDouble.valueOf(left * right);
+            case Lua.OP_DIV:
+                return LuaDouble.ddiv(left, right);
+            case Lua.OP_MOD:
+                return LuaDouble.dmod(left, right);
+            case Lua.OP_POW:
+                return LuaDouble.valueOf(LuaDouble.dpow(left, right));
             default:
                 throw new LuaException("Unsupported opcode: " + opcode);
             }
         }
 
+        /**
+         * Compares two numbers or two strings without going through the virtual comparison methods.
+         *
+         * @return {@link #COMPARE_TRUE} or {@link #COMPARE_FALSE}, or {@link #COMPARE_UNKNOWN} if the
+         *         comparison requires the slow path (other types, metamethods).
+         */
+        private static int primitiveCompare(int opcode, LuaValue left, LuaValue right) {
+            boolean result;
+            if (left instanceof LuaInteger && right instanceof LuaInteger) {
+                int l = ((LuaInteger)left).toint();
+                int r = ((LuaInteger)right).toint();
+                result = (opcode == Lua.OP_EQ ? l == r : opcode == Lua.OP_LT ? l < r : l <= r);
+            } else if (left instanceof LuaNumber && right instanceof LuaNumber) {
+                double l = left.todouble();
+                double r = right.todouble();
+                result = (opcode == Lua.OP_EQ ? l == r : opcode == Lua.OP_LT ? l < r : l <= r);
+            } else if (left instanceof LuaString && right instanceof LuaString) {
+                LuaString l = (LuaString)left;
+                LuaString r = (LuaString)right;
+                if (opcode == Lua.OP_EQ) {
+                    result = l.raweq(r);
+                } else {
+                    int cmp = l.strcmp(r);
+                    result = (opcode == Lua.OP_LT ? cmp < 0 : cmp <= 0);
+                }
+            } else {
+                return COMPARE_UNKNOWN;
+            }
+            return (result ? COMPARE_TRUE : COMPARE_FALSE);
+        }
+
         /** A Bx R(A):= closure(KPROTO[Bx], R(A), ... ,R(A+n)) */
         private void opClosure(int i, int a) {
             Prototype newp = p.p[i >>> 14];
-            LuaClosure newcl = new LuaClosure(newp, closure.getfenv());
-            UpValue[] newUpValues = newcl.getUpValues();
-            for (int j = 0, nup = newp.nups; j < nup; ++j) {
+            final int nup = newp.nups;
+            UpValue[] newUpValues = (nup == 0 ? UpValue.NOUPVALUES : new UpValue[nup]);
+            for (int j = 0; j < nup; ++j) {
                 i = code[pc++];
 
                 int b = i >>> 23;
                 if ((i & 4) != 0) {
                     newUpValues[j] = upValues[b];
                 } else {
-                    if (openups[b] == null) {
-                        openups[b] = new UpValue(stack, b);
-                    }
-                    newUpValues[j] = openups[b];
+                    newUpValues[j] = registers.openUpValue(base + b);
                 }
             }
-            stack[a] = newcl;
+            stack[a] = new LuaClosure(newp, closure.getfenv(), newUpValues);
         }
 
         /** A B C R(A):= R(B).. ... ..R(C) */
         private void opConcat(int i, int a) {
-            int b = i >>> 23;
-            int c = (i >> 14) & 0x1ff;
+            int b = base + (i >>> 23);
+            int c = base + ((i >> 14) & 0x1ff);
+
+            LuaValue value = LuaString.concat(stack, b, c);
+            if (value == null) {
+                value = concatSlowPath(b, c);
+            }
+            stack[a] = value;
+        }
 
+        /**
+         * Implementation of {@link #opConcat} for operands that may require metamethods, or numbers that can't
+         * be rendered directly into the result.
+         */
+        private LuaValue concatSlowPath(int b, int c) {
             if (c > b + 1) {
                 Buffer buffer = stack[c].buffer();
                 while (--c >= b) {
                     buffer = stack[c].concat(buffer);
+                    stack = registers.values;
                 }
-                stack[a] = buffer.value();
+                return buffer.value();
             } else {
-                stack[a] = stack[c - 1].concat(stack[c]);
+                LuaValue value = stack[c - 1].concat(stack[c]);
+                stack = registers.values;
+                return value;
             }
         }
 
         /** A sBx R(A)+=R(A+2): if R(A) <?= R(A+1) then { pc+=sBx: R(A+3)=R(A) } */
         private void opForLoop(int i, int a) {
+            LuaValue state = stack[a];
+            if (state instanceof NumericForLoop) {
+                NumericForLoop loop = (NumericForLoop)state;
+                if (loop.next()) {
+                    // Always written, so the debug library sees the current value
+                    stack[a + 3] = loop.loopVariable();
+
+                    int offset = (i >>> 14) - 0x1ffff;
+                    pc += offset;
+                    lrs.consumeInstructions(-offset);
+                } else {
+                    spareForLoop = loop;
+                }
+                return;
+            }
+
+            opForLoopGeneric(i, a);
+        }
+
+        /**
+         * Generic implementation of {@link #opForLoop}, used when the loop state was replaced using the debug
+         * library.
+         */
+        private void opForLoopGeneric(int i, int a) {
             LuaValue limit = stack[a + 1];
             LuaValue step = stack[a + 2];
             LuaValue idx = step.add(stack[a]);
             if (step.gt_b(0) ? idx.lteq_b(limit) : idx.gteq_b(limit)) {
                 stack[a] = idx;
                 stack[a + 3] = idx;
-                pc += (i >>> 14) - 0x1ffff;
+
+                int offset = (i >>> 14) - 0x1ffff;
+                pc += offset;
+                lrs.consumeInstructions(-offset);
             }
         }
 
@@ -558,7 +1123,17 @@ final class LuaInterpreter {
             LuaValue init = stack[a].checknumber("'for' initial value must be a number");
             LuaValue limit = stack[a + 1].checknumber("'for' limit must be a number");
             LuaValue step = stack[a + 2].checknumber("'for' step must be a number");
-            stack[a] = init.sub(step);
+
+            NumericForLoop loop = spareForLoop;
+            if (loop != null) {
+                spareForLoop = null;
+            } else {
+                loop = new NumericForLoop();
+            }
+            loop.init(init.todouble(), limit.todouble(), step.todouble(),
+                    p.getForLoopVariableUsage(pc - 1) == NumericForLoop.VARIABLE_ESCAPES);
+
+            stack[a] = loop;
             stack[a + 1] = limit;
             stack[a + 2] = step;
             pc += (i >>> 14) - 0x1ffff;
@@ -569,6 +1144,7 @@ final class LuaInterpreter {
          * if R(A+3) ~= nil then R(A+2)=R(A+3) else pc++
          */
         private void opTForLoop(int i, int a) {
+            lrs.consumeInstructions(1);
             invoke(stack[a], varargsOf(stack[a + 1], stack[a + 2]));
 
             LuaValue object = v.arg1();
@@ -586,11 +1162,13 @@ final class LuaInterpreter {
 
         /** A B C R(A+1):= R(B): R(A):= R(B)[RK(C)] */
         private void opSelf(int i, int a) {
-            LuaValue object = stack[i >>> 23];
+            LuaValue object = stack[base + (i >>> 23)];
             stack[a + 1] = object;
 
             int c = (i >> 14) & 0x1ff;
-            stack[a] = object.get(c > 0xff ? k[c & 0x0ff] : stack[c]);
+            LuaValue value = (c > 0xff ? tableAccessCache(c).get(object) : object.get(stack[base + c]));
+            stack = registers.values;
+            stack[a] = value;
         }
 
         /** A B C R(A)[(C-1)*FPF+i]:= R(A+i), 1 <= i <= B */
@@ -628,18 +1206,96 @@ final class LuaInterpreter {
 
             stackFrame.status = Status.FINISHED;
 
+            StackFrame parent = stackFrame.parent;
+            if (parent != null && stackFrame.returnBase >= 0) {
+                // Returning to a Lua function; move the return values directly to the caller's registers
+                if (b == 0) {
+                    returnToParent(parent, a, top - v.narg() - a, v);
+                } else {
+                    returnToParent(parent, a, b - 1, NONE);
+                }
+                return resumeParent(parent);
+            }
+
             switch (b) {
             case 0:
-                return copyArgs(stack, a, top - v.narg() - a, v); // Important: copies args
+                return returnCopy(a, top - v.narg() - a, v);
             case 1:
                 return NONE;
             case 2:
                 return stack[a];
             default:
-                return copyArgs(stack, a, b - 1); // Important: copies args
+                return returnCopy(a, b - 1, NONE);
+            }
+        }
+
+        /**
+         * Returns a copy of the return values of a frame that doesn't pass them to a parent frame. A prepared call
+         * has them copied to its reusable holder instead.
+         */
+        private Varargs returnCopy(int a, int n, Varargs more) {
+            CallResults results = thread.getCallResults(stackFrame);
+            if (results != null) {
+                results.set(stack, a, n, more);
+                return results;
+            }
+            return copyArgs(stack, a, n, more); // Important: copies args
+        }
+
+        /**
+         * Moves return values to the registers of the parent frame.
+         *
+         * @param a Register index of the first return value.
+         * @param n Number of return values stored in registers.
+         * @param extra Additional return values following the ones stored in registers.
+         */
+        private void returnToParent(StackFrame parent, int a, int n, Varargs extra) {
+            // Close upvalues before the return values overwrite our registers
+            stackFrame.closeUpValues();
+
+            final int dst = stackFrame.returnBase;
+            final int count = n + extra.narg();
+            final int wanted = (stackFrame.returnCount >= 0 ? stackFrame.returnCount : count);
+
+            final RegisterStack parentRegisters = parent.registers;
+            parentRegisters.ensureCapacity(dst + wanted);
+            final LuaValue[] dstValues = parentRegisters.values;
+
+            final int m = Math.min(n, wanted);
+            System.arraycopy(registers.values, a, dstValues, dst, m);
+            for (int j = m; j < wanted; j++) {
+                dstValues[dst + j] = extra.arg(j - n + 1);
+            }
+
+            if (stackFrame.returnCount < 0) {
+                parent.top = dst + count;
+            }
+            parent.v = NONE;
+
+            if (parentRegisters == registers) {
+                // Our registers are no longer needed; clear them so the values can be garbage collected
+                registers.release(parent.getRegistersEnd());
             }
         }
 
+        /**
+         * Switches to the parent frame after returning from a Lua function called from Lua, without leaving the
+         * dispatch loop. The parent frame remains on hold if it's run by an enclosing call of the interpreter.
+         *
+         * @return A non-null value if execution should terminate with the given result.
+         */
+        private @Nullable Varargs resumeParent(StackFrame parent) {
+            if (parent.size() <= callstackBase || parent.status != Status.RUNNING) {
+                return NONE;
+            }
+
+            StackFrame finished = stackFrame;
+            loadFrame(parent);
+            finishCall(thread, finished);
+            stack = registers.values; // Debug hooks may have run
+            return null;
+        }
+
         /** A B R(A), R(A+1), ..., R(A+B-1) = vararg */
         private void opVararg(int i, int a) {
             int b = i >>> 23;
@@ -655,25 +1311,48 @@ final class LuaInterpreter {
 
         /** Closes all variables in the stack up to (>=) R(A) */
         private void opClose(int a) {
-            for (int b = openups.length; --b >= a;) {
-                if (openups[b] != null) {
-                    openups[b].close();
-                    openups[b] = null;
-                }
-            }
+            registers.closeUpValues(a, base + p.maxstacksize);
         }
 
         /** A B C if (R(B) <=> C) then R(A):= R(B) else pc++ */
         private void opTestSet(int i, int a) {
             LuaValue o;
             /* note: doc appears to be reversed */
-            if ((o = stack[i >>> 23]).toboolean() != ((i & (0x1ff << 14)) != 0)) {
+            if ((o = stack[base + (i >>> 23)]).toboolean() != ((i & (0x1ff << 14)) != 0)) {
                 ++pc;
             } else {
                 stack[a] = o; // TODO: should be sBx?
             }
         }
 
+        /**
+         * Returns the inline cache for the current table access instruction.
+         *
+         * @param rk Operand containing the (constant) key.
+         */
+        private TableAccessCache tableAccessCache(int rk) {
+            TableAccessCache cache = tableAccessCaches[pc - 1];
+            if (cache == null) {
+                cache = new TableAccessCache(k[rk & 0x0ff]);
+                tableAccessCaches[pc - 1] = cache;
+            }
+            return cache;
+        }
+
+        /**
+         * Returns the inline cache for accessing the global variable with the given name.
+         *
+         * @param bx Index of the constant containing the variable name.
+         */
+        private TableAccessCache globalAccessCache(int bx) {
+            TableAccessCache cache = globalAccessCaches[bx];
+            if (cache == null) {
+                cache = new TableAccessCache(k[bx]);
+                globalAccessCaches[bx] = cache;
+            }
+            return cache;
+        }
+
         private void invoke(LuaValue function, Varargs args) {
             stackFrame.top = top;
             stackFrame.pc = pc;
@@ -681,8 +1360,25 @@ final class LuaInterpreter {
 
             v = function.invoke(args);
 
+            stack = registers.values;
             top = stackFrame.top;
             pc = stackFrame.pc;
         }
+
+        /**
+         * Stores the values of {@link #v} in the registers just below {@link #top}, so that all values up to
+         * {@code top} are on the register stack.
+         */
+        private void flushVarargs() {
+            final int n = v.narg();
+            if (n > 0) {
+                registers.ensureCapacity(top);
+                stack = registers.values;
+                for (int j = 0; j < n; j++) {
+                    stack[top - n + j] = v.arg(j + 1);
+                }
+                v = NONE;
+            }
+        }
     }
 }
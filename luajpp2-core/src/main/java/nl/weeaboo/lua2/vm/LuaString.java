@@ -35,6 +35,8 @@ import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.io.OutputStream;
 
+import javax.annotation.Nullable;
+
 import nl.weeaboo.lua2.LuaException;
 import nl.weeaboo.lua2.LuaRunState;
 import nl.weeaboo.lua2.internal.SharedByteAlloc;
@@ -502,6 +504,82 @@ public final class LuaString extends LuaValue implements Externalizable {
         return new LuaString(b, offset, len);
     }
 
+    /**
+     * Concatenates {@code values[from] .. ... .. values[to]} in two passes: the first pass measures the length
+     * of the result, the second copies the strings and renders the integers directly into the result.
+     *
+     * @return The result, or {@code null} if one of the values isn't a string or an integral number. Those
+     *         require the regular concatenation rules.
+     */
+    static @Nullable LuaString concat(LuaValue[] values, int from, int to) {
+        long len = 0;
+        for (int n = from; n <= to; n++) {
+            LuaValue value = values[n];
+            if (value instanceof LuaString) {
+                len += ((LuaString)value).strLength;
+            } else if (value instanceof LuaInteger) {
+                len += decimalLength(value.toint());
+            } else if (value instanceof LuaDouble && isIntegral(value.todouble())) {
+                len += decimalLength((long)value.todouble());
+            } else {
+                return null;
+            }
+        }
+        assertValidStringLength((int)Math.min(len, Integer.MAX_VALUE));
+
+        SharedByteAlloc sba = SharedByteAlloc.getInstance();
+        final int offset = sba.reserve((int)len);
+        final byte[] b = sba.getReserved();
+        int pos = offset;
+        for (int n = from; n <= to; n++) {
+            LuaValue value = values[n];
+            if (value instanceof LuaString) {
+                LuaString str = (LuaString)value;
+                System.arraycopy(str.strBytes, str.strOffset, b, pos, str.strLength);
+                pos += str.strLength;
+            } else if (value instanceof LuaInteger) {
+                pos = putDecimal(value.toint(), b, pos);
+            } else {
+                pos = putDecimal((long)value.todouble(), b, pos);
+            }
+        }
+        return new LuaString(b, offset, (int)len);
+    }
+
+    /** Doubles with an integral value are converted to strings the same way as a long, see LuaDouble. */
+    private static boolean isIntegral(double d) {
+        return (long)d == d;
+    }
+
+    /** Returns the number of characters in the decimal representation of a long. */
+    private static int decimalLength(long v) {
+        int len = (v < 0 ? 2 : 1);
+        // Uses negative numbers to avoid overflow for Long.MIN_VALUE
+        for (long n = (v < 0 ? v : -v); n <= -10; n /= 10) {
+            len++;
+        }
+        return len;
+    }
+
+    /**
+     * Writes the decimal representation of a long into a byte array.
+     *
+     * @return The index just past the written bytes.
+     */
+    private static int putDecimal(long v, byte[] dst, int pos) {
+        int end = pos + decimalLength(v);
+        int i = end;
+        long n = (v < 0 ? v : -v);
+        do {
+            dst[--i] = (byte)('0' - (n % 10));
+            n /= 10;
+        } while (n != 0);
+        if (v < 0) {
+            dst[--i] = '-';
+        }
+        return end;
+    }
+
     // string comparison
     @Override
     public int strcmp(LuaValue lhs) {
@@ -877,9 +955,10 @@ public final class LuaString extends LuaValue implements Externalizable {
      * @return index of first match found, or -1 if not found.
      */
     public int indexOf(byte b, int start) {
-        for (int i = 0, j = strOffset + start; i < strLength; ++i) {
-            if (strBytes[j++] == b) {
-                return i + start;
+        final int limit = strOffset + strLength;
+        for (int i = strOffset + start; i < limit; ++i) {
+            if (strBytes[i] == b) {
+                return i - strOffset;
             }
         }
         return -1;
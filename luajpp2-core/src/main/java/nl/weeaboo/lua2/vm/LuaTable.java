@@ -117,6 +117,12 @@ public class LuaTable extends LuaValue implements IMetatable, Externalizable {
     /** metatable for this table, or null. */
     protected @Nullable IMetatable metatable;
 
+    /**
+     * Changes whenever a key is added to or removed from the hash part, or when the metatable is changed. Used
+     * by {@link TableAccessCache} to check if a cached hash slot is still valid.
+     */
+    int shape;
+
     /** Construct empty table. */
     public LuaTable() {
         array = NOVALS;
@@ -378,6 +384,7 @@ public class LuaTable extends LuaValue implements IMetatable, Externalizable {
         boolean oldWeakValues = metatable != null && metatable.useWeakValues();
 
         metatable = metatableOf(mt);
+        shape++;
 
         boolean newWeakKeys = metatable != null && metatable.useWeakKeys();
         boolean newWeakValues = metatable != null && metatable.useWeakValues();
@@ -423,15 +430,24 @@ public class LuaTable extends LuaValue implements IMetatable, Externalizable {
     }
 
     protected LuaValue hashget(LuaValue key) {
+        IStrongSlot slot = findHashSlot(key);
+        return (slot != null ? slot.value() : NIL);
+    }
+
+    /**
+     * Returns the slot in the hash part containing the given key, or {@code null} if the hash part doesn't
+     * contain the key.
+     */
+    @Nullable IStrongSlot findHashSlot(LuaValue key) {
         if (hashEntries > 0) {
             for (ISlot slot = hash[hashSlot(key)]; slot != null; slot = slot.rest()) {
                 IStrongSlot foundSlot;
                 if ((foundSlot = slot.find(key)) != null) {
-                    return foundSlot.value();
+                    return foundSlot;
                 }
             }
         }
-        return NIL;
+        return null;
     }
 
     /** caller must ensure key is not nil. */
@@ -652,6 +668,10 @@ public class LuaTable extends LuaValue implements IMetatable, Externalizable {
                 for (ISlot slot = hash[index]; slot != null; slot = slot.rest()) {
                     IStrongSlot foundSlot;
                     if ((foundSlot = slot.find(key)) != null) {
+                        if (foundSlot.first() instanceof NumberValueEntry && value.type() != TNUMBER) {
+                            // The entry will be replaced by one that can store non-numeric values
+                            shape++;
+                        }
                         hash[index] = hash[index].set(foundSlot, value);
                         return;
                     }
@@ -673,6 +693,7 @@ public class LuaTable extends LuaValue implements IMetatable, Externalizable {
             ISlot entry = entry(key, value);
             hash[index] = (hash[index] != null) ? hash[index].add(entry) : entry;
             ++hashEntries;
+            shape++;
         }
     }
 
@@ -725,6 +746,7 @@ public class LuaTable extends LuaValue implements IMetatable, Externalizable {
             if ((foundSlot = slot.find(key)) != null) {
                 hash[index] = hash[index].remove(foundSlot);
                 --hashEntries;
+                shape++;
                 return;
             }
         }
@@ -972,6 +994,7 @@ public class LuaTable extends LuaValue implements IMetatable, Externalizable {
         hash = newHash;
         array = newArray;
         hashEntries -= movingToArray;
+        shape++;
     }
 
     @Override
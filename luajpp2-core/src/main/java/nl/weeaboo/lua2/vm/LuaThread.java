@@ -34,6 +34,7 @@ import org.slf4j.LoggerFactory;
 
 import nl.weeaboo.lua2.LuaException;
 import nl.weeaboo.lua2.LuaRunState;
+import nl.weeaboo.lua2.LuaUtil;
 import nl.weeaboo.lua2.io.LuaSerializable;
 import nl.weeaboo.lua2.stdlib.CoroutineLib;
 import nl.weeaboo.lua2.stdlib.DebugLib;
@@ -65,6 +66,14 @@ public final class LuaThread extends LuaValue implements Serializable {
     @Nullable StackFrame callstack;
     public @Nullable Object debugState;
 
+    private transient @Nullable RegisterStack registers;
+    private transient @Nullable StackFrameArena frameArena;
+    /** Interpreter state reused for every resume of this thread, see {@link #takeFrameState()}. */
+    private transient @Nullable LuaInterpreter.FrameState spareFrameState;
+    /** Stack frame of the innermost running {@link PreparedCall}, which returns its values to {@link #callResults}. */
+    private transient @Nullable StackFrame preparedCallFrame;
+    private transient @Nullable CallResults callResults;
+
     /**
      * Do not use. Required for efficient serialization.
      */
@@ -90,7 +99,7 @@ public final class LuaThread extends LuaValue implements Serializable {
     public LuaThread(LuaThread parent, LuaClosure function) {
         this(parent.luaRunState, parent.getfenv());
 
-        callstack = StackFrame.newInstance(function, NONE, function.tojstring(), null, 0, 0);
+        callstack = StackFrame.newInstance(function, NONE, function.tojstring(), getRegisters(), null, 0, 0);
     }
 
     /**
@@ -118,6 +127,9 @@ public final class LuaThread extends LuaValue implements Serializable {
         callstackMin = 0;
         callstack = null;
 
+        // Start with a fresh register stack; the old stack frames may still be executing
+        registers = null;
+
         DebugLib.debugResetCallstack(this);
     }
 
@@ -210,7 +222,7 @@ public final class LuaThread extends LuaValue implements Serializable {
 
     void preCall(StackFrame sf) {
         if (DebugLib.isDebugEnabled()) {
-            DebugLib.debugSetupCall(this, sf.args, sf.stack);
+            DebugLib.debugSetupCall(this, sf.args, sf.registers, sf.base);
             DebugLib.debugOnCall(this, sf.func, sf.functionName);
 
             LOG.trace(">>({}) {}", sf.size(), sf);
@@ -236,7 +248,11 @@ public final class LuaThread extends LuaValue implements Serializable {
      * Pushes a new Lua closure onto the call stack.
      */
     public void pushPending(LuaClosure func, Varargs args) {
-        pushPending(func, args, -1, 0);
+        /*
+         * The args may be a view into the registers of the calling stack frame. The new frame can outlive the
+         * caller (and its registers get recycled), so make a copy.
+         */
+        pushPending(func, LuaUtil.copyArgs(args), -1, 0);
     }
 
     void pushPending(LuaClosure func, Varargs args, int returnBase, int returnCount) {
@@ -246,7 +262,9 @@ public final class LuaThread extends LuaValue implements Serializable {
         }
 
         String funcName = DebugTrace.getCalledFunctionName(this);
-        callstack = StackFrame.newInstance(func, args, funcName, callstack, returnBase, returnCount);
+        StackFrame frame = getFrameArena().allocate();
+        frame.prepareCall(func, args, funcName, getRegisters(), callstack, returnBase, returnCount);
+        callstack = frame;
 
         /*
          * When adding something to the call stack, change the status from initial to something else.
@@ -258,6 +276,31 @@ public final class LuaThread extends LuaValue implements Serializable {
         }
     }
 
+    /**
+     * Pushes a Lua closure called from the Lua function at the top of the call stack. The arguments are passed
+     * on the register stack.
+     *
+     * @param argsBase Register index of the first argument.
+     * @param argsCount Number of arguments.
+     * @param forwardedVarargs Varargs of the caller, passed on unchanged after the register arguments.
+     * @return The new stack frame.
+     * @see StackFrame#prepareCallInPlace
+     */
+    StackFrame pushPendingInPlace(LuaClosure func, int argsBase, int argsCount, Varargs forwardedVarargs,
+            int returnBase, int returnCount) {
+        final StackFrame parent = callstack;
+        if (parent == null) {
+            throw new IllegalStateException("Unable to call from Lua; callstack is empty");
+        }
+
+        String funcName = DebugTrace.getCalledFunctionName(this);
+        StackFrame frame = getFrameArena().allocate();
+        frame.prepareCallInPlace(func, funcName, parent, argsBase, argsCount, forwardedVarargs, returnBase,
+                returnCount);
+        callstack = frame;
+        return frame;
+    }
+
     /**
      * Pushes a function on the call stack of this thread, then runs the thread until that function returns or
      * yields. This method ignores the sleep count of the thread.
@@ -266,17 +309,92 @@ public final class LuaThread extends LuaValue implements Serializable {
      * @see #getSleep()
      */
     public Varargs callFunctionInThread(LuaClosure function, Varargs args) {
-        pushPending(function, args);
+        CompiledFunction compiled = getCompiledFunction(function.getPrototype());
+        if (compiled != null) {
+            // Compiled functions never yield, so they can be called without a stack frame
+            return compiled.call(function, args);
+        }
 
-        Varargs result;
+        // The caller is blocked until the function returns, so there's no need to copy args
+        pushPending(function, args, -1, 0);
+        return resumePushedCall();
+    }
+
+    /**
+     * Runs the function at the top of the call stack until it returns or yields, ignoring the sleep count.
+     */
+    private Varargs resumePushedCall() {
         int oldSleep = getSleep();
         try {
             sleep = 0;
-            result = resume(1);
+            return resume(1);
         } finally {
             setSleep(oldSleep);
         }
-        return result;
+    }
+
+    /**
+     * Returns a handle for calling the given function in this thread repeatedly, without allocating objects
+     * for its arguments and return values.
+     */
+    public PreparedCall prepareCall(LuaClosure function) {
+        return new PreparedCall(this, function);
+    }
+
+    /**
+     * Implementation of {@link PreparedCall#invoke(CallResults)}.
+     *
+     * @param args Reusable arguments, overwritten by the caller after this method returns.
+     */
+    void callPrepared(LuaClosure function, Varargs args, CallResults results) {
+        final Prototype p = function.getPrototype();
+        CompiledFunction compiled = getCompiledFunction(p);
+        if (compiled != null) {
+            // Compiled functions don't use varargs, so they don't hold on to the args
+            results.set(compiled.call(function, args));
+            return;
+        }
+
+        if (p.isVararg != 0) {
+            // The function's varargs may outlive the call, for example when it yields
+            args = LuaUtil.copyArgs(args);
+        }
+        pushPending(function, args, -1, 0);
+
+        final StackFrame oldFrame = preparedCallFrame;
+        final CallResults oldResults = callResults;
+        preparedCallFrame = callstack;
+        callResults = results;
+        try {
+            Varargs returned = resumePushedCall();
+            if (returned != results) {
+                // Single return values, or the values passed to yield
+                results.set(returned);
+            }
+        } finally {
+            preparedCallFrame = oldFrame;
+            callResults = oldResults;
+        }
+    }
+
+    /**
+     * Returns the compiled version of a function called from Java, or {@code null} if it should be interpreted.
+     * Calls only count towards compilation while the compiler is enabled.
+     */
+    private @Nullable CompiledFunction getCompiledFunction(Prototype p) {
+        if (!luaRunState.isCompilerEnabled() || luaRunState.isDebugEnabled()) {
+            return null;
+        }
+        return p.getCompiledFunction();
+    }
+
+    /**
+     * Returns the holder to copy the return values of a stack frame to, or {@code null} if the stack frame
+     * doesn't belong to a running {@link PreparedCall}.
+     */
+    @SuppressWarnings("ReferenceEquality") // Identifies the frame pushed by callPrepared()
+    @Nullable CallResults getCallResults(StackFrame sf) {
+        return (sf == preparedCallFrame ? callResults : null);
     }
 
     /**
@@ -346,7 +464,8 @@ public final class LuaThread extends LuaValue implements Serializable {
         if (status == LuaThreadStatus.INITIAL) {
             // Start new coroutine
             if (callstack != null) {
-                callstack.setArgs(args);
+                // Copy args, they may be a view into the registers of the resuming stack frame
+                callstack.setArgs(LuaUtil.copyArgs(args));
             }
         } else if (status == LuaThreadStatus.SUSPENDED || status == LuaThreadStatus.END_CALL) {
             // Resume coroutine
@@ -449,6 +568,58 @@ public final class LuaThread extends LuaValue implements Serializable {
             LOG.error("Callstack was corrupted -- parent stack frame is finished :: popped={}, parent={}",
                     sf, callstack);
         }
+
+        if (sf.returnBase < 0 || sf.parent == null) {
+            /*
+             * The frame's return values aren't passed through the registers, so everything from the frame's
+             * base upwards can be cleared. Frames called from Lua are cleared when they return.
+             */
+            sf.registers.release(sf.base);
+        }
+
+        getFrameArena().release(sf);
+    }
+
+    private RegisterStack getRegisters() {
+        RegisterStack result = registers;
+        if (result == null) {
+            // Not serialized separately; the stack frames share the thread's register stack
+            StackFrame sf = callstack;
+            result = (sf != null ? sf.registers : RegisterStack.newInstance());
+            registers = result;
+        }
+        return result;
+    }
+
+    private StackFrameArena getFrameArena() {
+        StackFrameArena result = frameArena;
+        if (result == null) {
+            // Lazily initialized, because the arena isn't serialized
+            result = new StackFrameArena();
+            frameArena = result;
+        }
+        return result;
+    }
+
+    /**
+     * Takes the reusable interpreter state of this thread. If the interpreter is entered recursively (a Java
+     * function called from Lua calls back into Lua), the state is already taken and this method returns
+     * {@code null}.
+     *
+     * @see #releaseFrameState(LuaInterpreter.FrameState)
+     */
+    @Nullable LuaInterpreter.FrameState takeFrameState() {
+        LuaInterpreter.FrameState result = spareFrameState;
+        spareFrameState = null;
+        return result;
+    }
+
+    /**
+     * Returns interpreter state previously taken with {@link #takeFrameState()}, so the next resume can reuse
+     * it.
+     */
+    void releaseFrameState(LuaInterpreter.FrameState frameState) {
+        spareFrameState = frameState;
     }
 
     /**
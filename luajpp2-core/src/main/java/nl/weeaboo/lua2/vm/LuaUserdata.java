@@ -165,7 +165,9 @@ public class LuaUserdata extends LuaValue implements Serializable {
 
     @Override
     public LuaValue get(LuaValue key) {
-        if (metatable.isnil()) {
+        if (metatable instanceof IUserdataIndex) {
+            return ((IUserdataIndex)metatable).index(this, key);
+        } else if (metatable.isnil()) {
             return NIL;
         }
 
@@ -0,0 +1,205 @@
+package nl.weeaboo.lua2.vm;
+
+import nl.weeaboo.lua2.io.LuaSerializable;
+
+/**
+ * Control state of a running numeric {@code for} loop. Stored by {@code OP_FORPREP} in the hidden
+ * {@code (for index)} register, so {@code OP_FORLOOP} can update the loop index without allocating a new
+ * number for every iteration.
+ * <p>
+ * The loop index is kept as a {@code double}, which represents every value an {@code int}-based loop can
+ * reach exactly. Unless the loop variable escapes (see {@link #findLoopVariableUsage(int[])}), the visible
+ * loop variable register holds this object as well. The interpreter then materializes the loop index when
+ * it's used as an operand: arithmetic and comparisons use the {@code double} directly, and table accesses
+ * only box the index when it's not a small integer.
+ * <p>
+ * Instances never escape to Lua code. {@link RegisterStack#get(int)} returns the current loop index instead.
+ */
+@LuaSerializable
+final class NumericForLoop extends LuaValue {
+
+    /** The loop body doesn't access the visible loop variable. */
+    static final byte VARIABLE_UNUSED = 0;
+    /** The loop body only uses the loop variable as an operand of arithmetic, comparisons or table accesses. */
+    static final byte VARIABLE_OPERAND = 1;
+    /** The loop variable may be stored or passed somewhere, so it has to hold a real Lua value. */
+    static final byte VARIABLE_ESCAPES = 2;
+
+    private static final long serialVersionUID = 1L;
+
+    private double index;
+    private double limit;
+    private double step;
+    private boolean boxLoopVariable;
+
+    void init(double initialValue, double limit, double step, boolean boxLoopVariable) {
+        this.index = initialValue - step;
+        this.limit = limit;
+        this.step = step;
+        this.boxLoopVariable = boxLoopVariable;
+    }
+
+    /**
+     * Advances the loop index.
+     *
+     * @return {@code true} if the loop should run another iteration.
+     */
+    boolean next() {
+        double idx = index + step;
+        index = idx;
+        return (step > 0 ? idx <= limit : idx >= limit);
+    }
+
+    /** Returns the value to store in the visible loop variable for the current iteration. */
+    LuaValue loopVariable() {
+        return (boxLoopVariable ? indexValue() : this);
+    }
+
+    /** Returns the current loop index. */
+    double index() {
+        return index;
+    }
+
+    /** Returns the current loop index as a Lua number. */
+    LuaValue indexValue() {
+        return LuaDouble.valueOf(index);
+    }
+
+    /**
+     * Replaces a loop variable which wasn't materialized yet by its current value.
+     */
+    static LuaValue materialize(LuaValue value) {
+        if (value instanceof NumericForLoop) {
+            return ((NumericForLoop)value).indexValue();
+        }
+        return value;
+    }
+
+    /** Equivalent to {@code object.get(indexValue())}. */
+    LuaValue getFrom(LuaValue object) {
+        int i = (int)index;
+        return (i == index ? object.get(i) : object.get(indexValue()));
+    }
+
+    @Override
+    public LuaValue neg() {
+        return LuaDouble.valueOf(-index);
+    }
+
+    @Override
+    public int type() {
+        return LuaConstants.TINT;
+    }
+
+    @Override
+    public String typename() {
+        return "(for state)";
+    }
+
+    /**
+     * Determines for each {@code OP_FORPREP} instruction in the given code how the loop body accesses the
+     * visible loop variable. The analysis is conservative, any instruction that may read the loop variable's
+     * register in another way than the ones handled by the interpreter counts as an escape.
+     *
+     * @return An array indexed by pc, containing one of the {@code VARIABLE_*} constants for the
+     *         {@code OP_FORPREP} instructions.
+     */
+    static byte[] findLoopVariableUsage(int[] code) {
+        byte[] result = new byte[code.length];
+        for (int pc = 0; pc < code.length; pc++) {
+            int i = code[pc];
+            if (Lua.getOpcode(i) == Lua.OP_FORPREP) {
+                int loopEnd = pc + 1 + Lua.getArgSBx(i);
+                result[pc] = getRegisterUsage(code, pc + 1, loopEnd, Lua.getArgA(i) + 3);
+            }
+        }
+        return result;
+    }
+
+    private static byte getRegisterUsage(int[] code, int start, int end, int reg) {
+        byte result = VARIABLE_UNUSED;
+        for (int pc = start; pc < end && pc < code.length; pc++) {
+            int i = code[pc];
+            int op = Lua.getOpcode(i);
+            int a = Lua.getArgA(i);
+            int b = Lua.getArgB(i);
+            int c = Lua.getArgC(i);
+            switch (op) {
+            case Lua.OP_JMP:
+                continue;
+            case Lua.OP_ADD:
+            case Lua.OP_SUB:
+            case Lua.OP_MUL:
+            case Lua.OP_DIV:
+            case Lua.OP_MOD:
+            case Lua.OP_POW:
+                if (a == reg || b == reg || c == reg) {
+                    result = VARIABLE_OPERAND;
+                }
+                continue;
+            case Lua.OP_GETTABLE:
+                // Only the key is materialized
+                if (b == reg) {
+                    return VARIABLE_ESCAPES;
+                }
+                if (a == reg || c == reg) {
+                    result = VARIABLE_OPERAND;
+                }
+                continue;
+            case Lua.OP_UNM:
+                if (a == reg || b == reg) {
+                    result = VARIABLE_OPERAND;
+                }
+                continue;
+            case Lua.OP_EQ:
+            case Lua.OP_LT:
+            case Lua.OP_LE:
+                // A isn't a register
+                if (b == reg || c == reg) {
+                    result = VARIABLE_OPERAND;
+                }
+                continue;
+            case Lua.OP_SETTABLE:
+                // Only the key is materialized, the stored value escapes
+                if (a == reg || c == reg) {
+                    return VARIABLE_ESCAPES;
+                }
+                if (b == reg) {
+                    result = VARIABLE_OPERAND;
+                }
+                continue;
+            case Lua.OP_CALL:
+            case Lua.OP_TAILCALL:
+            case Lua.OP_RETURN:
+            case Lua.OP_SETLIST:
+            case Lua.OP_VARARG:
+            case Lua.OP_LOADNIL:
+            case Lua.OP_TFORLOOP:
+                // Operates on a range of registers starting at A
+                if (a <= reg) {
+                    return VARIABLE_ESCAPES;
+                }
+                continue;
+            case Lua.OP_CONCAT:
+                if (a == reg || (b <= reg && reg <= c)) {
+                    return VARIABLE_ESCAPES;
+                }
+                continue;
+            default:
+                if (a == reg) {
+                    return VARIABLE_ESCAPES;
+                }
+                if (Lua.getOpMode(op) == Lua.iABC
+                        && (usesRegisterArg(Lua.getBMode(op), b, reg) || usesRegisterArg(Lua.getCMode(op), c, reg))) {
+                    return VARIABLE_ESCAPES;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean usesRegisterArg(int mode, int arg, int reg) {
+        return (mode == Lua.OpArgR || mode == Lua.OpArgK) && arg == reg;
+    }
+
+}
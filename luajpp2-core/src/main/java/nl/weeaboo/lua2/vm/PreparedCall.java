@@ -0,0 +1,150 @@
+package nl.weeaboo.lua2.vm;
+
+import static nl.weeaboo.lua2.vm.LuaNil.NIL;
+
+import java.util.Arrays;
+
+/**
+ * Handle for calling a Lua function from Java repeatedly, for example a callback that runs every frame. A
+ * prepared call is bound to a thread, so it doesn't need to look up the running thread for every call. Arguments
+ * are collected in a buffer owned by the handle, and return values are written to a {@link CallResults} holder
+ * owned by the caller:
+ *
+ * <pre>
+ * {@code
+ * PreparedCall onUpdate = thread.prepareCall(function);
+ * CallResults results = new CallResults();
+ * ...
+ * onUpdate.arg(dt).arg(frame).invoke(results);
+ * double x = results.todouble(1);
+ * }
+ * </pre>
+ * <p>
+ * Once the buffers have grown large enough, calls don't allocate any objects except for the Lua values of
+ * arguments that aren't cached (numbers which aren't small integers). A number argument equal to the one
+ * passed at the same position in the previous call reuses its Lua value. Functions compiled by
+ * {@link PrototypeCompiler} still allocate an array when they return more than one value.
+ * <p>
+ * Instances aren't thread-safe and can't be serialized.
+ *
+ * @see LuaThread#prepareCall(LuaClosure)
+ * @see LuaClosure#prepareCall()
+ */
+public final class PreparedCall {
+
+    private final LuaThread thread;
+    private final LuaClosure function;
+    private final CallArgs args = new CallArgs();
+
+    PreparedCall(LuaThread thread, LuaClosure function) {
+        this.thread = thread;
+        this.function = function;
+    }
+
+    /** The thread the function is called in. */
+    public LuaThread getThread() {
+        return thread;
+    }
+
+    /** The function that's called. */
+    public LuaClosure getFunction() {
+        return function;
+    }
+
+    /** Appends an argument for the next call. */
+    public PreparedCall arg(LuaValue value) {
+        args.add(value);
+        return this;
+    }
+
+    /** Appends a number argument for the next call. */
+    public PreparedCall arg(double value) {
+        args.add(value);
+        return this;
+    }
+
+    /** Appends a number argument for the next call. */
+    public PreparedCall arg(int value) {
+        args.add(LuaInteger.valueOf(value));
+        return this;
+    }
+
+    /** Appends a boolean argument for the next call. */
+    public PreparedCall arg(boolean value) {
+        args.add(LuaBoolean.valueOf(value));
+        return this;
+    }
+
+    /**
+     * Calls the function with the arguments appended since the previous call, then clears the arguments. Like
+     * {@link LuaThread#callFunctionInThread(LuaClosure, Varargs)}, this runs the thread until the function
+     * returns or yields.
+     *
+     * @param results Receives the values returned by the function.
+     * @return {@code results}
+     */
+    public CallResults invoke(CallResults results) {
+        try {
+            thread.callPrepared(function, args, results);
+        } finally {
+            args.clear();
+        }
+        return results;
+    }
+
+    @Override
+    public String toString() {
+        return "PreparedCall[" + function + "]";
+    }
+
+    /** Argument buffer, used directly as the {@link Varargs} of the call. */
+    private static final class CallArgs extends Varargs {
+
+        private LuaValue[] values = new LuaValue[4];
+        private int count;
+
+        @Override
+        public LuaValue arg(int i) {
+            return (i >= 1 && i <= count ? values[i - 1] : NIL);
+        }
+
+        @Override
+        public int narg() {
+            return count;
+        }
+
+        @Override
+        public LuaValue arg1() {
+            return (count > 0 ? values[0] : NIL);
+        }
+
+        void add(LuaValue value) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count++] = value;
+        }
+
+        void add(double value) {
+            // Reuse the number from the previous call if it has the same value
+            LuaValue previous = (count < values.length ? values[count] : null);
+            if (previous instanceof LuaNumber
+                    && Double.doubleToLongBits(previous.todouble()) == Double.doubleToLongBits(value)) {
+                add(previous);
+            } else {
+                add(LuaDouble.valueOf(value));
+            }
+        }
+
+        void clear() {
+            for (int n = 0; n < count; n++) {
+                // Numbers are kept so their values can be reused by the next call; they don't reference anything
+                if (!(values[n] instanceof LuaNumber)) {
+                    values[n] = null;
+                }
+            }
+            count = 0;
+        }
+    }
+
+}
@@ -64,6 +64,21 @@ public final class Prototype implements Externalizable {
     public int isVararg;
     public int maxstacksize;
 
+    /** Inline caches used by the interpreter, indexed by pc. */
+    private transient @Nullable TableAccessCache[] tableAccessCaches;
+    /** Inline caches used by the interpreter for global variable accesses, indexed by constant. */
+    private transient @Nullable TableAccessCache[] globalAccessCaches;
+    /** For each {@code OP_FORPREP} instruction, how the loop body uses the loop variable. Indexed by pc. */
+    private transient @Nullable byte[] forLoopVariableUsage;
+    /** Number of times this function was called by the interpreter, until its code gets quickened. */
+    private transient int callCount;
+    /** Copy of {@link #code} with specialized instructions, see {@link Quickener}. */
+    private transient @Nullable int[] quickenedCode;
+    /** Number of calls until this function gets compiled, or zero if it won't be compiled (again). */
+    private transient int compileCountdown = PrototypeCompiler.CALL_THRESHOLD;
+    /** This function compiled to a JVM class, see {@link PrototypeCompiler}. */
+    private transient @Nullable CompiledFunction compiledFunction;
+
     public Prototype() {
         // A no-arg constructor is required for Externalizable
     }
@@ -102,6 +117,80 @@ public final class Prototype implements Externalizable {
         maxstacksize = in.readInt();
     }
 
+    /**
+     * Returns the inline caches for the table access instructions of this function, indexed by pc. The
+     * individual caches are created by the interpreter when an instruction is first executed.
+     */
+    TableAccessCache[] getTableAccessCaches() {
+        TableAccessCache[] result = tableAccessCaches;
+        if (result == null) {
+            result = new TableAccessCache[code.length];
+            tableAccessCaches = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the inline caches for the global variable accesses of this function, indexed by the constant
+     * containing the variable name. All instructions accessing the same global variable share a cache.
+     */
+    TableAccessCache[] getGlobalAccessCaches() {
+        TableAccessCache[] result = globalAccessCaches;
+        if (result == null) {
+            result = new TableAccessCache[k.length];
+            globalAccessCaches = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the code the interpreter should execute for this function. After the function was called
+     * {@link Quickener#CALL_THRESHOLD} times, this returns a copy of {@link #code} with specialized
+     * instructions. The instructions in both arrays are at the same positions.
+     *
+     * @param newCall {@code true} when starting a new call, {@code false} when resuming an existing call.
+     */
+    int[] getExecutableCode(boolean newCall) {
+        int[] result = quickenedCode;
+        if (result == null) {
+            if (!newCall || ++callCount < Quickener.CALL_THRESHOLD) {
+                return code;
+            }
+            result = Quickener.quicken(this);
+            quickenedCode = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the compiled version of this function. Only used when the compiler is enabled. Each call of this
+     * method counts as a call of the function; the function is compiled after
+     * {@link PrototypeCompiler#CALL_THRESHOLD} calls.
+     *
+     * @return The compiled function, or {@code null} if the function isn't (yet) compiled.
+     */
+    @Nullable CompiledFunction getCompiledFunction() {
+        if (compileCountdown > 0 && --compileCountdown == 0) {
+            compiledFunction = PrototypeCompiler.compile(this);
+        }
+        return compiledFunction;
+    }
+
+    /**
+     * Returns how the body of the numeric for loop starting with the {@code OP_FORPREP} instruction at the given
+     * pc may access the visible loop variable.
+     *
+     * @return One of the {@code NumericForLoop.VARIABLE_*} constants.
+     */
+    byte getForLoopVariableUsage(int pc) {
+        byte[] result = forLoopVariableUsage;
+        if (result == null) {
+            result = NumericForLoop.findLoopVariableUsage(code);
+            forLoopVariableUsage = result;
+        }
+        return result[pc];
+    }
+
     @Override
     public String toString() {
         return source + ":" + linedefined + "-" + lastlinedefined;
@@ -0,0 +1,662 @@
+package nl.weeaboo.lua2.vm;
+
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.AALOAD;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.AASTORE;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.ALOAD;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.ANEWARRAY;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.ARETURN;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.ASTORE;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.DADD;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.DCMPG;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.DCMPL;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.DCONST_0;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.DLOAD;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.DSTORE;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.DSUB;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.DUP;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.GETFIELD;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.GETSTATIC;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.GOTO;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.IFEQ;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.IFGT;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.IFLE;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.IFLT;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.IFNE;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.INVOKESPECIAL;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.INVOKESTATIC;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.INVOKEVIRTUAL;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.NEW;
+import static nl.weeaboo.lua2.vm.ClassFileWriter.Code.RETURN;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.weeaboo.lua2.LuaRunState;
+import nl.weeaboo.lua2.vm.ClassFileWriter.Code;
+import nl.weeaboo.lua2.vm.ClassFileWriter.Label;
+
+/**
+ * Translates Lua functions into JVM classes, with one Java method per function and the registers of the
+ * function held in local variables. Enabled using {@link LuaRunState#setCompilerEnabled(boolean)}.
+ * <p>
+ * A compiled function runs without a {@link StackFrame}, so it can't be suspended halfway. For that reason,
+ * only functions that can never yield are compiled: functions which don't call other functions, have no
+ * varargs and don't create closures (so none of their registers are captured as upvalues). Metamethods
+ * called by a compiled function run the same way they do when called by the interpreter.
+ * <p>
+ * Compiled functions don't appear in stack traces and don't call debug hooks.
+ */
+final class PrototypeCompiler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PrototypeCompiler.class);
+
+    /** Number of calls after which a function is compiled. */
+    static final int CALL_THRESHOLD = 64;
+
+    /**
+     * Functions are only compiled if their bytecode is smaller than this. Larger methods aren't compiled by the
+     * JIT compiler, which would make them slower than the interpreter.
+     */
+    static final int MAX_CODE_SIZE = 8000;
+
+    private static final String SUPER_CLASS = internalName(CompiledFunction.class);
+    private static final String LUA_VALUE = internalName(LuaValue.class);
+    private static final String VARARGS = internalName(Varargs.class);
+    private static final String UPVALUE = internalName(UpValue.class);
+    private static final String LUA_TABLE = internalName(LuaTable.class);
+    private static final String LUA_CLOSURE = internalName(LuaClosure.class);
+    private static final String LUA_RUN_STATE = internalName(LuaRunState.class);
+
+    private static final String LUA_VALUE_DESC = "L" + LUA_VALUE + ";";
+    private static final String BINARY_OP_DESC = "(" + LUA_VALUE_DESC + LUA_VALUE_DESC + ")" + LUA_VALUE_DESC;
+    private static final String COMPARE_DESC = "(" + LUA_VALUE_DESC + LUA_VALUE_DESC + ")Z";
+
+    private static final AtomicInteger CLASS_COUNTER = new AtomicInteger();
+
+    // Local variables of the generated method
+    private static final int LOCAL_CLOSURE = 1;
+    private static final int LOCAL_ARGS = 2;
+    private static final int LOCAL_UPVALUES = 3;
+    private static final int LOCAL_CONSTANTS = 4;
+    private static final int LOCAL_RUN_STATE = 5;
+    private static final int LOCAL_REGISTERS = 6;
+
+    private final Prototype p;
+    private final int[] code;
+    private final ClassFileWriter classFile;
+    private final Code out;
+
+    private final Label[] labels;
+    private final List<Label> allLabels = new ArrayList<>();
+
+    /** First local variable of the (index, limit, step) doubles of each numeric for loop, by register. */
+    private final Map<Integer, Integer> forLoopLocals = new HashMap<>();
+
+    private PrototypeCompiler(Prototype p) {
+        this.p = p;
+        this.code = p.code;
+
+        String className = "nl/weeaboo/lua2/vm/compiled/LuaFunction" + CLASS_COUNTER.incrementAndGet();
+        classFile = new ClassFileWriter(className, SUPER_CLASS);
+        out = new Code(classFile);
+
+        labels = new Label[code.length];
+        for (int pc = 0; pc < code.length; pc++) {
+            labels[pc] = newLabel();
+        }
+    }
+
+    /**
+     * Compiles the given function.
+     *
+     * @return The compiled function, or {@code null} if the function can't be compiled.
+     */
+    static @Nullable CompiledFunction compile(Prototype p) {
+        if (!isCompilable(p)) {
+            return null;
+        }
+
+        try {
+            PrototypeCompiler compiler = new PrototypeCompiler(p);
+            byte[] classBytes = compiler.generate();
+            if (classBytes == null) {
+                return null;
+            }
+
+            Class<?> clazz = new CompiledFunctionLoader().define(compiler.classFile.getClassName(), classBytes);
+            return (CompiledFunction)clazz.getConstructor(Prototype.class).newInstance(p);
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            // Either a bug, or a platform that doesn't support defining classes at runtime (Android)
+            LOG.warn("Unable to compile Lua function: {}", p, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns {@code true} if the given function is guaranteed not to yield and doesn't capture registers, so
+     * it's able to run without a {@link StackFrame}.
+     */
+    static boolean isCompilable(Prototype p) {
+        if (p.isVararg != 0) {
+            return false;
+        }
+
+        int[] code = p.code;
+        for (int pc = 0; pc < code.length; pc++) {
+            int i = code[pc];
+            switch (Lua.getOpcode(i)) {
+            case Lua.OP_MOVE:
+            case Lua.OP_LOADK:
+            case Lua.OP_LOADBOOL:
+            case Lua.OP_LOADNIL:
+            case Lua.OP_GETUPVAL:
+            case Lua.OP_GETGLOBAL:
+            case Lua.OP_GETTABLE:
+            case Lua.OP_SETGLOBAL:
+            case Lua.OP_SETUPVAL:
+            case Lua.OP_SETTABLE:
+            case Lua.OP_NEWTABLE:
+            case Lua.OP_ADD:
+            case Lua.OP_SUB:
+            case Lua.OP_MUL:
+            case Lua.OP_DIV:
+            case Lua.OP_MOD:
+            case Lua.OP_POW:
+            case Lua.OP_UNM:
+            case Lua.OP_NOT:
+            case Lua.OP_LEN:
+            case Lua.OP_CONCAT:
+            case Lua.OP_JMP:
+            case Lua.OP_EQ:
+            case Lua.OP_LT:
+            case Lua.OP_LE:
+            case Lua.OP_TEST:
+            case Lua.OP_TESTSET:
+            case Lua.OP_FORLOOP:
+            case Lua.OP_FORPREP:
+                break;
+            case Lua.OP_SETLIST:
+                if (Lua.getArgB(i) == 0 || Lua.getArgC(i) == 0) {
+                    return false; // Variable number of values, or extra code word
+                }
+                break;
+            case Lua.OP_RETURN:
+                if (Lua.getArgB(i) == 0) {
+                    return false; // Variable number of return values
+                }
+                break;
+            default:
+                // Calls (which may yield), varargs, closures
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private @Nullable byte[] generate() {
+        Code constructor = new Code(classFile);
+        constructor.local(ALOAD, 0);
+        constructor.local(ALOAD, 1);
+        constructor.method(INVOKESPECIAL, SUPER_CLASS, "<init>", "(L" + internalName(Prototype.class) + ";)V");
+        constructor.op(RETURN);
+        constructor.maxStack = 2;
+        constructor.maxLocals = 2;
+        classFile.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>",
+                "(L" + internalName(Prototype.class) + ";)V", constructor);
+
+        generatePrologue();
+        for (int pc = 0; pc < code.length; pc++) {
+            out.mark(labels[pc]);
+            generateInstruction(pc, code[pc]);
+        }
+
+        if (out.size() >= MAX_CODE_SIZE || !out.resolve(allLabels)) {
+            LOG.debug("Lua function too large to compile: {}", p);
+            return null;
+        }
+        out.maxStack = 8;
+        out.maxLocals = LOCAL_REGISTERS + p.maxstacksize + 6 * forLoopLocals.size();
+        classFile.addMethod(ClassFileWriter.ACC_PROTECTED, "call",
+                "(L" + LUA_CLOSURE + ";L" + VARARGS + ";)L" + VARARGS + ";", out);
+
+        return classFile.toByteArray(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_FINAL
+                | ClassFileWriter.ACC_SUPER);
+    }
+
+    private void generatePrologue() {
+        out.local(ALOAD, LOCAL_CLOSURE);
+        out.method(INVOKEVIRTUAL, LUA_CLOSURE, "getUpValues", "()[L" + UPVALUE + ";");
+        out.local(ASTORE, LOCAL_UPVALUES);
+
+        out.local(ALOAD, 0);
+        out.field(GETFIELD, SUPER_CLASS, "k", "[" + LUA_VALUE_DESC);
+        out.local(ASTORE, LOCAL_CONSTANTS);
+
+        out.method(INVOKESTATIC, LUA_RUN_STATE, "getCurrent", "()L" + LUA_RUN_STATE + ";");
+        out.local(ASTORE, LOCAL_RUN_STATE);
+
+        // Registers holding parameters are initialized from the args, the others to nil
+        for (int r = 0; r < p.maxstacksize; r++) {
+            if (r < p.numparams) {
+                out.local(ALOAD, LOCAL_ARGS);
+                out.pushInt(r + 1);
+                out.method(INVOKEVIRTUAL, VARARGS, "arg", "(I)" + LUA_VALUE_DESC);
+            } else {
+                loadNil();
+            }
+            out.local(ASTORE, register(r));
+        }
+
+        // Allocate and initialize the loop state of each numeric for loop
+        for (int pc = 0; pc < code.length; pc++) {
+            int i = code[pc];
+            if (Lua.getOpcode(i) == Lua.OP_FORPREP && !forLoopLocals.containsKey(Lua.getArgA(i))) {
+                int local = LOCAL_REGISTERS + p.maxstacksize + 6 * forLoopLocals.size();
+                forLoopLocals.put(Lua.getArgA(i), local);
+                for (int n = 0; n < 3; n++) {
+                    out.op(DCONST_0);
+                    out.local(DSTORE, local + 2 * n);
+                }
+            }
+        }
+    }
+
+    private void generateInstruction(int pc, int i) {
+        final int a = Lua.getArgA(i);
+        final int b = Lua.getArgB(i);
+        final int c = Lua.getArgC(i);
+
+        switch (Lua.getOpcode(i)) {
+        case Lua.OP_MOVE:
+            loadRegister(b);
+            storeRegister(a);
+            break;
+        case Lua.OP_LOADK:
+            loadConstant(Lua.getArgBx(i));
+            storeRegister(a);
+            break;
+        case Lua.OP_LOADBOOL:
+            out.field(GETSTATIC, internalName(LuaBoolean.class), (b != 0 ? "TRUE" : "FALSE"),
+                    "L" + internalName(LuaBoolean.class) + ";");
+            storeRegister(a);
+            if (c != 0) {
+                out.jump(GOTO, labels[pc + 2]);
+            }
+            break;
+        case Lua.OP_LOADNIL:
+            for (int r = a; r <= b; r++) {
+                loadNil();
+                storeRegister(r);
+            }
+            break;
+        case Lua.OP_GETUPVAL:
+            loadUpValue(b);
+            out.method(INVOKEVIRTUAL, UPVALUE, "getValue", "()" + LUA_VALUE_DESC);
+            storeRegister(a);
+            break;
+        case Lua.OP_SETUPVAL:
+            loadUpValue(b);
+            loadRegister(a);
+            out.method(INVOKEVIRTUAL, UPVALUE, "setValue", "(" + LUA_VALUE_DESC + ")V");
+            break;
+        case Lua.OP_GETGLOBAL:
+            out.local(ALOAD, 0);
+            loadEnvironment();
+            out.pushInt(Lua.getArgBx(i));
+            out.method(INVOKEVIRTUAL, SUPER_CLASS, "getGlobal", "(" + LUA_VALUE_DESC + "I)" + LUA_VALUE_DESC);
+            storeRegister(a);
+            break;
+        case Lua.OP_SETGLOBAL:
+            out.local(ALOAD, 0);
+            loadEnvironment();
+            out.pushInt(Lua.getArgBx(i));
+            loadRegister(a);
+            out.method(INVOKEVIRTUAL, SUPER_CLASS, "setGlobal", "(" + LUA_VALUE_DESC + "I" + LUA_VALUE_DESC + ")V");
+            break;
+        case Lua.OP_GETTABLE:
+            if (Lua.isK(c)) {
+                out.local(ALOAD, 0);
+                loadRegister(b);
+                out.pushInt(pc);
+                out.pushInt(Lua.getIndexK(c));
+                out.method(INVOKEVIRTUAL, SUPER_CLASS, "getField", "(" + LUA_VALUE_DESC + "II)" + LUA_VALUE_DESC);
+            } else {
+                loadRegister(b);
+                loadRegister(c);
+                out.method(INVOKEVIRTUAL, LUA_VALUE, "get", "(" + LUA_VALUE_DESC + ")" + LUA_VALUE_DESC);
+            }
+            storeRegister(a);
+            break;
+        case Lua.OP_SETTABLE:
+            if (Lua.isK(b)) {
+                out.local(ALOAD, 0);
+                loadRegister(a);
+                out.pushInt(pc);
+                out.pushInt(Lua.getIndexK(b));
+                loadRK(c);
+                out.method(INVOKEVIRTUAL, SUPER_CLASS, "setField", "(" + LUA_VALUE_DESC + "II" + LUA_VALUE_DESC + ")V");
+            } else {
+                loadRegister(a);
+                loadRegister(b);
+                loadRK(c);
+                out.method(INVOKEVIRTUAL, LUA_VALUE, "set", "(" + LUA_VALUE_DESC + LUA_VALUE_DESC + ")V");
+            }
+            break;
+        case Lua.OP_NEWTABLE:
+            out.type(NEW, LUA_TABLE);
+            out.op(DUP);
+            out.pushInt(b);
+            out.pushInt(c);
+            out.method(INVOKESPECIAL, LUA_TABLE, "<init>", "(II)V");
+            storeRegister(a);
+            break;
+        case Lua.OP_ADD:
+            binaryOp("add", b, c);
+            storeRegister(a);
+            break;
+        case Lua.OP_SUB:
+            binaryOp("sub", b, c);
+            storeRegister(a);
+            break;
+        case Lua.OP_MUL:
+            binaryOp("mul", b, c);
+            storeRegister(a);
+            break;
+        case Lua.OP_DIV:
+            binaryOp("div", b, c);
+            storeRegister(a);
+            break;
+        case Lua.OP_MOD:
+            binaryOp("mod", b, c);
+            storeRegister(a);
+            break;
+        case Lua.OP_POW:
+            binaryOp("pow", b, c);
+            storeRegister(a);
+            break;
+        case Lua.OP_UNM:
+            unaryOp("neg", a, b);
+            break;
+        case Lua.OP_NOT:
+            unaryOp("not", a, b);
+            break;
+        case Lua.OP_LEN:
+            unaryOp("len", a, b);
+            break;
+        case Lua.OP_CONCAT:
+            generateConcat(a, b, c);
+            break;
+        case Lua.OP_JMP:
+            jump(pc, Lua.getArgSBx(i));
+            break;
+        case Lua.OP_EQ:
+            compare("eq", pc, a, b, c);
+            break;
+        case Lua.OP_LT:
+            compare("lt", pc, a, b, c);
+            break;
+        case Lua.OP_LE:
+            compare("le", pc, a, b, c);
+            break;
+        case Lua.OP_TEST:
+            /* A C if not (R(A) <=> C) then pc++ */
+            loadRegister(a);
+            out.method(INVOKEVIRTUAL, LUA_VALUE, "toboolean", "()Z");
+            out.jump((c != 0 ? IFEQ : IFNE), labels[pc + 2]);
+            break;
+        case Lua.OP_TESTSET:
+            /* A B C if (R(B) <=> C) then R(A):= R(B) else pc++ */
+            loadRegister(b);
+            out.method(INVOKEVIRTUAL, LUA_VALUE, "toboolean", "()Z");
+            out.jump((c != 0 ? IFEQ : IFNE), labels[pc + 2]);
+            loadRegister(b);
+            storeRegister(a);
+            break;
+        case Lua.OP_FORPREP:
+            generateForPrep(pc, a, Lua.getArgSBx(i));
+            break;
+        case Lua.OP_FORLOOP:
+            generateForLoop(pc, a, Lua.getArgSBx(i));
+            break;
+        case Lua.OP_SETLIST:
+            generateSetList(a, b, c);
+            break;
+        case Lua.OP_RETURN:
+            generateReturn(a, b);
+            break;
+        default:
+            throw new IllegalArgumentException("Unsupported opcode: " + Lua.getOpcode(i));
+        }
+    }
+
+    /** sBx pc+=sBx */
+    private void jump(int pc, int offset) {
+        if (offset < 0) {
+            // Loop back-edge; charge the instructions in the loop body, like the interpreter does
+            consumeInstructions(-offset);
+        }
+        out.jump(GOTO, labels[pc + 1 + offset]);
+    }
+
+    /** A B C if ((RK(B) op RK(C)) ~= A) then pc++ */
+    private void compare(String methodName, int pc, int a, int b, int c) {
+        loadRK(b);
+        loadRK(c);
+        out.method(INVOKESTATIC, SUPER_CLASS, methodName, COMPARE_DESC);
+        out.jump((a != 0 ? IFEQ : IFNE), labels[pc + 2]);
+    }
+
+    private void binaryOp(String methodName, int b, int c) {
+        loadRK(b);
+        loadRK(c);
+        out.method(INVOKESTATIC, SUPER_CLASS, methodName, BINARY_OP_DESC);
+    }
+
+    private void unaryOp(String methodName, int a, int b) {
+        loadRegister(b);
+        out.method(INVOKEVIRTUAL, LUA_VALUE, methodName, "()" + LUA_VALUE_DESC);
+        storeRegister(a);
+    }
+
+    /** A B C R(A):= R(B).. ... ..R(C) */
+    private void generateConcat(int a, int b, int c) {
+        if (c == b + 1) {
+            loadRegister(b);
+            loadRegister(c);
+            out.method(INVOKEVIRTUAL, LUA_VALUE, "concat", "(" + LUA_VALUE_DESC + ")" + LUA_VALUE_DESC);
+        } else {
+            out.pushInt(c - b + 1);
+            out.type(ANEWARRAY, LUA_VALUE);
+            for (int r = b; r <= c; r++) {
+                out.op(DUP);
+                out.pushInt(r - b);
+                loadRegister(r);
+                out.op(AASTORE);
+            }
+            out.method(INVOKESTATIC, SUPER_CLASS, "concat", "([" + LUA_VALUE_DESC + ")" + LUA_VALUE_DESC);
+        }
+        storeRegister(a);
+    }
+
+    /** A sBx R(A)-=R(A+2): pc+=sBx */
+    private void generateForPrep(int pc, int a, int offset) {
+        int local = forLoopLocals.get(a);
+        forValue(a, "'for' initial value must be a number", local);
+        forValue(a + 1, "'for' limit must be a number", local + 2);
+        forValue(a + 2, "'for' step must be a number", local + 4);
+
+        out.local(DLOAD, local);
+        out.local(DLOAD, local + 4);
+        out.op(DSUB);
+        out.local(DSTORE, local);
+
+        out.jump(GOTO, labels[pc + 1 + offset]);
+    }
+
+    private void forValue(int register, String errorMessage, int local) {
+        loadRegister(register);
+        out.pushString(errorMessage);
+        out.method(INVOKESTATIC, SUPER_CLASS, "forValue", "(" + LUA_VALUE_DESC + "Ljava/lang/String;)D");
+        out.local(DSTORE, local);
+    }
+
+    /** A sBx R(A)+=R(A+2): if R(A) <?= R(A+1) then { pc+=sBx: R(A+3)=R(A) } */
+    private void generateForLoop(int pc, int a, int offset) {
+        final int index = forLoopLocals.get(a);
+        final int limit = index + 2;
+        final int step = index + 4;
+
+        out.local(DLOAD, index);
+        out.local(DLOAD, step);
+        out.op(DADD);
+        out.local(DSTORE, index);
+
+        // Same comparisons as NumericForLoop.next(), a NaN ends the loop
+        Label exit = newLabel();
+        Label negativeStep = newLabel();
+        Label body = newLabel();
+        out.local(DLOAD, step);
+        out.op(DCONST_0);
+        out.op(DCMPL);
+        out.jump(IFLE, negativeStep);
+        out.local(DLOAD, index);
+        out.local(DLOAD, limit);
+        out.op(DCMPG);
+        out.jump(IFGT, exit);
+        out.jump(GOTO, body);
+        out.mark(negativeStep);
+        out.local(DLOAD, index);
+        out.local(DLOAD, limit);
+        out.op(DCMPL);
+        out.jump(IFLT, exit);
+
+        out.mark(body);
+        int forPrepPc = pc + 1 + offset - 1;
+        if (p.getForLoopVariableUsage(forPrepPc) != NumericForLoop.VARIABLE_UNUSED) {
+            out.local(DLOAD, index);
+            out.method(INVOKESTATIC, SUPER_CLASS, "forIndex", "(D)" + LUA_VALUE_DESC);
+            storeRegister(a + 3);
+        }
+        consumeInstructions(-offset);
+        out.jump(GOTO, labels[pc + 1 + offset]);
+
+        out.mark(exit);
+    }
+
+    /** A B C R(A)[(C-1)*FPF+i]:= R(A+i), 1 <= i <= B */
+    private void generateSetList(int a, int b, int c) {
+        int offset = (c - 1) * Lua.LFIELDS_PER_FLUSH;
+
+        loadRegister(a);
+        out.pushInt(offset + b);
+        out.method(INVOKEVIRTUAL, LUA_VALUE, "presize", "(I)V");
+        for (int j = 1; j <= b; j++) {
+            loadRegister(a);
+            out.pushInt(offset + j);
+            loadRegister(a + j);
+            out.method(INVOKEVIRTUAL, LUA_VALUE, "set", "(I" + LUA_VALUE_DESC + ")V");
+        }
+    }
+
+    /** A B return R(A), ... ,R(A+B-2) */
+    private void generateReturn(int a, int b) {
+        if (b == 1) {
+            out.field(GETSTATIC, internalName(LuaConstants.class), "NONE", LUA_VALUE_DESC);
+        } else if (b == 2) {
+            loadRegister(a);
+        } else {
+            out.pushInt(b - 1);
+            out.type(ANEWARRAY, LUA_VALUE);
+            for (int j = 0; j < b - 1; j++) {
+                out.op(DUP);
+                out.pushInt(j);
+                loadRegister(a + j);
+                out.op(AASTORE);
+            }
+            out.method(INVOKESTATIC, LUA_VALUE, "varargsOf", "([" + LUA_VALUE_DESC + ")L" + VARARGS + ";");
+        }
+        out.op(ARETURN);
+    }
+
+    private void consumeInstructions(int count) {
+        out.local(ALOAD, LOCAL_RUN_STATE);
+        out.pushInt(count);
+        out.method(INVOKEVIRTUAL, LUA_RUN_STATE, "consumeInstructions", "(I)V");
+    }
+
+    private void loadRegister(int r) {
+        out.local(ALOAD, register(r));
+    }
+
+    private void storeRegister(int r) {
+        out.local(ASTORE, register(r));
+    }
+
+    private static int register(int r) {
+        return LOCAL_REGISTERS + r;
+    }
+
+    private void loadConstant(int index) {
+        out.local(ALOAD, LOCAL_CONSTANTS);
+        out.pushInt(index);
+        out.op(AALOAD);
+    }
+
+    /** Loads a register or a constant. */
+    private void loadRK(int rk) {
+        if (Lua.isK(rk)) {
+            loadConstant(Lua.getIndexK(rk));
+        } else {
+            loadRegister(rk);
+        }
+    }
+
+    private void loadUpValue(int index) {
+        out.local(ALOAD, LOCAL_UPVALUES);
+        out.pushInt(index);
+        out.op(AALOAD);
+    }
+
+    private void loadEnvironment() {
+        out.local(ALOAD, LOCAL_CLOSURE);
+        out.method(INVOKEVIRTUAL, LUA_CLOSURE, "getfenv", "()" + LUA_VALUE_DESC);
+    }
+
+    private void loadNil() {
+        out.field(GETSTATIC, internalName(LuaNil.class), "NIL", "L" + internalName(LuaNil.class) + ";");
+    }
+
+    private Label newLabel() {
+        Label label = new Label();
+        allLabels.add(label);
+        return label;
+    }
+
+    private static String internalName(Class<?> clazz) {
+        return clazz.getName().replace('.', '/');
+    }
+
+    /**
+     * Defines a single compiled function. Each function gets its own class loader, so the generated class can
+     * be garbage collected together with the function.
+     */
+    private static final class CompiledFunctionLoader extends ClassLoader {
+
+        CompiledFunctionLoader() {
+            super(CompiledFunction.class.getClassLoader());
+        }
+
+        Class<?> define(String internalName, byte[] classBytes) {
+            return defineClass(internalName.replace('/', '.'), classBytes, 0, classBytes.length);
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+package nl.weeaboo.lua2.vm;
+
+/**
+ * Rewrites the bytecode of frequently called functions into a private copy using specialized instructions.
+ * The original code in {@link Prototype#code} is never modified, so the compiler, {@code DumpState} and the
+ * debug library keep seeing standard Lua 5.1 bytecode.
+ * <p>
+ * Specialized instructions replace a single instruction in-place, so jump targets and the pc of every
+ * instruction stay the same. A fused instruction also performs the work of the instruction following it,
+ * which is left unchanged in case it's also a jump target. When the operands don't have the expected type,
+ * specialized instructions fall back to the generic implementation of the original instruction.
+ */
+final class Quickener {
+
+    /** Number of calls after which a function is quickened. */
+    static final int CALL_THRESHOLD = 16;
+
+    /** {@code EQ} followed by {@code JMP}. */
+    static final int OP_EQ_JMP = 40;
+    /** {@code LT} followed by {@code JMP}. */
+    static final int OP_LT_JMP = 41;
+    /** {@code LE} followed by {@code JMP}. */
+    static final int OP_LE_JMP = 42;
+    /** {@code TEST} followed by {@code JMP}. */
+    static final int OP_TEST_JMP = 43;
+    /** {@code ADD} with an integer constant as right operand. */
+    static final int OP_ADD_KINT = 44;
+    /** {@code SUB} with an integer constant as right operand. */
+    static final int OP_SUB_KINT = 45;
+
+    private Quickener() {
+    }
+
+    /**
+     * Returns a copy of the function's code with specialized instructions.
+     */
+    static int[] quicken(Prototype p) {
+        int[] code = p.code.clone();
+        for (int pc = 0; pc < code.length; pc++) {
+            int i = code[pc];
+            int op = Lua.getOpcode(i);
+            switch (op) {
+            case Lua.OP_EQ:
+            case Lua.OP_LT:
+            case Lua.OP_LE:
+            case Lua.OP_TEST:
+                if (pc + 1 < code.length && Lua.getOpcode(code[pc + 1]) == Lua.OP_JMP) {
+                    code[pc] = withOpcode(i, fusedJumpOpcode(op));
+                }
+                break;
+            case Lua.OP_ADD:
+            case Lua.OP_SUB: {
+                int c = Lua.getArgC(i);
+                if (Lua.isK(c) && p.k[Lua.getIndexK(c)] instanceof LuaInteger) {
+                    code[pc] = withOpcode(i, (op == Lua.OP_ADD ? OP_ADD_KINT : OP_SUB_KINT));
+                }
+                break;
+            }
+            case Lua.OP_SETLIST:
+                if (Lua.getArgC(i) == 0) {
+                    pc++; // The next word is an argument, not an instruction
+                }
+                break;
+            case Lua.OP_CLOSURE:
+                pc += p.p[Lua.getArgBx(i)].nups; // Skip pseudo-instructions
+                break;
+            default:
+                // Not specialized
+            }
+        }
+        return code;
+    }
+
+    /**
+     * Returns the standard Lua opcode corresponding to a (possibly) specialized opcode.
+     */
+    static int genericOpcode(int op) {
+        switch (op) {
+        case OP_EQ_JMP:
+            return Lua.OP_EQ;
+        case OP_LT_JMP:
+            return Lua.OP_LT;
+        case OP_LE_JMP:
+            return Lua.OP_LE;
+        case OP_TEST_JMP:
+            return Lua.OP_TEST;
+        case OP_ADD_KINT:
+            return Lua.OP_ADD;
+        case OP_SUB_KINT:
+            return Lua.OP_SUB;
+        default:
+            return op;
+        }
+    }
+
+    /**
+     * Returns the instruction with its opcode replaced by the corresponding standard Lua opcode.
+     */
+    static int genericInstruction(int i) {
+        return withOpcode(i, genericOpcode(Lua.getOpcode(i)));
+    }
+
+    private static int fusedJumpOpcode(int op) {
+        switch (op) {
+        case Lua.OP_EQ:
+            return OP_EQ_JMP;
+        case Lua.OP_LT:
+            return OP_LT_JMP;
+        case Lua.OP_LE:
+            return OP_LE_JMP;
+        case Lua.OP_TEST:
+            return OP_TEST_JMP;
+        default:
+            throw new IllegalArgumentException("Unsupported opcode: " + op);
+        }
+    }
+
+    private static int withOpcode(int i, int op) {
+        return (i & Lua.MASK_NOT_OP) | (op << Lua.POS_OP);
+    }
+
+}
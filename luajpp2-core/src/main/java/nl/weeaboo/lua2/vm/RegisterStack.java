@@ -0,0 +1,189 @@
+package nl.weeaboo.lua2.vm;
+
+import static nl.weeaboo.lua2.vm.LuaNil.NIL;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Arrays;
+
+import nl.weeaboo.lua2.io.LuaSerializable;
+
+/**
+ * Growable register file shared by all stack frames of a {@link LuaThread}. Each stack frame uses a window
+ * of the register stack starting at {@link StackFrame#base}. When calling a Lua function from Lua, the
+ * window of the called function starts where the caller placed the arguments, so the arguments don't have to
+ * be copied.
+ * <p>
+ * Growing the register stack replaces the backing array. Code holding on to {@link #values} must re-read
+ * the field after anything that may call into Lua code. Open upvalues are relocated automatically.
+ */
+@LuaSerializable
+public final class RegisterStack implements Externalizable {
+
+    private static final long serialVersionUID = 1L;
+    private static final int INITIAL_CAPACITY = 32;
+
+    // --- Uses manual serialization, don't add variables ---
+    LuaValue[] values;
+    private UpValue[] openUpValues;
+    private int openUpValueCount;
+
+    /** All registers with index {@code >= top} are {@code nil}. */
+    private int top;
+    // --- Uses manual serialization, don't add variables ---
+
+    /**
+     * Do not use. Required for efficient serialization.
+     */
+    @Deprecated
+    public RegisterStack() {
+        this(INITIAL_CAPACITY);
+    }
+
+    static RegisterStack newInstance() {
+        return new RegisterStack(INITIAL_CAPACITY);
+    }
+
+    private RegisterStack(int capacity) {
+        values = new LuaValue[capacity];
+        Arrays.fill(values, NIL);
+        openUpValues = new UpValue[capacity];
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        // Only the live part of the register stack is written
+        out.writeInt(values.length);
+        out.writeInt(top);
+        for (int n = 0; n < top; n++) {
+            out.writeObject(values[n]);
+        }
+
+        out.writeInt(openUpValueCount);
+        for (int n = 0; n < openUpValues.length; n++) {
+            if (openUpValues[n] != null) {
+                out.writeInt(n);
+                out.writeObject(openUpValues[n]);
+            }
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        final int capacity = in.readInt();
+
+        // Assign the arrays before reading any values; upvalues may refer back to this object
+        values = new LuaValue[capacity];
+        Arrays.fill(values, NIL);
+        openUpValues = new UpValue[capacity];
+
+        top = in.readInt();
+        for (int n = 0; n < top; n++) {
+            values[n] = (LuaValue)in.readObject();
+        }
+
+        openUpValueCount = in.readInt();
+        for (int n = 0; n < openUpValueCount; n++) {
+            int index = in.readInt();
+            openUpValues[index] = (UpValue)in.readObject();
+        }
+    }
+
+    /** Returns the value of the register with the given (absolute) index. */
+    public LuaValue get(int index) {
+        LuaValue value = values[index];
+        if (value instanceof NumericForLoop) {
+            // The hidden (for index) variable or the visible loop variable of a running numeric for loop
+            return ((NumericForLoop)value).indexValue();
+        }
+        return value;
+    }
+
+    /** Changes the value of the register with the given (absolute) index. */
+    public void set(int index, LuaValue value) {
+        values[index] = value;
+    }
+
+    /**
+     * Makes sure the register stack can hold at least {@code size} registers. Registers that weren't in use yet
+     * are {@code nil}, but registers previously used by other stack frames may still contain old values.
+     */
+    void ensureCapacity(int size) {
+        if (size > values.length) {
+            grow(size);
+        }
+        if (size > top) {
+            top = size;
+        }
+    }
+
+    private void grow(int minCapacity) {
+        int newCapacity = Math.max(minCapacity, values.length << 1);
+
+        LuaValue[] newValues = Arrays.copyOf(values, newCapacity);
+        Arrays.fill(newValues, values.length, newCapacity, NIL);
+        values = newValues;
+
+        openUpValues = Arrays.copyOf(openUpValues, newCapacity);
+        if (openUpValueCount > 0) {
+            for (UpValue upValue : openUpValues) {
+                if (upValue != null) {
+                    upValue.relocate(newValues);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets all registers in the range {@code [from, to)} to {@code nil}.
+     */
+    void clear(int from, int to) {
+        Arrays.fill(values, from, to, NIL);
+    }
+
+    /**
+     * Clears all registers with index {@code >= from}. Used when the stack frames using those registers are
+     * gone, so the values in them can be garbage collected.
+     */
+    void release(int from) {
+        if (from < top) {
+            Arrays.fill(values, from, top, NIL);
+            top = from;
+        }
+    }
+
+    /**
+     * Returns the open upvalue for the given register, creating a new one if needed.
+     */
+    UpValue openUpValue(int index) {
+        UpValue upValue = openUpValues[index];
+        if (upValue == null) {
+            upValue = new UpValue(this, index);
+            openUpValues[index] = upValue;
+            openUpValueCount++;
+        }
+        return upValue;
+    }
+
+    /**
+     * Closes all open upvalues for registers in the range {@code [from, to)}.
+     */
+    void closeUpValues(int from, int to) {
+        if (openUpValueCount == 0) {
+            return;
+        }
+
+        to = Math.min(to, openUpValues.length);
+        for (int n = from; n < to; n++) {
+            UpValue upValue = openUpValues[n];
+            if (upValue != null) {
+                upValue.close();
+                openUpValues[n] = null;
+                openUpValueCount--;
+            }
+        }
+    }
+
+}
@@ -1,21 +1,23 @@
 package nl.weeaboo.lua2.vm;
 
 import static nl.weeaboo.lua2.vm.LuaConstants.NONE;
-import static nl.weeaboo.lua2.vm.LuaNil.NIL;
 
 import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
-import java.util.Arrays;
 
 import javax.annotation.Nullable;
 
+import nl.weeaboo.lua2.internal.LuaArgsUtil;
 import nl.weeaboo.lua2.io.LuaSerializable;
 
 @LuaSerializable
 final class StackFrame implements Externalizable {
 
+    // Changed when stack frames started using a shared register stack
+    private static final long serialVersionUID = 2L;
+
     enum Status {
         FRESH, RUNNING, FINISHED, CLOSED
     }
@@ -24,18 +26,18 @@ final class StackFrame implements Externalizable {
     Status status;
     LuaFunction func;  //The function that's being called
     String functionName; // The name of 'func' at the place where it's being called from
-    Varargs args;      //The args given
+    Varargs args;      //The args given (only for calls that didn't pass their args on the register stack)
     Varargs varargs;   //The varargs part of the arguments given
 
     StackFrame parent; //Link to calling context
     int parentCount;   //Number of parents
-    int returnBase;    //Stack offset in parent to write return values to
+    int returnBase;    //Register index to write return values to, or -1 to not pass them to the parent
     int returnCount;   //Number of return values to write in parent stack
 
-    LuaValue[] stack = LuaConstants.NOVALS;
-    UpValue[] openups = UpValue.NOUPVALUES;
+    RegisterStack registers;
+    int base;          //Register index of the first register used by this frame
     Varargs v;
-    int top;
+    int top;           //Register index (absolute)
     int pc;
     // --- Uses manual serialization, don't add variables ---
 
@@ -44,10 +46,10 @@ final class StackFrame implements Externalizable {
     }
 
     static StackFrame newInstance(LuaFunction func, Varargs args, String functionName,
-            StackFrame parent, int returnBase, int returnCount) {
+            RegisterStack registers, StackFrame parent, int returnBase, int returnCount) {
 
         StackFrame frame = new StackFrame();
-        frame.prepareCall(func, args, functionName, parent, returnBase, returnCount);
+        frame.prepareCall(func, args, functionName, registers, parent, returnBase, returnCount);
         return frame;
     }
 
@@ -68,8 +70,8 @@ final class StackFrame implements Externalizable {
         out.writeObject(args);
         out.writeObject(varargs);
 
-        out.writeObject(stack);
-        out.writeObject(openups);
+        out.writeObject(registers);
+        out.writeInt(base);
         out.writeObject(v);
         out.writeInt(top);
         out.writeInt(pc);
@@ -88,8 +90,8 @@ final class StackFrame implements Externalizable {
         args = (Varargs)in.readObject();
         varargs = (Varargs)in.readObject();
 
-        stack = (LuaValue[])in.readObject();
-        openups = (UpValue[])in.readObject();
+        registers = (RegisterStack)in.readObject();
+        base = in.readInt();
         v = (Varargs)in.readObject();
         top = in.readInt();
         pc = in.readInt();
@@ -104,37 +106,41 @@ final class StackFrame implements Externalizable {
         status = Status.CLOSED;
 
         closeUpValues();
+    }
 
-        stack = LuaConstants.NOVALS;
+    /** Drops references to the arguments of the last call, so they can be garbage collected. */
+    void clearReferences() {
+        args = NONE;
+        varargs = NONE;
+        v = NONE;
     }
 
     public void closeUpValues() {
-        for (int u = openups.length; --u >= 0;) {
-            if (openups[u] != null) {
-                openups[u].close();
-                openups[u] = null;
-            }
-        }
+        registers.closeUpValues(base, base + getStackSize(func));
     }
 
-    private void resetExecutionState(int minStackSize) {
-        if (stack.length < minStackSize) {
-            stack = new LuaValue[minStackSize];
-        }
-        Arrays.fill(stack, NIL);
-
-        // (re)size upValue array
-        if (openups.length < stack.length) {
-            openups = new UpValue[stack.length];
-        } else {
-            Arrays.fill(openups, null);
+    /**
+     * Initializes the registers used by this frame, starting at register {@code firstNil}.
+     */
+    private void resetExecutionState(int firstNil) {
+        int end = base + getStackSize(func);
+        registers.ensureCapacity(end);
+        if (firstNil < end) {
+            registers.clear(firstNil, end);
         }
 
         v = NONE;
-        top = 0;
+        top = base;
         pc = 0;
     }
 
+    /**
+     * Returns the register index just past the last register that's in use by this stack frame.
+     */
+    int getRegistersEnd() {
+        return Math.max(base + getStackSize(func), top);
+    }
+
     public int size() {
         return parentCount + 1;
     }
@@ -166,10 +172,17 @@ final class StackFrame implements Externalizable {
         }
     }
 
-    public final void prepareCall(LuaFunction func, Varargs args, String functionName,
-            StackFrame parent, int returnBase, int returnCount) {
+    private static int getStackSize(LuaFunction func) {
+        Prototype p = getPrototype(func);
+        return (p != null ? p.maxstacksize : 0);
+    }
 
-        final Prototype p = getPrototype(func);
+    /**
+     * Prepares a call with arguments passed as a {@link Varargs} object. The frame's registers are placed after
+     * the registers in use by the parent frame.
+     */
+    public final void prepareCall(LuaFunction func, Varargs args, String functionName,
+            RegisterStack registers, StackFrame parent, int returnBase, int returnCount) {
 
         this.status = Status.FRESH;
         this.func = func;
@@ -180,15 +193,66 @@ final class StackFrame implements Externalizable {
         this.returnBase = returnBase;
         this.returnCount = returnCount;
 
-        if (p == null) {
-            resetExecutionState(0);
-        } else {
-            resetExecutionState(p.maxstacksize);
-        }
+        this.registers = registers;
+        this.base = (parent != null && parent.registers == registers ? parent.getRegistersEnd() : 0);
+        resetExecutionState(base);
 
         setArgs(args);
     }
 
+    /**
+     * Prepares a call from Lua to a Lua function. The arguments are already on the register stack, starting at
+     * register {@code argsBase}. For functions with a fixed number of parameters, the arguments become the
+     * first registers of the new frame. Functions with variable arguments get their registers placed after the
+     * arguments, with the fixed parameters copied.
+     * <p>
+     * When a vararg function passes its own varargs on unchanged ({@code f(x, ...)}), those can be shared with
+     * the callee instead of being copied onto the register stack and back. In that case,
+     * {@code forwardedVarargs} contains the varargs of the caller and {@code argsCount} is equal to the number
+     * of fixed parameters of the callee. Varargs are immutable and the caller outlives the callee, so sharing
+     * them is safe.
+     */
+    final void prepareCallInPlace(LuaClosure func, String functionName, StackFrame parent, int argsBase,
+            int argsCount, Varargs forwardedVarargs, int returnBase, int returnCount) {
+
+        final Prototype p = func.getPrototype();
+
+        this.status = Status.FRESH;
+        this.func = func;
+        this.functionName = functionName;
+        this.args = NONE;
+
+        this.parent = parent;
+        this.parentCount = parent.size();
+        this.returnBase = returnBase;
+        this.returnCount = returnCount;
+
+        final RegisterStack registers = parent.registers;
+        this.registers = registers;
+
+        final int numparams = p.numparams;
+        if (p.isVararg == 0) {
+            base = argsBase;
+            varargs = NONE;
+            resetExecutionState(base + Math.min(argsCount, numparams));
+        } else {
+            base = argsBase + argsCount;
+            if (forwardedVarargs != NONE) {
+                varargs = forwardedVarargs;
+            } else {
+                varargs = LuaArgsUtil.copyArgs(registers.values, argsBase + numparams, argsCount - numparams);
+            }
+            resetExecutionState(base);
+
+            // Push params on stack
+            LuaValue[] stack = registers.values;
+            System.arraycopy(stack, argsBase, stack, base, Math.min(argsCount, numparams));
+            if (p.isVararg >= Lua.VARARG_NEEDSARG) {
+                stack[base + numparams] = new LuaTable(varargs);
+            }
+        }
+    }
+
     public void setArgs(Varargs args) {
         final Prototype p = getPrototype(func);
 
@@ -196,13 +260,17 @@ final class StackFrame implements Externalizable {
         this.varargs = extractVarargs(p, args);
 
         if (p != null) {
-            //Push params on stack
-            for (int i = 0; i < p.numparams; i++) {
-                stack[i] = args.arg(i + 1);
-            }
-            if (p.isVararg >= Lua.VARARG_NEEDSARG) {
-                stack[p.numparams] = new LuaTable(args.subargs(p.numparams + 1));
-            }
+            pushParams(p, args);
+        }
+    }
+
+    private void pushParams(Prototype p, Varargs args) {
+        LuaValue[] stack = registers.values;
+        for (int i = 0; i < p.numparams; i++) {
+            stack[base + i] = args.arg(i + 1);
+        }
+        if (p.isVararg >= Lua.VARARG_NEEDSARG) {
+            stack[base + p.numparams] = new LuaTable(args.subargs(p.numparams + 1));
         }
     }
 
@@ -218,20 +286,10 @@ final class StackFrame implements Externalizable {
         this.args = args;
         this.varargs = extractVarargs(p, args);
 
-        // Don't change parent
-
-        if (p == null) {
-            resetExecutionState(0);
-        } else {
-            resetExecutionState(p.maxstacksize);
-
-            // Push params on stack
-            for (int i = 0; i < p.numparams; i++) {
-                stack[top + i] = args.arg(i + 1);
-            }
-            if (p.isVararg >= Lua.VARARG_NEEDSARG) {
-                stack[p.numparams] = new LuaTable(args.subargs(p.numparams + 1));
-            }
+        // Don't change parent, the tail-called function reuses our registers
+        resetExecutionState(base);
+        if (p != null) {
+            pushParams(p, args);
         }
     }
 
@@ -264,17 +322,17 @@ final class StackFrame implements Externalizable {
         }
 
         // Yielded from a Lua function call -- push return values on the stack
-        int a = ((i >> 6) & 0xff);
+        int a = base + ((i >> 6) & 0xff);
         int c = (i >> 14) & 0x1ff;
         LuaInterpreter.pushReturnValues(this, args, a, c);
     }
 
     public LuaValue getLocalValue(int index) {
-        return stack[index - 1];
+        return registers.get(base + index - 1);
     }
 
     public void setLocalValue(int index, LuaValue value) {
-        stack[index - 1] = value;
+        registers.set(base + index - 1, value);
     }
 
 }
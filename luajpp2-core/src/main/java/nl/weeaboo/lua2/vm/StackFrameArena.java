@@ -0,0 +1,47 @@
+package nl.weeaboo.lua2.vm;
+
+import nl.weeaboo.lua2.vm.StackFrame.Status;
+
+/**
+ * Per-thread pool of closed stack frames. Frames popped from the call stack are recycled together with their
+ * register arrays, so calling a Lua function doesn't have to allocate a new {@link StackFrame}.
+ */
+final class StackFrameArena {
+
+    /** Upper bound on the number of idle frames kept around. */
+    private static final int MAX_FREE_FRAMES = 32;
+
+    private final StackFrame[] free = new StackFrame[MAX_FREE_FRAMES];
+    private int freeCount;
+
+    /**
+     * Returns a recycled stack frame, or a new instance if no recycled frames are available. The caller is
+     * responsible for initializing the frame using {@link StackFrame#prepareCall}.
+     */
+    @SuppressWarnings("deprecation")
+    StackFrame allocate() {
+        if (freeCount == 0) {
+            return new StackFrame();
+        }
+
+        StackFrame frame = free[--freeCount];
+        free[freeCount] = null;
+        return frame;
+    }
+
+    /**
+     * Returns a closed stack frame to the pool. The frame may be returned by a later call to
+     * {@link #allocate()}, so the caller must not hold on to any references to it.
+     */
+    void release(StackFrame frame) {
+        if (frame.status != Status.CLOSED) {
+            throw new IllegalArgumentException("Attempted to recycle a stack frame that isn't closed: " + frame);
+        }
+
+        frame.clearReferences();
+        if (freeCount < free.length) {
+            free[freeCount++] = frame;
+        }
+    }
+
+}
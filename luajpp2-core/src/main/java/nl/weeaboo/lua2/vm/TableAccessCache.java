@@ -0,0 +1,255 @@
+package nl.weeaboo.lua2.vm;
+
+import static nl.weeaboo.lua2.vm.LuaConstants.META_INDEX;
+import static nl.weeaboo.lua2.vm.LuaConstants.TSTRING;
+
+import java.lang.ref.WeakReference;
+
+import javax.annotation.Nullable;
+
+/**
+ * Inline cache for a single {@code OP_GETTABLE}, {@code OP_SETTABLE} or {@code OP_SELF} instruction with a
+ * constant string key. Remembers the hash slot containing the key, either in the table itself or in the
+ * {@code __index} table of its metatable. Cached slots are validated using {@link LuaTable#shape}.
+ * <p>
+ * Also used for {@code OP_GETGLOBAL} and {@code OP_SETGLOBAL}, with the function environment as the table.
+ * <p>
+ * Up to {@link #MAX_ENTRIES} tables/metatables are cached per instruction. If an instruction sees more
+ * tables than that, caching is disabled for that instruction.
+ */
+final class TableAccessCache {
+
+    private static final int MAX_ENTRIES = 4;
+
+    private final LuaValue key;
+    private final CacheEntry[] entries = new CacheEntry[MAX_ENTRIES];
+    private int entryCount;
+    private boolean disabled;
+
+    TableAccessCache(LuaValue key) {
+        this.key = key;
+
+        // Only string keys are cached, other keys may be stored in the array part of a table
+        disabled = (key.type() != TSTRING);
+    }
+
+    /**
+     * Equivalent to {@code object.get(key)}.
+     */
+    LuaValue get(LuaValue object) {
+        if (disabled || object.getClass() != LuaTable.class) {
+            return object.get(key);
+        }
+
+        LuaTable table = (LuaTable)object;
+        for (int n = 0; n < entryCount; n++) {
+            IStrongSlot slot = entries[n].lookup(table, key);
+            if (slot != null) {
+                return slot.value();
+            }
+        }
+        return getUncached(table);
+    }
+
+    private LuaValue getUncached(LuaTable table) {
+        if (!isCacheable(table)) {
+            return table.get(key);
+        }
+
+        IStrongSlot slot = table.findHashSlot(key);
+        if (slot != null) {
+            addEntry(new OwnSlot(table, slot));
+            return slot.value();
+        }
+
+        IMetatable mt = table.metatable;
+        if (mt != null && mt.getClass() == LuaTable.class) {
+            LuaTable metatable = (LuaTable)mt;
+            IStrongSlot indexSlot = metatable.findHashSlot(META_INDEX);
+            if (indexSlot != null && indexSlot.value().getClass() == LuaTable.class) {
+                LuaTable holder = (LuaTable)indexSlot.value();
+                IStrongSlot holderSlot = (isCacheable(holder) ? holder.findHashSlot(key) : null);
+                if (holderSlot != null) {
+                    addEntry(new IndexSlot(table, metatable, indexSlot, holder, holderSlot));
+                    return holderSlot.value();
+                }
+            }
+        }
+
+        // Not found, or found using a more complex lookup (metamethod, multiple __index tables)
+        return table.get(key);
+    }
+
+    /**
+     * Equivalent to {@code object.set(key, value)}.
+     */
+    void set(LuaValue object, LuaValue value) {
+        if (disabled || object.getClass() != LuaTable.class || value.isnil()) {
+            object.set(key, value);
+            return;
+        }
+
+        LuaTable table = (LuaTable)object;
+        for (int n = 0; n < entryCount; n++) {
+            CacheEntry entry = entries[n];
+            if (entry instanceof OwnSlot && entry.getTable() == table && entry.shape == table.shape) {
+                // Changing the value of an existing key doesn't change the shape of the table
+                IStrongSlot slot = entry.getSlot();
+                if (slot != null && slot.set(slot, value) == slot) {
+                    return;
+                }
+                // The entry needs to be replaced by a different type of entry
+                break;
+            }
+        }
+
+        table.set(key, value);
+
+        if (isCacheable(table)) {
+            IStrongSlot slot = table.findHashSlot(key);
+            if (slot != null) {
+                addEntry(new OwnSlot(table, slot));
+            }
+        }
+    }
+
+    /**
+     * Weak tables aren't cached, their entries may disappear without changing the shape of the table.
+     */
+    private static boolean isCacheable(LuaTable table) {
+        IMetatable mt = table.metatable;
+        return mt == null || mt.getClass() == LuaTable.class;
+    }
+
+    private void addEntry(CacheEntry newEntry) {
+        // Replace existing entry for the same table/metatable, or an entry for a table that no longer exists
+        for (int n = 0; n < entryCount; n++) {
+            if (entries[n].isReplacedBy(newEntry) || entries[n].getTable() == null) {
+                entries[n] = newEntry;
+                return;
+            }
+        }
+
+        if (entryCount < MAX_ENTRIES) {
+            entries[entryCount++] = newEntry;
+        } else {
+            // Too many different tables, caching doesn't help here
+            disabled = true;
+            for (int n = 0; n < entryCount; n++) {
+                entries[n] = null;
+            }
+            entryCount = 0;
+        }
+    }
+
+    /**
+     * Holds all tables and slots through weak references. The caches live as long as the function's prototype,
+     * so they mustn't keep tables alive that are no longer reachable from anywhere else. A slot stays reachable
+     * from its table for as long as the table's shape doesn't change.
+     */
+    private abstract static class CacheEntry {
+
+        /** The table containing the key. */
+        private final WeakReference<LuaTable> table;
+        /** Shape of {@link #table} at the time the entry was cached. */
+        final int shape;
+        /** The hash slot of {@link #table} containing the key. */
+        private final WeakReference<IStrongSlot> slot;
+
+        CacheEntry(LuaTable table, IStrongSlot slot) {
+            this.table = new WeakReference<>(table);
+            this.shape = table.shape;
+            this.slot = new WeakReference<>(slot);
+        }
+
+        final @Nullable LuaTable getTable() {
+            return table.get();
+        }
+
+        final @Nullable IStrongSlot getSlot() {
+            return slot.get();
+        }
+
+        /**
+         * Returns the hash slot containing the key if this entry applies to the given table, or {@code null}
+         * otherwise.
+         */
+        abstract @Nullable IStrongSlot lookup(LuaTable receiver, LuaValue key);
+
+        abstract boolean isReplacedBy(CacheEntry other);
+
+    }
+
+    /** The key was found in the table itself. */
+    private static final class OwnSlot extends CacheEntry {
+
+        OwnSlot(LuaTable table, IStrongSlot slot) {
+            super(table, slot);
+        }
+
+        @Override
+        @Nullable IStrongSlot lookup(LuaTable receiver, LuaValue key) {
+            if (receiver == getTable() && shape == receiver.shape) {
+                return getSlot();
+            }
+            return null;
+        }
+
+        @Override
+        boolean isReplacedBy(CacheEntry other) {
+            return other instanceof OwnSlot && other.getTable() == getTable();
+        }
+
+    }
+
+    /** The key was found in the {@code __index} table of the table's metatable. */
+    private static final class IndexSlot extends CacheEntry {
+
+        /**
+         * The table for which the entry was created. While its shape doesn't change, it's known not to contain
+         * the key itself. This is the common case for global variables in a sandboxed environment.
+         */
+        private final WeakReference<LuaTable> ownerTable;
+        private final int ownerShape;
+        private final WeakReference<LuaTable> metatable;
+        private final int metatableShape;
+        private final WeakReference<IStrongSlot> indexSlot;
+
+        IndexSlot(LuaTable receiver, LuaTable metatable, IStrongSlot indexSlot, LuaTable holder,
+                IStrongSlot holderSlot) {
+            super(holder, holderSlot);
+
+            this.ownerTable = new WeakReference<>(receiver);
+            this.ownerShape = receiver.shape;
+            this.metatable = new WeakReference<>(metatable);
+            this.metatableShape = metatable.shape;
+            this.indexSlot = new WeakReference<>(indexSlot);
+        }
+
+        @Override
+        @Nullable IStrongSlot lookup(LuaTable receiver, LuaValue key) {
+            IMetatable mt = receiver.metatable;
+            if (mt == null || mt != metatable.get() || ((LuaTable)mt).shape != metatableShape) {
+                return null;
+            }
+
+            IStrongSlot index = indexSlot.get();
+            LuaTable holder = getTable();
+            if (index == null || holder == null || index.value() != holder || holder.shape != shape) {
+                return null;
+            }
+
+            if (receiver == ownerTable.get() ? receiver.shape == ownerShape : receiver.findHashSlot(key) == null) {
+                return getSlot();
+            }
+            return null;
+        }
+
+        @Override
+        boolean isReplacedBy(CacheEntry other) {
+            return other instanceof IndexSlot && ((IndexSlot)other).metatable.get() == metatable.get();
+        }
+
+    }
+
+}
@@ -27,6 +27,8 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 
+import javax.annotation.Nullable;
+
 import nl.weeaboo.lua2.io.LuaSerializable;
 
 /**
@@ -42,7 +44,8 @@ public final class UpValue implements Externalizable {
     public static final UpValue[] NOUPVALUES = new UpValue[0];
 
     private LuaValue sealed; //Gets set when closed
-    private LuaValue[] array = LuaConstants.NOVALS;
+    private @Nullable RegisterStack registers;
+    private LuaValue[] array = LuaConstants.NOVALS; // Cached copy of registers.values
     private int index;
 
     /**
@@ -53,13 +56,14 @@ public final class UpValue implements Externalizable {
     }
 
     /**
-     * Create an upvalue relative to a stack
+     * Create an upvalue relative to a register stack
      *
-     * @param stack the stack
-     * @param index the index on the stack for the upvalue
+     * @param registers the register stack
+     * @param index the absolute index in the register stack for the upvalue
      */
-    UpValue(LuaValue[] stack, int index) {
-        this.array = stack;
+    UpValue(RegisterStack registers, int index) {
+        this.registers = registers;
+        this.array = registers.values;
         this.index = index;
     }
 
@@ -77,7 +81,7 @@ public final class UpValue implements Externalizable {
             out.writeObject(sealed);
         } else {
             out.writeInt(index);
-            out.writeObject(array);
+            out.writeObject(registers);
         }
     }
 
@@ -87,7 +91,9 @@ public final class UpValue implements Externalizable {
         if (index < 0) {
             sealed = (LuaValue)in.readObject();
         } else {
-            array = (LuaValue[])in.readObject();
+            RegisterStack registers = (RegisterStack)in.readObject();
+            this.registers = registers;
+            array = registers.values;
         }
     }
 
@@ -123,12 +129,22 @@ public final class UpValue implements Externalizable {
         }
     }
 
+    /**
+     * Called when the register stack grows and its values are moved to a new array.
+     */
+    final void relocate(LuaValue[] newArray) {
+        if (index >= 0) {
+            array = newArray;
+        }
+    }
+
     /**
      * Close this upvalue so it is no longer on the stack
      */
     public final void close() {
         if (sealed == null) {
             sealed = array[index];
+            registers = null;
             array = LuaConstants.NOVALS;
             index = -1;
         }
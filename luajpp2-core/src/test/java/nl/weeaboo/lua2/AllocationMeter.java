@@ -0,0 +1,56 @@
+package nl.weeaboo.lua2;
+
+import java.lang.reflect.Method;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the number of bytes allocated by the current thread. Used by the benchmarks to report allocation
+ * rates.
+ * <p>
+ * The HotSpot-specific management API is accessed through reflection, so this class still compiles against
+ * the Android SDK (which doesn't contain the {@code java.lang.management} package).
+ */
+public final class AllocationMeter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AllocationMeter.class);
+
+    private final Object threadBean;
+    private final Method getThreadAllocatedBytes;
+
+    private AllocationMeter(Object threadBean, Method getThreadAllocatedBytes) {
+        this.threadBean = threadBean;
+        this.getThreadAllocatedBytes = getThreadAllocatedBytes;
+    }
+
+    /**
+     * Returns an allocation meter for the current JVM, or {@code null} if the JVM doesn't support
+     * per-thread allocation counters.
+     */
+    public static @Nullable AllocationMeter create() {
+        try {
+            Object threadBean = Class.forName("java.lang.management.ManagementFactory")
+                    .getMethod("getThreadMXBean")
+                    .invoke(null);
+            Method method = Class.forName("com.sun.management.ThreadMXBean")
+                    .getMethod("getThreadAllocatedBytes", long.class);
+            return new AllocationMeter(threadBean, method);
+        } catch (ReflectiveOperationException e) {
+            LOG.warn("Per-thread allocation counters aren't supported by this JVM", e);
+            return null;
+        }
+    }
+
+    /** Returns the total number of bytes allocated by the current thread so far. */
+    public long allocatedBytes() {
+        try {
+            return (Long)getThreadAllocatedBytes.invoke(threadBean, Thread.currentThread().getId());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to read allocation counter", e);
+        }
+    }
+
+}
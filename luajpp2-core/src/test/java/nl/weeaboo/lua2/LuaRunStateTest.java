@@ -0,0 +1,59 @@
+package nl.weeaboo.lua2;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import nl.weeaboo.lua2.compiler.LoadState;
+import nl.weeaboo.lua2.vm.LuaClosure;
+import nl.weeaboo.lua2.vm.LuaConstants;
+import nl.weeaboo.lua2.vm.LuaThread;
+
+public final class LuaRunStateTest extends AbstractLuaTest {
+
+    @Test
+    public void testInstructionLimit() throws IOException {
+        assertInstructionLimit(true);
+    }
+
+    /** The instruction limit also applies when debug mode is disabled. */
+    @Test
+    public void testInstructionLimitNoDebug() throws IOException {
+        assertInstructionLimit(false);
+    }
+
+    private void assertInstructionLimit(boolean debugEnabled) throws IOException {
+        luaRunState.setDebugEnabled(debugEnabled);
+        luaRunState.setInstructionCountLimit(1000);
+
+        // A loop that runs a bit less than the limit succeeds, and the budget is refilled on every resume
+        for (int n = 0; n < 3; n++) {
+            runScript("for i=1,200 do local x = i end");
+        }
+
+        // Infinite loops are terminated, both for numeric for loops and for loops using jumps
+        assertLimitExceeded("for i=1,math.huge do end");
+        assertLimitExceeded("while true do end");
+        assertLimitExceeded("repeat local x = 1 until false");
+        assertLimitExceeded("local function f() return f() end f()");
+    }
+
+    private void assertLimitExceeded(String code) throws IOException {
+        try {
+            runScript(code);
+            Assert.fail("Expected an exception: " + code);
+        } catch (LuaException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("instruction limit exceeded"));
+        }
+    }
+
+    private void runScript(String code) throws IOException {
+        LuaClosure function = LoadState.load(code, "?", luaRunState.getGlobalEnvironment()).checkclosure();
+
+        LuaThread mainThread = luaRunState.getMainThread();
+        mainThread.pushPending(function, LuaConstants.NONE);
+        luaRunState.update();
+    }
+
+}
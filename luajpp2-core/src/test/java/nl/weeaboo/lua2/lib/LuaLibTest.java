@@ -0,0 +1,242 @@
+package nl.weeaboo.lua2.lib;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.weeaboo.lua2.AbstractLuaTest;
+import nl.weeaboo.lua2.LuaTestUtil;
+import nl.weeaboo.lua2.compiler.LoadState;
+import nl.weeaboo.lua2.io.LuaSerializable;
+import nl.weeaboo.lua2.stdlib.BaseLib;
+import nl.weeaboo.lua2.stdlib.LuaModule;
+import nl.weeaboo.lua2.vm.LuaInteger;
+import nl.weeaboo.lua2.vm.LuaString;
+import nl.weeaboo.lua2.vm.LuaValue;
+import nl.weeaboo.lua2.vm.Varargs;
+
+public final class LuaLibTest extends AbstractLuaTest {
+
+    @Before
+    public void before() {
+        new TestLib().register();
+        new ReflectionLib().register();
+    }
+
+    /** Bound functions are called through a dispatcher generated by the annotation processor. */
+    @Test
+    public void testGeneratedDispatcher() {
+        ILuaFunctionDispatcher dispatcher = LuaLib.findDispatcher(BaseLib.class);
+        Assert.assertNotNull(dispatcher);
+        Assert.assertTrue(dispatcher.indexOf("print") >= 0);
+        Assert.assertEquals(-1, dispatcher.indexOf("doesNotExist"));
+
+        Assert.assertNotNull(LuaLib.findDispatcher(TestLib.class));
+
+        // Classes without bound functions don't have a dispatcher
+        Assert.assertNull(LuaLib.findDispatcher(LuaLibTest.class));
+        Assert.assertNull(LuaLib.findDispatcher(String.class));
+    }
+
+    @Test
+    public void testCall() throws IOException {
+        Assert.assertEquals("a,b", eval("return TestLib.join('a', 'b')").tojstring());
+        Assert.assertEquals(0, eval("return select('#', TestLib.nop(1, 2))").toint());
+        Assert.assertEquals(3, eval("return TestLib.count(1, 2, 3)").toint());
+    }
+
+    /** Bound functions may declare typed parameters and return values instead of {@link Varargs}. */
+    @Test
+    public void testTypedCall() throws IOException {
+        Assert.assertEquals(1.5, eval("return TestLib.half(3)").todouble(), 0.0);
+        Assert.assertEquals("ababab", eval("return TestLib.times('ab', '3')").tojstring());
+        Assert.assertEquals(true, eval("return TestLib.negate(nil)").toboolean());
+        Assert.assertEquals(1, eval("return select('#', TestLib.negate(true, 'ignored'))").toint());
+
+        String message = eval("local ok, err = pcall(TestLib.half, {}) return err").tojstring();
+        Assert.assertTrue(message, message.contains("number expected"));
+    }
+
+    /** {@code long} is supported both as a parameter and as a return type. */
+    @Test
+    public void testLong() throws IOException {
+        Assert.assertEquals(1, getFixedArity("TestLib.twice"));
+        Assert.assertEquals(6, eval("return TestLib.twice(3)").toint());
+        Assert.assertTrue(eval("return TestLib.twice(3)") instanceof LuaInteger);
+        Assert.assertEquals(1L << 40, eval("return TestLib.twice(2^39)").tolong());
+
+        // Same conversions when called through reflection
+        Assert.assertEquals(6, eval("return ReflectionLib.twice(3)").toint());
+        Assert.assertEquals(1L << 40, eval("return ReflectionLib.twice(2^39)").tolong());
+    }
+
+    /** Functions with a fixed number of arguments returning a single value can be called without Varargs. */
+    @Test
+    public void testFixedArity() throws IOException {
+        Assert.assertEquals(1, getFixedArity("TestLib.half"));
+        Assert.assertEquals(2, getFixedArity("TestLib.times"));
+        Assert.assertEquals(-1, getFixedArity("TestLib.join"));
+        Assert.assertEquals(-1, getFixedArity("TestLib.nop"));
+        Assert.assertEquals(1, getFixedArity("math.sqrt"));
+
+        LibFunction half = (LibFunction)eval("return TestLib.half");
+        Assert.assertEquals(2.0, half.call(LuaValue.valueOf(4)).todouble(), 0.0);
+    }
+
+    /** Typed bound functions are called through reflection when there's no generated dispatcher. */
+    @Test
+    public void testReflection() throws IOException {
+        Assert.assertNull(LuaLib.findDispatcher(ReflectionLib.class));
+
+        Assert.assertEquals(2, getFixedArity("ReflectionLib.times"));
+        Assert.assertEquals("xx", eval("return ReflectionLib.times('x', 2)").tojstring());
+        Assert.assertEquals("yyy", eval("return ReflectionLib.times('y', 3, 'ignored')").tojstring());
+    }
+
+    /** Exceptions thrown by bound functions are wrapped in a LuaException with the name of the method. */
+    @Test
+    public void testException() throws IOException {
+        String message = eval("local ok, err = pcall(TestLib.fail, 'x') return err").tojstring();
+        Assert.assertTrue(message, message.startsWith("Error invoking Java method: fail(x)"));
+        Assert.assertTrue(message, message.contains("java.io.IOException: fail"));
+    }
+
+    /** The serialized form of bound functions doesn't contain the (non-serializable) dispatcher. */
+    @Test
+    public void testSerialize() throws IOException {
+        eval("join = TestLib.join");
+        Assert.assertEquals("a,b", eval("return join('a', 'b')").tojstring());
+
+        luaRunState = LuaTestUtil.serialize(luaRunState);
+        Assert.assertEquals("c,d", eval("return join('c', 'd')").tojstring());
+    }
+
+    /** Functions with primitive parameter types survive serialization. */
+    @Test
+    public void testSerializeTyped() throws IOException {
+        eval("half = TestLib.half");
+        luaRunState = LuaTestUtil.serialize(luaRunState);
+        Assert.assertEquals(2.5, eval("return half(5)").todouble(), 0.0);
+    }
+
+    /**
+     * States saved before a library function changed from a {@link Varargs} parameter to typed parameters refer to
+     * the function by its old signature.
+     */
+    @Test
+    public void testSerializeOldSignature() throws IOException {
+        LuaLib.FunctionWrapper half = new LuaLib.FunctionWrapper(new TestLib(), "half", "half",
+                new Class<?>[] { Varargs.class });
+        luaRunState.getGlobalEnvironment().rawset("oldHalf", half);
+
+        luaRunState = LuaTestUtil.serialize(luaRunState);
+        Assert.assertEquals(2.5, eval("return oldHalf(5)").todouble(), 0.0);
+        Assert.assertEquals(1, getFixedArity("oldHalf"));
+    }
+
+    private int getFixedArity(String function) throws IOException {
+        return ((LibFunction)eval("return " + function)).getFixedArity();
+    }
+
+    private LuaValue eval(String code) throws IOException {
+        return LoadState.load(code, "?", luaRunState.getGlobalEnvironment()).call();
+    }
+
+    @LuaSerializable
+    static final class TestLib extends LuaModule {
+
+        private static final long serialVersionUID = 1L;
+
+        TestLib() {
+            super("TestLib");
+        }
+
+        /** Concatenates the string values of its args. */
+        @LuaBoundFunction
+        public Varargs join(Varargs args) {
+            StringBuilder sb = new StringBuilder();
+            for (int n = 1; n <= args.narg(); n++) {
+                if (n > 1) {
+                    sb.append(',');
+                }
+                sb.append(args.tojstring(n));
+            }
+            return LuaValue.valueOf(sb.toString());
+        }
+
+        /** Returns nothing. */
+        @LuaBoundFunction
+        public void nop(Varargs args) {
+        }
+
+        /** Returns the number of args. */
+        @LuaBoundFunction
+        public static Varargs count(Varargs args) {
+            return LuaValue.valueOf(args.narg());
+        }
+
+        /** Always throws a checked exception. */
+        @LuaBoundFunction
+        public Varargs fail(Varargs args) throws IOException {
+            throw new IOException("fail");
+        }
+
+        /** Returns half of its arg. */
+        @LuaBoundFunction
+        public double half(double value) {
+            return value / 2;
+        }
+
+        /** Repeats a string. */
+        @LuaBoundFunction
+        public LuaString times(LuaString str, int count) {
+            return LuaString.valueOf(repeatString(str.tojstring(), count));
+        }
+
+        /** Returns the opposite of its (boolean) arg. */
+        @LuaBoundFunction
+        public static boolean negate(boolean value) {
+            return !value;
+        }
+
+        /** Returns two times its arg. */
+        @LuaBoundFunction
+        public static long twice(long value) {
+            return 2 * value;
+        }
+    }
+
+    /** Doesn't get a generated dispatcher, because the dispatcher wouldn't be able to access this class. */
+    @LuaSerializable
+    private static final class ReflectionLib extends LuaModule {
+
+        private static final long serialVersionUID = 1L;
+
+        ReflectionLib() {
+            super("ReflectionLib");
+        }
+
+        /** Repeats a string. */
+        @LuaBoundFunction
+        public LuaString times(String str, int count) {
+            return LuaString.valueOf(repeatString(str, count));
+        }
+
+        /** Returns two times its arg. */
+        @LuaBoundFunction
+        public long twice(long value) {
+            return 2 * value;
+        }
+    }
+
+    private static String repeatString(String str, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int n = 0; n < count; n++) {
+            sb.append(str);
+        }
+        return sb.toString();
+    }
+
+}
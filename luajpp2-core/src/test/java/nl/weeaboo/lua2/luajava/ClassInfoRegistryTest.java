@@ -0,0 +1,146 @@
+package nl.weeaboo.lua2.luajava;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import nl.weeaboo.lua2.LuaRunState;
+import nl.weeaboo.lua2.vm.LuaString;
+import nl.weeaboo.lua2.vm.LuaUserdata;
+
+public class ClassInfoRegistryTest {
+
+    private static final Class<?>[] CLASSES = {
+        Object.class, String.class, Integer.class, Long.class, Double.class, Boolean.class, Character.class,
+        Byte.class, Short.class, Float.class, Number.class, StringBuilder.class, ArrayList.class, List.class,
+        Thread.class, Runnable.class, TestA.class, TestB.class, int[].class, String[].class,
+    };
+
+    /**
+     * The registry returns the same instance for a class, also after growing its hash table.
+     */
+    @Test
+    public void sameInstance() {
+        ClassInfoRegistry registry = new ClassInfoRegistry();
+
+        List<JavaClass> infos = new ArrayList<>();
+        for (Class<?> clazz : CLASSES) {
+            JavaClass info = registry.get(clazz);
+            Assert.assertSame(clazz, info.getWrappedClass());
+            infos.add(info);
+        }
+
+        for (int n = 0; n < CLASSES.length; n++) {
+            Assert.assertSame(infos.get(n), registry.get(CLASSES[n]));
+        }
+    }
+
+    /**
+     * The metadata of classes loaded by the class loader of this library is kept, also when nothing else refers
+     * to it.
+     */
+    @Test
+    public void retained() throws InterruptedException {
+        ClassInfoRegistry registry = new ClassInfoRegistry();
+        Assert.assertTrue(ClassInfoRegistry.isPermanent(TestA.class));
+        Assert.assertTrue(ClassInfoRegistry.isPermanent(String.class));
+
+        int hash = System.identityHashCode(registry.get(TestA.class));
+        for (int n = 0; n < 5; n++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(hash, System.identityHashCode(registry.get(TestA.class)));
+    }
+
+    /**
+     * The registry doesn't keep classes from other class loaders alive, so it doesn't keep those class loaders
+     * alive either.
+     */
+    @Test
+    public void notRetained() throws Exception {
+        ClassInfoRegistry registry = new ClassInfoRegistry();
+        ClassLoader classLoader = new IsolatingClassLoader(TestA.class);
+        Class<?> isolated = classLoader.loadClass(TestA.class.getName());
+        Assert.assertNotSame(TestA.class, isolated);
+        Assert.assertFalse(ClassInfoRegistry.isPermanent(isolated));
+        Assert.assertSame(isolated, registry.get(isolated).getWrappedClass());
+
+        WeakReference<ClassLoader> ref = new WeakReference<>(classLoader);
+        classLoader = null;
+        isolated = null;
+
+        for (int n = 0; n < 20 && ref.get() != null; n++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(ref.get());
+    }
+
+    /**
+     * Threads with their own Lua run state share the same class metadata.
+     */
+    @Test
+    public void concurrentLookup() throws Exception {
+        final int threadCount = 8;
+        final CountDownLatch startSignal = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<List<Object>>> futures = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++) {
+                futures.add(executor.submit(new Callable<List<Object>>() {
+                    @Override
+                    public List<Object> call() throws Exception {
+                        LuaRunState luaRunState = LuaRunState.create();
+                        try {
+                            startSignal.await();
+                            return lookupAll();
+                        } finally {
+                            luaRunState.destroy();
+                        }
+                    }
+                }));
+            }
+            startSignal.countDown();
+
+            List<Object> expected = futures.get(0).get();
+            for (Future<List<Object>> future : futures) {
+                List<Object> actual = future.get();
+                for (int n = 0; n < expected.size(); n++) {
+                    Assert.assertSame(expected.get(n), actual.get(n));
+                }
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    /** Looks up the metatables of all test classes, and calls a method through each one. */
+    private static List<Object> lookupAll() {
+        List<Object> result = new ArrayList<>();
+        for (Class<?> clazz : CLASSES) {
+            JavaClass info = LuajavaLib.getClassInfo(clazz);
+            result.add(info);
+            result.add(info.getMetatable());
+        }
+
+        StringBuilder sb = new StringBuilder("abc");
+        LuaUserdata userdata = LuajavaLib.toUserdata(sb, StringBuilder.class);
+        for (int n = 0; n < 100; n++) {
+            Assert.assertEquals(3, userdata.invokemethod(LuaString.valueOf("length")).toint(1));
+        }
+        return result;
+    }
+
+}
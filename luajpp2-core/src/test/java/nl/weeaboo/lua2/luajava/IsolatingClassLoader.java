@@ -0,0 +1,54 @@
+package nl.weeaboo.lua2.luajava;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Loads its own copy of a class, like a plugin class loader would. Other classes are loaded by the parent class
+ * loader.
+ */
+final class IsolatingClassLoader extends ClassLoader {
+
+    private final Class<?> isolatedClass;
+
+    IsolatingClassLoader(Class<?> isolatedClass) {
+        super(isolatedClass.getClassLoader());
+
+        this.isolatedClass = isolatedClass;
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (!name.equals(isolatedClass.getName())) {
+            return super.loadClass(name, resolve);
+        }
+
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> result = findLoadedClass(name);
+            if (result == null) {
+                byte[] classBytes = readClassFile();
+                result = defineClass(name, classBytes, 0, classBytes.length);
+            }
+            return result;
+        }
+    }
+
+    private byte[] readClassFile() throws ClassNotFoundException {
+        String path = "/" + isolatedClass.getName().replace('.', '/') + ".class";
+        try (InputStream in = isolatedClass.getResourceAsStream(path)) {
+            if (in == null) {
+                throw new ClassNotFoundException(path);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int r; (r = in.read(buffer)) >= 0;) {
+                out.write(buffer, 0, r);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new ClassNotFoundException(path, e);
+        }
+    }
+
+}
@@ -0,0 +1,61 @@
+package nl.weeaboo.lua2.luajava;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.weeaboo.lua2.AbstractLuaTest;
+import nl.weeaboo.lua2.vm.LuaTable;
+
+public class JavaFieldTest extends AbstractLuaTest {
+
+    private Fields instance;
+
+    @Before
+    public void before() {
+        instance = new Fields();
+
+        LuaTable globals = luaRunState.getGlobalEnvironment();
+        globals.rawset("instance", LuajavaLib.toUserdata(instance, instance.getClass()));
+    }
+
+    /**
+     * Read and write fields of primitive and object types.
+     */
+    @Test
+    public void accessFields() {
+        loadScript("luajava/field.lua");
+        runToCompletion();
+
+        Assert.assertEquals(true, instance.booleanValue);
+        Assert.assertEquals(-2, instance.byteValue);
+        Assert.assertEquals('b', instance.charValue);
+        Assert.assertEquals(-3, instance.shortValue);
+        Assert.assertEquals(5, instance.intValue);
+        Assert.assertEquals(1L << 40, instance.longValue);
+        Assert.assertEquals(0.5f, instance.floatValue, 0f);
+        Assert.assertEquals(2.5, instance.doubleValue, 0.0);
+        Assert.assertEquals("abc", instance.stringValue);
+        Assert.assertEquals(Integer.valueOf(7), instance.boxedValue);
+        Assert.assertSame(instance, instance.objectValue);
+    }
+
+    @SuppressWarnings("unused")
+    static final class Fields {
+
+        public boolean booleanValue;
+        public byte byteValue;
+        public char charValue = 'a';
+        public short shortValue;
+        public int intValue = 4;
+        public long longValue;
+        public float floatValue;
+        public double doubleValue = 1.5;
+        public String stringValue = "a";
+        public Integer boxedValue;
+        public Object objectValue;
+        public final int finalValue = 1;
+
+    }
+
+}
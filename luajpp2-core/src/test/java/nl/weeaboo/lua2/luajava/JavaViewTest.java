@@ -0,0 +1,118 @@
+package nl.weeaboo.lua2.luajava;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.weeaboo.lua2.AbstractLuaTest;
+import nl.weeaboo.lua2.LuaException;
+import nl.weeaboo.lua2.LuaRunState;
+import nl.weeaboo.lua2.LuaTestUtil;
+import nl.weeaboo.lua2.vm.LuaTable;
+import nl.weeaboo.lua2.vm.LuaValue;
+
+public class JavaViewTest extends AbstractLuaTest {
+
+    private List<String> list;
+    private Map<String, Integer> map;
+    private int[] ints;
+    private double[] doubles;
+    private String[] strings;
+
+    @Before
+    public void before() {
+        list = new ArrayList<>(Arrays.asList("a", "b", "c"));
+        map = new HashMap<>();
+        map.put("a", 1);
+        map.put("b", 2);
+        ints = new int[] { 1, 2, 3 };
+        doubles = new double[] { 0.5 };
+        strings = new String[] { "x", "y", "z" };
+
+        LuaTable globals = luaRunState.getGlobalEnvironment();
+        globals.rawset("list", CoerceJavaToLua.listView(list, String.class));
+        globals.rawset("map", CoerceJavaToLua.mapView(map, String.class, Integer.class));
+        globals.rawset("ints", CoerceJavaToLua.arrayView(ints));
+        globals.rawset("doubles", CoerceJavaToLua.arrayView(doubles));
+        globals.rawset("strings", CoerceJavaToLua.arrayView(strings));
+        globals.rawset("userdataList", CoerceJavaToLua.coerce(Arrays.asList("x", "y")));
+    }
+
+    /**
+     * Read and modify a list through the table and table library functions.
+     */
+    @Test
+    public void listView() {
+        loadScript("luajava/view-list.lua");
+        runToCompletion();
+
+        Assert.assertEquals(Arrays.asList("z", "B", "c", "d"), list);
+    }
+
+    /**
+     * Read and modify a map, iterate over its entries with pairs.
+     */
+    @Test
+    public void mapView() {
+        loadScript("luajava/view-map.lua");
+        runToCompletion();
+
+        Map<String, Integer> expected = new HashMap<>();
+        expected.put("b", 20);
+        expected.put("c", 3);
+        Assert.assertEquals(expected, map);
+    }
+
+    /**
+     * Changes to an array view write through to the Java array.
+     */
+    @Test
+    public void arrayView() {
+        loadScript("luajava/view-array.lua");
+        runToCompletion();
+
+        Assert.assertArrayEquals(new int[] { 1, 5, 3 }, ints);
+        Assert.assertEquals(1.5, doubles[0], 0.0);
+        Assert.assertArrayEquals(new String[] { "x", null, "z" }, strings);
+    }
+
+    /**
+     * Only arrays can be viewed with {@link CoerceJavaToLua#arrayView(Object)}.
+     */
+    @Test
+    public void arrayViewOfNonArray() {
+        try {
+            CoerceJavaToLua.arrayView("abc");
+            Assert.fail("Expected an exception");
+        } catch (LuaException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Views are serialized as a reference to the underlying Java object.
+     */
+    @Test
+    public void serialize() throws IOException {
+        LuaRunState lrs = LuaTestUtil.serialize(luaRunState);
+        lrs.registerOnThread();
+
+        LuaValue listView = LuaTestUtil.getGlobal("list");
+        Assert.assertEquals(3, listView.len().toint());
+        Assert.assertEquals("b", listView.get(2).tojstring());
+
+        LuaValue mapView = LuaTestUtil.getGlobal("map");
+        Assert.assertEquals(2, mapView.get("b").toint());
+
+        LuaValue intsView = LuaTestUtil.getGlobal("ints");
+        Assert.assertEquals(3, intsView.get(3).toint());
+    }
+
+}
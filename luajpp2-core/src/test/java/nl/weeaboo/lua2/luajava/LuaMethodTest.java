@@ -58,6 +58,31 @@ public class LuaMethodTest extends AbstractLuaTest {
         LuaTestUtil.assertGlobal("result", 42);
     }
 
+    /**
+     * Look up methods and fields of a Java object.
+     */
+    @Test
+    public void lookupMembers() {
+        loadScript("luajava/members.lua");
+        runToCompletion();
+
+        Assert.assertEquals(5, instance.value);
+    }
+
+    /**
+     * Call overloaded methods with different argument types. Overload resolution is cached per argument type
+     * signature, so alternating between signatures must still select the matching overload each time.
+     */
+    @Test
+    public void callOverloaded() {
+        LuaTable globals = luaRunState.getGlobalEnvironment();
+        Overloads overloads = new Overloads();
+        globals.rawset("overloads", LuajavaLib.toUserdata(overloads, overloads.getClass()));
+
+        loadScript("luajava/overload.lua");
+        runToCompletion();
+    }
+
     /**
      * Serialize a userdata object.
      */
@@ -82,4 +107,31 @@ public class LuaMethodTest extends AbstractLuaTest {
         runToCompletion();
     }
 
+    static final class Overloads {
+
+        public String pick(int x, int y) {
+            return "int,int";
+        }
+
+        public String pick(boolean x, boolean y) {
+            return "boolean,boolean";
+        }
+
+        public String pick(String x) {
+            return "String";
+        }
+
+        public String pick(TestA x) {
+            return "TestA";
+        }
+
+        public String pick(LuaTable x) {
+            return "LuaTable";
+        }
+
+        public String pick() {
+            return "";
+        }
+    }
+
 }
@@ -0,0 +1,159 @@
+package nl.weeaboo.lua2.luajava;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Proxy;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.weeaboo.lua2.AbstractLuaTest;
+import nl.weeaboo.lua2.LuaException;
+import nl.weeaboo.lua2.LuaRunState;
+import nl.weeaboo.lua2.LuaTestUtil;
+import nl.weeaboo.lua2.vm.LuaTable;
+import nl.weeaboo.lua2.vm.LuaValue;
+
+public class LuaProxyTest extends AbstractLuaTest {
+
+    @Before
+    public void before() {
+        LuaTable globals = luaRunState.getGlobalEnvironment();
+        globals.rawset("ICallback", LuajavaLib.toUserdata(ICallback.class, Class.class));
+        globals.rawset("Fields", LuajavaLib.toUserdata(JavaFieldTest.Fields.class, Class.class));
+    }
+
+    /**
+     * Implement a Java interface with a Lua table, then call its methods from Java.
+     */
+    @Test
+    public void callFromJava() {
+        ICallback proxy = createProxy();
+        Assert.assertTrue(proxy instanceof GeneratedProxy);
+
+        Assert.assertEquals(3, proxy.count());
+        Assert.assertEquals("xy", proxy.concat("x", "y"));
+        Assert.assertEquals(10.0, proxy.sum(1, 2, 3, 4), 0.0);
+
+        proxy.set(5);
+        LuaTestUtil.assertGlobal("lastValue", 5);
+
+        Assert.assertEquals(false, proxy.negate(true));
+        Assert.assertEquals(1L << 40, proxy.twice(1L << 39));
+        Assert.assertEquals('b', proxy.nextChar('a'));
+
+        // Object methods are implemented by the proxy itself
+        Assert.assertEquals(proxy, proxy);
+        Assert.assertEquals(System.identityHashCode(proxy), proxy.hashCode());
+    }
+
+    /**
+     * Non-public interfaces can't be implemented by a generated class, those use {@link Proxy} instead.
+     */
+    @Test
+    public void reflectionFallback() {
+        createProxy();
+        LuaTable impl = LuaTestUtil.getGlobal("impl").checktable();
+
+        IHidden proxy = LuajavaLib.createProxy(IHidden.class, impl);
+        Assert.assertTrue(Proxy.isProxyClass(proxy.getClass()));
+
+        Assert.assertEquals(3, proxy.count());
+        Assert.assertEquals(10.0, proxy.sum(1, 2, 3, 4), 0.0);
+        Assert.assertEquals('b', proxy.nextChar('a'));
+    }
+
+    /**
+     * Interface methods without a matching Lua function throw an exception.
+     */
+    @Test
+    public void missingFunction() {
+        ICallback proxy = LuajavaLib.createProxy(ICallback.class, new LuaTable());
+        try {
+            proxy.count();
+            Assert.fail("Expected an exception");
+        } catch (LuaException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("count"));
+        }
+    }
+
+    /**
+     * Proxies are serialized as a reference to their Lua table.
+     */
+    @Test
+    public void serialize() throws IOException {
+        createProxy();
+
+        LuaRunState lrs = LuaTestUtil.serialize(luaRunState);
+        lrs.registerOnThread();
+
+        ICallback proxy = LuaTestUtil.getGlobal("proxy", ICallback.class);
+        Assert.assertEquals(3, proxy.count());
+        Assert.assertEquals("xy", proxy.concat("x", "y"));
+    }
+
+    /**
+     * Proxies for interfaces from another class loader don't keep that class loader alive.
+     */
+    @Test
+    public void otherClassLoader() throws Exception {
+        ClassLoader classLoader = new IsolatingClassLoader(ICallback.class);
+        Class<?> iface = classLoader.loadClass(ICallback.class.getName());
+        Assert.assertFalse(ClassInfoRegistry.isPermanent(iface));
+
+        ProxyClass proxyClass = ProxyClass.forInterfaces(iface);
+        Object proxy = proxyClass.newInstance(new LuaTable());
+        Assert.assertTrue(iface.isInstance(proxy));
+        Assert.assertSame(proxyClass, ProxyClass.forInterfaces(iface));
+
+        WeakReference<ClassLoader> ref = new WeakReference<>(classLoader);
+        classLoader = null;
+        iface = null;
+        proxyClass = null;
+        proxy = null;
+
+        for (int n = 0; n < 20 && ref.get() != null; n++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(ref.get());
+    }
+
+    private ICallback createProxy() {
+        loadScript("luajava/proxy.lua");
+        runToCompletion();
+
+        LuaValue proxy = LuaTestUtil.getGlobal("proxy");
+        return proxy.checkuserdata(ICallback.class);
+    }
+
+    public interface ICallback {
+
+        int count();
+
+        String concat(String a, String b);
+
+        double sum(int a, int b, int c, int d);
+
+        void set(int value);
+
+        boolean negate(boolean value);
+
+        long twice(long value);
+
+        char nextChar(char c);
+
+    }
+
+    interface IHidden {
+
+        int count();
+
+        double sum(int a, int b, int c, int d);
+
+        char nextChar(char c);
+
+    }
+
+}
@@ -1,54 +1,117 @@
 package nl.weeaboo.lua2.luajava;
 
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import nl.weeaboo.lua2.AllocationMeter;
 import nl.weeaboo.lua2.LuaRunState;
+import nl.weeaboo.lua2.compiler.LoadState;
 import nl.weeaboo.lua2.vm.LuaConstants;
+import nl.weeaboo.lua2.vm.LuaFunction;
 import nl.weeaboo.lua2.vm.LuaString;
 import nl.weeaboo.lua2.vm.LuaValue;
 import nl.weeaboo.lua2.vm.Varargs;
 
+/**
+ * Measures the time and the number of bytes allocated for calling Java methods and accessing Java fields
+ * through luajava, both from Java and from a Lua script.
+ */
 final class RunLuaMethodBenchmark {
 
     private static final Logger LOG = LoggerFactory.getLogger(RunLuaMethodBenchmark.class);
     private static final LuaString METHOD_A = LuaString.valueOf("methodA");
+    private static final LuaString ADD = LuaString.valueOf("add");
+    private static final LuaString SET_POS = LuaString.valueOf("setPos");
+    private static final LuaString COUNT = LuaString.valueOf("count");
+
+    private static final int BATCH_SIZE = 1_000_000;
+    private static final String RUN_SELF =
+                      "local potato = ...\n"
+                    + "for i=1," + BATCH_SIZE + " do potato:methodA() end\n";
+
+    private final LuaRunState luaRunState;
 
     private final Potato potato;
     private final LuaValue luaPotato;
+    private final Varargs addArgs;
+    private final @Nullable AllocationMeter allocationMeter;
 
     private RunLuaMethodBenchmark() {
-        LuaRunState.create();
+        luaRunState = LuaRunState.create();
+        luaRunState.setInstructionCountLimit(Integer.MAX_VALUE);
+        luaRunState.setDebugEnabled(false);
 
         potato = new Potato();
         luaPotato = CoerceJavaToLua.coerce(potato);
+        addArgs = LuaValue.varargsOf(LuaValue.valueOf(1), LuaValue.valueOf(2.5));
+
+        allocationMeter = AllocationMeter.create();
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         RunLuaMethodBenchmark benchmark = new RunLuaMethodBenchmark();
         while (true) {
-            benchmark.run();
+            benchmark.run("method", () -> benchmark.luaPotato.invokemethod(METHOD_A));
+            benchmark.run("args", () -> benchmark.luaPotato.invokemethod(ADD, benchmark.addArgs));
+            benchmark.run("overload", () -> benchmark.luaPotato.invokemethod(SET_POS, benchmark.addArgs));
+            benchmark.run("field", () -> {
+                LuaValue count = benchmark.luaPotato.get(COUNT);
+                benchmark.luaPotato.set(COUNT, count.add(1));
+                return count;
+            });
+            benchmark.runScript("self", RUN_SELF);
         }
     }
 
-    private void run() {
+    private void run(String label, ICall call) {
+        final int runs = 10_000_000;
+
+        long bytes0 = allocatedBytes();
         long t0 = System.nanoTime();
-        final int runs = 100_000_000;
 
         Varargs result = LuaConstants.NONE;
         for (int run = 0; run < runs; run++) {
-            result = luaPotato.invokemethod(METHOD_A);
+            result = call.call();
         }
 
         double nanosPerCall = (System.nanoTime() - t0) / (double)runs;
+        double bytesPerCall = (allocatedBytes() - bytes0) / (double)runs;
 
         LOG.trace(result.tojstring());
-        LOG.info("{}ns per call", nanosPerCall);
+        LOG.info("[{}] {}ns per call, {} bytes allocated per call", label, nanosPerCall, bytesPerCall);
+    }
+
+    private void runScript(String label, String code) throws IOException {
+        LuaFunction run = LoadState.load(code, "?", luaRunState.getGlobalEnvironment());
+
+        long bytes0 = allocatedBytes();
+        long t0 = System.nanoTime();
+
+        run.call(luaPotato);
+
+        double nanosPerCall = (System.nanoTime() - t0) / (double)BATCH_SIZE;
+        double bytesPerCall = (allocatedBytes() - bytes0) / (double)BATCH_SIZE;
+
+        LOG.info("[{}] {}ns per call, {} bytes allocated per call", label, nanosPerCall, bytesPerCall);
+    }
+
+    private long allocatedBytes() {
+        return (allocationMeter != null ? allocationMeter.allocatedBytes() : 0L);
+    }
+
+    private interface ICall {
+        Varargs call();
     }
 
     @SuppressWarnings("unused")
     private static final class Potato {
 
+        public int count;
+
         public int methodA() {
             return 1;
         }
@@ -69,6 +132,19 @@ final class RunLuaMethodBenchmark {
             return 5;
         }
 
+        public double add(int a, double b) {
+            return a + b;
+        }
+
+        public void setPos(int x, int y) {
+        }
+
+        public void setPos(double x, double y) {
+        }
+
+        public void setPos(float x, float y) {
+        }
+
     }
 
 }
@@ -159,6 +159,32 @@ public final class Lua51TestSuiteTest extends AbstractLuaTest {
         runScript("verybig.lua");
     }
 
+    /**
+     * The interpreter has fast paths for arithmetic and comparisons on numbers and strings. Checks that they
+     * behave the same as the generic implementation.
+     */
+    @Test
+    public void testVmArithmetic() {
+        loadScript("vm/arithmetic.lua");
+        runToCompletion();
+    }
+
+    /**
+     * Each evaluation of a function expression creates a distinct closure, also if the function has no upvalues.
+     */
+    @Test
+    public void testVmClosures() {
+        loadScript("vm/closure-cache.lua");
+        runToCompletion();
+    }
+
+    /** Varargs idioms handled without allocating: {@code select}, {@code unpack} and forwarding varargs. */
+    @Test
+    public void testVmVarargs() {
+        loadScript("vm/varargs.lua");
+        runToCompletion();
+    }
+
     private void runScript(String filename) {
         loadScript("lua51tests/" + filename);
         runToCompletion();
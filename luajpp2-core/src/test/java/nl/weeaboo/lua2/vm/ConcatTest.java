@@ -0,0 +1,42 @@
+package nl.weeaboo.lua2.vm;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import nl.weeaboo.lua2.AbstractLuaTest;
+
+public final class ConcatTest extends AbstractLuaTest {
+
+    @Test
+    public void testConcat() {
+        loadScript("vm/concat.lua");
+        runToCompletion();
+    }
+
+    /** Integers are rendered directly into the result, check that they're rendered the same as tostring(). */
+    @Test
+    public void testNumbers() {
+        assertConcat(LuaInteger.valueOf(0));
+        assertConcat(LuaInteger.valueOf(Integer.MIN_VALUE));
+        assertConcat(LuaInteger.valueOf(Integer.MAX_VALUE));
+        assertConcat(LuaDouble.valueOf(-0.0));
+        assertConcat(LuaDouble.valueOf(-1e18));
+        assertConcat(LuaDouble.valueOf(Long.MIN_VALUE));
+        assertConcat(LuaDouble.valueOf(Long.MAX_VALUE));
+        for (long n = 1; n > 0 && n < Long.MAX_VALUE / 10; n *= 10) {
+            assertConcat(LuaDouble.valueOf(n - 1));
+            assertConcat(LuaDouble.valueOf(n));
+            assertConcat(LuaDouble.valueOf(-n));
+        }
+
+        // Non-integral numbers use the generic implementation
+        Assert.assertNull(LuaString.concat(new LuaValue[] { LuaDouble.valueOf(0.5) }, 0, 0));
+        Assert.assertNull(LuaString.concat(new LuaValue[] { LuaDouble.NAN }, 0, 0));
+    }
+
+    private static void assertConcat(LuaValue number) {
+        LuaValue[] values = { LuaString.valueOf("["), number, LuaString.valueOf("]") };
+        Assert.assertEquals("[" + number.tojstring() + "]", LuaString.concat(values, 0, 2).tojstring());
+    }
+
+}
@@ -0,0 +1,53 @@
+package nl.weeaboo.lua2.vm;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.weeaboo.lua2.AbstractLuaTest;
+import nl.weeaboo.lua2.lib.OneArgFunction;
+import nl.weeaboo.lua2.lib.ThreeArgFunction;
+import nl.weeaboo.lua2.lib.TwoArgFunction;
+import nl.weeaboo.lua2.lib.ZeroArgFunction;
+
+public final class FixedArityCallTest extends AbstractLuaTest {
+
+    @Before
+    public void before() {
+        LuaTable globals = luaRunState.getGlobalEnvironment();
+        globals.rawset("zero", new ZeroArgFunction() {
+            @Override
+            public LuaValue call() {
+                return valueOf("zero");
+            }
+        });
+        globals.rawset("one", new OneArgFunction() {
+            @Override
+            public LuaValue call(LuaValue arg) {
+                return valueOf(arg.checkint() + 1);
+            }
+        });
+        globals.rawset("two", new TwoArgFunction() {
+            @Override
+            public LuaValue call(LuaValue arg1, LuaValue arg2) {
+                return valueOf(arg1.tojstring() + "," + arg2.tojstring());
+            }
+        });
+        globals.rawset("three", new ThreeArgFunction() {
+            @Override
+            public LuaValue call(LuaValue arg1, LuaValue arg2, LuaValue arg3) {
+                return valueOf(arg1.tojstring() + "," + arg2.tojstring() + "," + arg3.tojstring());
+            }
+        });
+    }
+
+    /**
+     * Java functions with a fixed number of arguments are called with the arguments taken directly from the
+     * registers.
+     */
+    @Test
+    public void testFixedArityCalls() {
+        loadScript("vm/fixed-arity.lua");
+        runToCompletion();
+    }
+
+}
@@ -0,0 +1,141 @@
+package nl.weeaboo.lua2.vm;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the bytecode size of the interpreter's dispatch loop against the limits used by the HotSpot JIT
+ * compiler. Exceeding these limits doesn't break anything, but it makes the interpreter a lot slower.
+ */
+public final class InterpreterMethodSizeTest {
+
+    /** Methods larger than this are never JIT-compiled ({@code -XX:HugeMethodLimit}). */
+    private static final int HUGE_METHOD_LIMIT = 8000;
+
+    /** Hot methods larger than this aren't inlined by the C2 compiler ({@code -XX:FreqInlineSize}). */
+    private static final int FREQ_INLINE_SIZE = 325;
+
+    private Map<String, Integer> codeSizes;
+
+    @Before
+    public void before() throws IOException {
+        codeSizes = readCodeSizes(LuaInterpreter.class, "LuaInterpreter$FrameState.class");
+    }
+
+    /** The dispatch loop must be small enough to be compiled at all. */
+    @Test
+    public void dispatchLoopSize() {
+        assertCodeSize("execute", HUGE_METHOD_LIMIT);
+    }
+
+    /** The fast paths of frequently executed instructions should be small enough to be inlined. */
+    @Test
+    public void hotInstructionSizes() {
+        assertCodeSize("binaryArithmeticOp", FREQ_INLINE_SIZE);
+        assertCodeSize("opCompare", FREQ_INLINE_SIZE);
+        assertCodeSize("primitiveCompare", FREQ_INLINE_SIZE);
+        assertCodeSize("opForLoop", FREQ_INLINE_SIZE);
+        assertCodeSize("opCall", FREQ_INLINE_SIZE);
+        assertCodeSize("opTailCall", FREQ_INLINE_SIZE);
+        assertCodeSize("opReturn", FREQ_INLINE_SIZE);
+        assertCodeSize("tableAccessCache", FREQ_INLINE_SIZE);
+        assertCodeSize("globalAccessCache", FREQ_INLINE_SIZE);
+    }
+
+    private void assertCodeSize(String methodName, int limit) {
+        Integer size = codeSizes.get(methodName);
+        Assert.assertNotNull("Method not found: " + methodName, size);
+        Assert.assertTrue(methodName + " is too large: " + size + " bytes (limit=" + limit + ")", size < limit);
+    }
+
+    /**
+     * Parses a class file and returns the bytecode size of each method. For overloaded methods, the size of the
+     * largest overload is returned.
+     */
+    private static Map<String, Integer> readCodeSizes(Class<?> context, String resourcePath) throws IOException {
+        InputStream raw = context.getResourceAsStream(resourcePath);
+        Assert.assertNotNull("Class file not found: " + resourcePath, raw);
+
+        Map<String, Integer> result = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(raw)) {
+            in.readInt(); // magic
+            in.readInt(); // minor_version, major_version
+
+            // Constant pool
+            int constantPoolCount = in.readUnsignedShort();
+            String[] utf8 = new String[constantPoolCount];
+            for (int n = 1; n < constantPoolCount; n++) {
+                int tag = in.readUnsignedByte();
+                switch (tag) {
+                case 1: // Utf8
+                    utf8[n] = in.readUTF();
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    in.skipBytes(8);
+                    n++; // Takes up two entries
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    in.skipBytes(2);
+                    break;
+                case 15: // MethodHandle
+                    in.skipBytes(3);
+                    break;
+                default: // Integer, Float, field/method references, NameAndType, (Invoke)Dynamic
+                    in.skipBytes(4);
+                }
+            }
+
+            in.skipBytes(6); // access_flags, this_class, super_class
+            in.skipBytes(2 * in.readUnsignedShort()); // interfaces
+
+            // Fields
+            for (int n = in.readUnsignedShort(); n > 0; n--) {
+                in.skipBytes(6); // access_flags, name_index, descriptor_index
+                skipAttributes(in);
+            }
+
+            // Methods
+            for (int n = in.readUnsignedShort(); n > 0; n--) {
+                in.skipBytes(2); // access_flags
+                String name = utf8[in.readUnsignedShort()];
+                in.skipBytes(2); // descriptor_index
+                for (int attrCount = in.readUnsignedShort(); attrCount > 0; attrCount--) {
+                    String attrName = utf8[in.readUnsignedShort()];
+                    int attrLength = in.readInt();
+                    if ("Code".equals(attrName)) {
+                        in.skipBytes(4); // max_stack, max_locals
+                        int codeLength = in.readInt();
+                        in.skipBytes(attrLength - 8);
+                        Integer previous = result.get(name);
+                        if (previous == null || previous < codeLength) {
+                            result.put(name, codeLength);
+                        }
+                    } else {
+                        in.skipBytes(attrLength);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void skipAttributes(DataInputStream in) throws IOException {
+        for (int n = in.readUnsignedShort(); n > 0; n--) {
+            in.skipBytes(2); // attribute_name_index
+            in.skipBytes(in.readInt());
+        }
+    }
+
+}
@@ -1,5 +1,6 @@
 package nl.weeaboo.lua2.vm;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.stream.Collectors;
 
@@ -7,6 +8,7 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import nl.weeaboo.lua2.AbstractLuaTest;
+import nl.weeaboo.lua2.compiler.LoadState;
 import nl.weeaboo.lua2.compiler.ScriptLoader;
 import nl.weeaboo.lua2.stdlib.DebugTrace;
 
@@ -25,6 +27,28 @@ public final class LuaThreadTest extends AbstractLuaTest {
         assertStackTrace(thread, "sub2");
     }
 
+    @Test
+    public void testFrameSwitching() {
+        loadScript("vm/frame-switch.lua");
+        runToCompletion();
+    }
+
+    /** Each thread reuses the same interpreter state for every resume. */
+    @Test
+    public void testFrameStateReuse() throws IOException {
+        LuaClosure function = LoadState.load("while true do coroutine.yield() end", "?",
+                luaRunState.getGlobalEnvironment()).checkclosure();
+        LuaThread thread = luaRunState.newThread(function, LuaConstants.NONE);
+
+        thread.resume(LuaConstants.NONE);
+        LuaInterpreter.FrameState frameState = thread.takeFrameState();
+        Assert.assertNotNull(frameState);
+        thread.releaseFrameState(frameState);
+
+        thread.resume(LuaConstants.NONE);
+        Assert.assertSame(frameState, thread.takeFrameState());
+    }
+
     private void assertStackTrace(LuaThread thread, String... expectedFunctionNamed) {
         Assert.assertEquals(Arrays.asList(expectedFunctionNamed), DebugTrace.stackTrace(thread).stream()
                 .map(e -> e.getFunctionName())
@@ -0,0 +1,79 @@
+package nl.weeaboo.lua2.vm;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import nl.weeaboo.lua2.AbstractLuaTest;
+import nl.weeaboo.lua2.compiler.LoadState;
+import nl.weeaboo.lua2.lib.ZeroArgFunction;
+
+public final class NumericForLoopTest extends AbstractLuaTest {
+
+    @Test
+    public void testLoops() {
+        loadScript("vm/numeric-for-loop.lua");
+        runToCompletion();
+    }
+
+    /** Without debug mode, the interpreter uses a dispatch loop without hooks. */
+    @Test
+    public void testLoopsNoDebug() {
+        luaRunState.setDebugEnabled(false);
+        loadScript("vm/numeric-for-loop.lua");
+        runToCompletion();
+    }
+
+    @Test
+    public void testLoopVariableUsage() throws IOException {
+        assertLoopVariableUsage(NumericForLoop.VARIABLE_UNUSED, "for i=1,10 do end");
+        assertLoopVariableUsage(NumericForLoop.VARIABLE_UNUSED, "local x for i=1,10 do x = 1 end");
+        assertLoopVariableUsage(NumericForLoop.VARIABLE_UNUSED, "local t = {} for i=1,10 do t.x = t.x end");
+        assertLoopVariableUsage(NumericForLoop.VARIABLE_OPERAND, "local x for i=1,10 do x = 1 + i end");
+        assertLoopVariableUsage(NumericForLoop.VARIABLE_OPERAND, "local x for i=1,10 do x = -i * 2 end");
+        assertLoopVariableUsage(NumericForLoop.VARIABLE_OPERAND, "local x for i=1,10 do if i > 5 then x = 1 end end");
+        assertLoopVariableUsage(NumericForLoop.VARIABLE_OPERAND, "local t = {} for i=1,10 do t[i] = t[i - 1] end");
+        assertLoopVariableUsage(NumericForLoop.VARIABLE_ESCAPES, "local x for i=1,10 do x = i end");
+        assertLoopVariableUsage(NumericForLoop.VARIABLE_ESCAPES, "local t = {} for i=1,10 do t[1] = i end");
+        assertLoopVariableUsage(NumericForLoop.VARIABLE_ESCAPES, "for i=1,10 do print(i) end");
+        assertLoopVariableUsage(NumericForLoop.VARIABLE_ESCAPES, "for i=1,10 do local f = function() return i end end");
+        assertLoopVariableUsage(NumericForLoop.VARIABLE_ESCAPES, "local s for i=1,10 do s = 'x' .. i end");
+    }
+
+    /**
+     * The visible loop variable is kept up to date, also when the loop body doesn't use it. Debug mode may be
+     * enabled while the loop is running, and the debug library reads the register directly.
+     */
+    @Test
+    public void testLoopVariableRegister() throws IOException {
+        luaRunState.getGlobalEnvironment().rawset("loopVariable", new ZeroArgFunction() {
+            @Override
+            public LuaValue call() {
+                StackFrame sf = LuaThread.getRunning().getStackFrame(1);
+                return sf.registers.get(sf.base + 4);
+            }
+        });
+        luaRunState.setDebugEnabled(false);
+
+        LuaValue result = LoadState.load("local result = 0\n"
+                + "for i=10,13 do\n"
+                + "    result = result + loopVariable()\n"
+                + "end\n"
+                + "return result", "?", luaRunState.getGlobalEnvironment()).call();
+        Assert.assertEquals(10 + 11 + 12 + 13, result.toint());
+    }
+
+    private void assertLoopVariableUsage(byte expected, String code) throws IOException {
+        Prototype p = LoadState.load(code, "?", luaRunState.getGlobalEnvironment()).checkclosure().getPrototype();
+
+        for (int pc = 0; pc < p.code.length; pc++) {
+            if (Lua.getOpcode(p.code[pc]) == Lua.OP_FORPREP) {
+                Assert.assertEquals(code, expected, p.getForLoopVariableUsage(pc));
+                return;
+            }
+        }
+        Assert.fail("No numeric for loop found: " + code);
+    }
+
+}
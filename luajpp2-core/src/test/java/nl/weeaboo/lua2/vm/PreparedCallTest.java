@@ -0,0 +1,121 @@
+package nl.weeaboo.lua2.vm;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import nl.weeaboo.lua2.AbstractLuaTest;
+import nl.weeaboo.lua2.LuaException;
+import nl.weeaboo.lua2.compiler.LoadState;
+import nl.weeaboo.lua2.lib.OneArgFunction;
+
+public final class PreparedCallTest extends AbstractLuaTest {
+
+    private final CallResults results = new CallResults();
+
+    @Test
+    public void testPrimitiveArgs() throws IOException {
+        PreparedCall call = prepare("function(a, b, c, d) return a, b, c, d end");
+
+        call.arg(1.5).arg(2).arg(true).arg(LuaString.valueOf("x")).invoke(results);
+        assertResults("1.5", "2", "true", "x");
+
+        // Arguments are cleared after each call
+        call.arg(3).invoke(results);
+        assertResults("3", "nil", "nil", "nil");
+    }
+
+    /** The holder is overwritten by each call, also when a call returns fewer values. */
+    @Test
+    public void testResultCount() throws IOException {
+        PreparedCall call = prepare("function(n) if n == 0 then return end if n == 1 then return 'a' end"
+                + " return 'a', 'b', 'c' end");
+
+        call.arg(3).invoke(results);
+        assertResults("a", "b", "c");
+        Varargs copy = results.copy();
+
+        call.arg(1).invoke(results);
+        assertResults("a");
+
+        call.arg(0).invoke(results);
+        assertResults();
+
+        // The copy isn't affected by later calls
+        Assert.assertEquals(3, copy.narg());
+        Assert.assertEquals("c", copy.tojstring(3));
+    }
+
+    @Test
+    public void testVarargs() throws IOException {
+        PreparedCall call = prepare("function(a, ...) return select('#', ...), ... end");
+
+        call.arg(1).arg(2).arg(3).invoke(results);
+        assertResults("2", "2", "3");
+    }
+
+    /** A Lua function called by a prepared call may do another prepared call. */
+    @Test
+    public void testNestedCalls() throws IOException {
+        final PreparedCall inner = prepare("function(x) return x, x * 2 end");
+        final CallResults innerResults = new CallResults();
+        luaRunState.getGlobalEnvironment().rawset("inner", new OneArgFunction() {
+            @Override
+            public LuaValue call(LuaValue arg) {
+                inner.arg(arg).invoke(innerResults);
+                return innerResults.arg(2);
+            }
+        });
+
+        PreparedCall outer = prepare("function(x) local y = inner(x) return x, y, inner(y) end");
+        outer.arg(5).invoke(results);
+        assertResults("5", "10", "20");
+    }
+
+    @Test
+    public void testError() throws IOException {
+        PreparedCall call = prepare("function(a) if a then error('fail') end return 'ok' end");
+
+        try {
+            call.arg(true).invoke(results);
+            Assert.fail("Expected an exception");
+        } catch (LuaException e) {
+            // Expected
+        }
+
+        // The arguments of the failed call were cleared
+        call.invoke(results);
+        assertResults("ok");
+    }
+
+    /** Functions compiled by {@link PrototypeCompiler} are called directly. */
+    @Test
+    public void testCompiled() throws IOException {
+        luaRunState.setDebugEnabled(false);
+        luaRunState.setCompilerEnabled(true);
+
+        PreparedCall call = prepare("function(a, b) return a + b, a - b end");
+        Prototype p = call.getFunction().getPrototype();
+        for (int n = 0; n < 2 * PrototypeCompiler.CALL_THRESHOLD; n++) {
+            call.arg(n).arg(0.5).invoke(results);
+            Assert.assertEquals(n + 0.5, results.todouble(1), 0.0);
+            Assert.assertEquals(n - 0.5, results.todouble(2), 0.0);
+        }
+        Assert.assertNotNull(p.getCompiledFunction());
+    }
+
+    private void assertResults(String... expected) {
+        Assert.assertEquals(expected.length, results.narg());
+        for (int n = 0; n < expected.length; n++) {
+            Assert.assertEquals(expected[n], results.tojstring(1 + n));
+        }
+    }
+
+    private PreparedCall prepare(String code) throws IOException {
+        LuaClosure function = LoadState.load("return " + code, "?", luaRunState.getGlobalEnvironment())
+                .call().checkclosure();
+        return luaRunState.getMainThread().prepareCall(function);
+    }
+
+}
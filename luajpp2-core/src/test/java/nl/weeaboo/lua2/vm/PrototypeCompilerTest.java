@@ -0,0 +1,116 @@
+package nl.weeaboo.lua2.vm;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import nl.weeaboo.lua2.AbstractLuaTest;
+import nl.weeaboo.lua2.LuaException;
+import nl.weeaboo.lua2.compiler.LoadState;
+
+public final class PrototypeCompilerTest extends AbstractLuaTest {
+
+    @Before
+    public void before() {
+        luaRunState.setDebugEnabled(false);
+        luaRunState.setCompilerEnabled(true);
+    }
+
+    @Test
+    public void testCompiledFunctions() {
+        loadScript("vm/compiler.lua");
+        runToCompletion();
+    }
+
+    /** The same script without the compiler, to check that the expected results are correct. */
+    @Test
+    public void testInterpretedFunctions() {
+        luaRunState.setCompilerEnabled(false);
+        loadScript("vm/compiler.lua");
+        runToCompletion();
+    }
+
+    @Test
+    public void testCompilable() throws IOException {
+        assertCompilable(true, "function(a, b) return a + b end");
+        assertCompilable(true, "function() local t = {} for i=1,10 do t[i] = i * i end return t end");
+        assertCompilable(true, "function() local x = 0 while x < 10 do x = x + 1 end return x .. 'a' .. 'b' end");
+        assertCompilable(true, "function() gx = gy return { 1, 2, 3 } end");
+        assertCompilable(false, "function() print('a') end"); // Call
+        assertCompilable(false, "function() return select('#', 1) end"); // Tail call
+        assertCompilable(false, "function() for k, v in pairs({}) do end end"); // Generic for loop (call)
+        assertCompilable(false, "function() local x = 1 return function() return x end end"); // Closure
+        assertCompilable(false, "function(...) return { ... } end"); // Varargs
+    }
+
+    private void assertCompilable(boolean expected, String code) throws IOException {
+        Prototype p = loadFunction(code).getPrototype();
+        Assert.assertEquals(code, expected, PrototypeCompiler.isCompilable(p));
+        if (expected) {
+            // Check that the compilable functions are within the size limit as well
+            Assert.assertNotNull(code, PrototypeCompiler.compile(p));
+        }
+    }
+
+    /** Functions are compiled after a number of calls. */
+    @Test
+    public void testCallThreshold() throws IOException {
+        LuaClosure function = loadFunction("function(a) return a + 1 end");
+        Prototype p = function.getPrototype();
+
+        for (int n = 1; n < PrototypeCompiler.CALL_THRESHOLD; n++) {
+            Assert.assertEquals(n + 1, function.call(LuaInteger.valueOf(n)).toint());
+        }
+        Assert.assertNotNull(p.getCompiledFunction());
+        Assert.assertEquals(101, function.call(LuaInteger.valueOf(100)).toint());
+    }
+
+    /** Not used in debug mode, because debug hooks need to run for every instruction. */
+    @Test
+    public void testNotUsedInDebugMode() throws IOException {
+        luaRunState.setDebugEnabled(true);
+
+        LuaClosure function = loadFunction("function() return 1 end");
+        Prototype p = function.getPrototype();
+        for (int n = 0; n < 2 * PrototypeCompiler.CALL_THRESHOLD; n++) {
+            function.call();
+        }
+
+        // The calls from the loop above weren't counted, so the function isn't compiled yet
+        for (int n = 1; n < PrototypeCompiler.CALL_THRESHOLD; n++) {
+            Assert.assertNull(p.getCompiledFunction());
+        }
+        Assert.assertNotNull(p.getCompiledFunction());
+    }
+
+    /** Compiled loops are subject to the instruction limit. */
+    @Test
+    public void testInstructionLimit() throws IOException {
+        luaRunState.setInstructionCountLimit(10000);
+
+        // Call the function often enough to get it compiled, then call it with an infinite loop
+        LuaClosure function = load("local function spin(n) local i = 0 while n < 0 or i < n do i = i + 1 end end"
+                + " for n=1,2*" + PrototypeCompiler.CALL_THRESHOLD + " do spin(1) end"
+                + " spin(-1)");
+
+        LuaThread mainThread = luaRunState.getMainThread();
+        mainThread.pushPending(function, LuaConstants.NONE);
+        try {
+            luaRunState.update();
+            Assert.fail("Expected an exception");
+        } catch (LuaException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("instruction limit exceeded"));
+        }
+    }
+
+    private LuaClosure loadFunction(String code) throws IOException {
+        return load("return " + code).call().checkclosure();
+    }
+
+    private LuaClosure load(String code) throws IOException {
+        return LoadState.load(code, "?", luaRunState.getGlobalEnvironment()).checkclosure();
+    }
+
+}
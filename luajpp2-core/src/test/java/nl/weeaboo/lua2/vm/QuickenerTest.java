@@ -0,0 +1,50 @@
+package nl.weeaboo.lua2.vm;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import nl.weeaboo.lua2.AbstractLuaTest;
+import nl.weeaboo.lua2.compiler.LoadState;
+
+public final class QuickenerTest extends AbstractLuaTest {
+
+    /** Specialized instructions must behave the same as the standard instructions they replace. */
+    @Test
+    public void testSpecializedInstructions() {
+        luaRunState.setDebugEnabled(false);
+        loadScript("vm/quickening.lua");
+        runToCompletion();
+    }
+
+    /** Quickening uses a copy of the code, the original bytecode remains unchanged. */
+    @Test
+    public void testOriginalCodeUnchanged() throws IOException {
+        luaRunState.setDebugEnabled(false);
+
+        LuaClosure function = LoadState.load("local x = ... if x < 10 then return x + 1 end return x - 1",
+                "?", luaRunState.getGlobalEnvironment()).checkclosure();
+        Prototype p = function.getPrototype();
+        int[] original = p.code.clone();
+
+        for (int n = 0; n < 2 * Quickener.CALL_THRESHOLD; n++) {
+            Assert.assertEquals(6, function.call(LuaInteger.valueOf(5)).toint());
+            Assert.assertEquals(19, function.call(LuaInteger.valueOf(20)).toint());
+        }
+
+        Assert.assertArrayEquals(original, p.code);
+
+        int[] quickened = p.getExecutableCode(false);
+        Assert.assertEquals(original.length, quickened.length);
+        int specialized = 0;
+        for (int pc = 0; pc < original.length; pc++) {
+            if (quickened[pc] != original[pc]) {
+                Assert.assertEquals(original[pc], Quickener.genericInstruction(quickened[pc]));
+                specialized++;
+            }
+        }
+        Assert.assertEquals(3, specialized); // LT+JMP, ADD, SUB
+    }
+
+}
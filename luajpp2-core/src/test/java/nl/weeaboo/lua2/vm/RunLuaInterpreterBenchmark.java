@@ -1,13 +1,26 @@
 package nl.weeaboo.lua2.vm;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Nullable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import nl.weeaboo.lua2.AllocationMeter;
 import nl.weeaboo.lua2.LuaRunState;
 import nl.weeaboo.lua2.compiler.LoadState;
+import nl.weeaboo.lua2.lib.OneArgFunction;
+import nl.weeaboo.lua2.lib.TwoArgFunction;
+import nl.weeaboo.lua2.lib.VarArgFunction;
 
+/**
+ * Runs benchmark scenarios in a loop, reporting the time and the number of bytes allocated per operation. Pass
+ * the names of the scenarios to run as arguments, or no arguments to run all of them.
+ */
 final class RunLuaInterpreterBenchmark {
 
     private static final Logger LOG = LoggerFactory.getLogger(RunLuaInterpreterBenchmark.class);
@@ -15,42 +28,296 @@ final class RunLuaInterpreterBenchmark {
     private static final String INIT =
                       "object = {}\n"
                     + "function object:a() return 1 end\n"
-                    + "function object:b() return 2 end\n";
+                    + "function object:b() return 2 end\n"
+                    + "function add(a, b) return a + b end\n"
+                    + "function nop() end\n"
+                    + "Class = {}\n"
+                    + "Class.__index = Class\n"
+                    + "function Class:method() return 1 end\n"
+                    + "instance = setmetatable({ field = 1 }, Class)\n"
+                    + "gvalue = 1\n"
+                    + "sandbox = setmetatable({}, { __index = _G })\n"
+                    + "function count(n)\n"
+                    + "  local i, hits = 0, 0\n"
+                    + "  while i < n do\n"
+                    + "    i = i + 1\n"
+                    + "    if i % 3 == 0 then hits = hits + 1 end\n"
+                    + "  end\n"
+                    + "  return hits\n"
+                    + "end\n"
+                    + "function dist2(x1, y1, x2, y2)\n"
+                    + "  local dx, dy = x2 - x1, y2 - y1\n"
+                    + "  return dx * dx + dy * dy\n"
+                    + "end\n"
+                    + "function apply(f, x) return f(x) end\n"
+                    + "function nargs(...) return select('#', ...) end\n"
+                    + "function last(...) return (select(-1, ...)) end\n"
+                    + "function sum(...) local a, b, c = ... return a + b + c end\n"
+                    + "function forward(...) local r = sum(...) return r end\n"
+                    + "function callback(dt, n, flag)\n"
+                    + "  if flag then return n + 1, dt end\n"
+                    + "  return n, dt\n"
+                    + "end\n";
 
     private static final int BATCH_SIZE = 1_000_000;
 
-    private static final String RUN =
+    /** A fixed time step, like a game loop would pass to its update callback. */
+    private static final double DELTA_TIME = 1.0 / 60;
+
+    private static final int DISPATCH_ITERATIONS = 10 * BATCH_SIZE;
+
+    /** Executes four instructions per iteration: ADD, GETTABLE, MOVE, FORLOOP. */
+    private static final String DISPATCH =
+                      "local t = { a = 1 }\n"
+                    + "local x, y, z = 0, 0, 0\n"
+                    + "for i=1," + DISPATCH_ITERATIONS + " do x = x + i y = t.a z = y end\n"
+                    + "return x\n";
+
+    private static final String GLOBAL =
+                      "local x\n"
+                    + "for i=1," + BATCH_SIZE + " do x = gvalue x = gvalue x = gvalue x = gvalue end\n";
+
+    /** Calls a function containing a loop. Such functions are quickened by the interpreter. */
+    private static final String COUNT =
+                      "for n=1,100 do count(" + (BATCH_SIZE / 100) + ") end\n";
+
+    /** Calls a small leaf function from a loop. */
+    private static final String LEAF =
+                      "local dist2, sum = dist2, 0\n"
+                    + "for n=1," + BATCH_SIZE + " do sum = sum + dist2(n, 2, 3, n) end\n"
+                    + "return sum\n";
+
+    /** Calls the Java function {@code max} with a fixed number of arguments. */
+    private static String callMax(String max) {
+        return "local max, n = " + max + ", 0\n"
+                + "for i=1," + BATCH_SIZE + " do n = max(n, 100) end\n"
+                + "return n\n";
+    }
+
+    private static final List<Scenario> SCENARIOS = Arrays.asList(
+            new Scenario("interpreter", "call", BATCH_SIZE,
                       "local sum = 0\n"
                     + "for i=1," + BATCH_SIZE + " do sum = sum + 1 end\n"
-                    + "for i=1," + BATCH_SIZE + " do sum = sum + object:a() end\n";
+                    + "for i=1," + BATCH_SIZE + " do sum = sum + object:a() end\n")
+                    .debugEnabled(),
+            new Scenario("call", "call", 2 * BATCH_SIZE,
+                      "local sum = 0\n"
+                    + "for i=1," + BATCH_SIZE + " do nop() sum = add(sum, 1) end\n"),
+            new Scenario("dispatch", "instruction", 4 * DISPATCH_ITERATIONS, DISPATCH),
+            new Scenario("dispatch-debug", "instruction", 4 * DISPATCH_ITERATIONS, DISPATCH)
+                    .debugEnabled(),
+            new Scenario("table-own", "access", 4 * BATCH_SIZE,
+                      "local o, x = instance\n"
+                    + "for i=1," + BATCH_SIZE + " do x = o.field x = o.field x = o.field x = o.field end\n"),
+            new Scenario("table-index", "access", 4 * BATCH_SIZE,
+                      "local o, x = instance\n"
+                    + "for i=1," + BATCH_SIZE + " do x = o.method x = o.method x = o.method x = o.method end\n"),
+            new Scenario("global", "access", 4 * BATCH_SIZE, GLOBAL),
+            // Global variables of a sandbox falling back to the global environment
+            new Scenario("global-sandbox", "access", 4 * BATCH_SIZE, GLOBAL)
+                    .sandboxed(),
+            new Scenario("for-unused", "iteration", BATCH_SIZE,
+                      "local x = 0\n"
+                    + "for i=1," + BATCH_SIZE + " do x = 1 end\n"),
+            new Scenario("for-used", "iteration", BATCH_SIZE,
+                      "local x = 0\n"
+                    + "for i=1," + BATCH_SIZE + " do x = i end\n"),
+            new Scenario("for-nested", "iteration", BATCH_SIZE,
+                      "local x = 0\n"
+                    + "for i=1," + (BATCH_SIZE / 10) + " do for j=1,10 do x = j end end\n"),
+            new Scenario("for-fractional", "iteration", BATCH_SIZE,
+                      "local x = 0\n"
+                    + "for i=0.5," + BATCH_SIZE + " do x = 1 end\n"),
+            new Scenario("arithmetic-int", "iteration", BATCH_SIZE,
+                      "local a, b = 0, 0\n"
+                    + "for i=1," + BATCH_SIZE + " do a = i + 3 b = a - i a = b * 2 end\n"),
+            new Scenario("arithmetic-double", "iteration", BATCH_SIZE,
+                      "local x, v, dt = 0.0, 1.5, 0.016\n"
+                    + "for i=1," + BATCH_SIZE + " do v = v - 9.81 * dt x = x + v * dt end\n"),
+            new Scenario("compare", "iteration", BATCH_SIZE,
+                      "local n = 0\n"
+                    + "for i=1," + BATCH_SIZE + " do if n < 100 then n = n + 1 end if n == 100 then n = 0 end end\n"),
+            new Scenario("compare-string", "iteration", BATCH_SIZE,
+                      "local s, n = 'state', 0\n"
+                    + "for i=1," + BATCH_SIZE + " do if s == 'state' then n = 0 end if s < 'z' then n = 1 end end\n"),
+            new Scenario("quickening", "iteration", BATCH_SIZE, COUNT),
+            new Scenario("leaf", "call", BATCH_SIZE, LEAF),
+            new Scenario("compiler", "iteration", BATCH_SIZE, COUNT)
+                    .compilerEnabled(),
+            new Scenario("compiler-leaf", "call", BATCH_SIZE, LEAF)
+                    .compilerEnabled(),
+            // Concatenation of strings and integers
+            new Scenario("concat", "concat", BATCH_SIZE,
+                      "local name, s = 'player', nil\n"
+                    + "for i=1," + BATCH_SIZE + " do s = '[' .. name .. '] score: ' .. i .. '/' .. 100 end\n"
+                    + "return s\n"),
+            // Passing an inline callback to a function, with and without upvalues
+            new Scenario("closure", "iteration", BATCH_SIZE,
+                      "local sum = 0\n"
+                    + "for i=1," + BATCH_SIZE + " do sum = sum + apply(function(x) return x + 1 end, i) end\n"
+                    + "return sum\n"),
+            new Scenario("closure-upvalue", "iteration", BATCH_SIZE,
+                      "local sum, y = 0, 1\n"
+                    + "for i=1," + BATCH_SIZE + " do sum = sum + apply(function(x) return x + y end, i) end\n"
+                    + "return sum\n"),
+            new Scenario("varargs-select", "iteration", BATCH_SIZE,
+                      "local n = 0\n"
+                    + "for i=1," + BATCH_SIZE + " do n = n + nargs(i, 2, 3) + last(i, 2, 3) end\n"
+                    + "return n\n"),
+            new Scenario("varargs-unpack", "iteration", BATCH_SIZE,
+                      "local n, t = 0, { 1, 2, 3 }\n"
+                    + "for i=1," + BATCH_SIZE + " do local a, b, c = unpack(t) n = n + a + b + c end\n"
+                    + "return n\n"),
+            new Scenario("varargs-forward", "iteration", BATCH_SIZE,
+                      "local n = 0\n"
+                    + "for i=1," + BATCH_SIZE + " do n = n + forward(i, 2, 3) end\n"
+                    + "return n\n"),
+            // Calls from Lua to Java functions
+            new Scenario("java-fixed", "call", BATCH_SIZE, callMax("fixedMax")),
+            new Scenario("java-varargs", "call", BATCH_SIZE, callMax("varargsMax")),
+            new Scenario("java-bound", "call", BATCH_SIZE, callMax("math.max")),
+            new Scenario("java-typed", "call", BATCH_SIZE,
+                      "local fmod, n = math.fmod, 0\n"
+                    + "for i=1," + BATCH_SIZE + " do n = fmod(n + 7, 100) end\n"
+                    + "return n\n"),
+            new Scenario("java-invoke", "call", BATCH_SIZE, "return invokeLoop(callback)\n"),
+            new Scenario("java-prepared", "call", BATCH_SIZE, "return preparedLoop(callback)\n"));
+
+    private final List<Scenario> scenarios = new ArrayList<>();
+    private final @Nullable AllocationMeter allocationMeter;
+
+    private RunLuaInterpreterBenchmark(List<String> names) throws IOException {
+        for (Scenario scenario : SCENARIOS) {
+            if (names.isEmpty() || names.contains(scenario.name)) {
+                scenario.luaRunState = createRunState(scenario);
+                scenarios.add(scenario);
+            }
+        }
 
-    private LuaRunState luaRunState;
+        allocationMeter = AllocationMeter.create();
+    }
 
-    private RunLuaInterpreterBenchmark() {
-        luaRunState = LuaRunState.create();
+    private static LuaRunState createRunState(Scenario scenario) throws IOException {
+        LuaRunState luaRunState = LuaRunState.create();
         luaRunState.setInstructionCountLimit(Integer.MAX_VALUE);
-        // luaRunState.setDebugEnabled(false);
+        luaRunState.setDebugEnabled(scenario.debugEnabled);
+        luaRunState.setCompilerEnabled(scenario.compilerEnabled);
+
+        LuaTable globals = luaRunState.getGlobalEnvironment();
+        globals.rawset("fixedMax", new TwoArgFunction() {
+            @Override
+            public LuaValue call(LuaValue arg1, LuaValue arg2) {
+                return (arg1.checkint() >= arg2.checkint() ? arg1 : arg2);
+            }
+        });
+        globals.rawset("varargsMax", new VarArgFunction() {
+            @Override
+            public Varargs invoke(Varargs args) {
+                return (args.checkint(1) >= args.checkint(2) ? args.arg(1) : args.arg(2));
+            }
+        });
+        // Calls a Lua function from Java through LuaClosure.invoke()
+        globals.rawset("invokeLoop", new OneArgFunction() {
+            @Override
+            public LuaValue call(LuaValue function) {
+                int sum = 0;
+                for (int n = 0; n < BATCH_SIZE; n++) {
+                    Varargs args = varargsOf(valueOf(DELTA_TIME), valueOf(n & 0x7f), valueOf((n & 1) != 0));
+                    sum += function.invoke(args).toint(1);
+                }
+                return valueOf(sum);
+            }
+        });
+        // Calls a Lua function from Java through a PreparedCall
+        globals.rawset("preparedLoop", new OneArgFunction() {
+            @Override
+            public LuaValue call(LuaValue function) {
+                PreparedCall preparedCall = LuaThread.getRunning().prepareCall(function.checkclosure());
+                CallResults results = new CallResults();
+
+                int sum = 0;
+                for (int n = 0; n < BATCH_SIZE; n++) {
+                    preparedCall.arg(DELTA_TIME).arg(n & 0x7f).arg((n & 1) != 0).invoke(results);
+                    sum += results.toint(1);
+                }
+                return valueOf(sum);
+            }
+        });
+        LoadState.load(INIT, "?", globals).call();
+        return luaRunState;
     }
 
     public static void main(String[] args) throws IOException {
-        RunLuaInterpreterBenchmark benchmark = new RunLuaInterpreterBenchmark();
+        RunLuaInterpreterBenchmark benchmark = new RunLuaInterpreterBenchmark(Arrays.asList(args));
         while (true) {
-            benchmark.run();
+            for (Scenario scenario : benchmark.scenarios) {
+                benchmark.run(scenario);
+            }
         }
     }
 
-    private void run() throws IOException {
-        LoadState.load(INIT, "?", luaRunState.getGlobalEnvironment()).call();
-        LuaFunction run = LoadState.load(RUN, "?", luaRunState.getGlobalEnvironment());
+    private void run(Scenario scenario) throws IOException {
+        LuaRunState luaRunState = scenario.luaRunState;
+        luaRunState.registerOnThread();
+        LuaTable globals = luaRunState.getGlobalEnvironment();
+        LuaValue env = (scenario.sandboxed ? globals.get("sandbox") : globals);
+        LuaFunction run = LoadState.load(scenario.code, "?", env);
 
+        long bytes0 = allocatedBytes();
         long t0 = System.nanoTime();
 
         LuaValue result = run.call();
 
-        double nanosPerCall = (System.nanoTime() - t0) / (double)BATCH_SIZE;
+        double nanosPerOperation = (System.nanoTime() - t0) / (double)scenario.operations;
+        double bytesPerOperation = (allocatedBytes() - bytes0) / (double)scenario.operations;
 
         LOG.trace(result.tojstring());
-        LOG.info("{}ns per call", nanosPerCall);
+        LOG.info("[{}] {}ns per {}, {} bytes allocated per {}", scenario.name, nanosPerOperation, scenario.unit,
+                bytesPerOperation, scenario.unit);
+    }
+
+    private long allocatedBytes() {
+        return (allocationMeter != null ? allocationMeter.allocatedBytes() : 0L);
+    }
+
+    private static final class Scenario {
+
+        final String name;
+        /** What's counted as a single operation. */
+        final String unit;
+        /** The number of operations performed by a single run of {@link #code}. */
+        final int operations;
+        final String code;
+
+        boolean debugEnabled;
+        boolean compilerEnabled;
+        /** Runs {@link #code} with a sandboxed environment instead of the global environment. */
+        boolean sandboxed;
+
+        LuaRunState luaRunState;
+
+        Scenario(String name, String unit, int operations, String code) {
+            this.name = name;
+            this.unit = unit;
+            this.operations = operations;
+            this.code = code;
+        }
+
+        Scenario debugEnabled() {
+            debugEnabled = true;
+            return this;
+        }
+
+        Scenario compilerEnabled() {
+            compilerEnabled = true;
+            return this;
+        }
+
+        Scenario sandboxed() {
+            sandboxed = true;
+            return this;
+        }
+
     }
 
 }
@@ -0,0 +1,78 @@
+package nl.weeaboo.lua2.vm;
+
+import java.lang.ref.WeakReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import nl.weeaboo.lua2.AbstractLuaTest;
+
+public final class TableAccessCacheTest extends AbstractLuaTest {
+
+    /**
+     * Changes to tables and metatables invalidate the inline caches used for table accesses.
+     */
+    @Test
+    public void testInvalidation() {
+        loadScript("vm/table-access-cache.lua");
+        runToCompletion();
+    }
+
+    /**
+     * Global variable accesses use the same inline caches, and must respect changes to the function
+     * environment.
+     */
+    @Test
+    public void testGlobals() {
+        loadScript("vm/global-access-cache.lua");
+        runToCompletion();
+    }
+
+    /**
+     * The caches live as long as the function, but don't keep the tables they've seen alive.
+     */
+    @Test
+    public void testNotRetained() throws InterruptedException {
+        LuaString key = LuaString.valueOf("x");
+        TableAccessCache ownCache = new TableAccessCache(key);
+        TableAccessCache indexCache = new TableAccessCache(key);
+
+        LuaTable table = new LuaTable();
+        table.rawset(key, LuaInteger.valueOf(1));
+        LuaTable holder = new LuaTable();
+        holder.rawset(key, LuaInteger.valueOf(2));
+        LuaTable metatable = new LuaTable();
+        metatable.rawset(LuaConstants.META_INDEX, holder);
+        LuaTable receiver = new LuaTable();
+        receiver.setmetatable(metatable);
+
+        for (int n = 0; n < 2; n++) {
+            Assert.assertEquals(1, ownCache.get(table).toint());
+            Assert.assertEquals(2, indexCache.get(receiver).toint());
+        }
+
+        WeakReference<LuaTable> tableRef = new WeakReference<>(table);
+        WeakReference<LuaTable> receiverRef = new WeakReference<>(receiver);
+        WeakReference<LuaTable> metatableRef = new WeakReference<>(metatable);
+        WeakReference<LuaTable> holderRef = new WeakReference<>(holder);
+        table = null;
+        receiver = null;
+        metatable = null;
+        holder = null;
+
+        for (int n = 0; n < 20 && (tableRef.get() != null || holderRef.get() != null); n++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(tableRef.get());
+        Assert.assertNull(receiverRef.get());
+        Assert.assertNull(metatableRef.get());
+        Assert.assertNull(holderRef.get());
+
+        // Entries for collected tables don't match new tables
+        LuaTable other = new LuaTable();
+        Assert.assertTrue(ownCache.get(other).isnil());
+        Assert.assertTrue(indexCache.get(other).isnil());
+    }
+
+}
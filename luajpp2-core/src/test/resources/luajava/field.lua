@@ -0,0 +1,31 @@
+
+-- Read the initial values
+assert(instance.booleanValue == false)
+assert(instance.charValue == 97)
+assert(instance.intValue == 4)
+assert(instance.doubleValue == 1.5)
+assert(instance.stringValue == "a")
+assert(instance.boxedValue == nil)
+assert(instance.missingValue == nil)
+
+-- Write new values
+instance.booleanValue = true
+instance.byteValue = -2
+instance.charValue = 98
+instance.shortValue = -3
+instance.intValue = instance.intValue + 1
+instance.longValue = 2^40
+instance.floatValue = 0.5
+instance.doubleValue = instance.doubleValue + 1
+instance.stringValue = "abc"
+instance.boxedValue = 7
+instance.objectValue = instance
+
+assert(instance.intValue == 5)
+assert(instance.longValue == 2^40)
+assert(instance.boxedValue == 7)
+
+-- Final fields and fields that don't exist can't be written
+assert(not pcall(function() instance.finalValue = 2 end))
+assert(not pcall(function() instance.missingValue = 2 end))
+assert(instance.finalValue == 1)
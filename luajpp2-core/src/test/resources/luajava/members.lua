@@ -0,0 +1,21 @@
+
+-- Methods and fields are found through the member index of the class
+assert(type(instance.getId) == "function")
+assert(instance.getId == instance.getId)
+assert(instance:getId() == 1)
+instance.value = 5
+assert(instance.value == 5)
+assert(instance.missing == nil)
+
+-- The __index metamethod can still be called as a regular function
+local index = getmetatable(instance).__index
+assert(index(instance, "getId") == instance.getId)
+assert(index(instance, "value") == 5)
+assert(index(instance, "missing") == nil)
+
+-- Look up more names than the class remembers, then look up the first names again
+for _, name in ipairs({"toString", "hashCode", "equals", "getClass", "notify", "notifyAll", "wait", "a", "b"}) do
+    assert(instance[name] ~= nil or name == "a" or name == "b")
+end
+assert(instance:getId() == 1)
+assert(instance.value == 5)
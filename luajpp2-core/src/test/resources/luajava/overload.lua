@@ -0,0 +1,9 @@
+
+for i=1,3 do
+    assert(overloads:pick(1, 2) == "int,int")
+    assert(overloads:pick(true, false) == "boolean,boolean")
+    assert(overloads:pick("a") == "String")
+    assert(overloads:pick(instance) == "TestA")
+    assert(overloads:pick({}) == "LuaTable")
+    assert(overloads:pick() == "")
+end
@@ -0,0 +1,32 @@
+impl = {
+    count = function()
+        return 3
+    end,
+    concat = function(a, b)
+        return a .. b
+    end,
+    sum = function(a, b, c, d)
+        return a + b + c + d
+    end,
+    set = function(value)
+        lastValue = value
+    end,
+    negate = function(value)
+        return not value
+    end,
+    twice = function(value)
+        return 2 * value
+    end,
+    nextChar = function(c)
+        return c + 1
+    end
+}
+
+proxy = luajava.createProxy(ICallback, impl)
+
+-- Interface methods can also be called from Lua
+assert(proxy:count() == 3)
+assert(proxy:concat("a", "b") == "ab")
+
+-- The first argument must be an interface
+assert(not pcall(luajava.createProxy, Fields, impl))
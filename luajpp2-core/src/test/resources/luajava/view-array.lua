@@ -0,0 +1,29 @@
+-- Primitive array
+assert(#ints == 3)
+local sum = 0
+for i, v in ipairs(ints) do
+    sum = sum + v
+end
+assert(sum == 6)
+ints[2] = 5
+assert(ints[2] == 5)
+assert(ints[4] == nil)
+assert(not pcall(function() ints[4] = 1 end))
+assert(not pcall(function() ints[1] = nil end))
+assert(not pcall(function() table.insert(ints, 1) end))
+
+assert(doubles[1] == 0.5)
+doubles[1] = 1.5
+
+-- Object array, nil elements are skipped by pairs
+assert(#strings == 3)
+strings[2] = nil
+local keys = ""
+for k, v in pairs(strings) do
+    keys = keys .. k
+end
+assert(keys == "13")
+
+-- Lua can also create a view from userdata
+local view = luajava.view(userdataList)
+assert(#view == 2 and view[2] == "y")
@@ -0,0 +1,29 @@
+-- Read the list
+assert(#list == 3)
+assert(list[1] == "a" and list[3] == "c")
+assert(list[0] == nil and list[4] == nil)
+
+local joined = ""
+for i, v in ipairs(list) do
+    joined = joined .. i .. v
+end
+assert(joined == "1a2b3c")
+
+local count = 0
+for k, v in pairs(list) do
+    count = count + 1
+    assert(list[k] == v)
+end
+assert(count == 3)
+assert(table.concat(list, ",") == "a,b,c")
+
+-- Modify the list
+list[2] = "B"
+list[#list + 1] = "d"
+table.insert(list, 1, "z")
+table.insert(list, "e")
+assert(table.remove(list, 2) == "a")
+list[#list] = nil
+
+local ok = pcall(function() list[10] = "x" end)
+assert(not ok)
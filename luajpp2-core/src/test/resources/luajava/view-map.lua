@@ -0,0 +1,18 @@
+-- Read the map
+assert(map.a == 1 and map["b"] == 2)
+assert(map.missing == nil)
+
+local sum = 0
+local count = 0
+for k, v in pairs(map) do
+    assert(map[k] == v)
+    sum = sum + v
+    count = count + 1
+end
+assert(sum == 3 and count == 2)
+assert(next(map, nil) ~= nil)
+
+-- Modify the map
+map.b = 20
+map.c = 3
+map.a = nil
@@ -0,0 +1,48 @@
+-- Arithmetic and comparisons with and without the interpreter's fast paths
+
+-- Integers
+local a, b = 7, 2
+assert(a + b == 9 and a - b == 5 and a * b == 14)
+assert(a / b == 3.5 and a % b == 1 and a ^ b == 49)
+assert(-7 % 2 == 1 and 7 % -2 == -1)
+assert(tostring(1 / 0) == tostring(math.huge) and tostring(-1 / 0) == tostring(-math.huge))
+local nan = 0 / 0
+assert(nan ~= nan and not (nan < nan) and not (nan <= nan))
+assert(tostring(5 % 0) == tostring(nan))
+
+-- Integer overflow continues as a double
+local max = 2147483647
+assert(max + 1 == 2147483648)
+assert(-max - 2 == -2147483649)
+assert(max * 2 == 4294967294)
+assert(math.floor(max + 1) == 2147483648)
+
+-- Doubles and mixed operands
+local x, y = 1.5, 2
+assert(x + y == 3.5 and y + x == 3.5 and x - y == -0.5 and y - x == 0.5)
+assert(x * y == 3 and y / x == 4 / 3 and x % 1 == 0.5 and y ^ x == 2 ^ 1.5)
+assert(1.5 + 1.5 == 3) -- Integral results compare equal to integers
+assert(x < y and x <= y and not (y < x) and y <= 2 and 2 <= y)
+
+-- Strings
+assert("abc" == "abc" and "abc" ~= "abd")
+assert("abc" < "abd" and "ab" < "abc" and "abc" <= "abc" and not ("b" < "a"))
+assert(("x"):rep(3) == "xxx")
+
+-- String coercion
+assert("10" + 1 == 11 and 1 + "10" == 11 and "3" * "4" == 12)
+assert("10" ~= 10)
+assert(not pcall(function() return "10" < 11 end))
+assert(not pcall(function() return {} + 1 end))
+
+-- Metamethods
+local mt = {
+    __add = function(l, r) return "add" end,
+    __lt = function(l, r) return true end,
+    __le = function(l, r) return false end,
+    __eq = function(l, r) return true end,
+}
+local t1, t2 = setmetatable({}, mt), setmetatable({}, mt)
+assert(t1 + 1 == "add" and 1 + t1 == "add")
+assert(t1 < t2 and not (t1 <= t2))
+assert(t1 == t2)
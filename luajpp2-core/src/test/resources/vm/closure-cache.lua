@@ -0,0 +1,59 @@
+-- Each evaluation of a function expression creates a new closure, also for functions without upvalues.
+
+local function make()
+    return function(x) return x end
+end
+assert(make() ~= make())
+assert(make()(1) == 1)
+
+-- Closures created in a loop can be used as distinct table keys
+local handlers = {}
+for n=1,3 do
+    handlers[function() end] = n
+end
+local handlerCount = 0
+for k, v in pairs(handlers) do
+    handlerCount = handlerCount + 1
+end
+assert(handlerCount == 3)
+
+local function makeWithUpvalue(n)
+    return function() return n end
+end
+local a, b = makeWithUpvalue(1), makeWithUpvalue(2)
+assert(a ~= b)
+assert(a() == 1 and b() == 2)
+
+-- Different functions are different closures, even if their code is the same
+local f1 = function() end
+local f2 = function() end
+assert(f1 ~= f2)
+
+-- Changing the environment of a closure doesn't affect the closures created later
+local function makeGlobalReader()
+    return function() return value end
+end
+value = "global"
+local reader = makeGlobalReader()
+setfenv(reader, { value = "custom" })
+assert(reader() == "custom")
+local reader2 = makeGlobalReader()
+assert(reader2 ~= reader)
+assert(reader2() == "global")
+assert(reader() == "custom")
+
+-- Closures created in a different environment use that environment
+local makeSandboxed = setfenv(function()
+    return function() return value end
+end, { value = "sandbox" })
+assert(makeSandboxed()() == "sandbox")
+assert(makeGlobalReader()() == "global")
+
+-- Inline callbacks
+local t = { 3, 1, 2 }
+for n=1,3 do
+    table.sort(t, function(x, y) return x > y end)
+    assert(t[1] == 3 and t[3] == 1)
+    table.sort(t, function(x, y) return x < y end)
+    assert(t[1] == 1 and t[3] == 3)
+end
@@ -0,0 +1,156 @@
+
+-- Each function is called often enough to get compiled (if possible), the results must be the same before
+-- and after compilation.
+local CALLS = 200
+
+local function check(name, f, expected, ...)
+    for n=1,CALLS do
+        local actual = f(...)
+        if actual ~= expected then
+            error(name .. " call " .. n .. ": expected " .. tostring(expected) .. ", got " .. tostring(actual))
+        end
+    end
+end
+
+-- Arithmetic, including overflow to double, string coercion and metamethods
+local function arith(a, b)
+    return (a + b) * 2 - a / b + a % b - b ^ 2 + (-a)
+end
+check("arith(int)", arith, 4.5, 7, 2)
+check("arith(overflow)", arith, arith(2147483647, 1), 2147483647, 1)
+check("arith(double)", arith, arith(1.5, 0.25), 1.5, 0.25)
+check("arith(string)", arith, 4.5, "7", "2")
+
+local vmeta = {}
+vmeta.__add = function(a, b) return "add" end
+vmeta.__unm = function(a) return "unm" end
+local function metaAdd(a, b)
+    return a + b
+end
+check("metaAdd", metaAdd, "add", setmetatable({}, vmeta), 1)
+
+-- Comparisons and branches
+local function classify(a, b)
+    if a == b then
+        return "eq"
+    elseif a < b then
+        return "lt"
+    elseif a <= b then
+        return "le"
+    else
+        return "gt"
+    end
+end
+check("classify(int)", classify, "lt", 1, 2)
+check("classify(eq)", classify, "eq", 3, 3)
+check("classify(double)", classify, "gt", 2.5, 1.5)
+check("classify(string)", classify, "lt", "a", "b")
+check("classify(nan)", classify, "gt", 0/0, 0/0)
+
+local function logic(a, b)
+    local x = a and b
+    local y = a or b
+    local z = not a
+    return tostring(x) .. tostring(y) .. tostring(z)
+end
+-- tostring is a call, so this function isn't compiled
+check("logic", logic, "falseniltrue", false, nil)
+
+local function andOr(a, b)
+    return (a and b) or "none"
+end
+check("andOr(1)", andOr, 2, 1, 2)
+check("andOr(2)", andOr, "none", nil, 2)
+check("andOr(3)", andOr, "none", false, false)
+
+-- Numeric for loops, including fractional and negative steps, and loop bounds of the wrong type
+local function sumRange(from, to, step)
+    local sum = 0
+    for i=from,to,step do
+        sum = sum + i
+    end
+    return sum
+end
+check("sumRange(1)", sumRange, 55, 1, 10, 1)
+check("sumRange(2)", sumRange, 2.5, 0, 1, 0.25)
+check("sumRange(3)", sumRange, 30, 10, 0, -2)
+check("sumRange(4)", sumRange, 0, 1, 0, 1)
+check("sumRange(5)", sumRange, 0, 1, 0/0, 1)
+
+local function countLoops(n)
+    local count = 0
+    for i=1,n do
+        for j=1,n do
+            count = count + 1
+        end
+    end
+    return count
+end
+check("countLoops", countLoops, 100, 10)
+
+local ok, err = pcall(sumRange, {}, 1, 1)
+assert(not ok and string.find(err, "'for' initial value must be a number"), err)
+ok, err = pcall(sumRange, 1, {}, 1)
+assert(not ok and string.find(err, "'for' limit must be a number"), err)
+
+-- While loops
+local function collatz(n)
+    local steps = 0
+    while n ~= 1 do
+        if n % 2 == 0 then
+            n = n / 2
+        else
+            n = 3 * n + 1
+        end
+        steps = steps + 1
+    end
+    return steps
+end
+check("collatz", collatz, 111, 27)
+
+-- Tables, globals and upvalues
+gcounter = 0
+local upvalue = 0
+local function tables(key)
+    local t = { 1, 2, 3, x = "x" }
+    t[key] = t.x .. key
+    t.y = #t
+    gcounter = gcounter + 1
+    upvalue = upvalue + 1
+    return t[key] .. t.y .. t[2]
+end
+check("tables", tables, "xk32", "k")
+assert(gcounter == CALLS, gcounter)
+assert(upvalue == CALLS, upvalue)
+
+local proto = { value = "proto" }
+local function index(t)
+    return t.value
+end
+check("index", index, "proto", setmetatable({}, { __index = proto }))
+
+-- String concatenation
+local function concat(a, b, c)
+    return a .. b .. c, a .. b
+end
+check("concat", concat, "abc", "a", "b", "c")
+check("concat(number)", concat, "123", 1, 2, 3)
+
+-- Multiple return values
+local function multi(a, b)
+    return b, a, nil
+end
+for n=1,CALLS do
+    local x, y, z = multi(1, 2)
+    assert(x == 2 and y == 1 and z == nil)
+    assert(select("#", multi(1, 2)) == 3)
+end
+
+-- Errors are raised the same way
+local function fail(t)
+    return t.x.y
+end
+for n=1,CALLS do
+    local ok, err = pcall(fail, {})
+    assert(not ok)
+end
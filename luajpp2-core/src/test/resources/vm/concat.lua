@@ -0,0 +1,39 @@
+-- Concatenation of strings and numbers is done in a single pass. Check that the results are the same as for
+-- the generic implementation.
+
+local function concat3(a, b, c)
+    return a .. b .. c
+end
+
+assert(concat3("a", "b", "c") == "abc")
+assert(concat3("", "", "") == "")
+assert(concat3(1, 2, 3) == "123")
+assert(concat3(-1, 0, 10) == "-1010")
+assert(concat3("x", 2147483647, -2147483648) == "x2147483647-2147483648")
+assert(concat3(1.5, "|", 2^53) == "1.5|9007199254740992")
+assert(concat3(-0.0, " ", 1e15) == "0 1000000000000000")
+assert(concat3(0/0, " ", 1/0) == "nan inf")
+assert("a" .. 1 == "a1")
+assert(1 .. 2 == "12")
+
+local s = "abcdefghijklmnopqrstuvwxyz"
+local long = s .. s .. s .. s .. s .. s .. s .. s .. s .. s .. s .. s
+assert(#long == 12 * 26)
+assert(long:sub(301) == "opqrstuvwxyz")
+
+-- Metamethods are still called, in the right order
+local mt = { __concat = function(a, b)
+    local l = (type(a) == "table" and "T" or a)
+    local r = (type(b) == "table" and "T" or b)
+    return l .. r
+end }
+local t = setmetatable({}, mt)
+assert(concat3("a", t, "c") == "aTc")
+assert(concat3(t, 1, 2) == "T12")
+assert(concat3(1, 2, t) == "12T")
+
+-- Errors for values that can't be concatenated
+local ok, err = pcall(concat3, "a", nil, "c")
+assert(not ok and string.find(err, "concatenate"), err)
+ok, err = pcall(concat3, "a", {}, "c")
+assert(not ok and string.find(err, "concatenate"), err)
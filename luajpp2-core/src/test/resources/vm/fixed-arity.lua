@@ -0,0 +1,44 @@
+-- Java functions with a fixed number of arguments (zero, one, two, three) are registered by the test
+
+local function count(...) return select("#", ...) end
+
+-- Exact, missing and extra arguments
+assert(zero() == "zero")
+assert(zero(1, 2, 3, 4, 5) == "zero")
+assert(one(1) == 2)
+assert(one(1, 2, 3, 4) == 2)
+assert(two(1) == "1,nil")
+assert(two(1, 2) == "1,2")
+assert(two(1, 2, 3) == "1,2")
+assert(three() == "nil,nil,nil")
+assert(three(1, 2) == "1,2,nil")
+assert(three(1, 2, 3, 4) == "1,2,3")
+
+-- Variable number of arguments
+local function pass(...) return ... end
+assert(two(pass(1, 2, 3)) == "1,2")
+assert(three(1, pass(2)) == "1,2,nil")
+
+-- Number of results: none, one, more than one, variable
+one(1)
+local x = one(1)
+assert(x == 2)
+local a, b, c = one(2)
+assert(a == 3 and b == nil and c == nil)
+assert(count(one(1)) == 1)
+assert(count(zero(), one(1)) == 2)
+local t = { two(1, 2), one(3) }
+assert(#t == 2 and t[1] == "1,2" and t[2] == 4)
+
+-- Results in the same registers as the arguments
+local n = 0
+for i=1,10 do
+    n = one(n)
+end
+assert(n == 10)
+
+-- Errors
+local ok, err = pcall(one, "x")
+assert(not ok and string.find(err, "expected"), err)
+ok, err = pcall(function() local r = one({}) return r end)
+assert(not ok and string.find(err, "expected"), err)
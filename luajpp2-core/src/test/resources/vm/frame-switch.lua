@@ -0,0 +1,83 @@
+-- Calls and returns between Lua functions switch frames without leaving the interpreter loop. Mix them with
+-- calls through Java functions, which enter the interpreter recursively.
+
+local function fib(n)
+    if n < 2 then
+        return n
+    end
+    return fib(n - 1) + fib(n - 2)
+end
+assert(fib(20) == 6765)
+
+-- Return value counts: fixed, multiple, variable and none
+local function none() end
+local function multi(...) return ... end
+local function count(...) return select("#", ...) end
+assert(none() == nil)
+assert(count(none()) == 0)
+assert(count(multi(1, nil, 3)) == 3)
+local a, b, c, d = multi(1, 2, 3)
+assert(a == 1 and b == 2 and c == 3 and d == nil)
+local t = { multi(1, 2, 3), multi(4, 5) }
+assert(#t == 3 and t[1] == 1 and t[2] == 4 and t[3] == 5)
+
+-- Tail calls
+local function countdown(n)
+    if n == 0 then
+        return "done"
+    end
+    return countdown(n - 1)
+end
+assert(countdown(1000) == "done")
+
+-- Java functions calling back into Lua
+local values = { 5, 3, 8, 1 }
+table.sort(values, function(x, y) return fib(x) < fib(y) end)
+assert(table.concat(values, ",") == "1,3,5,8")
+assert(string.gsub("abc", "%w", function(s) return multi(s .. s) end) == "aabbcc")
+
+-- Errors thrown from nested Lua frames, caught by a Java function
+local function fail(n)
+    if n == 0 then
+        error("fail")
+    end
+    return fail(n - 1) + 1
+end
+for n=1,3 do
+    local ok, err = pcall(fail, 5)
+    assert(not ok and string.find(err, "fail"))
+    assert(fib(5) == 5)
+end
+
+-- Coroutines yielding from nested Lua frames
+local function producer(n)
+    for i=1,n do
+        coroutine.yield(multi(i))
+    end
+    return "end"
+end
+local co = coroutine.create(function()
+    return producer(4)
+end)
+local sum = 0
+while true do
+    local ok, value = coroutine.resume(co)
+    assert(ok, value)
+    if value == "end" then
+        break
+    end
+    sum = sum + value
+end
+assert(sum == 10)
+
+-- Upvalues are closed when returning to the caller
+local function makeCounter()
+    local n = 0
+    return function()
+        n = n + 1
+        return n
+    end
+end
+local counter = makeCounter()
+counter()
+assert(counter() == 2)
@@ -0,0 +1,68 @@
+-- Each global variable access is done from the same function multiple times, so the inline caches are used
+
+local function getter()
+    return function() return cachedGlobal end
+end
+local function setter()
+    return function(v) cachedGlobal = v end
+end
+
+local get = getter()
+local set = setter()
+
+local function assertGet(f, expected)
+    for i=1,3 do
+        assert(f() == expected, "expected " .. tostring(expected) .. ", got " .. tostring(f()))
+    end
+end
+
+-- Plain globals
+set(1)
+assertGet(get, 1)
+set("str")
+assertGet(get, "str")
+set(nil)
+assertGet(get, nil)
+rawset(_G, "cachedGlobal", 2)
+assertGet(get, 2)
+
+-- Sandboxed environment falling back to _G
+local sandbox = setmetatable({}, { __index = _G })
+setfenv(get, sandbox)
+setfenv(set, sandbox)
+assertGet(get, 2)
+cachedGlobal = 3
+assertGet(get, 3)
+set(4) -- Creates a new variable in the sandbox
+assertGet(get, 4)
+assert(cachedGlobal == 3)
+set(nil)
+assertGet(get, 3)
+
+-- Changes to the metatable of the sandbox
+local other = { cachedGlobal = 5 }
+getmetatable(sandbox).__index = other
+assertGet(get, 5)
+setmetatable(sandbox, { __index = _G })
+assertGet(get, 3)
+setmetatable(sandbox, { __index = function(t, k) return "fn:" .. k end })
+assertGet(get, "fn:cachedGlobal")
+setmetatable(sandbox, nil)
+assertGet(get, nil)
+
+-- Switching between environments
+local envs = {}
+for i=1,10 do
+    envs[i] = setmetatable({ cachedGlobal = (i % 2 == 0 and i or nil) }, { __index = other })
+end
+for n=1,3 do
+    for i=1,10 do
+        setfenv(get, envs[i])
+        assertGet(get, (i % 2 == 0 and i or 5))
+    end
+end
+setfenv(get, _G)
+assertGet(get, 3)
+assert(getfenv(get) == _G)
+
+cachedGlobal = nil
@@ -0,0 +1,111 @@
+-- Numeric for loops keep their control state outside the visible loop variable
+
+local function collect(init, limit, step)
+    local result = {}
+    for i=init,limit,step do
+        result[#result + 1] = i
+    end
+    return table.concat(result, ",")
+end
+
+-- Integer, negative and fractional steps
+assert(collect(1, 5, 1) == "1,2,3,4,5")
+assert(collect(5, 1, -2) == "5,3,1")
+assert(collect(1, 2, 0.25) == "1,1.25,1.5,1.75,2")
+assert(collect(1, 0, -0.5) == "1,0.5,0")
+assert(collect(1, 0, 1) == "")
+assert(collect("2", "4", "1") == "2,3,4") -- Strings are converted to numbers
+
+-- Index values near the limits of the int range
+assert(collect(2147483646, 2147483648, 1) == "2147483646,2147483647,2147483648")
+assert(collect(-2147483647, -2147483649, -1) == "-2147483647,-2147483648,-2147483649")
+
+-- Loop variable isn't used in the body
+local count = 0
+for i=1,1000 do
+    count = count + 1
+end
+assert(count == 1000)
+
+-- Assigning to the loop variable doesn't change the number of iterations
+count = 0
+for i=1,10 do
+    i = i * 100
+    count = count + 1
+end
+assert(count == 10)
+
+-- The loop variable used as an operand of arithmetic, comparisons and table accesses
+local squares, evens, total = {}, 0, 0
+for i=1,10 do
+    squares[i] = i * i
+    if i % 2 == 0 and i <= 8 then
+        evens = evens + 1
+    end
+    total = total + -i + 2 ^ 0
+end
+assert(squares[1] == 1 and squares[10] == 100)
+assert(evens == 4)
+assert(total == -45)
+local halves = {}
+for i=0.5,1.5,0.5 do
+    halves[i] = i + 0
+end
+assert(halves[0.5] == 0.5 and halves[1] == 1 and halves[1.5] == 1.5)
+local big = { [100000] = "x" }
+for i=100000,100000 do
+    assert(big[i] == "x" and 100000 == i and i < 100001)
+end
+
+-- Metamethods and error messages get a regular number
+local mt = { __add = function(a, b) return type(b) end, __index = function(t, k) return type(k) end }
+local obj = setmetatable({}, mt)
+for i=1,1 do
+    assert(obj + i == "number")
+    assert(obj[i] == "number")
+    local ok, err = pcall(function() return {} < i end)
+    assert(not ok and not string.find(err, "for state"), err)
+end
+
+-- Nested loops, early exit and reentry
+local sum = 0
+for i=1,10 do
+    for j=1,1000 do
+        if j > i then
+            break
+        end
+        sum = sum + j
+    end
+    for j=1,3 do
+        sum = sum + 1
+    end
+end
+assert(sum == 250, sum)
+
+-- Closures capture the value of the loop variable for each iteration
+local funcs = {}
+for i=1,3 do
+    funcs[i] = function() return i end
+end
+assert(funcs[1]() == 1 and funcs[2]() == 2 and funcs[3]() == 3)
+
+-- Loops survive a yield
+local seen = {}
+for i=300,302 do
+    coroutine.yield()
+    seen[#seen + 1] = i
+end
+assert(table.concat(seen, ",") == "300,301,302")
+
+-- The debug library sees the loop index as a number
+local function getForIndex()
+    for i=1000,1000 do
+        local name, value = debug.getlocal(1, 1)
+        return name, value
+    end
+end
+local name, value = getForIndex()
+if name ~= nil then -- Local variable info is only available in debug mode
+    assert(name == "(for index)", name)
+    assert(value == 1000, tostring(value))
+end
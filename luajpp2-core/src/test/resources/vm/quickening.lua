@@ -0,0 +1,63 @@
+-- Functions called often enough are quickened. The specialized instructions must behave like the originals.
+
+local mt = {
+    __add = function(l, r) return "add" end,
+    __sub = function(l, r) return "sub" end,
+    __lt = function(l, r) return true end,
+    __le = function(l, r) return false end,
+}
+
+local function arith(x)
+    return x + 1, x - 1
+end
+
+local function compare(x, y)
+    local result = ""
+    if x == y then result = result .. "eq" end
+    if x < y then result = result .. "lt" end
+    if x <= y then result = result .. "le" end
+    if x then result = result .. "t" end
+    return result
+end
+
+local function equals(x, y)
+    if x == y then
+        return true
+    end
+    return false
+end
+
+local function loop(n)
+    local i, sum = 0, 0
+    while i < n do
+        i = i + 1
+        sum = sum + i
+    end
+    return sum
+end
+
+for n=1,100 do
+    local a, b = arith(5)
+    assert(a == 6 and b == 4)
+    a, b = arith(2147483647)
+    assert(a == 2147483648 and b == 2147483646)
+    a, b = arith(1.5)
+    assert(a == 2.5 and b == 0.5)
+    a, b = arith("10")
+    assert(a == 11 and b == 9)
+    a, b = arith(setmetatable({}, mt))
+    assert(a == "add" and b == "sub")
+
+    assert(compare(1, 2) == "ltlet")
+    assert(compare(2, 2) == "eqlet")
+    assert(compare(3, 2) == "t")
+    assert(compare(1.5, 2) == "ltlet")
+    assert(compare("a", "b") == "ltlet")
+    assert(equals(false, false) and equals(nil, nil) and not equals(nil, false))
+    assert(equals("x", "x") and not equals("1", 1))
+    local o1, o2 = setmetatable({}, mt), setmetatable({}, mt)
+    assert(compare(o1, o2) == "ltt")
+    assert(not pcall(compare, 1, "2"))
+
+    assert(loop(10) == 55)
+end
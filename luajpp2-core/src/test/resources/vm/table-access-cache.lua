@@ -0,0 +1,102 @@
+-- Each access is done from the same instruction multiple times, so the inline caches are used
+
+local function get(t) return t.x end
+local function set(t, v) t.x = v end
+local function call(t) return t:method() end
+
+local function assertGet(t, expected)
+    for i=1,3 do
+        assert(get(t) == expected, "expected " .. tostring(expected) .. ", got " .. tostring(get(t)))
+    end
+end
+
+-- Own keys
+local t = { x = 1 }
+assertGet(t, 1)
+set(t, 2)
+assertGet(t, 2)
+set(t, "str") -- Entry type changes from number to non-number
+assertGet(t, "str")
+set(t, nil)
+assertGet(t, nil)
+set(t, 3)
+assertGet(t, 3)
+for i=1,100 do t["key" .. i] = i end -- Force rehash
+assertGet(t, 3)
+set(t, 4)
+assertGet(t, 4)
+assert(rawget(t, "x") == 4)
+
+-- Lookup through __index table
+local class = { x = "class" }
+local mt = { __index = class }
+local obj = setmetatable({}, mt)
+assertGet(obj, "class")
+class.x = "class2"
+assertGet(obj, "class2")
+obj.x = "own"
+assertGet(obj, "own")
+obj.x = nil
+assertGet(obj, "class2")
+class.x = nil
+assertGet(obj, nil)
+class.x = "class3"
+assertGet(obj, "class3")
+
+-- Changing __index
+local class2 = { x = "other class" }
+mt.__index = class2
+assertGet(obj, "other class")
+mt.__index = function(t, k) return "function" end
+assertGet(obj, "function")
+mt.__index = class
+assertGet(obj, "class3")
+
+-- Changing the metatable
+setmetatable(obj, { __index = class2 })
+assertGet(obj, "other class")
+setmetatable(obj, nil)
+assertGet(obj, nil)
+
+-- Multiple objects sharing a metatable
+local objs = {}
+for i=1,10 do objs[i] = setmetatable({}, mt) end
+objs[5].x = "five"
+for i=1,10 do
+    assertGet(objs[i], i == 5 and "five" or "class3")
+end
+
+-- More different tables than the cache can hold
+for i=1,10 do
+    assertGet({ x = i }, i)
+end
+
+-- Methods
+function class:method() return "method" end
+assertGet(obj, nil)
+setmetatable(obj, mt)
+for i=1,3 do assert(call(obj) == "method") end
+function class:method() return "method2" end
+for i=1,3 do assert(call(obj) == "method2") end
+
+-- Weak tables
+local weak = setmetatable({ x = "weak" }, { __mode = "v" })
+assertGet(weak, "weak")
+set(weak, "weak2")
+assertGet(weak, "weak2")
+
+-- __newindex isn't called for existing keys, but is called for new ones
+local log = {}
+local proxy = setmetatable({ x = 1 }, { __newindex = function(t, k, v) log[#log + 1] = v end })
+set(proxy, 2)
+set(proxy, 3)
+assert(#log == 0)
+set(proxy, nil)
+set(proxy, 4)
+assert(#log == 1 and log[1] == 4)
+assertGet(proxy, nil)
+
+-- Non-table values
+assert(get("abc") == nil)
+local ok = pcall(get, 1)
+assert(not ok)
@@ -0,0 +1,129 @@
+-- select() and unpack() are handled by the interpreter when possible, check that they behave the same as the
+-- library functions in every situation.
+
+local function count(...) return select("#", ...) end
+local function pack(...) return { n = select("#", ...), ... } end
+local function join(...)
+    local t = pack(...)
+    for i=1,t.n do
+        t[i] = tostring(t[i])
+    end
+    return table.concat(t, ",")
+end
+
+-- select('#')
+assert(count() == 0)
+assert(count(nil) == 1)
+assert(count(1, nil, 3, nil) == 4)
+assert(select("#") == 0)
+
+-- select(n), with fixed and variable numbers of results
+assert(join(select(1, "a", "b", "c")) == "a,b,c")
+assert(join(select(2, "a", "b", "c")) == "b,c")
+assert(join(select(3, "a", "b", "c")) == "c")
+assert(join(select(4, "a", "b", "c")) == "")
+assert(join(select(-1, "a", "b", "c")) == "c")
+assert(join(select(-3, "a", "b", "c")) == "a,b,c")
+assert(join(select(2.0, "a", "b")) == "b")
+assert(join(select("2", "a", "b")) == "b")
+local x, y, z = select(2, "a", "b")
+assert(x == "b" and y == nil and z == nil)
+
+local function tail(n, ...) return select(n, ...) end
+assert(join(tail(1, 1, 2, 3)) == "1,2,3")
+assert(join(tail(2, 1, 2, 3)) == "2,3")
+assert(join(tail(-2, 1, nil, 3)) == "nil,3")
+local function tail2(n, ...) return select(n, "x", "y", ...) end
+assert(join(tail2(1, 1, 2)) == "x,y,1,2")
+assert(join(tail2(2, 1, 2)) == "y,1,2")
+assert(join(tail2(3, 1, 2)) == "1,2")
+assert(join(tail2(4, 1, 2)) == "2")
+assert(join(tail2(-1, 1, 2)) == "2")
+assert(join(tail2(-3, 1, 2)) == "y,1,2")
+
+-- select() errors
+assert(not pcall(select, 0, "a"))
+assert(not pcall(select, -2, "a"))
+assert(not pcall(select, {}))
+local ok, err = pcall(function() return select(0, "a") end)
+assert(not ok and string.find(err, "index out of range"), err)
+ok, err = pcall(function(...) return select(-3, ...) end, 1, 2)
+assert(not ok and string.find(err, "index out of range"), err)
+ok, err = pcall(select, 0, 1)
+assert(not ok and string.find(err, "Error invoking Java method: select", 1, true) == 1, err)
+
+-- unpack(), with fixed and variable numbers of results
+local t = { "a", "b", "c" }
+assert(join(unpack(t)) == "a,b,c")
+assert(join(unpack(t, 2)) == "b,c")
+assert(join(unpack(t, 2, 5)) == "b,c,nil,nil")
+assert(join(unpack(t, nil, 2)) == "a,b")
+assert(join(unpack(t, 3, 2)) == "")
+assert(join(unpack(t, -1, 1)) == "nil,nil,a")
+assert(join(unpack({})) == "")
+assert(join(unpack({ 1, nil, 3 }, 1, 3)) == "1,nil,3")
+assert(join("x", unpack(t)) == "x,a,b,c")
+assert(join(unpack(t), "x") == "a,x")
+x, y, z = unpack(t, 2)
+assert(x == "b" and y == "c" and z == nil)
+local big = {}
+for i=1,1000 do
+    big[i] = i
+end
+assert(count(unpack(big)) == 1000)
+assert(select(-1, unpack(big)) == 1000)
+
+-- unpack() uses the __index metamethod
+local proxy = setmetatable({}, { __index = function(_, k) return k * 2 end })
+assert(join(unpack(proxy, 1, 3)) == "2,4,6")
+
+-- unpack() errors
+assert(not pcall(unpack, nil))
+assert(not pcall(unpack, t, "x"))
+ok, err = pcall(function() return unpack("abc") end)
+assert(not ok and string.find(err, "table expected"), err)
+ok, err = pcall(unpack, nil)
+assert(not ok and string.find(err, "Error invoking Java method: unpack", 1, true) == 1, err)
+
+-- Varargs forwarded unchanged to vararg functions
+local function forward0(...) return join(...) end
+local function forward1(a, ...) return a .. ":" .. join(...) end
+local function forwardTo1(...) return forward1(...) end
+local function forwardTo1b(a, ...) return forward1(a, ...) end
+assert(forward0() == "")
+assert(forward0(1, nil, 3) == "1,nil,3")
+assert(forwardTo1(1, 2, 3) == "1:2,3")
+assert(forwardTo1b(1, 2, 3) == "1:2,3")
+assert(forwardTo1b(1) == "1:")
+
+local function old(...) return arg.n .. ":" .. join(unpack(arg, 1, arg.n)) end
+local function forwardOld(...) return old(...) end
+assert(forwardOld(1, nil, 3) == "3:1,nil,3")
+
+-- The forwarded varargs are unaffected by changes to the registers of the callee
+local function clobber(...)
+    local a, b, c = 7, 8, 9
+    return join(...) .. "|" .. a .. b .. c
+end
+local function forwardClobber(x, ...)
+    local s = clobber(...)
+    return s .. "|" .. join(...)
+end
+assert(forwardClobber(0, 1, 2) == "1,2|789|1,2")
+
+-- Forwarded varargs stay valid while the coroutine is suspended
+local co = coroutine.create(function()
+    local function inner(...)
+        coroutine.yield(join(...))
+        return count(...)
+    end
+    local function outer(...)
+        local n = inner(...)
+        return n .. ":" .. join(...)
+    end
+    return outer(1, nil, 3)
+end)
+local _, first = coroutine.resume(co)
+assert(first == "1,nil,3")
+local _, second = coroutine.resume(co)
+assert(second == "3:1,nil,3")
@@ -0,0 +1,338 @@
+package nl.weeaboo.lua2.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a dispatcher class for each class containing methods annotated with {@code LuaBoundFunction}. The
+ * dispatcher calls those methods directly, so {@code LuaLib} doesn't have to call them through reflection.
+ * <p>
+ * The generated class is placed in the same package as the annotated class. Its name is the binary name of the
+ * annotated class without the package, with {@code '$'} replaced by {@code '_'}, followed by
+ * {@value #CLASS_SUFFIX}. It implements {@code ILuaFunctionDispatcher}.
+ */
+public final class LuaBoundFunctionProcessor extends AbstractProcessor {
+
+    private static final String ANNOTATION_NAME = "nl.weeaboo.lua2.lib.LuaBoundFunction";
+    private static final String VARARGS_NAME = "nl.weeaboo.lua2.vm.Varargs";
+    private static final String DISPATCHER_NAME = "nl.weeaboo.lua2.lib.ILuaFunctionDispatcher";
+    private static final String CLASS_SUFFIX = "_LuaDispatcher";
+    private static final String LUA_VALUE_NAME = "nl.weeaboo.lua2.vm.LuaValue";
+    private static final String LUA_INTEGER_NAME = "nl.weeaboo.lua2.vm.LuaInteger";
+    private static final int MAX_FIXED_ARITY = 3;
+
+    /** Conversion from a Lua value ({@code %s}) for each supported parameter type. */
+    private static final Map<String, String> ARG_CONVERSIONS = new LinkedHashMap<>();
+
+    static {
+        ARG_CONVERSIONS.put(LUA_VALUE_NAME, "%s");
+        ARG_CONVERSIONS.put("nl.weeaboo.lua2.vm.LuaString", "%s.checkstring()");
+        ARG_CONVERSIONS.put("nl.weeaboo.lua2.vm.LuaTable", "%s.checktable()");
+        ARG_CONVERSIONS.put("nl.weeaboo.lua2.vm.LuaFunction", "%s.checkfunction()");
+        ARG_CONVERSIONS.put("java.lang.String", "%s.checkjstring()");
+        ARG_CONVERSIONS.put("int", "%s.checknumber().toint()");
+        ARG_CONVERSIONS.put("long", "%s.checknumber().tolong()");
+        ARG_CONVERSIONS.put("double", "%s.checknumber().todouble()");
+        ARG_CONVERSIONS.put("boolean", "%s.toboolean()");
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton(ANNOTATION_NAME);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement annotation = processingEnv.getElementUtils().getTypeElement(ANNOTATION_NAME);
+        if (annotation == null) {
+            return false;
+        }
+
+        // Group the annotated methods by the class that declares them
+        Map<TypeElement, List<ExecutableElement>> methodsByType = new LinkedHashMap<>();
+        for (Element elem : roundEnv.getElementsAnnotatedWith(annotation)) {
+            if (elem.getKind() != ElementKind.METHOD) {
+                continue;
+            }
+            ExecutableElement method = (ExecutableElement)elem;
+            if (!isDispatchable(method)) {
+                // The method can't be registered anyway, LuaLib reports an error at runtime
+                continue;
+            }
+
+            TypeElement type = (TypeElement)method.getEnclosingElement();
+            List<ExecutableElement> methods = methodsByType.get(type);
+            if (methods == null) {
+                methods = new ArrayList<>();
+                methodsByType.put(type, methods);
+            }
+            methods.add(method);
+        }
+
+        for (Map.Entry<TypeElement, List<ExecutableElement>> entry : methodsByType.entrySet()) {
+            TypeElement type = entry.getKey();
+            if (!isAccessibleFromPackage(type)) {
+                continue;
+            }
+
+            try {
+                writeDispatcher(type, withoutOverloads(entry.getValue()));
+            } catch (IOException ioe) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Unable to generate dispatcher: " + ioe, type);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes overloaded methods. The dispatcher looks up methods by name only, so overloads are left to
+     * reflection.
+     */
+    private static List<ExecutableElement> withoutOverloads(List<ExecutableElement> methods) {
+        Map<String, Integer> nameCounts = new HashMap<>();
+        for (ExecutableElement method : methods) {
+            String name = method.getSimpleName().toString();
+            Integer count = nameCounts.get(name);
+            nameCounts.put(name, (count == null ? 1 : count + 1));
+        }
+
+        List<ExecutableElement> result = new ArrayList<>();
+        for (ExecutableElement method : methods) {
+            if (nameCounts.get(method.getSimpleName().toString()) == 1) {
+                result.add(method);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks if the method has a signature supported by {@code LuaLib}: either a single {@code Varargs}
+     * parameter, or only parameters of the types in {@link #ARG_CONVERSIONS}.
+     */
+    private boolean isDispatchable(ExecutableElement method) {
+        if (!method.getModifiers().contains(Modifier.PUBLIC) || getReturnKind(method) == null) {
+            return false;
+        }
+        if (isVarargsMethod(method)) {
+            return true;
+        }
+        for (VariableElement param : method.getParameters()) {
+            if (!ARG_CONVERSIONS.containsKey(param.asType().toString())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isVarargsMethod(ExecutableElement method) {
+        List<? extends VariableElement> params = method.getParameters();
+        return params.size() == 1 && params.get(0).asType().toString().equals(VARARGS_NAME);
+    }
+
+    /**
+     * Methods with a fixed number of parameters (at most {@value #MAX_FIXED_ARITY}) which return a single value
+     * can be called without {@code Varargs}, see {@code LibFunction.getFixedArity()}.
+     */
+    private boolean isFixedArity(ExecutableElement method) {
+        ReturnKind returnKind = getReturnKind(method);
+        return !isVarargsMethod(method)
+                && method.getParameters().size() <= MAX_FIXED_ARITY
+                && returnKind != ReturnKind.VARARGS
+                && returnKind != ReturnKind.VOID;
+    }
+
+    /** Returns {@code null} if the return type isn't supported. */
+    private ReturnKind getReturnKind(ExecutableElement method) {
+        TypeMirror returnType = method.getReturnType();
+        switch (returnType.getKind()) {
+        case VOID:
+            return ReturnKind.VOID;
+        case INT:
+        case LONG:
+        case DOUBLE:
+        case BOOLEAN:
+            return ReturnKind.PRIMITIVE;
+        case DECLARED:
+            if (returnType.toString().equals(VARARGS_NAME)) {
+                return ReturnKind.VARARGS;
+            }
+            TypeMirror luaValueType = processingEnv.getElementUtils().getTypeElement(LUA_VALUE_NAME).asType();
+            if (processingEnv.getTypeUtils().isAssignable(returnType, luaValueType)) {
+                return ReturnKind.LUA_VALUE;
+            }
+            return null;
+        default:
+            return null;
+        }
+    }
+
+    /** The generated class is in the same package, so it can't access private classes. */
+    private static boolean isAccessibleFromPackage(TypeElement type) {
+        for (Element elem = type; elem instanceof TypeElement; elem = elem.getEnclosingElement()) {
+            if (elem.getModifiers().contains(Modifier.PRIVATE)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param args Expressions for the arguments, either a single {@code Varargs} or one {@code LuaValue} for
+     *        each parameter.
+     */
+    private static String callExpression(String typeName, ExecutableElement method, String... args) {
+        StringBuilder sb = new StringBuilder();
+        if (method.getModifiers().contains(Modifier.STATIC)) {
+            sb.append(typeName);
+        } else {
+            sb.append("((").append(typeName).append(")object)");
+        }
+        sb.append('.').append(method.getSimpleName()).append('(');
+        for (int n = 0; n < args.length; n++) {
+            if (n > 0) {
+                sb.append(", ");
+            }
+            if (isVarargsMethod(method)) {
+                sb.append(args[n]);
+            } else {
+                String paramType = method.getParameters().get(n).asType().toString();
+                sb.append(String.format(ARG_CONVERSIONS.get(paramType), args[n]));
+            }
+        }
+        return sb.append(')').toString();
+    }
+
+    private String returnExpression(ExecutableElement method, String call) {
+        if (method.getReturnType().getKind() == TypeKind.LONG) {
+            // LuaValue.valueOf(double) would turn every long into a double
+            return LUA_INTEGER_NAME + ".valueOf(" + call + ")";
+        } else if (getReturnKind(method) == ReturnKind.PRIMITIVE) {
+            return LUA_VALUE_NAME + ".valueOf(" + call + ")";
+        }
+        return call;
+    }
+
+    private void writeDispatcher(TypeElement type, List<ExecutableElement> methods) throws IOException {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        String packageName = pkg.getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String simpleName = binaryName.substring(binaryName.lastIndexOf('.') + 1).replace('$', '_') + CLASS_SUFFIX;
+        String typeName = type.getQualifiedName().toString();
+
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(
+                (packageName.isEmpty() ? "" : packageName + ".") + simpleName, type);
+        try (Writer writer = file.openWriter(); PrintWriter out = new PrintWriter(writer)) {
+            if (!packageName.isEmpty()) {
+                out.println("package " + packageName + ";");
+                out.println();
+            }
+            out.println("/** Calls the bound functions of {@link " + typeName + "}. Generated code, don't edit. */");
+            // Bound functions may be deprecated, calling them is still intended
+            out.println("@SuppressWarnings(\"deprecation\")");
+            out.println("public final class " + simpleName + " implements " + DISPATCHER_NAME + " {");
+            out.println();
+
+            out.println("    @Override");
+            out.println("    public int indexOf(String javaMethodName) {");
+            out.println("        switch (javaMethodName) {");
+            for (int n = 0; n < methods.size(); n++) {
+                out.println("        case \"" + methods.get(n).getSimpleName() + "\":");
+                out.println("            return " + n + ";");
+            }
+            out.println("        default:");
+            out.println("            return -1;");
+            out.println("        }");
+            out.println("    }");
+            out.println();
+
+            out.println("    @Override");
+            out.println("    public " + VARARGS_NAME + " call(Object object, int index, " + VARARGS_NAME
+                    + " args) throws Exception {");
+            out.println("        switch (index) {");
+            for (int n = 0; n < methods.size(); n++) {
+                ExecutableElement method = methods.get(n);
+                String call;
+                if (isVarargsMethod(method)) {
+                    call = callExpression(typeName, method, "args");
+                } else {
+                    List<String> args = new ArrayList<>();
+                    for (int p = 1; p <= method.getParameters().size(); p++) {
+                        args.add("args.arg(" + p + ")");
+                    }
+                    call = callExpression(typeName, method, args.toArray(new String[0]));
+                }
+
+                out.println("        case " + n + ":");
+                if (getReturnKind(method) == ReturnKind.VOID) {
+                    out.println("            " + call + ";");
+                    out.println("            return nl.weeaboo.lua2.vm.LuaConstants.NONE;");
+                } else {
+                    out.println("            return " + returnExpression(method, call) + ";");
+                }
+            }
+            out.println("        default:");
+            out.println("            throw new IllegalArgumentException(\"Invalid function index: \" + index);");
+            out.println("        }");
+            out.println("    }");
+            out.println();
+
+            out.println("    @Override");
+            out.println("    public " + LUA_VALUE_NAME + " call(Object object, int index, " + LUA_VALUE_NAME + " arg1, "
+                    + LUA_VALUE_NAME + " arg2, " + LUA_VALUE_NAME + " arg3) throws Exception {");
+            out.println("        switch (index) {");
+            for (int n = 0; n < methods.size(); n++) {
+                ExecutableElement method = methods.get(n);
+                if (!isFixedArity(method)) {
+                    continue;
+                }
+
+                String[] args = { "arg1", "arg2", "arg3" };
+                String call = callExpression(typeName, method,
+                        Arrays.copyOf(args, method.getParameters().size()));
+                out.println("        case " + n + ":");
+                out.println("            return " + returnExpression(method, call) + ";");
+            }
+            out.println("        default:");
+            out.println("            throw new IllegalArgumentException(\"Not a fixed-arity function: \" + index);");
+            out.println("        }");
+            out.println("    }");
+            out.println();
+            out.println("}");
+        }
+    }
+
+    private enum ReturnKind {
+        VOID, VARARGS, LUA_VALUE, PRIMITIVE;
+    }
+
+}